@@ -13,6 +13,7 @@ import org.mozilla.focus.R
 import org.mozilla.focus.ext.components
 import org.mozilla.focus.utils.Browsers
 import org.mozilla.telemetry.TelemetryHolder
+import org.mozilla.telemetry.config.TelemetryConfiguration
 import org.mozilla.telemetry.measurement.SettingsMeasurement
 
 /**
@@ -32,35 +33,41 @@ internal class TelemetrySettingsProvider(
     }
 
     override fun containsKey(key: String): Boolean = when (key) {
-        // Not actually a setting - but we want to report this like a setting.
-        prefKeyDefaultBrowser -> true
-
         // We always want to report the current search engine - even if it's not in settings yet.
         prefKeySearchEngine -> true
 
         else -> super.containsKey(key)
     }
 
-    override fun getValue(key: String): Any {
-        return when (key) {
-            prefKeyDefaultBrowser -> {
-                // The default browser is not actually a setting. We determine if we are the
-                // default and then inject this into telemetry.
-                val context = TelemetryHolder.get().configuration.context
-                val browsers = Browsers(context, Browsers.TRADITIONAL_BROWSER_URL)
-                java.lang.Boolean.toString(browsers.isDefaultBrowser(context))
-            }
-            prefKeySearchEngine -> {
-                // The default search engine is no longer saved using this pref. But we will continue
-                // to report it here until we switch to our new telemetry system (glean).
-                val searchEngine = context.components.store.state.search.selectedOrDefaultSearchEngine
-                if (searchEngine?.type == SearchEngine.Type.CUSTOM) {
-                    "custom"
-                } else {
-                    searchEngine?.name ?: "<none>"
-                }
-            }
-            else -> super.getValue(key)
+    override fun getValue(key: String): Any? = when (key) {
+        prefKeySearchEngine -> getSearchEngine()
+        else -> super.getValue(key)
+    }
+
+    override fun computeValue(key: String): Any? = when (key) {
+        prefKeyDefaultBrowser -> {
+            // The default browser is not actually a setting. We determine if we are the
+            // default and then inject this into telemetry. This queries the package manager and
+            // is therefore only refreshed once per refresh interval.
+            val context = TelemetryHolder.get().configuration.context
+            val browsers = Browsers(context, Browsers.TRADITIONAL_BROWSER_URL)
+            java.lang.Boolean.toString(browsers.isDefaultBrowser(context))
+        }
+        else -> null
+    }
+
+    override fun getCacheToken(configuration: TelemetryConfiguration): Any =
+        // The search engine is read from the store (not the preferences): It is part of the token.
+        listOf(super.getCacheToken(configuration), getSearchEngine())
+
+    private fun getSearchEngine(): String {
+        // The default search engine is no longer saved using this pref. But we will continue
+        // to report it here until we switch to our new telemetry system (glean).
+        val searchEngine = context.components.store.state.search.selectedOrDefaultSearchEngine
+        return if (searchEngine?.type == SearchEngine.Type.CUSTOM) {
+            "custom"
+        } else {
+            searchEngine?.name ?: "<none>"
         }
     }
 }
@@ -37,8 +37,9 @@ import org.mozilla.telemetry.ping.TelemetryCorePingBuilder
 import org.mozilla.telemetry.ping.TelemetryEventPingBuilder
 import org.mozilla.telemetry.ping.TelemetryMobileMetricsPingBuilder
 import org.mozilla.telemetry.schedule.jobscheduler.JobSchedulerTelemetryScheduler
-import org.mozilla.telemetry.serialize.JSONPingSerializer
+import org.mozilla.telemetry.serialize.StreamingJSONPingSerializer
 import org.mozilla.telemetry.storage.FileTelemetryStorage
+import org.mozilla.telemetry.util.BucketHistogram
 import java.net.MalformedURLException
 import java.net.URL
 import java.text.SimpleDateFormat
@@ -61,8 +62,7 @@ object TelemetryWrapper {
     private const val MAXIMUM_CUSTOM_TAB_EXTRAS = 10
 
     private const val HISTOGRAM_SIZE = 200
-    private const val BUCKET_SIZE_MS = 100
-    private const val HISTOGRAM_MIN_INDEX = 0
+    private const val BUCKET_SIZE_MS = 100L
 
     private val isEnabledByDefault: Boolean
         get() = !AppConstants.isKlarBuild
@@ -258,7 +258,7 @@ object TelemetryWrapper {
                     .setUploadEnabled(telemetryEnabled)
                     .setBuildId(TelemetryConfiguration(context).buildId)
 
-            val serializer = JSONPingSerializer()
+            val serializer = StreamingJSONPingSerializer()
             val storage = FileTelemetryStorage(configuration, serializer)
             val client = TelemetryClient(context.components.client.unwrap())
             val scheduler = JobSchedulerTelemetryScheduler()
@@ -326,7 +326,7 @@ object TelemetryWrapper {
         TelemetryEvent.create(Category.ACTION, Method.FOREGROUND, Object.APP).queue()
     }
 
-    @VisibleForTesting var histogram = IntArray(HISTOGRAM_SIZE)
+    @VisibleForTesting val histogram = createLoadHistogram()
     @VisibleForTesting var domainMap = HashSet<String>()
     @VisibleForTesting var numUri = 0
 
@@ -335,33 +335,31 @@ object TelemetryWrapper {
         try {
             domainMap.add(UrlUtils.stripCommonSubdomains(URL(url).host))
             numUri++
-            var histogramLoadIndex = (newLoadTime / BUCKET_SIZE_MS).toInt()
-
-            if (histogramLoadIndex > (HISTOGRAM_SIZE - 2)) {
-                histogramLoadIndex = HISTOGRAM_SIZE - 1
-            } else if (histogramLoadIndex < HISTOGRAM_MIN_INDEX) {
-                histogramLoadIndex = HISTOGRAM_MIN_INDEX
-            }
-
-            histogram[histogramLoadIndex]++
+            histogram.record(newLoadTime)
         } catch (e: MalformedURLException) {
             // ignore invalid URLs
         }
     }
 
+    /**
+     * Buckets of 100ms: The first bucket counts all loads below 100ms, the last bucket all loads of
+     * 19900ms or more.
+     */
+    private fun createLoadHistogram() =
+        BucketHistogram(*LongArray(HISTOGRAM_SIZE - 1) { (it + 1) * BUCKET_SIZE_MS })
+
     @JvmStatic
     fun stopSession() {
         TelemetryHolder.get().recordSessionEnd()
 
+        // Reset the histogram while queueing its counts
+        val loads = histogram.copyAndReset()
         val histogramEvent = TelemetryEvent.create(Category.HISTOGRAM, Method.FOREGROUND, Object.BROWSER)
-        for (bucketIndex in histogram.indices) {
-            histogramEvent.extra((bucketIndex * BUCKET_SIZE_MS).toString(), histogram[bucketIndex].toString())
+        for (bucketIndex in 0 until loads.bucketCount) {
+            histogramEvent.extra((bucketIndex * BUCKET_SIZE_MS).toString(), loads.getCount(bucketIndex).toString())
         }
         histogramEvent.queue()
 
-        // Clear histogram array after queueing it
-        histogram = IntArray(HISTOGRAM_SIZE)
-
         TelemetryEvent.create(Category.ACTION, Method.OPEN, Object.BROWSER).extra(
                 Extra.UNIQUE_DOMAINS_COUNT,
                 domainMap.size.toString()
@@ -375,6 +373,9 @@ object TelemetryWrapper {
         numUri = 0
 
         TelemetryEvent.create(Category.ACTION, Method.BACKGROUND, Object.APP).queue()
+
+        // The app might get killed in the background: Write all buffered events to disk.
+        TelemetryHolder.get().flush()
     }
 
     @JvmStatic
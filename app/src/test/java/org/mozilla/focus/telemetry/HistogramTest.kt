@@ -19,14 +19,15 @@ class HistogramTest {
         TelemetryWrapper.addLoadToHistogram("https://www.mozilla.org", 99L)
         TelemetryWrapper.addLoadToHistogram("https://www.mozilla.org/en-US/MPL/", 199L)
 
-        val desiredHistogram = IntArray(200)
+        val desiredHistogram = LongArray(200)
         desiredHistogram[0] = 1
         desiredHistogram[1] = 1
         val desiredNumUri = 2
         val desiredDomainMap = HashSet<String>()
         desiredDomainMap.add("mozilla.org")
 
-        val actualHistogram = TelemetryWrapper.histogram
+        val histogram = TelemetryWrapper.histogram
+        val actualHistogram = LongArray(histogram.bucketCount) { histogram.getCount(it) }
         val actualNumUri = TelemetryWrapper.numUri
         val actualDomainMap = TelemetryWrapper.domainMap
 
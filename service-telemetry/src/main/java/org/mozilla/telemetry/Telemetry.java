@@ -10,12 +10,17 @@ import androidx.annotation.RestrictTo;
 import androidx.annotation.VisibleForTesting;
 
 import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.event.EventAggregator;
+import org.mozilla.telemetry.event.EventRingBuffer;
 import org.mozilla.telemetry.event.TelemetryEvent;
+import org.mozilla.telemetry.executor.ExecutorStats;
+import org.mozilla.telemetry.executor.TelemetryExecutor;
 import org.mozilla.telemetry.measurement.ClientIdMeasurement;
 import org.mozilla.telemetry.measurement.DefaultSearchMeasurement;
 import org.mozilla.telemetry.measurement.EventsMeasurement;
 import org.mozilla.telemetry.measurement.ExperimentsMapMeasurement;
 import org.mozilla.telemetry.net.TelemetryClient;
+import org.mozilla.telemetry.net.UploadRateLimiter;
 import org.mozilla.telemetry.ping.TelemetryCorePingBuilder;
 import org.mozilla.telemetry.ping.TelemetryEventPingBuilder;
 import org.mozilla.telemetry.ping.TelemetryMobileEventPingBuilder;
@@ -25,12 +30,13 @@ import org.mozilla.telemetry.ping.TelemetryPocketEventPingBuilder;
 import org.mozilla.telemetry.schedule.TelemetryScheduler;
 import org.mozilla.telemetry.storage.TelemetryStorage;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import kotlin.Unit;
 import kotlin.jvm.functions.Function0;
@@ -47,7 +53,20 @@ public class Telemetry {
     private final TelemetryScheduler scheduler;
 
     private final Map<String, TelemetryPingBuilder> pingBuilders;
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final TelemetryExecutor executor;
+    private UploadRateLimiter uploadRateLimiter;
+
+    private final EventRingBuffer eventQueue;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final EventAggregator eventAggregator;
+    private final List<TelemetryEvent> aggregatedEvents = new ArrayList<>();
+    private final List<TelemetryEvent> heldBackEvents = new ArrayList<>();
+    private final Runnable drainEventsTask = new Runnable() {
+        @Override
+        public void run() {
+            drainEvents();
+        }
+    };
 
     public Telemetry(TelemetryConfiguration configuration, TelemetryStorage storage,
                      TelemetryClient client, TelemetryScheduler scheduler) {
@@ -57,10 +76,27 @@ public class Telemetry {
         this.scheduler = scheduler;
 
         pingBuilders = new HashMap<>();
+        eventQueue = new EventRingBuffer(configuration.getEventQueueCapacity(), configuration.getEventOverflowPolicy());
+        eventAggregator = new EventAggregator(configuration);
+
+        executor = new TelemetryExecutor(configuration.getExecutorQueueCapacity(), configuration.getExecutorRejectionPolicy()) {
+            @Override
+            protected void onTaskDropped(Runnable task) {
+                if (task == drainEventsTask) {
+                    // The queued events have not been drained: The next event needs to schedule a run.
+                    drainScheduled.set(false);
+                }
+            }
+        };
     }
 
     public Telemetry addPingBuilder(TelemetryPingBuilder builder) {
         pingBuilders.put(builder.getType(), builder);
+
+        if (builder instanceof TelemetryCorePingBuilder) {
+            ((TelemetryCorePingBuilder) builder).getExecutorStatsMeasurement().setStats(executor.getStats());
+        }
+
         return this;
     }
 
@@ -77,55 +113,181 @@ public class Telemetry {
             return this;
         }
 
-        executor.submit(new Runnable() {
+        executor.execute(new Runnable() {
             @Override
             public void run() {
-                final TelemetryPingBuilder pingBuilder = pingBuilders.get(pingType);
-
-                if (!pingBuilder.canBuild()) {
-                    // We do not always want to build a ping. Sometimes we want to collect enough data so that
-                    // it is worth sending a ping. Here we exit early if the ping builder implementation
-                    // signals that it's not time to build a ping yet.
-                    return;
-                }
-
-                final TelemetryPing ping = pingBuilder.build();
-                storage.store(ping);
+                buildAndStorePings(pingType);
             }
         });
 
         return this;
     }
 
+    /**
+     * Build and store the ping(s) of the given type. Runs on the executor thread.
+     */
+    private void buildAndStorePings(String pingType) {
+        final TelemetryPingBuilder pingBuilder = pingBuilders.get(pingType);
+
+        if (pingBuilder instanceof TelemetryMobileEventPingBuilder
+                || pingBuilder instanceof TelemetryEventPingBuilder) {
+            // Events held back for aggregation belong into this ping.
+            takeAggregatedEvents();
+        }
+
+        if (!pingBuilder.canBuild()) {
+            // We do not always want to build a ping. Sometimes we want to collect enough data so that
+            // it is worth sending a ping. Here we exit early if the ping builder implementation
+            // signals that it's not time to build a ping yet.
+            return;
+        }
+
+        // A ping contains a limited number of events: Keep building pings until all events
+        // have been added to a stored ping. The events of a ping that could not be stored
+        // are added to the next ping again.
+        do {
+            final TelemetryPing ping = pingBuilder.build();
+            if (!storage.store(ping)) {
+                return;
+            }
+
+            pingBuilder.onPingStored();
+        } while (pingBuilder.hasRemainingEvents());
+    }
+
+    /**
+     * Queue an event for recording. This method never blocks (unless the event queue is full and
+     * configured to block) and does not allocate: The event is put into a lock-free queue that is
+     * drained on the background thread.
+     */
     public Telemetry queueEvent(final TelemetryEvent event) {
         if (!configuration.isCollectionEnabled()) {
             return this;
         }
 
-        executor.submit(new Runnable() {
+        eventQueue.offer(event);
+
+        if (drainScheduled.compareAndSet(false, true)) {
+            executor.execute(drainEventsTask);
+        }
+
+        return this;
+    }
+
+    /**
+     * Returns live statistics of the background thread doing the work of this class: How many tasks
+     * are waiting, how long they wait and run and how many tasks found the queue full.
+     */
+    public ExecutorStats getStats() {
+        return executor.getStats();
+    }
+
+    /**
+     * Returns the number of queued events that have been dropped because the event queue was full.
+     */
+    public long getDroppedEventCount() {
+        return eventQueue.getDroppedEventCount();
+    }
+
+    /**
+     * Move all queued events into the events measurement. Runs on the executor thread.
+     */
+    private void drainEvents() {
+        // Reset the flag first: Any event queued from now on will schedule another run.
+        drainScheduled.set(false);
+
+        if (eventQueue.size() == 0) {
+            return;
+        }
+
+        final TelemetryPingBuilder builder = getEventPingBuilder();
+        final EventsMeasurement measurement = getEventsMeasurement(builder);
+
+        TelemetryEvent event;
+        while ((event = eventQueue.poll()) != null) {
+            if (configuration.isEventAggregationEnabled()) {
+                eventAggregator.add(event, aggregatedEvents);
+                for (int i = 0; i < aggregatedEvents.size(); i++) {
+                    addEvent(builder, measurement, aggregatedEvents.get(i));
+                }
+                aggregatedEvents.clear();
+            } else {
+                addEvent(builder, measurement, event);
+            }
+        }
+    }
+
+    private void addEvent(TelemetryPingBuilder builder, EventsMeasurement measurement, TelemetryEvent event) {
+        measurement.add(event);
+        if (measurement.getEventCount() >= configuration.getMaximumNumberOfEventsPerPing()
+                && configuration.isCollectionEnabled()) {
+            // We are on the executor thread already: Build the ping right away instead of queueing a
+            // task. With a full queue that task could be dropped or (with the BLOCK policy) wait for
+            // a queue only this thread drains.
+            buildAndStorePings(builder.getType());
+        }
+    }
+
+    /**
+     * Move the events held back for aggregation into the events measurement. Runs on the executor
+     * thread.
+     */
+    private void takeAggregatedEvents() {
+        if (eventAggregator.isEmpty()) {
+            return;
+        }
+
+        final EventsMeasurement measurement = getEventsMeasurement(getEventPingBuilder());
+
+        // Not aggregatedEvents: A ping can be built while drainEvents() is iterating over that list.
+        eventAggregator.takeAll(heldBackEvents);
+        for (int i = 0; i < heldBackEvents.size(); i++) {
+            measurement.add(heldBackEvents.get(i));
+        }
+        heldBackEvents.clear();
+    }
+
+    private TelemetryPingBuilder getEventPingBuilder() {
+        // We migrated from focus-event to mobile-event and unfortunately, this code was hard-coded to expect
+        // a focus-event ping builder. We work around this by checking our new hardcoded code first for the new
+        // ping type and then falling back on the legacy ping type.
+        final TelemetryPingBuilder mobileEventBuilder = pingBuilders.get(TelemetryMobileEventPingBuilder.TYPE);
+        if (mobileEventBuilder != null) {
+            return mobileEventBuilder;
+        }
+
+        final TelemetryPingBuilder focusEventBuilder = pingBuilders.get(TelemetryEventPingBuilder.TYPE);
+        if (focusEventBuilder != null) {
+            return focusEventBuilder;
+        }
+
+        throw new IllegalStateException("Expect either TelemetryEventPingBuilder or " +
+                "TelemetryMobileEventPingBuilder to be added to queue events");
+    }
+
+    private static EventsMeasurement getEventsMeasurement(TelemetryPingBuilder builder) {
+        if (builder instanceof TelemetryMobileEventPingBuilder) {
+            return ((TelemetryMobileEventPingBuilder) builder).getEventsMeasurement();
+        }
+        return ((TelemetryEventPingBuilder) builder).getEventsMeasurement();
+    }
+
+    /**
+     * Write recorded events and measurement values that are still buffered in memory to disk. Apps
+     * should call this when they are moving to the background and might get killed.
+     */
+    public Telemetry flush() {
+        executor.execute(new Runnable() {
             @Override
             public void run() {
-                // We migrated from focus-event to mobile-event and unfortunately, this code was hard-coded to expect
-                // a focus-event ping builder. We work around this by checking our new hardcoded code first for the new
-                // ping type and then falling back on the legacy ping type.
-                final TelemetryPingBuilder mobileEventBuilder = pingBuilders.get(TelemetryMobileEventPingBuilder.TYPE);
-                final TelemetryPingBuilder focusEventBuilder = pingBuilders.get(TelemetryEventPingBuilder.TYPE);
-                final EventsMeasurement measurement;
-                final String addedPingType;
-                if (mobileEventBuilder != null) {
-                    measurement = ((TelemetryMobileEventPingBuilder) mobileEventBuilder).getEventsMeasurement();
-                    addedPingType = mobileEventBuilder.getType();
-                } else if (focusEventBuilder != null) {
-                    measurement = ((TelemetryEventPingBuilder) focusEventBuilder).getEventsMeasurement();
-                    addedPingType = focusEventBuilder.getType();
-                } else {
-                    throw new IllegalStateException("Expect either TelemetryEventPingBuilder or " +
-                            "TelemetryMobileEventPingBuilder to be added to queue events");
-                }
-                measurement.add(event);
-                if (measurement.getEventCount() >= configuration.getMaximumNumberOfEventsPerPing()) {
-                    queuePing(addedPingType);
+                drainEvents();
+                takeAggregatedEvents();
+
+                for (TelemetryPingBuilder builder : pingBuilders.values()) {
+                    builder.flushPendingEvents();
                 }
+
+                configuration.getKeyValueStore().flush();
             }
         });
 
@@ -141,7 +303,7 @@ public class Telemetry {
             return this;
         }
 
-        executor.submit(new Runnable() {
+        executor.execute(new Runnable() {
             @Override
             public void run() {
                 scheduler.scheduleUpload(configuration);
@@ -294,6 +456,18 @@ public class Telemetry {
         return storage;
     }
 
+    /**
+     * Returns the limiter for ping uploads. It keeps the upload counters in memory across upload
+     * jobs.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public synchronized UploadRateLimiter getUploadRateLimiter() {
+        if (uploadRateLimiter == null) {
+            uploadRateLimiter = new UploadRateLimiter(configuration);
+        }
+        return uploadRateLimiter;
+    }
+
     public TelemetryConfiguration getConfiguration() {
         return configuration;
     }
@@ -0,0 +1,256 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry;
+
+import androidx.annotation.RestrictTo;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mozilla.telemetry.util.BucketHistogram;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * What the telemetry library itself costs on the device: How long storing pings takes, how many
+ * bytes are written per ping type, how many pings are pruned, how many events end up in a ping and
+ * how uploads go.
+ *
+ * All values are counted since the process has been started. Recording only updates primitive
+ * counters and fixed-bucket histograms: It never takes a lock and does not allocate (except the
+ * first time a ping type is seen).
+ */
+public class TelemetryInternalMetrics {
+    // Buckets (in milliseconds) of the latency histograms.
+    private static final long[] LATENCY_BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000 };
+
+    private static final long[] EVENTS_PER_PING_BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000 };
+
+    // Index 0 counts uploads that failed without a response, index n counts responses with status nxx.
+    private static final int STATUS_CLASSES = 6;
+
+    private final BucketHistogram storeLatency = new BucketHistogram(LATENCY_BUCKETS);
+    private final BucketHistogram uploadLatency = new BucketHistogram(LATENCY_BUCKETS);
+    private final BucketHistogram eventsPerPing = new BucketHistogram(EVENTS_PER_PING_BUCKETS);
+    private final AtomicLongArray uploadStatus = new AtomicLongArray(STATUS_CLASSES);
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final ConcurrentMap<String, PingTypeMetrics> pingTypes = new ConcurrentHashMap<>();
+
+    /**
+     * Record pings that have been written to the storage.
+     *
+     * @param latency Time (in milliseconds) it took to serialize and write the pings.
+     * @param bytes Number of bytes written.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void recordStore(String pingType, int pings, long bytes, long latency) {
+        storeLatency.record(latency);
+
+        final PingTypeMetrics metrics = getPingTypeMetrics(pingType);
+        metrics.storedPings.addAndGet(pings);
+        metrics.storedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Record pings that have been deleted without uploading them (the storage limit was reached).
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void recordPrune(String pingType, int pings) {
+        getPingTypeMetrics(pingType).prunedPings.addAndGet(pings);
+    }
+
+    /**
+     * Record the number of events in a stored ping.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void recordEventsPerPing(int events) {
+        eventsPerPing.record(events);
+    }
+
+    /**
+     * Record an upload request.
+     *
+     * @param latency Time (in milliseconds) it took to get a response (or an error).
+     * @param status HTTP status code of the response or a negative value if there was no response.
+     * @param bytes Number of bytes sent. Only counted if the server has responded.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void recordUpload(long latency, int status, long bytes) {
+        uploadLatency.record(latency);
+
+        final int statusClass = status / 100;
+        if (status < 0 || statusClass >= STATUS_CLASSES) {
+            uploadStatus.incrementAndGet(0);
+        } else {
+            uploadStatus.incrementAndGet(statusClass);
+            uploadedBytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * Returns a copy of the current values.
+     */
+    public Snapshot getSnapshot() {
+        final Map<String, long[]> pingTypeValues = new HashMap<>();
+        for (Map.Entry<String, PingTypeMetrics> entry : pingTypes.entrySet()) {
+            final PingTypeMetrics metrics = entry.getValue();
+            pingTypeValues.put(entry.getKey(), new long[] {
+                    metrics.storedPings.get(), metrics.storedBytes.get(), metrics.prunedPings.get() });
+        }
+
+        final long[] status = new long[STATUS_CLASSES];
+        for (int i = 0; i < STATUS_CLASSES; i++) {
+            status[i] = uploadStatus.get(i);
+        }
+
+        return new Snapshot(storeLatency.copy(), uploadLatency.copy(), eventsPerPing.copy(), status,
+                uploadedBytes.get(), pingTypeValues);
+    }
+
+    private PingTypeMetrics getPingTypeMetrics(String pingType) {
+        PingTypeMetrics metrics = pingTypes.get(pingType);
+        if (metrics == null) {
+            final PingTypeMetrics newMetrics = new PingTypeMetrics();
+            metrics = pingTypes.putIfAbsent(pingType, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    private static class PingTypeMetrics {
+        private final AtomicLong storedPings = new AtomicLong();
+        private final AtomicLong storedBytes = new AtomicLong();
+        private final AtomicLong prunedPings = new AtomicLong();
+    }
+
+    /**
+     * The values of {@link TelemetryInternalMetrics} at one point in time.
+     */
+    public static class Snapshot {
+        private static final int STORED_PINGS = 0;
+        private static final int STORED_BYTES = 1;
+        private static final int PRUNED_PINGS = 2;
+
+        private final BucketHistogram storeLatency;
+        private final BucketHistogram uploadLatency;
+        private final BucketHistogram eventsPerPing;
+        private final long[] uploadStatus;
+        private final long uploadedBytes;
+        private final Map<String, long[]> pingTypes;
+
+        private Snapshot(BucketHistogram storeLatency, BucketHistogram uploadLatency,
+                         BucketHistogram eventsPerPing, long[] uploadStatus, long uploadedBytes,
+                         Map<String, long[]> pingTypes) {
+            this.storeLatency = storeLatency;
+            this.uploadLatency = uploadLatency;
+            this.eventsPerPing = eventsPerPing;
+            this.uploadStatus = uploadStatus;
+            this.uploadedBytes = uploadedBytes;
+            this.pingTypes = pingTypes;
+        }
+
+        /**
+         * Returns the histogram of the time (in milliseconds) it took to store pings.
+         */
+        public BucketHistogram getStoreLatency() {
+            return storeLatency;
+        }
+
+        /**
+         * Returns the histogram of the time (in milliseconds) upload requests took.
+         */
+        public BucketHistogram getUploadLatency() {
+            return uploadLatency;
+        }
+
+        public BucketHistogram getEventsPerPing() {
+            return eventsPerPing;
+        }
+
+        /**
+         * Returns the number of upload requests that got a response with a status code of the given
+         * class (e.g. 2 for 2xx).
+         */
+        public long getUploads(int statusClass) {
+            return statusClass > 0 && statusClass < uploadStatus.length ? uploadStatus[statusClass] : 0;
+        }
+
+        /**
+         * Returns the number of upload requests that failed without a response.
+         */
+        public long getFailedUploads() {
+            return uploadStatus[0];
+        }
+
+        public long getUploadedBytes() {
+            return uploadedBytes;
+        }
+
+        /**
+         * Returns the ping types that have been stored or pruned.
+         */
+        public Set<String> getPingTypes() {
+            return Collections.unmodifiableSet(pingTypes.keySet());
+        }
+
+        public long getStoredPings(String pingType) {
+            return getPingTypeValue(pingType, STORED_PINGS);
+        }
+
+        public long getStoredBytes(String pingType) {
+            return getPingTypeValue(pingType, STORED_BYTES);
+        }
+
+        public long getPrunedPings(String pingType) {
+            return getPingTypeValue(pingType, PRUNED_PINGS);
+        }
+
+        private long getPingTypeValue(String pingType, int index) {
+            final long[] values = pingTypes.get(pingType);
+            return values != null ? values[index] : 0;
+        }
+
+        public JSONObject toJSON() {
+            try {
+                final JSONObject storedPings = new JSONObject();
+                final JSONObject storedBytes = new JSONObject();
+                final JSONObject prunedPings = new JSONObject();
+
+                for (Map.Entry<String, long[]> entry : pingTypes.entrySet()) {
+                    storedPings.put(entry.getKey(), entry.getValue()[STORED_PINGS]);
+                    storedBytes.put(entry.getKey(), entry.getValue()[STORED_BYTES]);
+                    prunedPings.put(entry.getKey(), entry.getValue()[PRUNED_PINGS]);
+                }
+
+                final JSONObject status = new JSONObject();
+                for (int i = 0; i < uploadStatus.length; i++) {
+                    if (uploadStatus[i] > 0) {
+                        status.put(i == 0 ? "error" : i + "xx", uploadStatus[i]);
+                    }
+                }
+
+                return new JSONObject()
+                        .put("storeLatency", storeLatency.toJSON())
+                        .put("storedPings", storedPings)
+                        .put("storedBytes", storedBytes)
+                        .put("prunedPings", prunedPings)
+                        .put("eventsPerPing", eventsPerPing.toJSON())
+                        .put("uploadLatency", uploadLatency.toJSON())
+                        .put("uploadStatus", status)
+                        .put("uploadedBytes", uploadedBytes);
+            } catch (JSONException e) {
+                throw new AssertionError("Can't create internal metrics JSON", e);
+            }
+        }
+    }
+}
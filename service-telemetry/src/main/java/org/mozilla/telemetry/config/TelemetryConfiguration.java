@@ -7,12 +7,23 @@ package org.mozilla.telemetry.config;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import org.mozilla.telemetry.TelemetryInternalMetrics;
+import org.mozilla.telemetry.event.EventOverflowPolicy;
+import org.mozilla.telemetry.executor.TaskRejectionPolicy;
+import org.mozilla.telemetry.measurement.EventJournalFormat;
 import org.mozilla.telemetry.measurement.SettingsMeasurement;
+import org.mozilla.telemetry.ping.TelemetryCorePingBuilder;
+import org.mozilla.telemetry.ping.TelemetryMobileMetricsPingBuilder;
+import org.mozilla.telemetry.serialize.PingSerializerRegistry;
+import org.mozilla.telemetry.storage.FileTelemetryKeyValueStore;
+import org.mozilla.telemetry.storage.TelemetryKeyValueStore;
 import org.mozilla.telemetry.util.ContextUtils;
 
 import java.io.File;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -34,8 +45,22 @@ public class TelemetryConfiguration {
     private static final int DEFAULT_MINIMUM_EVENTS_FOR_UPLOAD = 3;
     private static final String DEFAULT_UPDATE_CHANNEL = "unknown";
     private static final int DEFAULT_MAXIMUM_NUMBER_OF_PINGS_PER_EVENT = 500;
+    private static final int DEFAULT_MAXIMUM_EVENT_PING_SIZE = 512 * 1024;
     private static final int DEFAULT_MAXIMUM_PINGS_PER_TYPE = 40;
+    private static final long DEFAULT_MAXIMUM_STORAGE_BYTES_PER_TYPE = 4 * 1024 * 1024;
+    private static final long DEFAULT_MAXIMUM_TOTAL_STORAGE_BYTES = 10 * 1024 * 1024;
     private static final int DEFAULT_MAXIMUM_PING_UPLOADS_PER_DAY = 100;
+    private static final int DEFAULT_EVENT_JOURNAL_FLUSH_THRESHOLD = 8192;
+    private static final long DEFAULT_EVENT_JOURNAL_FLUSH_INTERVAL = 5000;
+    private static final int DEFAULT_EVENT_QUEUE_CAPACITY = 1024;
+    private static final int DEFAULT_MAXIMUM_PARALLEL_UPLOADS = 4;
+    private static final int DEFAULT_MAXIMUM_PING_UPLOAD_BURST = 0;
+    private static final int DEFAULT_MAXIMUM_TOTAL_PING_UPLOADS_PER_DAY = 0;
+    private static final int DEFAULT_UPLOAD_PRIORITY = 1;
+    private static final int CORE_UPLOAD_PRIORITY = 3;
+    private static final int METRICS_UPLOAD_PRIORITY = 2;
+    private static final int DEFAULT_EXECUTOR_QUEUE_CAPACITY = 1024;
+    private static final long DEFAULT_COMPUTED_SETTINGS_REFRESH_INTERVAL = 30 * 60 * 1000;
 
     private static final long classLoadTimestampMillis = System.currentTimeMillis();
 
@@ -56,13 +81,41 @@ public class TelemetryConfiguration {
     private String userAgent;
     private int minimumEventsForUpload;
     private int maximumNumberOfEventsPerPing;
+    private int maximumEventPingSize;
     private int maximumNumberOfPingsPerType;
+    private long maximumStorageBytesPerType;
+    private final Map<String, Long> maximumStorageBytes;
+    private long maximumTotalStorageBytes;
     private int maximumNumberOfPingUploadsPerDay;
+    private boolean pingCompressionEnabled;
+    private int eventJournalFlushThreshold;
+    private long eventJournalFlushInterval;
+    private int eventQueueCapacity;
+    private EventOverflowPolicy eventOverflowPolicy;
+    private int maximumParallelUploads;
+    private int maximumPingUploadBurst;
+    private int maximumNumberOfTotalPingUploadsPerDay;
+    private final Map<String, Integer> uploadPriorities;
+    private int executorQueueCapacity;
+    private TaskRejectionPolicy executorRejectionPolicy;
+    private boolean executorStatsInCorePingEnabled;
+    private final TelemetryInternalMetrics internalMetrics;
+    private boolean internalMetricsInMetricsPingEnabled;
+    private final Map<String, Long> eventAggregationWindows;
+    private final Map<String, String> pingContentTypes;
+    private EventJournalFormat eventJournalFormat;
+    private TelemetryKeyValueStore keyValueStore;
     private SettingsMeasurement.SettingsProvider settingsProvider;
+    private long computedSettingsRefreshInterval;
 
     public TelemetryConfiguration(Context context) {
         this.context = context.getApplicationContext();
         this.telemetryPreferences = Collections.emptySet();
+        this.uploadPriorities = new HashMap<>();
+        this.internalMetrics = new TelemetryInternalMetrics();
+        this.eventAggregationWindows = new HashMap<>();
+        this.pingContentTypes = new HashMap<>();
+        this.maximumStorageBytes = new HashMap<>();
 
         setAppName(ContextUtils.getAppName(context));
         setAppVersion(ContextUtils.getVersionName(context));
@@ -78,9 +131,27 @@ public class TelemetryConfiguration {
         setCollectionEnabled(true);
         setUploadEnabled(true);
         setMaximumNumberOfEventsPerPing(DEFAULT_MAXIMUM_NUMBER_OF_PINGS_PER_EVENT);
+        setMaximumEventPingSize(DEFAULT_MAXIMUM_EVENT_PING_SIZE);
         setMaximumNumberOfPingsPerType(DEFAULT_MAXIMUM_PINGS_PER_TYPE);
+        setMaximumStorageBytesPerType(DEFAULT_MAXIMUM_STORAGE_BYTES_PER_TYPE);
+        setMaximumTotalStorageBytes(DEFAULT_MAXIMUM_TOTAL_STORAGE_BYTES);
         setMaximumNumberOfPingUploadsPerDay(DEFAULT_MAXIMUM_PING_UPLOADS_PER_DAY);
+        setEventJournalFlushThreshold(DEFAULT_EVENT_JOURNAL_FLUSH_THRESHOLD);
+        setEventJournalFlushInterval(DEFAULT_EVENT_JOURNAL_FLUSH_INTERVAL);
+        setEventJournalFormat(EventJournalFormat.JSON);
+        setEventQueueCapacity(DEFAULT_EVENT_QUEUE_CAPACITY);
+        setEventOverflowPolicy(EventOverflowPolicy.DROP_OLDEST);
+        setMaximumParallelUploads(DEFAULT_MAXIMUM_PARALLEL_UPLOADS);
+        setMaximumPingUploadBurst(DEFAULT_MAXIMUM_PING_UPLOAD_BURST);
+        setMaximumNumberOfTotalPingUploadsPerDay(DEFAULT_MAXIMUM_TOTAL_PING_UPLOADS_PER_DAY);
+        setUploadPriority(TelemetryCorePingBuilder.TYPE, CORE_UPLOAD_PRIORITY);
+        setUploadPriority(TelemetryMobileMetricsPingBuilder.TYPE, METRICS_UPLOAD_PRIORITY);
+        setExecutorQueueCapacity(DEFAULT_EXECUTOR_QUEUE_CAPACITY);
+        setExecutorRejectionPolicy(TaskRejectionPolicy.DROP_OLDEST);
+        setExecutorStatsInCorePingEnabled(false);
+        setInternalMetricsInMetricsPingEnabled(false);
         setSettingsProvider(new SettingsMeasurement.SharedPreferenceSettingsProvider());
+        setComputedSettingsRefreshInterval(DEFAULT_COMPUTED_SETTINGS_REFRESH_INTERVAL);
     }
 
     /**
@@ -139,6 +210,27 @@ public class TelemetryConfiguration {
         return context.getSharedPreferences(DEFAULT_SHARED_PREFERENCE, Context.MODE_PRIVATE);
     }
 
+    /**
+     * Get the store measurements use to keep values between pings. Unless a different store has
+     * been set, the values are kept in memory and written to a file in the data directory.
+     */
+    public synchronized TelemetryKeyValueStore getKeyValueStore() {
+        if (keyValueStore == null) {
+            keyValueStore = new FileTelemetryKeyValueStore(this);
+        }
+        return keyValueStore;
+    }
+
+    /**
+     * Set the store measurements use to keep values between pings. Use
+     * {@link org.mozilla.telemetry.storage.SharedPreferencesTelemetryKeyValueStore} to keep the
+     * values in the shared preferences returned by {@link #getSharedPreferences()}.
+     */
+    public synchronized TelemetryConfiguration setKeyValueStore(TelemetryKeyValueStore keyValueStore) {
+        this.keyValueStore = keyValueStore;
+        return this;
+    }
+
     /**
      * Set a list of preference keys that are important for telemetry. Some measurements and pings
      * might use this to determine what preferences should be reported.
@@ -365,6 +457,23 @@ public class TelemetryConfiguration {
         return maximumNumberOfEventsPerPing;
     }
 
+    /**
+     * Set the maximum number of bytes of events per ping. If more events have been recorded then
+     * they are split into multiple pings. A single event larger than this limit is still added to
+     * a ping (on its own).
+     */
+    public TelemetryConfiguration setMaximumEventPingSize(int maximumEventPingSize) {
+        this.maximumEventPingSize = maximumEventPingSize;
+        return this;
+    }
+
+    /**
+     * Get the maximum number of bytes of events per ping.
+     */
+    public int getMaximumEventPingSize() {
+        return maximumEventPingSize;
+    }
+
     /**
      * Set the maximum number of pings that will be stored for a given ping type. If more types
      * are in the local store then pings will be removed (oldest first). For this to happen the
@@ -382,6 +491,54 @@ public class TelemetryConfiguration {
         return maximumNumberOfPingsPerType;
     }
 
+    /**
+     * Get the maximum size (in bytes) of the stored pings of the given ping type (0 if only the
+     * number of pings is limited).
+     */
+    public long getMaximumStorageBytes(String pingType) {
+        final Long bytes = maximumStorageBytes.get(pingType);
+        return bytes != null ? bytes : maximumStorageBytesPerType;
+    }
+
+    /**
+     * Set the maximum size (in bytes) of the stored pings of every ping type that has no limit of
+     * its own (see {@link #setMaximumStorageBytes(String, long)}). If the pings of a type exceed this
+     * size then the oldest pings of this type are removed. The newest ping of a type is always kept.
+     * A value of 0 does not limit the size. The default is 4 MB.
+     */
+    public TelemetryConfiguration setMaximumStorageBytesPerType(long maximumStorageBytesPerType) {
+        this.maximumStorageBytesPerType = maximumStorageBytesPerType;
+        return this;
+    }
+
+    /**
+     * Set the maximum size (in bytes) of the stored pings of the given ping type, replacing the
+     * limit set with {@link #setMaximumStorageBytesPerType(long)} for this type.
+     */
+    public TelemetryConfiguration setMaximumStorageBytes(String pingType, long bytes) {
+        maximumStorageBytes.put(pingType, bytes);
+        return this;
+    }
+
+    /**
+     * Get the maximum size (in bytes) of the stored pings of all types together (0 if only the
+     * limits per type apply).
+     */
+    public long getMaximumTotalStorageBytes() {
+        return maximumTotalStorageBytes;
+    }
+
+    /**
+     * Set the maximum size (in bytes) of the stored pings of all types together. If the stored pings
+     * exceed this size then pings are removed from the type with the lowest upload priority (see
+     * {@link #setUploadPriority(String, int)}) first, oldest first. Among types of the same priority
+     * the oldest ping is removed. A value of 0 does not limit the total size. The default is 10 MB.
+     */
+    public TelemetryConfiguration setMaximumTotalStorageBytes(long maximumTotalStorageBytes) {
+        this.maximumTotalStorageBytes = maximumTotalStorageBytes;
+        return this;
+    }
+
     /**
      * Get the maximum number of pings that should be uploaded per day.
      */
@@ -399,6 +556,327 @@ public class TelemetryConfiguration {
         return this;
     }
 
+    /**
+     * Should pings be stored gzip compressed? Compressed pings are uploaded as they are (using
+     * "Content-Encoding: gzip").
+     */
+    public boolean isPingCompressionEnabled() {
+        return pingCompressionEnabled;
+    }
+
+    /**
+     * Enable or disable storing pings gzip compressed. This reduces the disk space used by stored
+     * pings and the number of bytes uploaded. Pings that have been stored before changing this
+     * setting are still uploaded in the format they have been stored in. Disabled by default.
+     */
+    public TelemetryConfiguration setPingCompressionEnabled(boolean pingCompressionEnabled) {
+        this.pingCompressionEnabled = pingCompressionEnabled;
+        return this;
+    }
+
+    /**
+     * Get the content type pings of the given type are serialized as. JSON by default.
+     */
+    public String getPingContentType(String pingType) {
+        final String contentType = pingContentTypes.get(pingType);
+        return contentType != null ? contentType : PingSerializerRegistry.CONTENT_TYPE_JSON;
+    }
+
+    /**
+     * Set the content type pings of the given type are serialized as, e.g.
+     * {@link org.mozilla.telemetry.serialize.CborPingSerializer#CONTENT_TYPE}. A serializer for the
+     * content type needs to be registered with the {@link PingSerializerRegistry} of the storage;
+     * otherwise pings are stored as JSON. The content type is stored with every ping and sent as
+     * "Content-Type" header when the ping is uploaded, so pings stored before changing this setting
+     * are still uploaded correctly.
+     */
+    public TelemetryConfiguration setPingContentType(String pingType, String contentType) {
+        if (contentType != null && !PingSerializerRegistry.CONTENT_TYPE_JSON.equals(contentType)) {
+            pingContentTypes.put(pingType, contentType);
+        } else {
+            pingContentTypes.remove(pingType);
+        }
+        return this;
+    }
+
+    /**
+     * Get the number of bytes of recorded events that are buffered in memory before they are
+     * written to disk.
+     */
+    public int getEventJournalFlushThreshold() {
+        return eventJournalFlushThreshold;
+    }
+
+    /**
+     * Set the number of bytes of recorded events that are buffered in memory before they are
+     * written to disk. Events are written to disk earlier if the flush interval has passed, if an
+     * event ping is built or if Telemetry.flush() is called. A value of 0 writes every event to
+     * disk immediately.
+     */
+    public TelemetryConfiguration setEventJournalFlushThreshold(int eventJournalFlushThreshold) {
+        this.eventJournalFlushThreshold = eventJournalFlushThreshold;
+        return this;
+    }
+
+    /**
+     * Get the maximum time (in milliseconds) recorded events are buffered in memory before they
+     * are written to disk.
+     */
+    public long getEventJournalFlushInterval() {
+        return eventJournalFlushInterval;
+    }
+
+    /**
+     * Set the maximum time (in milliseconds) recorded events are buffered in memory before they
+     * are written to disk. Buffered events are written at the end of the interval even if no further
+     * event is recorded.
+     */
+    public TelemetryConfiguration setEventJournalFlushInterval(long eventJournalFlushInterval) {
+        this.eventJournalFlushInterval = eventJournalFlushInterval;
+        return this;
+    }
+
+    /**
+     * Get the format recorded events are written to disk in.
+     */
+    public EventJournalFormat getEventJournalFormat() {
+        return eventJournalFormat;
+    }
+
+    /**
+     * Set the format recorded events are written to disk in. The binary format writes identifiers
+     * and extra keys only once per file and creates the JSON of the events only when a ping is
+     * built. The default is JSON. Events recorded before the format has been changed are kept and
+     * added to the next pings.
+     */
+    public TelemetryConfiguration setEventJournalFormat(EventJournalFormat eventJournalFormat) {
+        this.eventJournalFormat = eventJournalFormat;
+        return this;
+    }
+
+    /**
+     * Get the maximum number of queued events that have not been recorded yet.
+     */
+    public int getEventQueueCapacity() {
+        return eventQueueCapacity;
+    }
+
+    /**
+     * Set the maximum number of queued events that have not been recorded yet. Queued events are
+     * recorded on a background thread. If events are queued faster than they can be recorded then
+     * the overflow policy decides what happens with new events.
+     */
+    public TelemetryConfiguration setEventQueueCapacity(int eventQueueCapacity) {
+        this.eventQueueCapacity = eventQueueCapacity;
+        return this;
+    }
+
+    /**
+     * Get the policy for queueing events if the event queue is full.
+     */
+    public EventOverflowPolicy getEventOverflowPolicy() {
+        return eventOverflowPolicy;
+    }
+
+    /**
+     * Set the policy for queueing events if the event queue is full. The default is to drop the
+     * oldest queued event.
+     */
+    public TelemetryConfiguration setEventOverflowPolicy(EventOverflowPolicy eventOverflowPolicy) {
+        this.eventOverflowPolicy = eventOverflowPolicy;
+        return this;
+    }
+
+    /**
+     * Get the time window (in milliseconds) in which identical events of the given category are
+     * combined into one event - or 0 if events of this category are not aggregated.
+     */
+    public long getEventAggregationWindow(String category) {
+        final Long window = eventAggregationWindows.get(category);
+        return window != null ? window : 0;
+    }
+
+    /**
+     * Set the time window (in milliseconds) in which identical events (same category, method,
+     * object, value and extras) of the given category are combined into one event. The combined
+     * event has the timestamp of the first event and the extras "count" (number of events) and
+     * "last_timestamp" (timestamp of the last event). Events that already have one of those extras
+     * are never combined. A window of 0 (default) disables aggregation for the category.
+     *
+     * Events are held back in memory until their window has passed, the next ping is built or
+     * {@link org.mozilla.telemetry.Telemetry#flush()} is called.
+     */
+    public TelemetryConfiguration setEventAggregationWindow(String category, long windowMillis) {
+        if (windowMillis > 0) {
+            eventAggregationWindows.put(category, windowMillis);
+        } else {
+            eventAggregationWindows.remove(category);
+        }
+        return this;
+    }
+
+    /**
+     * Returns true if events of any category are aggregated.
+     */
+    public boolean isEventAggregationEnabled() {
+        return !eventAggregationWindows.isEmpty();
+    }
+
+    /**
+     * Get the maximum number of pings that are uploaded at the same time.
+     */
+    public int getMaximumParallelUploads() {
+        return maximumParallelUploads;
+    }
+
+    /**
+     * Set the maximum number of pings that are uploaded at the same time. Pings of different types
+     * are uploaded in parallel; pings of the same type are always uploaded one after another (in the
+     * order they have been stored).
+     */
+    public TelemetryConfiguration setMaximumParallelUploads(int maximumParallelUploads) {
+        this.maximumParallelUploads = maximumParallelUploads;
+        return this;
+    }
+
+    /**
+     * Get the maximum number of pings of a type that are uploaded in a burst (0 if bursts are not
+     * limited).
+     */
+    public int getMaximumPingUploadBurst() {
+        return maximumPingUploadBurst;
+    }
+
+    /**
+     * Set the maximum number of pings of a type that are uploaded in a burst. Once the burst has
+     * been used up, uploads continue at the rate of the daily limit (spread evenly over the day).
+     * The daily limit ({@link #setMaximumNumberOfPingUploadsPerDay(int)}) applies in any case. A
+     * value of 0 (the default) does not limit bursts.
+     */
+    public TelemetryConfiguration setMaximumPingUploadBurst(int maximumPingUploadBurst) {
+        this.maximumPingUploadBurst = maximumPingUploadBurst;
+        return this;
+    }
+
+    /**
+     * Get the maximum number of pings (of all types together) that should be uploaded per day (0 if
+     * only the limit per type applies).
+     */
+    public int getMaximumNumberOfTotalPingUploadsPerDay() {
+        return maximumNumberOfTotalPingUploadsPerDay;
+    }
+
+    /**
+     * Set the maximum number of pings uploaded per day across all ping types. This budget is shared
+     * by all types (in addition to the limit per type set with
+     * {@link #setMaximumNumberOfPingUploadsPerDay(int)}) and is handed out in the order of the upload
+     * priority of the types. A value of 0 (the default) does not limit the total number of uploads.
+     */
+    public TelemetryConfiguration setMaximumNumberOfTotalPingUploadsPerDay(int maximumNumberOfTotalPingUploadsPerDay) {
+        this.maximumNumberOfTotalPingUploadsPerDay = maximumNumberOfTotalPingUploadsPerDay;
+        return this;
+    }
+
+    /**
+     * Get the upload priority of the given ping type. Types without a configured priority have a
+     * priority of 1.
+     */
+    public int getUploadPriority(String pingType) {
+        final Integer priority = uploadPriorities.get(pingType);
+        return priority != null ? priority : DEFAULT_UPLOAD_PRIORITY;
+    }
+
+    /**
+     * Set the upload priority of a ping type (a positive number, higher is more important). When the
+     * upload budget is limited, pings of types with a higher priority are uploaded first. By default
+     * core pings have a priority of 3, metrics pings a priority of 2 and all other types a priority
+     * of 1.
+     */
+    public TelemetryConfiguration setUploadPriority(String pingType, int priority) {
+        if (priority < 1) {
+            throw new IllegalArgumentException("Upload priority must be positive: " + priority);
+        }
+
+        uploadPriorities.put(pingType, priority);
+        return this;
+    }
+
+    /**
+     * Get the maximum number of background tasks waiting to be run by the telemetry executor.
+     */
+    public int getExecutorQueueCapacity() {
+        return executorQueueCapacity;
+    }
+
+    /**
+     * Set the maximum number of background tasks (storing pings, writing events to disk, scheduling
+     * uploads) waiting to be run. What happens to new tasks if the queue is full is decided by the
+     * policy set with {@link #setExecutorRejectionPolicy(TaskRejectionPolicy)}. This needs to be set
+     * before the Telemetry object is created.
+     */
+    public TelemetryConfiguration setExecutorQueueCapacity(int executorQueueCapacity) {
+        this.executorQueueCapacity = executorQueueCapacity;
+        return this;
+    }
+
+    /**
+     * Get the policy for background tasks if the queue of the telemetry executor is full.
+     */
+    public TaskRejectionPolicy getExecutorRejectionPolicy() {
+        return executorRejectionPolicy;
+    }
+
+    /**
+     * Set the policy for background tasks if the queue of the telemetry executor is full. The
+     * default is to drop the oldest queued task (counted in the executor stats as dropped task), so
+     * that the calling thread (often the UI thread) never blocks. This needs to be set before the
+     * Telemetry object is created.
+     */
+    public TelemetryConfiguration setExecutorRejectionPolicy(TaskRejectionPolicy executorRejectionPolicy) {
+        this.executorRejectionPolicy = executorRejectionPolicy;
+        return this;
+    }
+
+    /**
+     * Should the statistics of the telemetry executor be added to the core ping?
+     */
+    public boolean isExecutorStatsInCorePingEnabled() {
+        return executorStatsInCorePingEnabled;
+    }
+
+    /**
+     * Add the statistics of the telemetry executor ({@link org.mozilla.telemetry.Telemetry#getStats()})
+     * to the core ping (as "executorStats"). This is disabled by default.
+     */
+    public TelemetryConfiguration setExecutorStatsInCorePingEnabled(boolean executorStatsInCorePingEnabled) {
+        this.executorStatsInCorePingEnabled = executorStatsInCorePingEnabled;
+        return this;
+    }
+
+    /**
+     * Returns the metrics the telemetry library records about itself (store and upload latency,
+     * bytes written and uploaded, ...).
+     */
+    public TelemetryInternalMetrics getInternalMetrics() {
+        return internalMetrics;
+    }
+
+    /**
+     * Should the internal metrics of the telemetry library be added to the mobile-metrics ping?
+     */
+    public boolean isInternalMetricsInMetricsPingEnabled() {
+        return internalMetricsInMetricsPingEnabled;
+    }
+
+    /**
+     * Add the internal metrics of the telemetry library ({@link #getInternalMetrics()}) to the
+     * mobile-metrics ping (as "internal"). This is disabled by default.
+     */
+    public TelemetryConfiguration setInternalMetricsInMetricsPingEnabled(boolean internalMetricsInMetricsPingEnabled) {
+        this.internalMetricsInMetricsPingEnabled = internalMetricsInMetricsPingEnabled;
+        return this;
+    }
+
     /**
      * Get the provider for reading app settings.
      */
@@ -414,6 +892,25 @@ public class TelemetryConfiguration {
         return this;
     }
 
+    /**
+     * Get the minimum time (in milliseconds) between two refreshes of computed settings values
+     * (settings that are not stored in the preferences, e.g. whether the app is the default browser).
+     */
+    public long getComputedSettingsRefreshInterval() {
+        return computedSettingsRefreshInterval;
+    }
+
+    /**
+     * Set the minimum time (in milliseconds) between two refreshes of computed settings values. Until
+     * the interval has passed pings report the previously computed values. The default is 30 minutes.
+     *
+     * @see SettingsMeasurement.SharedPreferenceSettingsProvider#computeValue(String)
+     */
+    public TelemetryConfiguration setComputedSettingsRefreshInterval(long computedSettingsRefreshInterval) {
+        this.computedSettingsRefreshInterval = computedSettingsRefreshInterval;
+        return this;
+    }
+
     public long getClassLoadTimestampMillis() {
         return classLoadTimestampMillis;
     }
@@ -0,0 +1,463 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.event;
+
+import androidx.annotation.RestrictTo;
+
+import org.mozilla.telemetry.serialize.JSONStreamWriter;
+import org.mozilla.telemetry.util.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of events for the event journal.
+ *
+ * A file is a sequence of frames. Every frame starts with a varint header: The length of its
+ * payload shifted left by two bits, combined with the type of the frame (1 or 2):
+ *
+ *   - A string frame (1) adds a string (UTF-8) to the dictionary of the file. Strings get ids in
+ *     the order they are defined, starting at 0.
+ *   - An event frame (2) contains the difference of its timestamp to the timestamp of the previous
+ *     event in the file (zigzag varint), the dictionary ids of category, method and object
+ *     (varints, the object id is shifted by one: 0 is null), the value (length + 1 as varint
+ *     followed by UTF-8 bytes, 0 is null), the number of extras (varint) and for every extra the
+ *     dictionary id of the key and the value (like the event value). Value and extras are left out
+ *     if the event has no value and no extras; the extras are left out if there are none.
+ *
+ * Identifiers and extra keys repeat in almost every event and are only written once per file. A
+ * string is always defined before the first event using it. Events are only converted to JSON (the
+ * same JSON as {@link TelemetryEvent#toJSON()}) when they are added to a ping.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public final class BinaryEventFormat {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int FRAME_STRING = 1;
+    static final int FRAME_EVENT = 2;
+
+    // Larger than any frame the encoder writes (an event with the maximum number of extras and
+    // values of maximum length). A larger length in a frame header can only come from a torn write.
+    static final int MAX_FRAME_LENGTH = 256 * 1024;
+
+    private BinaryEventFormat() {}
+
+    /**
+     * Encodes events into frames. Keeps the dictionary of the file the frames are appended to.
+     * Encoding an event does not create any JSON and (apart from new dictionary entries) does not
+     * allocate.
+     */
+    public static class Encoder {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private long lastTimestamp;
+
+        // The payload of an event frame is written here first: The frame header needs its length.
+        private final FrameBuffer frame = new FrameBuffer();
+
+        /**
+         * Write the frames for the given event: Frames for strings that are not in the dictionary
+         * yet, followed by the event frame.
+         */
+        public void encode(TelemetryEvent event, ByteArrayOutputStream output) {
+            final int category = define(event.getCategory(), output);
+            final int method = define(event.getMethod(), output);
+            final int object = event.getObject() != null ? define(event.getObject(), output) + 1 : 0;
+
+            final int extras = event.getExtraCount();
+
+            frame.reset();
+            writeZigZag(frame, event.getTimestamp() - lastTimestamp);
+            writeVarint(frame, category);
+            writeVarint(frame, method);
+            writeVarint(frame, object);
+
+            if (event.getValue() != null || extras > 0) {
+                writeStringField(frame, event.getValue());
+            }
+
+            if (extras > 0) {
+                writeVarint(frame, extras);
+
+                for (int i = 0; i < extras; i++) {
+                    writeVarint(frame, define(event.getExtraKey(i), output));
+                    writeStringField(frame, event.getExtraValue(i));
+                }
+            }
+
+            writeVarint(output, ((long) frame.size() << 2) | FRAME_EVENT);
+            frame.copyTo(output);
+
+            lastTimestamp = event.getTimestamp();
+        }
+
+        /**
+         * Continue writing an existing file: Restore the dictionary and the timestamp of the last
+         * event from the reader that has read the file.
+         */
+        public void restore(Reader reader) {
+            ids.clear();
+            final List<String> strings = reader.getStrings();
+            for (int i = 0; i < strings.size(); i++) {
+                ids.put(strings.get(i), i);
+            }
+            lastTimestamp = reader.timestamp;
+        }
+
+        /**
+         * Forget the dictionary: The next frames are written to a new file.
+         */
+        public void reset() {
+            ids.clear();
+            lastTimestamp = 0;
+        }
+
+        private int define(String string, ByteArrayOutputStream output) {
+            final Integer id = ids.get(string);
+            if (id != null) {
+                return id;
+            }
+
+            final int newId = ids.size();
+            ids.put(string, newId);
+
+            writeVarint(output, ((long) StringUtils.utf8Length(string) << 2) | FRAME_STRING);
+            StringUtils.writeUtf8(output, string);
+
+            return newId;
+        }
+    }
+
+    /**
+     * Reads the frames of a file from the start (or from a {@link Checkpoint}). String frames are
+     * added to the dictionary while reading; event frames can be written as JSON.
+     */
+    public static class Reader {
+        private final InputStream input;
+        private final long fileLength;
+        private final List<String> strings;
+
+        private byte[] payload;
+        private int type;
+        private int length;
+        private long frameStart;
+        private long position;
+
+        // The timestamp of the last event frame: Event frames contain the difference to it.
+        private long timestamp;
+
+        // The position in the payload after the timestamp of the current event frame.
+        private int payloadStart;
+
+        /**
+         * @param input A (buffered) stream positioned at the start of the file.
+         */
+        public Reader(InputStream input) {
+            this(input, Long.MAX_VALUE);
+        }
+
+        /**
+         * @param input A (buffered) stream positioned at the start of the file.
+         * @param length The length of the file: No frame can end after it.
+         */
+        public Reader(InputStream input, long length) {
+            this.input = input;
+            this.fileLength = length;
+            this.strings = new ArrayList<>();
+            this.payload = new byte[256];
+        }
+
+        /**
+         * Continue reading a file at a checkpoint without reading the frames before it again.
+         *
+         * @param input A (buffered) stream positioned at the position of the checkpoint.
+         * @param length The length of the file: No frame can end after it.
+         */
+        public Reader(InputStream input, long length, Checkpoint checkpoint) {
+            this.input = input;
+            this.fileLength = length;
+            this.strings = new ArrayList<>(checkpoint.strings.subList(0, checkpoint.stringCount));
+            this.payload = new byte[256];
+            this.position = checkpoint.position;
+            this.timestamp = checkpoint.timestamp;
+        }
+
+        /**
+         * Read the next frame. Returns false at the end of the file or if the next frame is
+         * incomplete or not a valid frame (e.g. the app has been killed while writing it).
+         */
+        public boolean next() throws IOException {
+            frameStart = position;
+
+            long header = 0;
+            int headerLength = 0;
+            for (int shift = 0; ; shift += 7) {
+                final int b = input.read();
+                if (b == -1 || shift > 35) {
+                    return false;
+                }
+                headerLength++;
+                header |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+
+            final int frameType = (int) (header & 0x3);
+            final long frameLength = header >>> 2;
+            if ((frameType != FRAME_STRING && frameType != FRAME_EVENT)
+                    || frameLength > MAX_FRAME_LENGTH
+                    || frameLength > fileLength - frameStart - headerLength) {
+                // Do not allocate a buffer for a length we can't read anyways.
+                return false;
+            }
+
+            if (payload.length < frameLength) {
+                payload = new byte[Math.max((int) frameLength, payload.length * 2)];
+            }
+
+            int read = 0;
+            while (read < frameLength) {
+                final int count = input.read(payload, read, (int) frameLength - read);
+                if (count == -1) {
+                    return false;
+                }
+                read += count;
+            }
+
+            type = frameType;
+            length = (int) frameLength;
+            position = frameStart + headerLength + length;
+
+            if (type == FRAME_STRING) {
+                strings.add(new String(payload, 0, length, UTF_8));
+            } else {
+                final PayloadReader reader = new PayloadReader(payload, length);
+                timestamp += reader.readZigZag();
+                payloadStart = reader.position;
+            }
+
+            return true;
+        }
+
+        public boolean isEvent() {
+            return type == FRAME_EVENT;
+        }
+
+        /**
+         * Returns the offset of the current frame in the file.
+         */
+        public long getFrameStart() {
+            return frameStart;
+        }
+
+        /**
+         * Returns the offset after the current frame.
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * Returns the strings defined so far.
+         */
+        public List<String> getStrings() {
+            return strings;
+        }
+
+        /**
+         * Returns a checkpoint after the current frame. Creating a checkpoint does not copy the
+         * dictionary.
+         */
+        public Checkpoint checkpoint() {
+            return new Checkpoint(position, strings, strings.size(), timestamp);
+        }
+
+        /**
+         * Write the current event frame as JSON array.
+         */
+        public void writeJSON(Appendable output) throws IOException {
+            if (type != FRAME_EVENT) {
+                throw new IllegalStateException("Not an event frame");
+            }
+
+            final PayloadReader reader = new PayloadReader(payload, length);
+            reader.position = payloadStart;
+
+            output.append('[');
+            JSONStreamWriter.writeNumber(timestamp, output);
+            output.append(',');
+            quote(getString(reader.readVarint()), output);
+            output.append(',');
+            quote(getString(reader.readVarint()), output);
+            output.append(',');
+
+            final int object = reader.readVarint();
+            if (object != 0) {
+                quote(getString(object - 1), output);
+            } else {
+                output.append("null");
+            }
+
+            final String value = reader.hasRemaining() ? reader.readString() : null;
+            if (value != null) {
+                output.append(',');
+                quote(value, output);
+            }
+
+            final int extras = reader.hasRemaining() ? reader.readVarint() : 0;
+            if (extras > 0) {
+                output.append(value == null ? ",null,{" : ",{");
+
+                for (int i = 0; i < extras; i++) {
+                    if (i > 0) {
+                        output.append(',');
+                    }
+                    quote(getString(reader.readVarint()), output);
+                    output.append(':');
+
+                    final String extra = reader.readString();
+                    if (extra != null) {
+                        quote(extra, output);
+                    } else {
+                        output.append("null");
+                    }
+                }
+
+                output.append('}');
+            }
+
+            output.append(']');
+        }
+
+        private static void quote(String string, Appendable output) throws IOException {
+            JSONStreamWriter.quote(string, Integer.MAX_VALUE, output);
+        }
+
+        private String getString(int id) throws IOException {
+            if (id < 0 || id >= strings.size()) {
+                throw new IOException("Unknown string id in event frame: " + id);
+            }
+            return strings.get(id);
+        }
+    }
+
+    /**
+     * The state of a reader between two frames: Its position in the file, the dictionary and the
+     * timestamp of the last event. The dictionary of a reader only grows: The checkpoint remembers
+     * how many of its strings have been defined before the position.
+     */
+    public static final class Checkpoint {
+        private final long position;
+        private final List<String> strings;
+        private final int stringCount;
+        private final long timestamp;
+
+        private Checkpoint(long position, List<String> strings, int stringCount, long timestamp) {
+            this.position = position;
+            this.strings = strings;
+            this.stringCount = stringCount;
+            this.timestamp = timestamp;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+    }
+
+    /**
+     * A byte array output stream that can be copied to another stream without creating a copy of
+     * its buffer.
+     */
+    private static class FrameBuffer extends ByteArrayOutputStream {
+        private void copyTo(ByteArrayOutputStream output) {
+            output.write(buf, 0, count);
+        }
+    }
+
+    /**
+     * Reads the fields of an event frame.
+     */
+    private static class PayloadReader {
+        private final byte[] data;
+        private final int length;
+        private int position;
+
+        private PayloadReader(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        private boolean hasRemaining() {
+            return position < length;
+        }
+
+        private int readVarint() throws IOException {
+            return (int) readVarLong();
+        }
+
+        private long readZigZag() throws IOException {
+            final long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= length) {
+                    throw new IOException("Truncated event frame");
+                }
+                final int b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in event frame");
+        }
+
+        private String readString() throws IOException {
+            final int lengthAndOne = readVarint();
+            if (lengthAndOne == 0) {
+                return null;
+            }
+
+            final int stringLength = lengthAndOne - 1;
+            if (stringLength < 0 || position + stringLength > length) {
+                throw new IOException("Truncated event frame");
+            }
+
+            final String string = new String(data, position, stringLength, UTF_8);
+            position += stringLength;
+            return string;
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream output, long value) {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    private static void writeZigZag(ByteArrayOutputStream output, long value) {
+        writeVarint(output, (value << 1) ^ (value >> 63));
+    }
+
+    private static void writeStringField(ByteArrayOutputStream output, String value) {
+        if (value == null) {
+            output.write(0);
+            return;
+        }
+        writeVarint(output, StringUtils.utf8Length(value) + 1);
+        StringUtils.writeUtf8(output, value);
+    }
+}
@@ -0,0 +1,204 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.event;
+
+import androidx.annotation.RestrictTo;
+
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Combines identical events (same category, method, object, value and extras) that are recorded
+ * within a short time window into a single event. Only events of categories with an aggregation
+ * window ({@link TelemetryConfiguration#setEventAggregationWindow(String, long)}) are aggregated.
+ *
+ * The combined event is a copy of the first event of the window: The events added are never
+ * modified. If more than one event has been combined then the copy gets two additional extras:
+ * "count" (the number of events) and "last_timestamp" (the timestamp of the last event). A single
+ * event is passed on unchanged. Events that already have one of those extras are not aggregated.
+ *
+ * An aggregate is complete once an event is added whose timestamp is past the window of the
+ * aggregate. Aggregates that are still open are returned by {@link #takeAll(List)}. This class is
+ * not thread-safe: It is only used from the telemetry executor thread.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class EventAggregator {
+    static final String EXTRA_COUNT = "count";
+    static final String EXTRA_LAST_TIMESTAMP = "last_timestamp";
+
+    // Aggregation holds events back in memory: Do not hold back more than this number of aggregates.
+    private static final int MAXIMUM_PENDING_AGGREGATES = 100;
+
+    private final TelemetryConfiguration configuration;
+    private final LinkedHashMap<Key, Aggregate> pending;
+
+    // Re-used for looking up the aggregate of an event.
+    private final Key probe;
+
+    public EventAggregator(TelemetryConfiguration configuration) {
+        this.configuration = configuration;
+        this.pending = new LinkedHashMap<>();
+        this.probe = new Key();
+    }
+
+    /**
+     * Add an event. Events that are not aggregated are added to the output list right away,
+     * aggregates once they are complete.
+     */
+    public void add(TelemetryEvent event, List<TelemetryEvent> output) {
+        takeExpired(event.getTimestamp(), output);
+
+        final long window = configuration.getEventAggregationWindow(event.getCategory());
+        if (window <= 0 || event.getExtraCount() + 2 > TelemetryEvent.MAX_EXTRA_KEYS
+                || getExtra(event, EXTRA_COUNT) != null || getExtra(event, EXTRA_LAST_TIMESTAMP) != null) {
+            output.add(event);
+            return;
+        }
+
+        probe.event = event;
+        final Aggregate aggregate = pending.get(probe);
+        probe.event = null;
+
+        if (aggregate != null) {
+            aggregate.add(event);
+            return;
+        }
+
+        if (pending.size() >= MAXIMUM_PENDING_AGGREGATES) {
+            final Iterator<Aggregate> iterator = pending.values().iterator();
+            output.add(iterator.next().toEvent());
+            iterator.remove();
+        }
+
+        pending.put(new Key(event), new Aggregate(event, window));
+    }
+
+    /**
+     * Add all aggregates (complete or not) to the output list.
+     */
+    public void takeAll(List<TelemetryEvent> output) {
+        for (Aggregate aggregate : pending.values()) {
+            output.add(aggregate.toEvent());
+        }
+        pending.clear();
+    }
+
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    private void takeExpired(long timestamp, List<TelemetryEvent> output) {
+        final Iterator<Map.Entry<Key, Aggregate>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Aggregate aggregate = iterator.next().getValue();
+            if (timestamp >= aggregate.end) {
+                output.add(aggregate.toEvent());
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String getExtra(TelemetryEvent event, String key) {
+        for (int i = 0; i < event.getExtraCount(); i++) {
+            if (event.getExtraKey(i).equals(key)) {
+                return event.getExtraValue(i);
+            }
+        }
+        return null;
+    }
+
+    private static class Aggregate {
+        private final TelemetryEvent first;
+        private final long end;
+        private long lastTimestamp;
+        private int count;
+
+        private Aggregate(TelemetryEvent first, long window) {
+            this.first = first;
+            this.end = first.getTimestamp() + window;
+            this.lastTimestamp = first.getTimestamp();
+            this.count = 1;
+        }
+
+        private void add(TelemetryEvent event) {
+            lastTimestamp = Math.max(lastTimestamp, event.getTimestamp());
+            count++;
+        }
+
+        private TelemetryEvent toEvent() {
+            if (count == 1) {
+                return first;
+            }
+
+            return first.copy()
+                    .extra(EXTRA_COUNT, String.valueOf(count))
+                    .extra(EXTRA_LAST_TIMESTAMP, String.valueOf(lastTimestamp));
+        }
+    }
+
+    /**
+     * Identity of an event for aggregation: Everything but the timestamp.
+     */
+    private static class Key {
+        private TelemetryEvent event;
+
+        private Key() {}
+
+        private Key(TelemetryEvent event) {
+            this.event = event;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final TelemetryEvent other = ((Key) o).event;
+            return event.getCategory().equals(other.getCategory())
+                    && event.getMethod().equals(other.getMethod())
+                    && equal(event.getObject(), other.getObject())
+                    && equal(event.getValue(), other.getValue())
+                    && equalExtras(event, other);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = event.getCategory().hashCode();
+            hash = 31 * hash + event.getMethod().hashCode();
+            hash = 31 * hash + (event.getObject() != null ? event.getObject().hashCode() : 0);
+            hash = 31 * hash + (event.getValue() != null ? event.getValue().hashCode() : 0);
+            for (int i = 0; i < event.getExtraCount(); i++) {
+                // Independent of the order of the extras, like the hash code of a map.
+                hash += event.getExtraKey(i).hashCode() ^ event.getExtraValue(i).hashCode();
+            }
+            return hash;
+        }
+
+        /**
+         * Compares the extras of the events independent of the order they have been added in.
+         */
+        private static boolean equalExtras(TelemetryEvent event, TelemetryEvent other) {
+            if (event.getExtraCount() != other.getExtraCount()) {
+                return false;
+            }
+
+            for (int i = 0; i < event.getExtraCount(); i++) {
+                if (!event.getExtraValue(i).equals(getExtra(other, event.getExtraKey(i)))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
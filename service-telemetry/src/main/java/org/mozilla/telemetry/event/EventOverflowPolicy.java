@@ -0,0 +1,26 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.event;
+
+/**
+ * What to do with a queued event if the event queue is full.
+ */
+public enum EventOverflowPolicy {
+    /**
+     * Drop the oldest queued event to make room for the new event.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the new event.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Block the calling thread until there's room for the new event. Do not use this policy if
+     * events are queued from a thread that must not be blocked (e.g. the UI thread).
+     */
+    BLOCK
+}
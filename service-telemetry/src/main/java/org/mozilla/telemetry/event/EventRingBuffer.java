@@ -0,0 +1,171 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.event;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue for events: Any number of threads can offer events while a single thread
+ * drains them.
+ *
+ * The slots are allocated upfront. Every slot carries a sequence number that tells producers and
+ * the consumer whether the slot is free or filled for the current lap around the ring. Claiming a
+ * slot is a single compare-and-set on the tail (or head) counter - queueing an event never takes a
+ * lock and does not allocate.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class EventRingBuffer {
+    private static final long BLOCK_PARK_NANOS = 100000;
+
+    private final int mask;
+    private final AtomicReferenceArray<TelemetryEvent> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head;
+    private final AtomicLong tail;
+    private final AtomicLong droppedEvents;
+
+    private final EventOverflowPolicy overflowPolicy;
+
+    /**
+     * @param capacity Maximum number of queued events. Rounded up to the next power of two (and at
+     *                 least two).
+     */
+    public EventRingBuffer(int capacity, EventOverflowPolicy overflowPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        // With a single slot the sequence number of a free slot could not be told apart from the
+        // sequence number of a filled one.
+        final int size = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+        this.droppedEvents = new AtomicLong();
+        this.overflowPolicy = overflowPolicy;
+
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Queue an event. Returns false if the event (or an older event for DROP_OLDEST) has been
+     * dropped because the queue was full.
+     */
+    public boolean offer(TelemetryEvent event) {
+        if (tryOffer(event)) {
+            return true;
+        }
+
+        switch (overflowPolicy) {
+            case DROP_NEWEST:
+                droppedEvents.incrementAndGet();
+                return false;
+
+            case DROP_OLDEST:
+                do {
+                    if (poll() != null) {
+                        droppedEvents.incrementAndGet();
+                    }
+                } while (!tryOffer(event));
+                return false;
+
+            case BLOCK:
+                do {
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                } while (!tryOffer(event));
+                return true;
+
+            default:
+                throw new IllegalStateException("Unknown overflow policy: " + overflowPolicy);
+        }
+    }
+
+    /**
+     * Remove and return the oldest queued event or null if the queue is empty.
+     */
+    @Nullable
+    public TelemetryEvent poll() {
+        long position = head.get();
+
+        while (true) {
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - (position + 1);
+
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final TelemetryEvent event = slots.get(index);
+                    slots.lazySet(index, null);
+
+                    // Release the slot for the next lap.
+                    sequences.lazySet(index, position + mask + 1);
+                    return event;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                // The slot has not been filled yet: The queue is empty.
+                return null;
+            } else {
+                // Another thread has taken this event already.
+                position = head.get();
+            }
+        }
+    }
+
+    private boolean tryOffer(TelemetryEvent event) {
+        long position = tail.get();
+
+        while (true) {
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, event);
+
+                    // Publish the event to the consumer.
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // The slot still holds an event from the previous lap: The queue is full.
+                return false;
+            } else {
+                // Another producer has claimed this slot already.
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Returns the approximate number of queued events.
+     */
+    public int size() {
+        final long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the number of events that have been dropped because the queue was full.
+     */
+    public long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+}
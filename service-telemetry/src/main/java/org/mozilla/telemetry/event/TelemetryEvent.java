@@ -9,17 +9,21 @@ import androidx.annotation.CheckResult;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
-import org.json.JSONArray;
-import org.json.JSONObject;
 import org.mozilla.telemetry.TelemetryHolder;
+import org.mozilla.telemetry.serialize.JSONStreamWriter;
 import org.mozilla.telemetry.util.StringUtils;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * TelemetryEvent specifies a common events data format, which allows for broader, shared usage of
  * data processing tools.
+ *
+ * Creating and serializing events happens for every recorded event: The strings passed in are kept
+ * as they are and only truncated to their maximum length when the event is written. Extras are
+ * kept in two arrays that are only allocated once the first extra is added. Writing an event with
+ * {@link #writeTo(Appendable)} does not allocate.
  */
 public class TelemetryEvent {
     private static final long startTime = SystemClock.elapsedRealtime();
@@ -28,7 +32,7 @@ public class TelemetryEvent {
     private static final int MAX_LENGTH_METHOD = 20;
     private static final int MAX_LENGTH_OBJECT = 20;
     private static final int MAX_LENGTH_VALUE = 80;
-    private static final int MAX_EXTRA_KEYS = 200;
+    static final int MAX_EXTRA_KEYS = 200;
     private static final int MAX_LENGTH_EXTRA_KEY = 15;
     private static final int MAX_LENGTH_EXTRA_VALUE = 80;
 
@@ -84,34 +88,109 @@ public class TelemetryEvent {
     private @Nullable String value;
 
     /**
-     * Optional, may be null. This is an object of the form {"key": "value", ...}, used for events
-     * where additional context is needed.
+     * Optional, may be empty. Keys and values of the object of the form {"key": "value", ...}, used
+     * for events where additional context is needed. Only the first extraCount entries are used.
      */
-    private final Map<String, Object> extras;
+    private String[] extraKeys;
+    private String[] extraValues;
+    private int extraCount;
 
     private TelemetryEvent(@NonNull String category, @NonNull String method, @Nullable String object, @Nullable String value) {
         timestamp = SystemClock.elapsedRealtime() - startTime;
 
         // We are naively assuming that all strings here are ASCII (1 character = 1 bytes) as the max lengths are defined in bytes
         // There's an opportunity here to make this more strict and throw - however we may want to make this configurable.
-        this.category = StringUtils.safeSubstring(category, 0, MAX_LENGTH_CATEGORY);
-        this.method = StringUtils.safeSubstring(method, 0, MAX_LENGTH_METHOD);
-        this.object = object == null ? null : StringUtils.safeSubstring(object, 0, MAX_LENGTH_OBJECT);
-        this.value = value == null ? null : StringUtils.safeSubstring(value, 0, MAX_LENGTH_VALUE);
-        this.extras = new HashMap<>();
+        // The strings are truncated when they are read or written (see getters and writeTo()).
+        this.category = category;
+        this.method = method;
+        this.object = object;
+        this.value = value;
+    }
+
+    private TelemetryEvent(TelemetryEvent other) {
+        this.timestamp = other.timestamp;
+        this.category = other.category;
+        this.method = other.method;
+        this.object = other.object;
+        this.value = other.value;
+
+        if (other.extraCount > 0) {
+            this.extraKeys = Arrays.copyOf(other.extraKeys, other.extraKeys.length);
+            this.extraValues = Arrays.copyOf(other.extraValues, other.extraValues.length);
+            this.extraCount = other.extraCount;
+        }
     }
 
     public TelemetryEvent extra(String key, String value) {
-        if (extras.size() > MAX_EXTRA_KEYS) {
+        if (key == null || value == null) {
+            throw new NullPointerException("Extra key and value must not be null");
+        }
+
+        if (extraCount > MAX_EXTRA_KEYS) {
             throw new IllegalArgumentException("Exceeding limit of " + MAX_EXTRA_KEYS + " extra keys");
         }
 
-        extras.put(StringUtils.safeSubstring(key, 0, MAX_LENGTH_EXTRA_KEY),
-                StringUtils.safeSubstring(value, 0, MAX_LENGTH_EXTRA_VALUE));
+        for (int i = 0; i < extraCount; i++) {
+            if (equalsTruncated(extraKeys[i], key, MAX_LENGTH_EXTRA_KEY)) {
+                extraValues[i] = value;
+                return this;
+            }
+        }
+
+        if (extraKeys == null) {
+            extraKeys = new String[4];
+            extraValues = new String[4];
+        } else if (extraCount == extraKeys.length) {
+            extraKeys = Arrays.copyOf(extraKeys, extraCount * 2);
+            extraValues = Arrays.copyOf(extraValues, extraCount * 2);
+        }
+
+        extraKeys[extraCount] = key;
+        extraValues[extraCount] = value;
+        extraCount++;
 
         return this;
     }
 
+    /**
+     * Returns a copy of this event (with the same timestamp) that can be modified independently.
+     */
+    TelemetryEvent copy() {
+        return new TelemetryEvent(this);
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    String getCategory() {
+        return StringUtils.safeSubstring(category, 0, MAX_LENGTH_CATEGORY);
+    }
+
+    String getMethod() {
+        return StringUtils.safeSubstring(method, 0, MAX_LENGTH_METHOD);
+    }
+
+    @Nullable String getObject() {
+        return object == null ? null : StringUtils.safeSubstring(object, 0, MAX_LENGTH_OBJECT);
+    }
+
+    @Nullable String getValue() {
+        return value == null ? null : StringUtils.safeSubstring(value, 0, MAX_LENGTH_VALUE);
+    }
+
+    int getExtraCount() {
+        return extraCount;
+    }
+
+    String getExtraKey(int index) {
+        return StringUtils.safeSubstring(extraKeys[index], 0, MAX_LENGTH_EXTRA_KEY);
+    }
+
+    String getExtraValue(int index) {
+        return StringUtils.safeSubstring(extraValues[index], 0, MAX_LENGTH_EXTRA_VALUE);
+    }
+
     /**
      * Queue this event to be sent with the next event ping.
      */
@@ -124,25 +203,62 @@ public class TelemetryEvent {
      */
     @RestrictTo(RestrictTo.Scope.LIBRARY)
     public String toJSON() {
-        final JSONArray array = new JSONArray();
+        final StringBuilder builder = new StringBuilder(64);
 
-        array.put(timestamp);
-        array.put(category);
-        array.put(method);
-        array.put(object);
+        try {
+            writeTo(builder);
+        } catch (IOException e) {
+            throw new AssertionError("StringBuilder can't throw IOException", e);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Write the JSON representation of this event (see {@link #toJSON()}) to the output. Strings
+     * are truncated and escaped while they are written.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void writeTo(Appendable output) throws IOException {
+        output.append('[');
+        JSONStreamWriter.writeNumber(timestamp, output);
+        output.append(',');
+        JSONStreamWriter.quote(category, MAX_LENGTH_CATEGORY, output);
+        output.append(',');
+        JSONStreamWriter.quote(method, MAX_LENGTH_METHOD, output);
+        output.append(',');
+
+        if (object != null) {
+            JSONStreamWriter.quote(object, MAX_LENGTH_OBJECT, output);
+        } else {
+            output.append("null");
+        }
 
         if (value != null) {
-            array.put(value);
+            output.append(',');
+            JSONStreamWriter.quote(value, MAX_LENGTH_VALUE, output);
         }
 
-        if (extras != null && !extras.isEmpty()) {
-            if (value == null) {
-                array.put(null);
+        if (extraCount > 0) {
+            output.append(value == null ? ",null,{" : ",{");
+
+            for (int i = 0; i < extraCount; i++) {
+                if (i > 0) {
+                    output.append(',');
+                }
+                JSONStreamWriter.quote(extraKeys[i], MAX_LENGTH_EXTRA_KEY, output);
+                output.append(':');
+                JSONStreamWriter.quote(extraValues[i], MAX_LENGTH_EXTRA_VALUE, output);
             }
 
-            array.put(new JSONObject(extras));
+            output.append('}');
         }
 
-        return array.toString();
+        output.append(']');
+    }
+
+    private static boolean equalsTruncated(String a, String b, int maxLength) {
+        final int length = Math.min(a.length(), maxLength);
+        return length == Math.min(b.length(), maxLength) && a.regionMatches(0, b, 0, length);
     }
 }
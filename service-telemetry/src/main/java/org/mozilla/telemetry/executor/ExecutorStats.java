@@ -0,0 +1,162 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.executor;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mozilla.telemetry.util.BucketHistogram;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live statistics of the telemetry executor (since the process has been started): How many tasks
+ * are waiting, how long they have been waiting before they started running, how long they ran and
+ * how many tasks could not be queued because the work queue was full.
+ */
+public class ExecutorStats {
+    // Buckets (in milliseconds) of the histogram of the time tasks are waiting in the queue.
+    private static final long[] WAIT_TIME_BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000 };
+
+    private final Queue<Runnable> queue;
+    private final int queueCapacity;
+
+    private final AtomicInteger maximumQueueDepth = new AtomicInteger();
+    private final AtomicLong executedTasks = new AtomicLong();
+    private final AtomicLong rejectedTasks = new AtomicLong();
+    private final AtomicLong droppedTasks = new AtomicLong();
+    // Most tasks run for less than a millisecond: Run times are summed up in nanoseconds.
+    private final AtomicLong totalRunTimeNanos = new AtomicLong();
+    private final AtomicLong maximumRunTimeNanos = new AtomicLong();
+    private final BucketHistogram waitTimeHistogram = new BucketHistogram(WAIT_TIME_BUCKETS);
+
+    ExecutorStats(Queue<Runnable> queue, int queueCapacity) {
+        this.queue = queue;
+        this.queueCapacity = queueCapacity;
+    }
+
+    void onTaskQueued() {
+        final int depth = queue.size();
+
+        int maximum;
+        while (depth > (maximum = maximumQueueDepth.get())) {
+            if (maximumQueueDepth.compareAndSet(maximum, depth)) {
+                break;
+            }
+        }
+    }
+
+    void onTaskRejected() {
+        rejectedTasks.incrementAndGet();
+    }
+
+    void onTaskDropped() {
+        droppedTasks.incrementAndGet();
+    }
+
+    void onTaskStarted(long waitTimeNanos) {
+        waitTimeHistogram.record(TimeUnit.NANOSECONDS.toMillis(waitTimeNanos));
+    }
+
+    void onTaskFinished(long runTimeNanos) {
+        executedTasks.incrementAndGet();
+        totalRunTimeNanos.addAndGet(runTimeNanos);
+
+        long maximum;
+        while (runTimeNanos > (maximum = maximumRunTimeNanos.get())) {
+            if (maximumRunTimeNanos.compareAndSet(maximum, runTimeNanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of tasks currently waiting in the queue.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Returns the highest number of tasks that have been waiting in the queue at the same time.
+     */
+    public int getMaximumQueueDepth() {
+        return maximumQueueDepth.get();
+    }
+
+    public long getExecutedTasks() {
+        return executedTasks.get();
+    }
+
+    /**
+     * Returns the number of tasks that found the queue full. What happened to them depends on the
+     * {@link TaskRejectionPolicy}.
+     */
+    public long getRejectedTasks() {
+        return rejectedTasks.get();
+    }
+
+    /**
+     * Returns the number of tasks that have been dropped without running.
+     */
+    public long getDroppedTasks() {
+        return droppedTasks.get();
+    }
+
+    /**
+     * Returns the histogram of the time (in milliseconds) tasks have been waiting in the queue
+     * before they started running.
+     */
+    public BucketHistogram getWaitTimeHistogram() {
+        return waitTimeHistogram;
+    }
+
+    /**
+     * Returns the average time (in milliseconds, with fractions) a task ran.
+     */
+    public double getAverageRunTime() {
+        final long tasks = executedTasks.get();
+        return tasks > 0 ? toMillis(totalRunTimeNanos.get()) / tasks : 0;
+    }
+
+    /**
+     * Returns the time (in milliseconds, with fractions) of the longest running task.
+     */
+    public double getMaximumRunTime() {
+        return toMillis(maximumRunTimeNanos.get());
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public JSONObject toJSON() {
+        try {
+            return new JSONObject()
+                    .put("queueDepth", getQueueDepth())
+                    .put("queueCapacity", getQueueCapacity())
+                    .put("maximumQueueDepth", getMaximumQueueDepth())
+                    .put("executed", getExecutedTasks())
+                    .put("rejected", getRejectedTasks())
+                    .put("dropped", getDroppedTasks())
+                    .put("averageRunTime", getAverageRunTime())
+                    .put("maximumRunTime", getMaximumRunTime())
+                    .put("waitTime", waitTimeHistogram.toJSON());
+        } catch (JSONException e) {
+            throw new AssertionError("Can't create executor stats JSON", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutorStats" + toJSON();
+    }
+}
@@ -0,0 +1,32 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.executor;
+
+/**
+ * What to do with a new background task if the work queue of the telemetry executor is full.
+ */
+public enum TaskRejectionPolicy {
+    /**
+     * Drop the oldest queued task to make room for the new task.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the new task.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Block the calling thread until there's room for the new task. Tasks queued from the executor
+     * thread itself run right away. Calls from the UI thread can block it while the disk is slow.
+     */
+    BLOCK,
+
+    /**
+     * Run the new task on the calling thread. Do not use this policy if telemetry is used from a
+     * thread that must not do disk I/O (e.g. the UI thread).
+     */
+    CALLER_RUNS
+}
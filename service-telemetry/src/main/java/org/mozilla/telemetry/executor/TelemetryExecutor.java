@@ -0,0 +1,151 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.executor;
+
+import androidx.annotation.RestrictTo;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import mozilla.components.support.base.log.logger.Logger;
+
+/**
+ * Single background thread running the work of the Telemetry class (storing pings, writing events
+ * to disk, scheduling uploads) one task after another.
+ *
+ * Unlike Executors.newSingleThreadExecutor() the work queue is bounded: If tasks are queued faster
+ * than the disk can keep up with, the {@link TaskRejectionPolicy} decides what happens to new tasks
+ * instead of letting the queue grow without limit. Every task is timed; the results are available
+ * from {@link #getStats()}.
+ *
+ * A task that throws is logged and does not stop the executor.
+ *
+ * Tasks queued by a task running on the executor thread never block that thread: With the BLOCK
+ * policy the thread would wait for a queue that only it drains. Such tasks run right away instead.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class TelemetryExecutor extends ThreadPoolExecutor {
+    private final Logger logger = new Logger("telemetry/executor");
+    private final TaskRejectionPolicy rejectionPolicy;
+    private final ExecutorStats stats;
+    private volatile Thread workerThread;
+
+    public TelemetryExecutor(int capacity, TaskRejectionPolicy rejectionPolicy) {
+        super(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "Telemetry");
+            }
+        });
+
+        this.rejectionPolicy = rejectionPolicy;
+        this.stats = new ExecutorStats(getQueue(), capacity);
+
+        setRejectedExecutionHandler(new RejectionHandler());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(new TimedTask(command, System.nanoTime()));
+        stats.onTaskQueued();
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable task) {
+        workerThread = thread;
+    }
+
+    public ExecutorStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Called if a task has been dropped (by DROP_OLDEST or DROP_NEWEST) and will never run. Tasks
+     * passed to submit() are wrapped in a Future: Waiting for the result of a dropped task blocks
+     * forever.
+     */
+    protected void onTaskDropped(Runnable task) {}
+
+    private void drop(Runnable task) {
+        stats.onTaskDropped();
+        onTaskDropped(((TimedTask) task).task);
+    }
+
+    private class RejectionHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (isShutdown()) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+
+            stats.onTaskRejected();
+
+            switch (rejectionPolicy) {
+                case DROP_NEWEST:
+                    drop(task);
+                    break;
+
+                case DROP_OLDEST:
+                    final Runnable oldestTask = getQueue().poll();
+                    if (oldestTask != null) {
+                        drop(oldestTask);
+                    }
+                    TelemetryExecutor.super.execute(task);
+                    break;
+
+                case BLOCK:
+                    if (Thread.currentThread() == workerThread) {
+                        task.run();
+                        break;
+                    }
+
+                    try {
+                        // The worker thread is always running (core pool size): The task can go
+                        // straight into the queue.
+                        getQueue().put(task);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        drop(task);
+                    }
+                    break;
+
+                case CALLER_RUNS:
+                    task.run();
+                    break;
+
+                default:
+                    throw new AssertionError("Unknown rejection policy: " + rejectionPolicy);
+            }
+        }
+    }
+
+    private class TimedTask implements Runnable {
+        private final Runnable task;
+        private final long queuedNanos;
+
+        private TimedTask(Runnable task, long queuedNanos) {
+            this.task = task;
+            this.queuedNanos = queuedNanos;
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            stats.onTaskStarted(start - queuedNanos);
+
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.warn("Background task failed", e);
+            } finally {
+                stats.onTaskFinished(System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -21,6 +21,11 @@ public class ArchMeasurement extends TelemetryMeasurement {
         return getArchitecture();
     }
 
+    @Override
+    public Object getCacheToken() {
+        return PROCESS_STATIC;
+    }
+
     @VisibleForTesting String getArchitecture() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             return Build.SUPPORTED_ABIS[0];
@@ -4,9 +4,8 @@
 
 package org.mozilla.telemetry.measurement;
 
-import android.content.SharedPreferences;
-
 import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.storage.TelemetryKeyValueStore;
 
 import java.util.UUID;
 
@@ -37,18 +36,20 @@ public class ClientIdMeasurement extends TelemetryMeasurement {
     }
 
     private static synchronized String generateClientId(final TelemetryConfiguration configuration) {
-        final SharedPreferences preferences = configuration.getSharedPreferences();
+        final TelemetryKeyValueStore store = configuration.getKeyValueStore();
 
-        if (preferences.contains(PREFERENCE_CLIENT_ID)) {
+        if (store.contains(PREFERENCE_CLIENT_ID)) {
             // We already generated a client id in the past. Let's use it.
-            return preferences.getString(PREFERENCE_CLIENT_ID, /* unused default value */ null);
+            return store.getString(PREFERENCE_CLIENT_ID, /* unused default value */ null);
         }
 
         final String clientId = UUID.randomUUID().toString();
 
-        preferences.edit()
-                .putString(PREFERENCE_CLIENT_ID, clientId)
-                .apply();
+        store.putString(PREFERENCE_CLIENT_ID, clientId);
+
+        // Do not wait for the delayed write: If the process is killed before then, the next
+        // session would generate a different client id.
+        store.flush();
 
         return clientId;
     }
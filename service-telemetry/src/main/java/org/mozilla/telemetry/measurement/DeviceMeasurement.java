@@ -26,6 +26,11 @@ public class DeviceMeasurement extends TelemetryMeasurement {
         return StringUtils.safeSubstring(getManufacturer(), 0, 12) + '-' +  StringUtils.safeSubstring(getModel(), 0, 19);
     }
 
+    @Override
+    public Object getCacheToken() {
+        return PROCESS_STATIC;
+    }
+
     @VisibleForTesting String getManufacturer() {
         return Build.MANUFACTURER;
     }
@@ -0,0 +1,945 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.measurement;
+
+import android.os.SystemClock;
+import androidx.annotation.VisibleForTesting;
+
+import org.mozilla.telemetry.event.BinaryEventFormat;
+import org.mozilla.telemetry.event.TelemetryEvent;
+import org.mozilla.telemetry.serialize.RawJSONValue;
+import org.mozilla.telemetry.util.IOUtils;
+import org.mozilla.telemetry.util.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import mozilla.components.support.base.log.logger.Logger;
+
+/**
+ * Append-only journal for recorded events: One record (line) per event.
+ *
+ * The journal keeps a single FileChannel open in append mode. Appended records are buffered in
+ * memory and written to disk with a single write (group commit) once the buffered records exceed
+ * the flush threshold, once the flush interval has passed or when flush() is called explicitly.
+ * The first buffered record schedules a flush at the end of the flush interval: Records are written
+ * even if no further record is appended.
+ *
+ * Building a ping moves the records into a backlog file. The backlog is added to pings in chunks
+ * (see {@link #takeChunk(int, long)}) that are streamed into the ping without parsing the records.
+ * Only the records of a committed chunk are consumed: The backlog keeps a cursor (the offset of
+ * the first record that has not been committed) that is replaced atomically. A chunk that has not
+ * been committed (e.g. because the app has been killed) is taken again - with the same records
+ * and the same document id.
+ *
+ * The number of records is kept in memory. It is counted once when the journal is opened. At the
+ * same time an incomplete last record (e.g. the app has been killed in the middle of a write) is
+ * truncated.
+ *
+ * Records are JSON lines by default. In the {@link EventJournalFormat#BINARY} format the journal
+ * and the backlog are sequences of {@link BinaryEventFormat} frames instead, with a dictionary per
+ * file: The journal starts a new dictionary whenever its records are moved into a backlog. Binary
+ * records are converted to JSON when a chunk is written to a ping.
+ */
+class EventJournal {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 4096;
+
+    // Shared by all journals: Runs the flushes scheduled at the end of the flush interval.
+    private static ScheduledExecutorService scheduler;
+
+    private final Logger logger;
+    private final File file;
+    private final File backlogFile;
+    private final File cursorFile;
+    private final File temporaryCursorFile;
+    private final int flushThreshold;
+    private final long flushInterval;
+    private final BinaryEventFormat.Encoder encoder;
+
+    private final ByteArrayOutputStream pendingRecords;
+
+    // Re-used for writing the JSON of an event before it is added to the buffered records.
+    private final StringBuilder pendingRecord;
+    private int pendingCount;
+    private long writtenCount;
+    private long lastFlush;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean recovered;
+
+    // The backlog: Its generation (a random id for every new backlog, null if there's no backlog),
+    // the offset of the first record that has not been committed and the number of records after it.
+    private String backlogGeneration;
+    private long backlogOffset;
+    private long backlogCount;
+
+    // Binary backlog: The dictionary (and timestamp) at backlogOffset, so that taking the next chunk
+    // does not need to read the backlog from the start. Null if it has not been read yet.
+    private BinaryEventFormat.Checkpoint backlogCheckpoint;
+
+    private FileOutputStream stream;
+    private FileChannel channel;
+
+    EventJournal(File file, int flushThreshold, long flushInterval) {
+        this(file, EventJournalFormat.JSON, flushThreshold, flushInterval);
+    }
+
+    EventJournal(File file, EventJournalFormat format, int flushThreshold, long flushInterval) {
+        this.logger = new Logger("telemetry/journal");
+        this.file = file;
+        this.backlogFile = new File(file.getPath() + ".backlog");
+        this.cursorFile = new File(file.getPath() + ".cursor");
+        this.temporaryCursorFile = new File(file.getPath() + ".cursor.tmp");
+        this.flushThreshold = flushThreshold;
+        this.flushInterval = flushInterval;
+        this.pendingRecords = new ByteArrayOutputStream();
+        this.pendingRecord = new StringBuilder();
+        this.encoder = format == EventJournalFormat.BINARY ? new BinaryEventFormat.Encoder() : null;
+    }
+
+    /**
+     * Append the event to the journal in the format of this journal.
+     */
+    synchronized void append(TelemetryEvent event) {
+        open();
+
+        if (encoder != null) {
+            encoder.encode(event, pendingRecords);
+        } else {
+            pendingRecord.setLength(0);
+
+            try {
+                event.writeTo(pendingRecord);
+            } catch (IOException e) {
+                throw new AssertionError("StringBuilder can't throw IOException", e);
+            }
+
+            StringUtils.writeUtf8(pendingRecords, pendingRecord);
+            pendingRecords.write('\n');
+        }
+
+        pendingCount++;
+
+        flushIfNeeded();
+    }
+
+    /**
+     * Append a record to the journal. The record must not contain a line break.
+     */
+    synchronized void append(String record) {
+        if (encoder != null) {
+            throw new IllegalStateException("Can't append JSON records to binary journal");
+        }
+
+        open();
+
+        final byte[] data = record.getBytes(UTF_8);
+        pendingRecords.write(data, 0, data.length);
+        pendingRecords.write('\n');
+        pendingCount++;
+
+        flushIfNeeded();
+    }
+
+    private void flushIfNeeded() {
+        final long sinceLastFlush = now() - lastFlush;
+
+        if (pendingRecords.size() >= flushThreshold || sinceLastFlush >= flushInterval) {
+            flush();
+        } else if (scheduledFlush == null && flushInterval != Long.MAX_VALUE) {
+            scheduledFlush = getScheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, flushInterval - sinceLastFlush, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Telemetry-EventJournal");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Write all buffered records to disk.
+     */
+    synchronized void flush() {
+        lastFlush = now();
+
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+
+        if (pendingCount == 0) {
+            return;
+        }
+
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(pendingRecords.toByteArray());
+            final FileChannel channel = getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            writtenCount += pendingCount;
+        } catch (IOException e) {
+            // Let's log a warning and move on. The buffered events are lost.
+            logger.warn("IOException while writing events to disk", e);
+            close();
+        } finally {
+            pendingRecords.reset();
+            pendingCount = 0;
+        }
+    }
+
+    /**
+     * Returns the number of records that have not been committed yet (backlog, journal and
+     * buffered records).
+     */
+    synchronized long getCount() {
+        open();
+
+        return backlogCount + writtenCount + pendingCount;
+    }
+
+    /**
+     * Returns true if there are records in the backlog that have not been committed yet.
+     */
+    synchronized boolean hasBacklog() {
+        open();
+
+        return backlogGeneration != null;
+    }
+
+    /**
+     * Returns the next chunk of records with at most maxRecords records and (unless a single record
+     * is larger) at most maxBytes bytes. If there's no backlog then the records of the journal are
+     * moved into a new backlog first. Until the chunk is committed the same chunk is returned again.
+     */
+    synchronized Chunk takeChunk(int maxRecords, long maxBytes) {
+        open();
+        flush();
+
+        if (backlogGeneration == null && !startBacklog()) {
+            return new Chunk(null, 0, 0, 0);
+        }
+
+        try {
+            return readChunk(maxRecords, maxBytes);
+        } catch (IOException e) {
+            logger.warn("IOException while reading events backlog", e);
+            return new Chunk(null, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Consume the records of the chunk: The chunk has been added to a ping that has been stored.
+     */
+    synchronized void commit(Chunk chunk) {
+        if (chunk.generation == null
+                || !chunk.generation.equals(backlogGeneration)
+                || chunk.start != backlogOffset) {
+            // Nothing to commit: Empty or already committed.
+            return;
+        }
+
+        backlogOffset = chunk.end;
+        backlogCount -= chunk.count;
+        backlogCheckpoint = chunk.endCheckpoint;
+
+        if (backlogCount <= 0 || backlogOffset >= backlogFile.length()) {
+            deleteBacklog();
+            return;
+        }
+
+        try {
+            writeCursor(backlogGeneration, backlogOffset);
+        } catch (IOException e) {
+            // After a restart the chunk will be taken again (with the same document id).
+            logger.warn("IOException while writing events backlog cursor", e);
+        }
+    }
+
+    /**
+     * Close the underlying channel. The journal will be re-opened if it is used again.
+     */
+    synchronized void close() {
+        IOUtils.safeClose(channel);
+        IOUtils.safeClose(stream);
+
+        channel = null;
+        stream = null;
+    }
+
+    private void open() {
+        try {
+            getChannel();
+        } catch (IOException e) {
+            logger.warn("IOException while opening events journal", e);
+        }
+    }
+
+    private FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            if (!recovered) {
+                recoverBacklog();
+                recovered = true;
+            }
+
+            writtenCount = recover();
+
+            stream = new FileOutputStream(file, true);
+            channel = stream.getChannel();
+
+            lastFlush = now();
+        }
+        return channel;
+    }
+
+    /**
+     * Move the records of the journal into a new backlog. Returns false if there are no records.
+     */
+    private boolean startBacklog() {
+        if (writtenCount == 0) {
+            return false;
+        }
+
+        close();
+
+        final String generation = UUID.randomUUID().toString();
+
+        try {
+            // The cursor is written first: A cursor without backlog is ignored.
+            writeCursor(generation, 0);
+        } catch (IOException e) {
+            logger.warn("IOException while writing events backlog cursor", e);
+            return false;
+        }
+
+        if (!file.renameTo(backlogFile)) {
+            // The records stay in the journal and we will try again with the next ping.
+            logger.warn("Events journal could not be moved to backlog", new IOException());
+            return false;
+        }
+
+        backlogGeneration = generation;
+        backlogOffset = 0;
+        backlogCount = writtenCount;
+        backlogCheckpoint = null;
+        writtenCount = 0;
+
+        return true;
+    }
+
+    private Chunk readChunk(int maxRecords, long maxBytes) throws IOException {
+        if (encoder != null) {
+            return readBinaryChunk(maxRecords, maxBytes);
+        }
+
+        final FileInputStream input = new FileInputStream(backlogFile);
+
+        try {
+            input.getChannel().position(backlogOffset);
+
+            final byte[] buffer = new byte[BUFFER_SIZE];
+
+            long position = backlogOffset;
+            long recordStart = backlogOffset;
+            long end = backlogOffset;
+            long bytes = 0;
+            int count = 0;
+
+            int read;
+            while (count < maxRecords && (read = input.read(buffer)) != -1) {
+                for (int i = 0; i < read && count < maxRecords; i++, position++) {
+                    if (buffer[i] != '\n') {
+                        continue;
+                    }
+
+                    final long recordSize = position - recordStart;
+                    recordStart = position + 1;
+
+                    if (recordSize > 0) {
+                        // Records are separated by a comma in the ping.
+                        final long size = bytes + recordSize + (count > 0 ? 1 : 0);
+                        if (count > 0 && size > maxBytes) {
+                            return new Chunk(backlogGeneration, backlogOffset, end, count);
+                        }
+
+                        bytes = size;
+                        count++;
+                    }
+
+                    end = position + 1;
+                }
+            }
+
+            return new Chunk(backlogGeneration, backlogOffset, end, count);
+        } finally {
+            IOUtils.safeClose(input);
+        }
+    }
+
+    /**
+     * Like {@link #readChunk(int, long)} for binary records: The size of a record is the size of its
+     * JSON (in characters). The frames before the cursor are only read for the dictionary if there's
+     * no checkpoint at the cursor yet.
+     */
+    private Chunk readBinaryChunk(int maxRecords, long maxBytes) throws IOException {
+        final FileInputStream input = new FileInputStream(backlogFile);
+
+        try {
+            final BinaryEventFormat.Reader reader = openBinaryReader(input, backlogFile.length(),
+                    backlogOffset, backlogCheckpoint);
+            if (reader == null) {
+                return new Chunk(backlogGeneration, backlogOffset, backlogOffset, 0);
+            }
+
+            final StringBuilder json = new StringBuilder();
+
+            final BinaryEventFormat.Checkpoint startCheckpoint = reader.checkpoint();
+            BinaryEventFormat.Checkpoint endCheckpoint = startCheckpoint;
+
+            long end = backlogOffset;
+            long bytes = 0;
+            int count = 0;
+
+            while (count < maxRecords && reader.next()) {
+                if (!reader.isEvent()) {
+                    continue;
+                }
+
+                json.setLength(0);
+                reader.writeJSON(json);
+
+                final long size = bytes + json.length() + (count > 0 ? 1 : 0);
+                if (count > 0 && size > maxBytes) {
+                    break;
+                }
+
+                bytes = size;
+                count++;
+                end = reader.getPosition();
+                endCheckpoint = reader.checkpoint();
+            }
+
+            return new Chunk(backlogGeneration, backlogOffset, end, count, startCheckpoint, endCheckpoint);
+        } finally {
+            IOUtils.safeClose(input);
+        }
+    }
+
+    /**
+     * Returns a reader for the binary file that is positioned at the given offset, or null if the
+     * offset can't be reached. The reader continues at the checkpoint if it is at this offset.
+     * Otherwise the frames before the offset are read for the dictionary.
+     */
+    private static BinaryEventFormat.Reader openBinaryReader(FileInputStream input, long length, long offset,
+                                                             BinaryEventFormat.Checkpoint checkpoint) throws IOException {
+        if (checkpoint != null && checkpoint.getPosition() == offset) {
+            input.getChannel().position(offset);
+            return new BinaryEventFormat.Reader(new BufferedInputStream(input, BUFFER_SIZE), length, checkpoint);
+        }
+
+        final BinaryEventFormat.Reader reader =
+                new BinaryEventFormat.Reader(new BufferedInputStream(input, BUFFER_SIZE), length);
+
+        while (reader.getPosition() < offset) {
+            if (!reader.next()) {
+                return null;
+            }
+        }
+
+        return reader.getPosition() == offset ? reader : null;
+    }
+
+    private void deleteBacklog() {
+        if (backlogFile.exists() && !backlogFile.delete()) {
+            logger.warn("Events backlog could not be deleted", new IOException());
+        }
+
+        // Deleted after the backlog: A cursor without backlog is ignored.
+        if (cursorFile.exists() && !cursorFile.delete()) {
+            logger.warn("Events backlog cursor could not be deleted", new IOException());
+        }
+
+        backlogGeneration = null;
+        backlogOffset = 0;
+        backlogCount = 0;
+        backlogCheckpoint = null;
+    }
+
+    /**
+     * Restore the backlog (and its cursor) of a previous process.
+     */
+    private void recoverBacklog() {
+        // Snapshots have been used before the backlog. They have been added to a ping already.
+        final File legacySnapshotFile = new File(file.getPath() + ".snapshot");
+        if (legacySnapshotFile.exists() && !legacySnapshotFile.delete()) {
+            logger.warn("Events snapshot could not be deleted", new IOException());
+        }
+
+        if (!backlogFile.exists()) {
+            deleteBacklog();
+            return;
+        }
+
+        DataInputStream input = null;
+
+        try {
+            input = new DataInputStream(new FileInputStream(cursorFile));
+            backlogGeneration = input.readUTF();
+            backlogOffset = input.readLong();
+        } catch (IOException e) {
+            // The cursor is written before the backlog is created. We should never get here.
+            logger.warn("IOException while reading events backlog cursor", e);
+            backlogGeneration = UUID.randomUUID().toString();
+            backlogOffset = 0;
+        } finally {
+            IOUtils.safeClose(input);
+        }
+
+        try {
+            backlogCount = encoder != null
+                    ? countBinaryRecords(backlogFile, backlogOffset)
+                    : countRecords(backlogFile, backlogOffset);
+        } catch (IOException e) {
+            logger.warn("IOException while counting events in backlog", e);
+            deleteBacklog();
+            return;
+        }
+
+        if (backlogCount == 0) {
+            deleteBacklog();
+        }
+    }
+
+    private void writeCursor(String generation, long offset) throws IOException {
+        FileOutputStream stream = null;
+
+        try {
+            stream = new FileOutputStream(temporaryCursorFile);
+
+            final DataOutputStream output = new DataOutputStream(stream);
+            output.writeUTF(generation);
+            output.writeLong(offset);
+            output.flush();
+
+            stream.getFD().sync();
+        } finally {
+            IOUtils.safeClose(stream);
+        }
+
+        if (!temporaryCursorFile.renameTo(cursorFile)) {
+            throw new IOException("Could not replace events backlog cursor");
+        }
+    }
+
+    /**
+     * Count the (non-empty) records in the file after the given offset.
+     */
+    private static long countRecords(File file, long offset) throws IOException {
+        final FileInputStream input = new FileInputStream(file);
+
+        try {
+            input.getChannel().position(offset);
+
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            boolean inRecord = false;
+            long count = 0;
+
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        if (inRecord) {
+                            count++;
+                        }
+                        inRecord = false;
+                    } else {
+                        inRecord = true;
+                    }
+                }
+            }
+
+            return count;
+        } finally {
+            IOUtils.safeClose(input);
+        }
+    }
+
+    /**
+     * Count the binary records starting at or after the given offset.
+     */
+    private static long countBinaryRecords(File file, long offset) throws IOException {
+        final InputStream input = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+
+        try {
+            final BinaryEventFormat.Reader reader = new BinaryEventFormat.Reader(input, file.length());
+
+            long count = 0;
+            while (reader.next()) {
+                if (reader.isEvent() && reader.getFrameStart() >= offset) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            IOUtils.safeClose(input);
+        }
+    }
+
+    /**
+     * Count the records on disk and truncate an incomplete last record.
+     */
+    private long recover() throws IOException {
+        if (encoder != null) {
+            return recoverBinary();
+        }
+
+        if (!file.exists()) {
+            return 0;
+        }
+
+        RandomAccessFile randomAccessFile = null;
+
+        try {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+
+            // Scan the file through a fixed-size buffer: The journal can be much larger than the heap.
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            final long length = randomAccessFile.length();
+
+            long count = 0;
+            long end = 0;
+            long position = 0;
+            int read;
+
+            while (position < length && (read = randomAccessFile.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        count++;
+                        end = position + i + 1;
+                    }
+                }
+                position += read;
+            }
+
+            if (end < length) {
+                logger.warn("Truncating incomplete record in events journal", null);
+                randomAccessFile.setLength(end);
+            }
+
+            return count;
+        } finally {
+            IOUtils.safeClose(randomAccessFile);
+        }
+    }
+
+    /**
+     * Like {@link #recover()} for binary records. Additionally restores the dictionary of the journal
+     * (unless there are buffered records that have been encoded with the current dictionary).
+     */
+    private long recoverBinary() throws IOException {
+        final boolean restoreDictionary = pendingRecords.size() == 0;
+
+        if (!file.exists()) {
+            if (restoreDictionary) {
+                encoder.reset();
+            }
+            return 0;
+        }
+
+        final BinaryEventFormat.Reader reader;
+        long count = 0;
+        long end = 0;
+
+        final InputStream input = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            reader = new BinaryEventFormat.Reader(input, file.length());
+            while (reader.next()) {
+                if (reader.isEvent()) {
+                    count++;
+                }
+                end = reader.getPosition();
+            }
+        } finally {
+            IOUtils.safeClose(input);
+        }
+
+        if (end < file.length()) {
+            logger.warn("Truncating incomplete record in events journal", null);
+
+            RandomAccessFile randomAccessFile = null;
+            try {
+                randomAccessFile = new RandomAccessFile(file, "rw");
+                randomAccessFile.setLength(end);
+            } finally {
+                IOUtils.safeClose(randomAccessFile);
+            }
+        }
+
+        if (restoreDictionary) {
+            encoder.restore(reader);
+        }
+
+        return count;
+    }
+
+    @VisibleForTesting long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * A range of records in the backlog. The records are copied from disk to the writer through a
+     * fixed-size buffer: One record (line) becomes one array element.
+     */
+    class Chunk implements RawJSONValue {
+        private final String generation;
+        private final long start;
+        private final long end;
+        private final int count;
+
+        // Binary backlog: The state of the reader at the start and at the end of the chunk.
+        private final BinaryEventFormat.Checkpoint startCheckpoint;
+        private final BinaryEventFormat.Checkpoint endCheckpoint;
+
+        private Chunk(String generation, long start, long end, int count) {
+            this(generation, start, end, count, null, null);
+        }
+
+        private Chunk(String generation, long start, long end, int count,
+                      BinaryEventFormat.Checkpoint startCheckpoint, BinaryEventFormat.Checkpoint endCheckpoint) {
+            this.generation = generation;
+            this.start = start;
+            this.end = end;
+            this.count = count;
+            this.startCheckpoint = startCheckpoint;
+            this.endCheckpoint = endCheckpoint;
+        }
+
+        /**
+         * Returns the number of records in this chunk.
+         */
+        int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns a document id for the ping containing this chunk. It is derived from the backlog
+         * and the position of the chunk: A chunk that is taken again gets the same id. Returns null
+         * for an empty chunk.
+         */
+        String getDocumentId() {
+            if (generation == null || count == 0) {
+                return null;
+            }
+
+            return UUID.nameUUIDFromBytes((generation + ":" + start).getBytes(UTF_8)).toString();
+        }
+
+        @Override
+        public void writeTo(Writer writer) throws IOException {
+            writer.write('[');
+
+            if (count > 0) {
+                copyRecords(writer);
+            }
+
+            writer.write(']');
+        }
+
+        private void copyRecords(Writer writer) throws IOException {
+            if (encoder != null) {
+                copyBinaryRecords(writer);
+                return;
+            }
+
+            final Reader reader;
+
+            try {
+                final FileInputStream input = new FileInputStream(backlogFile);
+                input.getChannel().position(start);
+
+                reader = new InputStreamReader(new RangeInputStream(input, end - start), UTF_8);
+            } catch (IOException e) {
+                logger.warn("Events backlog can't be read anymore", e);
+                return;
+            }
+
+            try {
+                final char[] buffer = new char[BUFFER_SIZE];
+
+                boolean inRecord = false;
+                boolean hasRecords = false;
+
+                while (true) {
+                    final int read;
+
+                    try {
+                        read = reader.read(buffer);
+                    } catch (IOException e) {
+                        // Keep the records we were able to read. Only exceptions of the writer are
+                        // passed on to the caller.
+                        logger.warn("IOException while reading events backlog", e);
+                        return;
+                    }
+
+                    if (read == -1) {
+                        return;
+                    }
+
+                    int recordStart = 0;
+
+                    for (int i = 0; i < read; i++) {
+                        if (buffer[i] == '\n') {
+                            writer.write(buffer, recordStart, i - recordStart);
+                            recordStart = i + 1;
+                            inRecord = false;
+                        } else if (!inRecord) {
+                            if (hasRecords) {
+                                writer.write(',');
+                            }
+                            inRecord = true;
+                            hasRecords = true;
+                        }
+                    }
+
+                    writer.write(buffer, recordStart, read - recordStart);
+                }
+            } finally {
+                IOUtils.safeClose(reader);
+            }
+        }
+
+        private void copyBinaryRecords(Writer writer) throws IOException {
+            final FileInputStream input;
+            final BinaryEventFormat.Reader reader;
+
+            try {
+                input = new FileInputStream(backlogFile);
+            } catch (IOException e) {
+                logger.warn("Events backlog can't be read anymore", e);
+                return;
+            }
+
+            try {
+                try {
+                    reader = openBinaryReader(input, backlogFile.length(), start, startCheckpoint);
+                } catch (IOException e) {
+                    logger.warn("IOException while reading events backlog", e);
+                    return;
+                }
+
+                if (reader == null) {
+                    logger.warn("Events backlog can't be read anymore", null);
+                    return;
+                }
+
+                final StringBuilder json = new StringBuilder();
+                boolean hasRecords = false;
+
+                while (true) {
+                    json.setLength(0);
+
+                    try {
+                        if (!reader.next() || reader.getFrameStart() >= end) {
+                            return;
+                        }
+
+                        if (!reader.isEvent()) {
+                            continue;
+                        }
+
+                        reader.writeJSON(json);
+                    } catch (IOException e) {
+                        // Keep the records we were able to read. Only exceptions of the writer are
+                        // passed on to the caller.
+                        logger.warn("IOException while reading events backlog", e);
+                        return;
+                    }
+
+                    if (hasRecords) {
+                        writer.write(',');
+                    }
+                    writer.append(json);
+                    hasRecords = true;
+                }
+            } finally {
+                IOUtils.safeClose(input);
+            }
+        }
+    }
+
+    /**
+     * Stream returning at most the given number of bytes of the wrapped stream.
+     */
+    private static class RangeInputStream extends FilterInputStream {
+        private long remaining;
+
+        private RangeInputStream(InputStream stream, long length) {
+            super(stream);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            final int value = super.read();
+            if (value != -1) {
+                remaining--;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            final int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.measurement;
+
+/**
+ * The format events are written to disk in (see {@link EventsMeasurement}).
+ */
+public enum EventJournalFormat {
+    /**
+     * One JSON array per line: The format of the event in the ping.
+     */
+    JSON,
+
+    /**
+     * Compact binary records with a dictionary for identifiers and extra keys. Converted to JSON
+     * when a ping is built.
+     */
+    BINARY
+}
@@ -4,39 +4,48 @@
 
 package org.mozilla.telemetry.measurement;
 
-import android.content.SharedPreferences;
 import androidx.annotation.VisibleForTesting;
-import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
 import org.mozilla.telemetry.config.TelemetryConfiguration;
 import org.mozilla.telemetry.event.TelemetryEvent;
-import org.mozilla.telemetry.util.IOUtils;
+import org.mozilla.telemetry.storage.TelemetryKeyValueStore;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-
-import mozilla.components.support.base.log.logger.Logger;
 
+/**
+ * Measurement collecting recorded events for the event ping.
+ *
+ * Events are appended to an {@link EventJournal}: Recording an event is usually just an append to
+ * an in-memory buffer. Buffered events are written to disk in batches (see
+ * {@link TelemetryConfiguration#setEventJournalFlushThreshold(int)}) or when
+ * {@link #flushPendingEvents()} is called. Building a ping does not parse the recorded events: The
+ * measurement result is a {@link org.mozilla.telemetry.serialize.RawJSONValue} that is written to
+ * the ping as-is.
+ *
+ * A ping contains at most {@link TelemetryConfiguration#getMaximumNumberOfEventsPerPing()} events
+ * and (roughly) {@link TelemetryConfiguration#getMaximumEventPingSize()} bytes of events. The
+ * events of a ping are only removed once {@link #commitFlush()} is called after the ping has been
+ * stored. Until then every flush returns the same events.
+ *
+ * Events are written as JSON lines or in a compact binary format
+ * ({@link TelemetryConfiguration#setEventJournalFormat(EventJournalFormat)}). Both formats use
+ * their own files. If the format has been changed then the events recorded in the previous format
+ * are added to pings first.
+ */
 public class EventsMeasurement extends TelemetryMeasurement {
-    private static final String LOG_TAG = EventsMeasurement.class.getSimpleName();
-
     private static final int VERSION = 1;
     private static final String FIELD_NAME = "events";
 
+    // Legacy: The event count used to be stored in the shared preferences (and has been imported
+    // into the key-value store).
     private static final String PREFERENCE_EVENT_COUNT = "event_count";
 
     private TelemetryConfiguration configuration;
-    private Logger logger;
     private String filename;
+    private EventJournal journal;
+    private EventJournal previousJournal;
+    private EventJournal pendingJournal;
+    private EventJournal.Chunk pendingChunk;
 
     public EventsMeasurement(TelemetryConfiguration configuration) {
         this(configuration, "events");
@@ -46,113 +55,128 @@ public class EventsMeasurement extends TelemetryMeasurement {
         super(FIELD_NAME);
 
         this.configuration = configuration;
-        this.logger = new Logger("telemetry/events");
         this.filename = filename;
     }
 
     public EventsMeasurement add(final TelemetryEvent event) {
-        saveEventToDisk(event);
+        getJournal().append(event);
         return this;
     }
 
     @Override
-    public Object flush() {
-        return readAndClearEventsFromDisk();
+    public synchronized Object flush() {
+        final EventJournal journal = getJournal();
+
+        pendingJournal = previousJournal != null ? previousJournal : journal;
+        pendingChunk = pendingJournal.takeChunk(
+                configuration.getMaximumNumberOfEventsPerPing(),
+                configuration.getMaximumEventPingSize());
+        return pendingChunk;
     }
 
-    private synchronized JSONArray readAndClearEventsFromDisk() {
-        final JSONArray events = new JSONArray();
-        final File file = getEventFile();
-
-        FileInputStream stream = null;
-
-        try {
-            stream = new FileInputStream(file);
-
-            final BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+    /**
+     * Remove the events returned by the last flush: The ping containing them has been stored.
+     */
+    public synchronized void commitFlush() {
+        if (pendingChunk != null) {
+            pendingJournal.commit(pendingChunk);
+            configuration.getInternalMetrics().recordEventsPerPing(pendingChunk.getCount());
+
+            if (pendingJournal == previousJournal && previousJournal.getCount() == 0) {
+                // All events recorded in the previous format have been added to pings.
+                closePreviousJournal();
+            }
 
-            String line;
+            pendingJournal = null;
+            pendingChunk = null;
+        }
+    }
 
-            while ((line = reader.readLine()) != null) {
-                try {
-                    JSONArray event = new JSONArray(line);
-                    events.put(event);
+    /**
+     * Returns the document id for the ping containing the events of the last flush or null if
+     * there are no pending events. A ping containing the same events always gets the same id.
+     */
+    public synchronized String getPendingDocumentId() {
+        return pendingChunk != null ? pendingChunk.getDocumentId() : null;
+    }
 
-                    resetEventCount();
-                } catch (JSONException e) {
-                    // Let's log a warning and move on. This event is lost.
-                    logger.warn("Could not parse event from disk", e);
-                }
-            }
-        } catch (FileNotFoundException e) {
-            // This shouldn't happen because we do not create event pings if there are no events.
-            // However in case the file disappears: Continue with no events.
-            return new JSONArray();
-        } catch (IOException e) {
-            // Handling this exception at this time is tricky: We might have been able to read some
-            // events at the time this exception occurred. We can either try to add them to the
-            // ping and remove the file or we retry later again.
-
-            // We just log an error here. This means we are going to continue building the ping
-            // with the events we were able to read from disk. The events file will be removed and
-            // we might potentially lose events that we couldn't ready because of the exception.
-            logger.warn("IOException while reading events from disk", e);
-        } finally {
-            IOUtils.safeClose(stream);
-
-            if (!file.delete()) {
-                logger.warn("Events file could not be deleted", new IOException());
-            }
-        }
+    /**
+     * Returns true if there are events that have been moved out of the journal for pings but have
+     * not been added to a stored ping yet.
+     */
+    public synchronized boolean hasPendingBacklog() {
+        return getJournal().hasBacklog() || previousJournal != null;
+    }
 
-        return events;
+    /**
+     * Write all events that are buffered in memory to disk.
+     */
+    public void flushPendingEvents() {
+        getJournal().flush();
     }
 
     @VisibleForTesting File getEventFile() {
-        return new File(configuration.getDataDirectory(), filename + VERSION);
+        return getEventFile(configuration.getEventJournalFormat());
     }
 
-    private synchronized void saveEventToDisk(TelemetryEvent event) {
-        FileOutputStream stream = null;
+    private File getEventFile(EventJournalFormat format) {
+        return new File(configuration.getDataDirectory(),
+                filename + VERSION + (format == EventJournalFormat.BINARY ? ".bin" : ""));
+    }
+
+    @VisibleForTesting synchronized EventJournal getJournal() {
+        if (journal == null) {
+            final EventJournalFormat format = configuration.getEventJournalFormat();
+            journal = createJournal(format);
 
-        try {
-            stream = new FileOutputStream(getEventFile(), true);
+            final EventJournalFormat previousFormat = format == EventJournalFormat.BINARY
+                    ? EventJournalFormat.JSON
+                    : EventJournalFormat.BINARY;
+            final File previousFile = getEventFile(previousFormat);
 
-            final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(stream));
-            writer.write(event.toJSON());
-            writer.newLine();
-            writer.flush();
-            writer.close();
+            if (previousFile.exists() || new File(previousFile.getPath() + ".backlog").exists()) {
+                previousJournal = createJournal(previousFormat);
 
-            countEvent();
-        } catch (IOException e) {
-            logger.warn("IOException while writing event to disk", e);
-        } finally {
-            IOUtils.safeClose(stream);
+                if (previousJournal.getCount() == 0) {
+                    closePreviousJournal();
+                }
+            }
+
+            removeLegacyEventCount();
         }
+        return journal;
     }
 
-    private synchronized void countEvent() {
-        final SharedPreferences preferences = configuration.getSharedPreferences();
+    private void closePreviousJournal() {
+        previousJournal.close();
+        previousJournal = null;
 
-        long count = preferences.getLong(PREFERENCE_EVENT_COUNT, 0);
+        final File previousFile = getEventFile(configuration.getEventJournalFormat() == EventJournalFormat.BINARY
+                ? EventJournalFormat.JSON
+                : EventJournalFormat.BINARY);
+        //noinspection ResultOfMethodCallIgnored
+        previousFile.delete();
+    }
 
-        preferences.edit()
-                .putLong(PREFERENCE_EVENT_COUNT, ++count)
-                .apply();
+    private EventJournal createJournal(EventJournalFormat format) {
+        return new EventJournal(getEventFile(format), format,
+                configuration.getEventJournalFlushThreshold(),
+                configuration.getEventJournalFlushInterval());
     }
 
-    private synchronized void resetEventCount() {
-        final SharedPreferences preferences = configuration.getSharedPreferences();
+    private void removeLegacyEventCount() {
+        final TelemetryKeyValueStore store = configuration.getKeyValueStore();
 
-        preferences.edit()
-                .putLong(PREFERENCE_EVENT_COUNT, 0)
-                .apply();
+        if (store.contains(PREFERENCE_EVENT_COUNT)) {
+            store.remove(PREFERENCE_EVENT_COUNT);
+        }
     }
 
-    public long getEventCount() {
-        final SharedPreferences preferences = configuration.getSharedPreferences();
-
-        return preferences.getLong(PREFERENCE_EVENT_COUNT, 0);
+    /**
+     * Returns the number of events that have been recorded and not been added to a ping yet.
+     */
+    public synchronized long getEventCount() {
+        final long count = getJournal().getCount();
+        return previousJournal != null ? count + previousJournal.getCount() : count;
     }
 }
@@ -0,0 +1,43 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.measurement;
+
+import androidx.annotation.RestrictTo;
+
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.executor.ExecutorStats;
+
+/**
+ * The statistics of the telemetry executor. Only part of the ping if enabled in the configuration
+ * ({@link TelemetryConfiguration#isExecutorStatsInCorePingEnabled()}).
+ */
+public class ExecutorStatsMeasurement extends TelemetryMeasurement {
+    private static final String FIELD_NAME = "executorStats";
+
+    private final TelemetryConfiguration configuration;
+    private volatile ExecutorStats stats;
+
+    public ExecutorStatsMeasurement(TelemetryConfiguration configuration) {
+        super(FIELD_NAME);
+        this.configuration = configuration;
+    }
+
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void setStats(ExecutorStats stats) {
+        this.stats = stats;
+    }
+
+    @Override
+    public Object flush() {
+        final ExecutorStats stats = this.stats;
+
+        if (stats == null || !configuration.isExecutorStatsInCorePingEnabled()) {
+            // No value: The field is not added to the ping.
+            return null;
+        }
+
+        return stats.toJSON();
+    }
+}
@@ -4,10 +4,10 @@
 
 package org.mozilla.telemetry.measurement;
 
-import android.content.SharedPreferences;
 import androidx.annotation.VisibleForTesting;
 
 import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.storage.TelemetryKeyValueStore;
 
 import java.util.concurrent.TimeUnit;
 
@@ -31,15 +31,13 @@ public class FirstRunProfileDateMeasurement extends TelemetryMeasurement {
     }
 
     @VisibleForTesting void ensureValueExists() {
-        final SharedPreferences preferences = configuration.getSharedPreferences();
+        final TelemetryKeyValueStore store = configuration.getKeyValueStore();
 
-        if (preferences.contains(PREFERENCE_KEY)) {
+        if (store.contains(PREFERENCE_KEY)) {
             return;
         }
 
-        preferences.edit()
-                .putLong(PREFERENCE_KEY, now())
-                .apply();
+        store.putLong(PREFERENCE_KEY, now());
     }
 
     @Override
@@ -51,7 +49,7 @@ public class FirstRunProfileDateMeasurement extends TelemetryMeasurement {
      * Profile creation date in days since UNIX epoch.
      */
     private long getProfileDateInDays() {
-        long profileDateMilliseconds = configuration.getSharedPreferences().getLong(PREFERENCE_KEY, now());
+        long profileDateMilliseconds = configuration.getKeyValueStore().getLong(PREFERENCE_KEY, now());
 
         return (long) Math.floor((double) profileDateMilliseconds / TimeUnit.DAYS.toMillis(1));
     }
@@ -0,0 +1,223 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.measurement;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mozilla.telemetry.util.BucketHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A histogram of values (e.g. timings) with a fixed number of linear or exponential buckets.
+ *
+ * The counts are kept in a {@link BucketHistogram} (next to the sum of all values): Recording a
+ * value never takes a lock and does not allocate. Flushing the measurement resets the buckets one
+ * by one: Values that are recorded at the same time are either part of this result or of the next one.
+ *
+ * Histograms are added to a ping with {@link HistogramsMeasurement#register(HistogramMeasurement)}
+ * and only contain the non-empty buckets once serialized (the format of Firefox desktop histograms):
+ *
+ *   {"range": [1, 10000], "bucket_count": 20, "histogram_type": 0, "sum": 1234, "values": {"0": 1, "13": 4}}
+ *
+ * The counts are only kept in memory: Values recorded after the last ping are lost if the process
+ * is killed.
+ */
+public class HistogramMeasurement extends TelemetryMeasurement {
+    /**
+     * Histogram type of buckets that grow exponentially.
+     */
+    public static final int TYPE_EXPONENTIAL = 0;
+
+    /**
+     * Histogram type of buckets that all have the same size.
+     */
+    public static final int TYPE_LINEAR = 1;
+
+    private final int type;
+    private final BucketHistogram histogram;
+    private final AtomicLong sum;
+
+    /**
+     * Create a histogram with exponentially growing buckets.
+     *
+     * @param name The name of the histogram in the ping.
+     * @param min The lower bound of the second bucket (the first bucket counts all smaller values). At least 1.
+     * @param max The lower bound of the last bucket (counting all values greater or equal to max).
+     * @param bucketCount The number of buckets (at least 3).
+     */
+    public static HistogramMeasurement exponential(@NonNull String name, long min, long max, int bucketCount) {
+        return new HistogramMeasurement(name, TYPE_EXPONENTIAL, min, max, bucketCount);
+    }
+
+    /**
+     * Create a histogram with buckets of the same size (apart from the first and the last bucket).
+     *
+     * @see #exponential(String, long, long, int)
+     */
+    public static HistogramMeasurement linear(@NonNull String name, long min, long max, int bucketCount) {
+        return new HistogramMeasurement(name, TYPE_LINEAR, min, max, bucketCount);
+    }
+
+    private HistogramMeasurement(String name, int type, long min, long max, int bucketCount) {
+        super(name);
+
+        if (min < 1 || bucketCount < 3 || max - min < bucketCount - 2) {
+            throw new IllegalArgumentException("Invalid histogram range: min=" + min + ", max=" + max
+                    + ", bucketCount=" + bucketCount);
+        }
+
+        this.type = type;
+        this.histogram = new BucketHistogram(type == TYPE_EXPONENTIAL
+                ? createExponentialBounds(min, max, bucketCount)
+                : createLinearBounds(min, max, bucketCount));
+        this.sum = new AtomicLong();
+    }
+
+    private static long[] createLinearBounds(long min, long max, int bucketCount) {
+        final long[] bounds = new long[bucketCount - 1];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = min + (max - min) * i / (bounds.length - 1);
+        }
+        return bounds;
+    }
+
+    private static long[] createExponentialBounds(long min, long max, int bucketCount) {
+        final long[] bounds = new long[bucketCount - 1];
+        final double logMin = Math.log(min);
+        final double logMax = Math.log(max);
+
+        bounds[0] = min;
+        for (int i = 1; i < bounds.length; i++) {
+            final long bound = Math.round(Math.exp(logMin + (logMax - logMin) * i / (bounds.length - 1)));
+            // Small buckets would be rounded to the same bound: Every bucket covers at least one value.
+            bounds[i] = Math.max(bound, bounds[i - 1] + 1);
+        }
+
+        // Make sure rounding did not move the last bound.
+        bounds[bounds.length - 1] = max;
+
+        return bounds;
+    }
+
+    public void record(long value) {
+        histogram.record(value);
+        sum.addAndGet(value);
+    }
+
+    /**
+     * Add the counts of the given snapshot (e.g. recorded by another process) to this histogram.
+     *
+     * @throws IllegalArgumentException if the snapshot does not have the same buckets.
+     */
+    public void add(@NonNull Snapshot snapshot) {
+        snapshot.checkSameBuckets(type, histogram);
+
+        histogram.add(snapshot.histogram);
+        sum.addAndGet(snapshot.sum);
+    }
+
+    /**
+     * Returns a copy of the counts recorded so far.
+     */
+    public Snapshot getSnapshot() {
+        return new Snapshot(type, histogram.copy(), sum.get());
+    }
+
+    /**
+     * Returns a copy of the counts recorded so far and resets the histogram.
+     */
+    public Snapshot getSnapshotAndReset() {
+        return new Snapshot(type, histogram.copyAndReset(), sum.getAndSet(0));
+    }
+
+    /**
+     * Returns the histogram as sparse JSON and resets it - or null (no field in the ping) if no
+     * value has been recorded since the last ping.
+     */
+    @Override
+    public Object flush() {
+        final Snapshot snapshot = getSnapshotAndReset();
+        return snapshot.getTotalCount() > 0 ? snapshot.toJSON() : null;
+    }
+
+    /**
+     * Immutable counts of a histogram. Snapshots of histograms with the same buckets can be merged.
+     */
+    public static class Snapshot {
+        private final int type;
+        private final BucketHistogram histogram; // Never modified after creating the snapshot.
+        private final long sum;
+
+        private Snapshot(int type, BucketHistogram histogram, long sum) {
+            this.type = type;
+            this.histogram = histogram;
+            this.sum = sum;
+        }
+
+        public int getBucketCount() {
+            return histogram.getBucketCount();
+        }
+
+        /**
+         * Returns the lower bound of the given bucket (0 for the first bucket).
+         */
+        public long getBucketStart(int bucket) {
+            return bucket == 0 ? 0 : histogram.getBucketStart(bucket);
+        }
+
+        public long getCount(int bucket) {
+            return histogram.getCount(bucket);
+        }
+
+        public long getTotalCount() {
+            return histogram.getTotalCount();
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * Returns a new snapshot with the counts of this and the given snapshot.
+         *
+         * @throws IllegalArgumentException if the snapshots do not have the same buckets.
+         */
+        public Snapshot merge(@NonNull Snapshot other) {
+            other.checkSameBuckets(type, histogram);
+
+            final BucketHistogram merged = histogram.copy();
+            merged.add(other.histogram);
+            return new Snapshot(type, merged, sum + other.sum);
+        }
+
+        private void checkSameBuckets(int type, BucketHistogram histogram) {
+            if (this.type != type || !this.histogram.hasSameBuckets(histogram)) {
+                throw new IllegalArgumentException("Histograms with different buckets can't be merged");
+            }
+        }
+
+        public JSONObject toJSON() {
+            try {
+                final JSONArray range = new JSONArray();
+                range.put(histogram.getBucketStart(1));
+                range.put(histogram.getBucketStart(histogram.getBucketCount() - 1));
+
+                final JSONObject object = new JSONObject();
+                object.put("range", range);
+                object.put("bucket_count", histogram.getBucketCount());
+                object.put("histogram_type", type);
+                object.put("sum", sum);
+                object.put("values", histogram.toJSON());
+                return object;
+            } catch (JSONException e) {
+                throw new AssertionError("Can't create histogram JSON", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.measurement;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The histograms registered by the app for a ping, serialized as an object mapping the name of a
+ * histogram to its sparse JSON. Histograms without values since the last ping are omitted. The
+ * field is omitted if no histogram has any values.
+ */
+public class HistogramsMeasurement extends TelemetryMeasurement {
+    private static final String FIELD_NAME = "histograms";
+
+    private final ConcurrentHashMap<String, HistogramMeasurement> histograms;
+
+    public HistogramsMeasurement() {
+        super(FIELD_NAME);
+
+        this.histograms = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Add the given histogram to this ping. If a histogram with the same name has already been
+     * registered then the existing histogram is returned and should be used for recording.
+     */
+    public HistogramMeasurement register(@NonNull HistogramMeasurement histogram) {
+        final HistogramMeasurement existing = histograms.putIfAbsent(histogram.getFieldName(), histogram);
+        return existing != null ? existing : histogram;
+    }
+
+    public HistogramMeasurement getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    @Override
+    public Object flush() {
+        final JSONObject object = new JSONObject();
+
+        try {
+            for (HistogramMeasurement histogram : histograms.values()) {
+                final Object value = histogram.flush();
+                if (value != null) {
+                    object.put(histogram.getFieldName(), value);
+                }
+            }
+        } catch (JSONException e) {
+            throw new AssertionError("Can't create histograms JSON", e);
+        }
+
+        return object.length() > 0 ? object : null;
+    }
+}
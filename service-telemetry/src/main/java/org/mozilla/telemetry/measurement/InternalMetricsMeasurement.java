@@ -0,0 +1,32 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.measurement;
+
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+
+/**
+ * The internal metrics of the telemetry library. Only part of the ping if enabled in the
+ * configuration ({@link TelemetryConfiguration#isInternalMetricsInMetricsPingEnabled()}).
+ */
+public class InternalMetricsMeasurement extends TelemetryMeasurement {
+    private static final String FIELD_NAME = "internal";
+
+    private final TelemetryConfiguration configuration;
+
+    public InternalMetricsMeasurement(TelemetryConfiguration configuration) {
+        super(FIELD_NAME);
+        this.configuration = configuration;
+    }
+
+    @Override
+    public Object flush() {
+        if (!configuration.isInternalMetricsInMetricsPingEnabled()) {
+            // No value: The field is not added to the ping.
+            return null;
+        }
+
+        return configuration.getInternalMetrics().getSnapshot().toJSON();
+    }
+}
@@ -18,6 +18,12 @@ public class LocaleMeasurement extends TelemetryMeasurement {
         return getLanguageTag(Locale.getDefault());
     }
 
+    @Override
+    public Object getCacheToken() {
+        // Changes if the user switches the system language.
+        return Locale.getDefault();
+    }
+
     /**
      * Gecko uses locale codes like "es-ES", whereas a Java {@link Locale}
      * stringifies as "es_ES".
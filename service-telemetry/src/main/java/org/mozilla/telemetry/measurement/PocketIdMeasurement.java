@@ -4,9 +4,8 @@
 
 package org.mozilla.telemetry.measurement;
 
-import android.content.SharedPreferences;
-
 import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.storage.TelemetryKeyValueStore;
 
 import java.util.UUID;
 
@@ -38,18 +37,16 @@ public class PocketIdMeasurement extends TelemetryMeasurement {
     }
 
     private static synchronized String generateClientId(final TelemetryConfiguration configuration) {
-        final SharedPreferences preferences = configuration.getSharedPreferences();
+        final TelemetryKeyValueStore store = configuration.getKeyValueStore();
 
-        if (preferences.contains(PREFERENCE_POCKET_ID)) {
+        if (store.contains(PREFERENCE_POCKET_ID)) {
             // We already generated a pocket id in the past. Let's use it.
-            return preferences.getString(PREFERENCE_POCKET_ID, /* unused default value */ null);
+            return store.getString(PREFERENCE_POCKET_ID, /* unused default value */ null);
         }
 
         final String pocketId = UUID.randomUUID().toString();
 
-        preferences.edit()
-                .putString(PREFERENCE_POCKET_ID, pocketId)
-                .apply();
+        store.putString(PREFERENCE_POCKET_ID, pocketId);
 
         return pocketId;
     }
@@ -4,37 +4,82 @@
 
 package org.mozilla.telemetry.measurement;
 
-import android.content.SharedPreferences;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.storage.TelemetryKeyValueStore;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A TelemetryMeasurement implementation to count the number of times a user has searched with a
  * specific engine from a specific location.
+ *
+ * Searches are counted in memory: Recording a search increments an atomic counter for the location
+ * and engine and does not block other threads or access the key-value store. The counts are
+ * restored from the store on a background thread once the measurement has been created and are
+ * written back to it on that thread periodically (at most once per snapshot interval).
  */
 public class SearchesMeasurement extends TelemetryMeasurement {
     private static final String FIELD_NAME = "searches";
 
+    // Legacy: The list of recorded engines used to be stored in the shared preferences.
     private static final String PREFERENCE_SEARCH_KEYSET = "measurements-search-count-keyset";
     private static final String PREFERENCE_SEARCH_PREFIX = "measurements-search-count-engine-";
 
+    private static final long SNAPSHOT_INTERVAL = 5000;
+
     public static final String LOCATION_ACTIONBAR = "actionbar";
     public static final String LOCATION_SUGGESTION = "suggestion";
     public static final String LOCATION_LISTITEM = "listitem";
 
+    // Shared by all instances: Restores and snapshots are rare and short.
+    private static ScheduledExecutorService scheduler;
+
     private final TelemetryConfiguration configuration;
 
+    // Location -> search engine identifier -> count
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, SearchCounter>> counters;
+    private final AtomicLong lastSnapshot;
+    private final Object snapshotLock = new Object();
+    private volatile boolean restored;
+
     public SearchesMeasurement(TelemetryConfiguration configuration) {
         super(FIELD_NAME);
 
         this.configuration = configuration;
+        this.counters = new ConcurrentHashMap<>();
+        this.lastSnapshot = new AtomicLong(now());
+
+        getScheduler().execute(new Runnable() {
+            @Override
+            public void run() {
+                restoreCounts();
+            }
+        });
+    }
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Telemetry-Searches");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
     }
 
     @Override
@@ -43,26 +88,36 @@ public class SearchesMeasurement extends TelemetryMeasurement {
     }
 
     /**
-     * Get the stored search counts and reset all of them.
+     * Get the search counts and reset all of them. Every counter is reset atomically: Searches that
+     * are recorded at the same time are either part of this result or of the next one.
      */
-    private synchronized JSONObject getSearchCountMapAndReset() {
-        try {
-            final SharedPreferences preferences = configuration.getSharedPreferences();
-            final SharedPreferences.Editor editor = preferences.edit();
+    private JSONObject getSearchCountMapAndReset() {
+        restoreCounts();
 
+        try {
             final JSONObject object = new JSONObject();
 
-            final Set<String> keys = preferences.getStringSet(PREFERENCE_SEARCH_KEYSET, Collections.<String>emptySet());
-            for (String locationAndIdentifier : keys) {
-                final String key = getEngineSearchCountKey(locationAndIdentifier);
-
-                object.put(locationAndIdentifier, preferences.getInt(key, 0));
-                editor.remove(key);
+            synchronized (snapshotLock) {
+                for (ConcurrentHashMap<String, SearchCounter> engines : counters.values()) {
+                    for (SearchCounter counter : engines.values()) {
+                        final long count = counter.getAndSet(0);
+                        if (count > 0) {
+                            object.put(counter.locationAndIdentifier, count);
+                        }
+                    }
+                }
+
+                final TelemetryKeyValueStore store = configuration.getKeyValueStore();
+                store.removeLongs(PREFERENCE_SEARCH_PREFIX);
+
+                if (store.contains(PREFERENCE_SEARCH_KEYSET)) {
+                    store.remove(PREFERENCE_SEARCH_KEYSET);
+                }
+
+                // Keep the searches that have been recorded while we were resetting the counters.
+                writeCounts(store);
             }
 
-            editor.remove(PREFERENCE_SEARCH_KEYSET)
-                    .apply();
-
             return object;
         } catch (JSONException e) {
             throw new AssertionError("Should not happen: Can't construct search count JSON", e);
@@ -75,50 +130,115 @@ public class SearchesMeasurement extends TelemetryMeasurement {
      * @param location where search was started.
      * @param identifier of the used search engine.
      */
-    public synchronized void recordSearch(@NonNull String location, @NonNull String identifier) {
-        final String locationAndIdentifier = location + "." + identifier;
-
-        storeCount(locationAndIdentifier);
-        storeKey(locationAndIdentifier);
+    public void recordSearch(@NonNull String location, @NonNull String identifier) {
+        // Counts restored later are added to this counter.
+        getCounter(location, identifier).incrementAndGet();
+
+        final long now = now();
+        final long last = lastSnapshot.get();
+        if (now - last >= SNAPSHOT_INTERVAL && lastSnapshot.compareAndSet(last, now)) {
+            getScheduler().execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushPendingCounts();
+                }
+            });
+        }
     }
 
     /**
-     * Store count for this engine in preferences.
+     * Write the current search counts to the key-value store (on the calling thread).
      */
-    private void storeCount(String locationAndIdentifier) {
-        final SharedPreferences preferences = configuration.getSharedPreferences();
+    public void flushPendingCounts() {
+        restoreCounts();
 
-        final String key = getEngineSearchCountKey(locationAndIdentifier);
-
-        final int count = preferences.getInt(key, 0);
+        synchronized (snapshotLock) {
+            writeCounts(configuration.getKeyValueStore());
+        }
+    }
 
-        preferences.edit()
-                .putInt(key, count + 1)
-                .apply();
+    private void writeCounts(TelemetryKeyValueStore store) {
+        for (ConcurrentHashMap<String, SearchCounter> engines : counters.values()) {
+            for (SearchCounter counter : engines.values()) {
+                final long count = counter.get();
+                if (count > 0) {
+                    store.putLong(getEngineSearchCountKey(counter.locationAndIdentifier), count);
+                }
+            }
+        }
     }
 
     /**
-     * Store name of this engine in preferences so that we can retrieve the count later.
+     * Load the counts written by a previous process into the in-memory counters (once).
      */
-    private void storeKey(String locationAndIdentifier) {
-        final SharedPreferences preferences = configuration.getSharedPreferences();
-
-        final Set<String> keys = preferences.getStringSet(PREFERENCE_SEARCH_KEYSET, Collections.<String>emptySet());
-        if (keys.contains(locationAndIdentifier)) {
-            // We already know about this key.
+    private void restoreCounts() {
+        if (restored) {
             return;
         }
 
-        // Create a copy that we can modify
-        final Set<String> updatedKeys = new HashSet<>(keys);
-        updatedKeys.add(locationAndIdentifier);
+        synchronized (snapshotLock) {
+            if (restored) {
+                return;
+            }
+
+            final TelemetryKeyValueStore store = configuration.getKeyValueStore();
 
-        preferences.edit()
-                .putStringSet(PREFERENCE_SEARCH_KEYSET, updatedKeys)
-                .apply();
+            final Map<String, Long> counts = store.removeLongs(PREFERENCE_SEARCH_PREFIX);
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                final String locationAndIdentifier = entry.getKey().substring(PREFERENCE_SEARCH_PREFIX.length());
+
+                final int separator = locationAndIdentifier.indexOf('.');
+                if (separator == -1) {
+                    continue;
+                }
+
+                getCounter(locationAndIdentifier.substring(0, separator), locationAndIdentifier.substring(separator + 1))
+                        .addAndGet(entry.getValue());
+            }
+
+            writeCounts(store);
+
+            restored = true;
+        }
+    }
+
+    private SearchCounter getCounter(String location, String identifier) {
+        ConcurrentHashMap<String, SearchCounter> engines = counters.get(location);
+        if (engines == null) {
+            final ConcurrentHashMap<String, SearchCounter> newEngines = new ConcurrentHashMap<>();
+            engines = counters.putIfAbsent(location, newEngines);
+            if (engines == null) {
+                engines = newEngines;
+            }
+        }
+
+        SearchCounter counter = engines.get(identifier);
+        if (counter == null) {
+            final SearchCounter newCounter = new SearchCounter(location + "." + identifier);
+            counter = engines.putIfAbsent(identifier, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
     }
 
     private static String getEngineSearchCountKey(String locationAndIdentifier) {
         return PREFERENCE_SEARCH_PREFIX + locationAndIdentifier;
     }
+
+    @VisibleForTesting long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Count of a single location and search engine. The combined key is only created once.
+     */
+    private static class SearchCounter extends AtomicLong {
+        private final String locationAndIdentifier;
+
+        private SearchCounter(String locationAndIdentifier) {
+            this.locationAndIdentifier = locationAndIdentifier;
+        }
+    }
 }
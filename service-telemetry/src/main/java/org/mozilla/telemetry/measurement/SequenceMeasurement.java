@@ -4,24 +4,48 @@
 
 package org.mozilla.telemetry.measurement;
 
-import android.content.SharedPreferences;
-
 import org.mozilla.telemetry.config.TelemetryConfiguration;
 import org.mozilla.telemetry.ping.TelemetryPingBuilder;
+import org.mozilla.telemetry.storage.TelemetryKeyValueStore;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import mozilla.components.support.base.log.logger.Logger;
 
+/**
+ * Sequence number of a ping type: A monotonic counter that is incremented for every ping built.
+ *
+ * Sequence numbers are reserved in blocks: The key-value store only holds the highest reserved
+ * number and is written once per block. Numbers of the current block are handed out from memory.
+ * After a restart the remaining numbers of the last block are skipped: The sequence has gaps but
+ * never repeats a number - even if the app is killed.
+ *
+ * If a block can't be written to disk then no number of it is handed out: Every number is put into
+ * the store on its own (like older versions did) until writing a block succeeds again. Those
+ * numbers can be repeated if the app is killed before the store has written them.
+ */
 public class SequenceMeasurement extends TelemetryMeasurement {
     private static final String FIELD_NAME = "seq";
 
     private static final String PREFERENCE_PREFIX = "sequence_";
 
+    private static final long BLOCK_SIZE = 64;
+
+    private final Logger logger;
     private final TelemetryConfiguration configuration;
     private final String preferenceKeySequence;
 
+    private final AtomicLong sequence;
+    private volatile long reservedSequence;
+    private boolean loaded;
+
     public SequenceMeasurement(TelemetryConfiguration configuration, TelemetryPingBuilder ping) {
         super(FIELD_NAME);
 
+        this.logger = new Logger("telemetry/sequence");
         this.configuration = configuration;
         this.preferenceKeySequence = PREFERENCE_PREFIX + ping.getType();
+        this.sequence = new AtomicLong();
     }
 
     @Override
@@ -29,15 +53,54 @@ public class SequenceMeasurement extends TelemetryMeasurement {
         return getAndIncrementSequence();
     }
 
-    private synchronized long getAndIncrementSequence() {
-        final SharedPreferences preferences = configuration.getSharedPreferences();
+    private long getAndIncrementSequence() {
+        while (true) {
+            final long current = sequence.get();
+
+            if (current < reservedSequence) {
+                if (sequence.compareAndSet(current, current + 1)) {
+                    return current + 1;
+                }
+            } else {
+                reserveBlock();
+            }
+        }
+    }
+
+    /**
+     * Reserve the next block of sequence numbers if all numbers of the current block have been
+     * used. The reservation is written to disk before any number of the block is handed out. If
+     * that fails only the next number is reserved.
+     */
+    private synchronized void reserveBlock() {
+        final TelemetryKeyValueStore store = configuration.getKeyValueStore();
+
+        if (!loaded) {
+            // Older versions stored the last used sequence number. This works the same way.
+            final long storedSequence = store.getLong(preferenceKeySequence, 0);
+            sequence.set(storedSequence);
+            reservedSequence = storedSequence;
+            loaded = true;
+        }
+
+        if (sequence.get() < reservedSequence) {
+            // Another thread has reserved a block already.
+            return;
+        }
+
+        final long newReservedSequence = reservedSequence + BLOCK_SIZE;
+
+        store.putLong(preferenceKeySequence, newReservedSequence);
 
-        long sequence = preferences.getLong(preferenceKeySequence, 0);
+        if (store.flush()) {
+            reservedSequence = newReservedSequence;
+            return;
+        }
 
-        preferences.edit()
-                .putLong(preferenceKeySequence, ++sequence)
-                .apply();
+        logger.warn("Could not write sequence block of " + preferenceKeySequence + ". Reserving single number.", null);
 
-        return sequence;
+        // The store may still write the block later: Replace it with the number we hand out.
+        store.putLong(preferenceKeySequence, reservedSequence + 1);
+        reservedSequence = reservedSequence + 1;
     }
 }
@@ -4,9 +4,8 @@
 
 package org.mozilla.telemetry.measurement;
 
-import android.content.SharedPreferences;
-
 import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.storage.TelemetryKeyValueStore;
 
 public class SessionCountMeasurement extends TelemetryMeasurement {
     private static final String FIELD_NAME = "sessions";
@@ -22,13 +21,7 @@ public class SessionCountMeasurement extends TelemetryMeasurement {
     }
 
     public synchronized void countSession() {
-        final SharedPreferences preferences = configuration.getSharedPreferences();
-
-        long count = preferences.getLong(PREFERENCE_COUNT, 0);
-
-        preferences.edit()
-                .putLong(PREFERENCE_COUNT, ++count)
-                .apply();
+        configuration.getKeyValueStore().addToLong(PREFERENCE_COUNT, 1);
     }
 
     @Override
@@ -37,13 +30,10 @@ public class SessionCountMeasurement extends TelemetryMeasurement {
     }
 
     private synchronized long getAndResetCount() {
-        final SharedPreferences preferences = configuration.getSharedPreferences();
-
-        long count = preferences.getLong(PREFERENCE_COUNT, 0);
+        final TelemetryKeyValueStore store = configuration.getKeyValueStore();
 
-        preferences.edit()
-                .putLong(PREFERENCE_COUNT, 0)
-                .apply();
+        final long count = store.getLong(PREFERENCE_COUNT, 0);
+        store.putLong(PREFERENCE_COUNT, 0);
 
         return count;
     }
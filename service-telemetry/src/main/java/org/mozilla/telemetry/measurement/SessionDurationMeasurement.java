@@ -4,10 +4,10 @@
 
 package org.mozilla.telemetry.measurement;
 
-import android.content.SharedPreferences;
 import androidx.annotation.VisibleForTesting;
 
 import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.storage.TelemetryKeyValueStore;
 
 import java.util.concurrent.TimeUnit;
 
@@ -45,13 +45,7 @@ public class SessionDurationMeasurement extends TelemetryMeasurement {
 
         final long sessionElapsedSeconds = TimeUnit.NANOSECONDS.toSeconds(getSystemTimeNano() - timeAtSessionStartNano);
 
-        final SharedPreferences preferences = configuration.getSharedPreferences();
-
-        final long totalElapsedSeconds = preferences.getLong(PREFERENCE_DURATION, 0);
-
-        preferences.edit()
-                .putLong(PREFERENCE_DURATION, totalElapsedSeconds + sessionElapsedSeconds)
-                .apply();
+        configuration.getKeyValueStore().addToLong(PREFERENCE_DURATION, sessionElapsedSeconds);
         return true;
     }
 
@@ -61,13 +55,10 @@ public class SessionDurationMeasurement extends TelemetryMeasurement {
     }
 
     private synchronized long getAndResetDuration() {
-        final SharedPreferences preferences = configuration.getSharedPreferences();
-
-        long duration = preferences.getLong(PREFERENCE_DURATION, 0);
+        final TelemetryKeyValueStore store = configuration.getKeyValueStore();
 
-        preferences.edit()
-                .putLong(PREFERENCE_DURATION, 0)
-                .apply();
+        final long duration = store.getLong(PREFERENCE_DURATION, 0);
+        store.putLong(PREFERENCE_DURATION, 0);
 
         return duration;
     }
@@ -4,12 +4,19 @@
 
 package org.mozilla.telemetry.measurement;
 
+import android.content.SharedPreferences;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 
+import androidx.annotation.VisibleForTesting;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.mozilla.telemetry.config.TelemetryConfiguration;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -40,31 +47,162 @@ public class SettingsMeasurement extends TelemetryMeasurement {
         void release();
     }
 
+    /**
+     * A SettingsProvider that can describe its current values with a token (like
+     * {@link TelemetryMeasurement#getCacheToken()}): As long as the token does not change, ping
+     * builders re-use the serialized settings of an earlier ping instead of reading all values again.
+     */
+    public interface CacheableSettingsProvider extends SettingsProvider {
+        /**
+         * Returns a token that changes (equals()) whenever a value of this provider may have changed.
+         */
+        Object getCacheToken(TelemetryConfiguration configuration);
+    }
+
     /**
      * Setting provider implementation that reads values from SharedPreferences.
+     *
+     * Instead of copying all preferences for every ping, the provider keeps a snapshot of the
+     * preferences important for telemetry. The snapshot is taken once and then kept up to date by
+     * listening for changes of those preferences. Values that are not stored in the preferences can
+     * be provided by overriding {@link #computeValue(String)}.
      */
-    public static class SharedPreferenceSettingsProvider implements SettingsProvider {
-        private Map<String, ?> preferences;
+    public static class SharedPreferenceSettingsProvider implements CacheableSettingsProvider {
+        private final Map<String, Object> values = new HashMap<>();
+        private final Map<String, Object> computedValues = new HashMap<>();
+
+        // SharedPreferences only keeps a weak reference to its listeners: This field keeps it alive.
+        private final SharedPreferences.OnSharedPreferenceChangeListener listener =
+                new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences preferences, String key) {
+                        onPreferenceChanged(preferences, key);
+                    }
+                };
+
+        private SharedPreferences preferences;
+        private Set<String> keys;
+        private long version;
+        private boolean hasComputedValues;
+        private long lastComputeTime;
 
         @Override
-        public void update(TelemetryConfiguration configuration) {
-            preferences = PreferenceManager.getDefaultSharedPreferences(
-                    configuration.getContext()).getAll();
+        public synchronized void update(TelemetryConfiguration configuration) {
+            refresh(configuration);
         }
 
         @Override
-        public boolean containsKey(String key) {
-            return preferences != null && preferences.containsKey(key);
+        public synchronized Object getCacheToken(TelemetryConfiguration configuration) {
+            refresh(configuration);
+            return version;
         }
 
         @Override
-        public Object getValue(String key) {
-            return preferences.get(key);
+        public synchronized boolean containsKey(String key) {
+            return computedValues.containsKey(key) || values.containsKey(key);
+        }
+
+        @Override
+        public synchronized Object getValue(String key) {
+            return computedValues.containsKey(key) ? computedValues.get(key) : values.get(key);
         }
 
         @Override
         public void release() {
-            preferences = null;
+            // The snapshot is kept up to date and re-used for the next ping.
+        }
+
+        /**
+         * Compute the value of a setting that is not stored in the preferences (e.g. whether this app
+         * is the default browser) - or return null to report the preference value. Computed values
+         * are refreshed at most once per
+         * {@link TelemetryConfiguration#getComputedSettingsRefreshInterval()}.
+         */
+        protected Object computeValue(String key) {
+            return null;
+        }
+
+        private void refresh(TelemetryConfiguration configuration) {
+            if (preferences == null) {
+                preferences = PreferenceManager.getDefaultSharedPreferences(configuration.getContext());
+                preferences.registerOnSharedPreferenceChangeListener(listener);
+            }
+
+            final Set<String> importantKeys = configuration.getPreferencesImportantForTelemetry();
+            if (keys == null || !keys.equals(importantKeys)) {
+                keys = new HashSet<>(importantKeys);
+                takeSnapshot();
+                hasComputedValues = false;
+            }
+
+            final long now = now();
+            if (!hasComputedValues || now - lastComputeTime >= configuration.getComputedSettingsRefreshInterval()) {
+                computeValues();
+                hasComputedValues = true;
+                lastComputeTime = now;
+            }
+        }
+
+        private void takeSnapshot() {
+            final Map<String, ?> all = preferences.getAll();
+
+            values.clear();
+            for (String key : keys) {
+                if (all.containsKey(key)) {
+                    values.put(key, all.get(key));
+                }
+            }
+
+            version++;
+        }
+
+        private void computeValues() {
+            boolean changed = false;
+
+            for (String key : keys) {
+                final Object value = computeValue(key);
+                if (value == null) {
+                    changed |= computedValues.containsKey(key);
+                    computedValues.remove(key);
+                } else {
+                    changed |= !value.equals(computedValues.put(key, value));
+                }
+            }
+
+            if (changed) {
+                version++;
+            }
+        }
+
+        private synchronized void onPreferenceChanged(SharedPreferences preferences, String key) {
+            if (keys == null) {
+                return;
+            }
+
+            if (key == null) {
+                // The preferences have been cleared.
+                takeSnapshot();
+                return;
+            }
+
+            if (!keys.contains(key)) {
+                return;
+            }
+
+            // There's no getter for a value of unknown type. This copies the preferences but only
+            // happens if the user changes one of the (few) important settings.
+            final Map<String, ?> all = preferences.getAll();
+            if (all.containsKey(key)) {
+                values.put(key, all.get(key));
+            } else {
+                values.remove(key);
+            }
+
+            version++;
+        }
+
+        @VisibleForTesting long now() {
+            return SystemClock.elapsedRealtime();
         }
     }
 
@@ -78,6 +216,20 @@ public class SettingsMeasurement extends TelemetryMeasurement {
         this.configuration = configuration;
     }
 
+    @Override
+    public Object getCacheToken() {
+        final SettingsProvider settingsProvider = configuration.getSettingsProvider();
+        if (!(settingsProvider instanceof CacheableSettingsProvider)) {
+            return null;
+        }
+
+        // Replacing the provider or changing the important preferences invalidates the result too.
+        return Arrays.asList(
+                settingsProvider,
+                configuration.getPreferencesImportantForTelemetry(),
+                ((CacheableSettingsProvider) settingsProvider).getCacheToken(configuration));
+    }
+
     @Override
     public Object flush() {
         final SettingsProvider settingsProvider = configuration.getSettingsProvider();
@@ -17,4 +17,12 @@ public class StaticMeasurement extends TelemetryMeasurement {
     public Object flush() {
         return value;
     }
+
+    @Override
+    public Object getCacheToken() {
+        // Other values (e.g. JSONObject) could be modified after they have been passed in.
+        return value instanceof String || value instanceof Number || value instanceof Boolean
+                ? PROCESS_STATIC
+                : null;
+    }
 }
@@ -5,6 +5,11 @@
 package org.mozilla.telemetry.measurement;
 
 public abstract class TelemetryMeasurement {
+    /**
+     * Cache token for measurements whose value never changes while the process is running.
+     */
+    public static final Object PROCESS_STATIC = new Object();
+
     private final String fieldName;
 
     public TelemetryMeasurement(String fieldName) {
@@ -27,4 +32,17 @@ public abstract class TelemetryMeasurement {
      * be reset after flushing.
      */
     public abstract Object flush();
+
+    /**
+     * Returns a token describing the current value of this measurement - or null if flush() needs
+     * to be called for every ping (default). As long as the token does not change (equals()) a ping
+     * builder may re-use the serialized result of an earlier flush() instead of calling it again.
+     *
+     * Measurements that never change while the process is running return {@link #PROCESS_STATIC}.
+     * Measurements that only change with some other value (e.g. the default locale) return that
+     * value. Computing the token should be cheaper than flushing the measurement.
+     */
+    public Object getCacheToken() {
+        return null;
+    }
 }
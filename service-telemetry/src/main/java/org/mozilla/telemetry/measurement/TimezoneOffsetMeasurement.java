@@ -22,6 +22,14 @@ public class TimezoneOffsetMeasurement extends TelemetryMeasurement {
         return getTimezoneOffsetInMinutesForGivenDate(now());
     }
 
+    @Override
+    public Object getCacheToken() {
+        // The offset (in milliseconds) of the time zone: Changes if the user switches the time zone
+        // or with daylight saving time. Derived from now() like the value returned by flush().
+        final Calendar calendar = now();
+        return calendar.getTimeZone().getOffset(calendar.getTimeInMillis());
+    }
+
     /**
      * Returns the time zone offset for the given date in minutes. The date makes a difference due to daylight
      * savings time in some regions. We return minutes because we can accurately represent time zones that are
@@ -0,0 +1,134 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.net;
+
+import android.os.SystemClock;
+import androidx.annotation.RestrictTo;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Circuit breaker for the upload endpoint.
+ *
+ * CLOSED: Requests are sent. After a number of consecutive failures the breaker opens.
+ * OPEN: No requests are sent until the open period is over. Then the breaker is half-open.
+ * HALF_OPEN: A single trial request is sent. If it succeeds the breaker closes again, otherwise it
+ * opens again for twice as long as before (up to a maximum).
+ *
+ * The server can open the breaker directly by asking us to come back later (Retry-After).
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long initialOpenDuration;
+    private final long maximumOpenDuration;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openDuration;
+    private long openUntil;
+    private boolean trialInFlight;
+
+    /**
+     * @param failureThreshold Number of consecutive failures after which the breaker opens.
+     * @param initialOpenDuration Time (in milliseconds) the breaker stays open the first time.
+     * @param maximumOpenDuration Maximum time (in milliseconds) the breaker stays open.
+     */
+    public CircuitBreaker(int failureThreshold, long initialOpenDuration, long maximumOpenDuration) {
+        this.failureThreshold = failureThreshold;
+        this.initialOpenDuration = initialOpenDuration;
+        this.maximumOpenDuration = maximumOpenDuration;
+        this.openDuration = initialOpenDuration;
+    }
+
+    /**
+     * Returns true if a request may be sent now. In the half-open state only one caller gets
+     * permission (until it reports the result).
+     */
+    public synchronized boolean allowRequest() {
+        switch (getState()) {
+            case CLOSED:
+                return true;
+
+            case HALF_OPEN:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns true if requests could be sent now (without taking the trial request of the
+     * half-open state).
+     */
+    public synchronized boolean isAvailable() {
+        final State state = getState();
+        return state == State.CLOSED || (state == State.HALF_OPEN && !trialInFlight);
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && now() >= openUntil) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        return state;
+    }
+
+    /**
+     * The server has been reached and has handled the request.
+     */
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        openDuration = initialOpenDuration;
+        trialInFlight = false;
+    }
+
+    /**
+     * The request failed (network error, timeout or server error).
+     */
+    public synchronized void onFailure() {
+        if (getState() == State.HALF_OPEN) {
+            // The trial request failed: Stay away for longer.
+            openDuration = Math.min(openDuration * 2, maximumOpenDuration);
+            open(openDuration);
+            return;
+        }
+
+        failures++;
+
+        if (state == State.CLOSED && failures >= failureThreshold) {
+            open(openDuration);
+        }
+    }
+
+    /**
+     * The server asked us not to send any requests for the given time (in milliseconds).
+     */
+    public synchronized void openFor(long duration) {
+        open(Math.min(Math.max(duration, 0), maximumOpenDuration));
+    }
+
+    private void open(long duration) {
+        state = State.OPEN;
+        openUntil = now() + duration;
+        failures = 0;
+        trialInFlight = false;
+    }
+
+    @VisibleForTesting long now() {
+        return SystemClock.elapsedRealtime();
+    }
+}
@@ -0,0 +1,86 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.net;
+
+import androidx.annotation.RestrictTo;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of the most recent requests (in a ring buffer) and derives request timeouts
+ * from them: Timeouts follow the observed latency instead of always waiting for the (long)
+ * configured timeouts of a server that is not responding.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class LatencyTracker {
+    // Number of samples needed before the timeouts are adapted.
+    private static final int MINIMUM_SAMPLES = 5;
+
+    private static final int CONNECT_TIMEOUT_FACTOR = 2;
+    private static final int READ_TIMEOUT_FACTOR = 4;
+    private static final long MINIMUM_CONNECT_TIMEOUT = 1000;
+    private static final long MINIMUM_READ_TIMEOUT = 2000;
+
+    private final long[] samples;
+    private int count;
+    private int next;
+
+    public LatencyTracker(int capacity) {
+        this.samples = new long[capacity];
+    }
+
+    /**
+     * Record the time (in milliseconds) a request took. Failed requests should be recorded too: A
+     * request that timed out pushes the timeouts up again.
+     */
+    public synchronized void record(long latency) {
+        samples[next] = latency;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * Returns the given percentile (0-100) of the recorded latencies or -1 if nothing has been
+     * recorded yet.
+     */
+    public synchronized long getPercentile(int percentile) {
+        if (count == 0) {
+            return -1;
+        }
+
+        final long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+
+        final int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(index, count - 1))];
+    }
+
+    /**
+     * Returns the connect timeout (in milliseconds) to use: Twice the 95th percentile of the
+     * observed latency, but never more than the configured timeout.
+     */
+    public long getConnectTimeout(long configuredTimeout) {
+        return adapt(configuredTimeout, CONNECT_TIMEOUT_FACTOR, MINIMUM_CONNECT_TIMEOUT);
+    }
+
+    /**
+     * Returns the read timeout (in milliseconds) to use: Four times the 95th percentile of the
+     * observed latency, but never more than the configured timeout.
+     */
+    public long getReadTimeout(long configuredTimeout) {
+        return adapt(configuredTimeout, READ_TIMEOUT_FACTOR, MINIMUM_READ_TIMEOUT);
+    }
+
+    private long adapt(long configuredTimeout, int factor, long minimumTimeout) {
+        synchronized (this) {
+            if (count < MINIMUM_SAMPLES) {
+                return configuredTimeout;
+            }
+        }
+
+        final long timeout = Math.max(getPercentile(95) * factor, minimumTimeout);
+        return Math.min(timeout, configuredTimeout);
+    }
+}
@@ -11,42 +11,132 @@ import mozilla.components.concept.fetch.Request
 import mozilla.components.concept.fetch.Response
 import mozilla.components.support.base.log.logger.Logger
 import org.mozilla.telemetry.config.TelemetryConfiguration
+import org.mozilla.telemetry.serialize.PingSerializerRegistry
+import org.mozilla.telemetry.storage.StoredPing
+import java.io.ByteArrayInputStream
 import java.io.IOException
+import java.text.ParseException
 import java.text.SimpleDateFormat
 import java.util.Calendar
 import java.util.Locale
 import java.util.TimeZone
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 
+/**
+ * Uploads pings to the telemetry endpoint.
+ *
+ * The health of every endpoint is tracked: A [CircuitBreaker] stops sending requests to an
+ * endpoint that keeps failing (or that asked us to come back later using Retry-After) and the
+ * observed latency of an endpoint is used to shorten the configured connect and read timeouts
+ * (see [LatencyTracker]).
+ */
 class TelemetryClient(
     private val client: Client
 ) {
     private val logger = Logger("telemetry/client")
+    private val endpoints = ConcurrentHashMap<String, EndpointHealth>()
+
+    /**
+     * Returns false if requests to the configured endpoint are currently not sent (the circuit
+     * breaker is open). Uploads can be skipped entirely in this case.
+     */
+    fun isEndpointAvailable(configuration: TelemetryConfiguration): Boolean {
+        return getEndpointHealth(configuration.serverEndpoint).breaker.isAvailable
+    }
 
     fun uploadPing(configuration: TelemetryConfiguration, path: String, serializedPing: String): Boolean {
+        return uploadPing(configuration, path, serializedPing.toByteArray(Charsets.UTF_8), null)
+    }
+
+    fun uploadPing(configuration: TelemetryConfiguration, ping: StoredPing): Boolean {
+        return uploadPing(configuration, ping.uploadPath, ping.payload, ping.contentEncoding, ping.contentType)
+    }
+
+    /**
+     * Upload the given payload. If a content encoding (e.g. "gzip") is passed then the payload is
+     * expected to be encoded already and is sent as-is with a matching Content-Encoding header. The
+     * content type is the format the ping has been serialized in (JSON by default).
+     */
+    @JvmOverloads
+    fun uploadPing(
+        configuration: TelemetryConfiguration,
+        path: String,
+        payload: ByteArray,
+        contentEncoding: String?,
+        contentType: String = PingSerializerRegistry.CONTENT_TYPE_JSON
+    ): Boolean {
+        val health = getEndpointHealth(configuration.serverEndpoint)
+
+        if (!health.breaker.allowRequest()) {
+            logger.info("Endpoint is not available. Skipping upload.")
+            return false
+        }
+
+        val headers = MutableHeaders(
+            "Content-Type" to contentType,
+            "User-Agent" to configuration.userAgent,
+            "Date" to createDateHeaderValue()
+        )
+
+        if (contentEncoding != null) {
+            headers.append("Content-Encoding", contentEncoding)
+        }
+
         val request = Request(
             url = configuration.serverEndpoint + path,
             method = Request.Method.POST,
-            connectTimeout = Pair(configuration.connectTimeout.toLong(), TimeUnit.MILLISECONDS),
-            readTimeout = Pair(configuration.readTimeout.toLong(), TimeUnit.MILLISECONDS),
-            headers = MutableHeaders(
-                "Content-Type" to "application/json; charset=utf-8",
-                "User-Agent" to configuration.userAgent,
-                "Date" to createDateHeaderValue()
-            ),
-            body = Request.Body.fromString(serializedPing))
-
-        val status = try {
-            client.fetch(request).use { response -> response.status }
+            connectTimeout = Pair(
+                health.latency.getConnectTimeout(configuration.connectTimeout.toLong()), TimeUnit.MILLISECONDS),
+            readTimeout = Pair(
+                health.latency.getReadTimeout(configuration.readTimeout.toLong()), TimeUnit.MILLISECONDS),
+            headers = headers,
+            body = Request.Body(ByteArrayInputStream(payload)))
+
+        val start = System.nanoTime()
+
+        val (status, retryAfter) = try {
+            client.fetch(request).use { response -> Pair(response.status, response.headers["Retry-After"]) }
         } catch (e: IOException) {
             logger.warn("IOException while uploading ping", e)
+            val latency = elapsedSince(start)
+            health.latency.record(latency)
+            health.breaker.onFailure()
+            configuration.internalMetrics.recordUpload(latency, STATUS_NO_RESPONSE, payload.size.toLong())
             return false
+        } catch (e: RuntimeException) {
+            // E.g. a malformed endpoint URL. Report the failure so that a half-open breaker does not
+            // keep waiting for the result of its trial request.
+            health.breaker.onFailure()
+            throw e
         }
 
+        val latency = elapsedSince(start)
+        health.latency.record(latency)
+        configuration.internalMetrics.recordUpload(latency, status, payload.size.toLong())
+
         logger.debug("Ping upload: $status")
 
+        if (status == STATUS_TOO_MANY_REQUESTS || status == STATUS_SERVICE_UNAVAILABLE) {
+            // The server asks us to slow down. We do not send any requests until the server wants
+            // to hear from us again.
+            val delay = parseRetryAfter(retryAfter)
+
+            if (delay != null) {
+                logger.warn("Server returned response code: $status (Retry-After: $delay ms)")
+                health.breaker.openFor(delay)
+            } else {
+                logger.warn("Server returned response code: $status")
+                health.breaker.onFailure()
+            }
+
+            return false
+        }
+
         return when (status) {
             in Response.SUCCESS_STATUS_RANGE -> {
+                health.breaker.onSuccess()
+
                 // Known success errors (2xx):
                 // 200 - OK. Request accepted into the pipeline.
 
@@ -67,6 +157,7 @@ class TelemetryClient(
                 // to recover from this by re-trying again, so we just log and error and report a
                 // successful upload to the service.
                 logger.error("Server returned client error code: $status")
+                health.breaker.onSuccess()
                 true
             }
 
@@ -76,11 +167,41 @@ class TelemetryClient(
 
                 // For all other errors we log a warning an try again at a later time.
                 logger.warn("Server returned response code: $status")
+                health.breaker.onFailure()
                 false
             }
         }
     }
 
+    private fun getEndpointHealth(endpoint: String): EndpointHealth {
+        return endpoints.getOrPut(endpoint) { EndpointHealth() }
+    }
+
+    private fun elapsedSince(start: Long) = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+    /**
+     * Parse the value of a Retry-After header: Either a number of seconds or an HTTP date. Returns
+     * the delay in milliseconds or null if the value can't be parsed.
+     */
+    @VisibleForTesting
+    internal fun parseRetryAfter(value: String?): Long? {
+        if (value == null) {
+            return null
+        }
+
+        value.trim().toLongOrNull()?.let { seconds ->
+            return TimeUnit.SECONDS.toMillis(seconds)
+        }
+
+        return try {
+            val dateFormat = SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US)
+            dateFormat.timeZone = TimeZone.getTimeZone("GMT")
+            dateFormat.parse(value.trim())?.let { date -> date.time - System.currentTimeMillis() }
+        } catch (e: ParseException) {
+            null
+        }
+    }
+
     @VisibleForTesting
     internal fun createDateHeaderValue(): String {
         val calendar = Calendar.getInstance()
@@ -88,4 +209,20 @@ class TelemetryClient(
         dateFormat.timeZone = TimeZone.getTimeZone("GMT")
         return dateFormat.format(calendar.time)
     }
+
+    private class EndpointHealth {
+        val breaker = CircuitBreaker(FAILURE_THRESHOLD, INITIAL_OPEN_DURATION, MAXIMUM_OPEN_DURATION)
+        val latency = LatencyTracker(LATENCY_SAMPLES)
+    }
+
+    private companion object {
+        const val STATUS_TOO_MANY_REQUESTS = 429
+        const val STATUS_SERVICE_UNAVAILABLE = 503
+        const val STATUS_NO_RESPONSE = -1
+
+        const val FAILURE_THRESHOLD = 3
+        const val INITIAL_OPEN_DURATION = 30_000L
+        const val MAXIMUM_OPEN_DURATION = 3_600_000L
+        const val LATENCY_SAMPLES = 32
+    }
 }
@@ -0,0 +1,203 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.net;
+
+import androidx.annotation.VisibleForTesting;
+
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.storage.StoredPingStats;
+import org.mozilla.telemetry.storage.TelemetryStorage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides in which order the stored pings of the different types are uploaded and how many pings of
+ * every type may be uploaded in an upload run.
+ *
+ * Every ping type gets a score: Its upload priority ({@link TelemetryConfiguration#getUploadPriority(String)}),
+ * raised for pings that have been waiting for a long time and lowered for large pings (which use up
+ * more of the user's bandwidth for the same value). Aging can raise the score of a type to at most
+ * twice its priority: It decides between types of similar priority but can't push a type with a
+ * much higher priority (e.g. core pings) back.
+ *
+ * The remaining upload budget is then handed out in the order of the scores: Every type gets as
+ * many uploads as it has pings (and its own daily budget allows) until the budget shared by all
+ * types ({@link TelemetryConfiguration#getMaximumNumberOfTotalPingUploadsPerDay()}) is used up.
+ * Pings of the same type are always uploaded in the order they have been stored.
+ *
+ * Pings of a higher priority that have not been created yet (e.g. the core ping of the next
+ * session) must not find the shared budget used up by pings of a lower priority. Every type has a
+ * share of the shared budget proportional to its priority. The part of this share a type has not
+ * used yet is reserved for it and can't be used by types with a lower priority. The reservation
+ * shrinks over the course of the day, so that the budget is (almost) used up by the end of the day.
+ */
+public class UploadQueue {
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    // The maximum factor the priority of a type is raised by for waiting pings.
+    private static final double MAXIMUM_AGE_BOOST = 2;
+
+    // Pings of this size (in bytes) have half the score of a very small ping of the same priority.
+    private static final double REFERENCE_PING_SIZE = 64 * 1024;
+
+    private final TelemetryConfiguration configuration;
+    private final TelemetryStorage storage;
+    private final UploadRateLimiter limiter;
+
+    public UploadQueue(TelemetryConfiguration configuration, TelemetryStorage storage, UploadRateLimiter limiter) {
+        this.configuration = configuration;
+        this.storage = storage;
+        this.limiter = limiter;
+    }
+
+    /**
+     * Returns the given ping types in the order they should be uploaded, together with the number of
+     * pings that may be uploaded for every type now. Types without pings or without budget left are
+     * included with a quota of 0. Types that could upload more pings if the budget wasn't reserved for
+     * higher priorities are marked with {@link Entry#isHeldBackByReservation()}.
+     */
+    public List<Entry> plan(Collection<String> pingTypes) {
+        final long now = now();
+
+        final List<Entry> entries = new ArrayList<>(pingTypes.size());
+        int totalPriority = 0;
+
+        for (String pingType : pingTypes) {
+            final StoredPingStats stats = storage.getStoredPingStats(pingType);
+            final int priority = configuration.getUploadPriority(pingType);
+
+            entries.add(new Entry(pingType, priority, score(priority, stats, now), stats));
+            totalPriority += priority;
+        }
+
+        final int totalLimit = configuration.getMaximumNumberOfTotalPingUploadsPerDay();
+        if (totalLimit > 0) {
+            final double remainingFractionOfDay = limiter.getRemainingFractionOfDay();
+
+            for (Entry entry : entries) {
+                final double share = (double) totalLimit * entry.priority / totalPriority;
+                final double unused = Math.max(0, share - limiter.getUploadCount(entry.pingType));
+
+                entry.reservation = (int) Math.ceil(unused * remainingFractionOfDay);
+            }
+        }
+
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Double.compare(b.score, a.score);
+            }
+        });
+
+        int remainingTotalUploads = limiter.getRemainingTotalUploads();
+
+        for (Entry entry : entries) {
+            final int available = remainingTotalUploads - getReservationOfHigherPriorities(entries, entry.priority);
+            final int remainingUploads = limiter.getRemainingUploads(entry.pingType);
+
+            final int quota = Math.min(entry.stats.getCount(), Math.min(remainingUploads, available));
+
+            entry.quota = Math.max(0, quota);
+            entry.heldBackByReservation = entry.quota < entry.stats.getCount()
+                    && entry.quota < remainingUploads
+                    && entry.quota < remainingTotalUploads;
+            entry.reservation = Math.max(0, entry.reservation - entry.quota);
+            remainingTotalUploads -= entry.quota;
+        }
+
+        return entries;
+    }
+
+    private static int getReservationOfHigherPriorities(List<Entry> entries, int priority) {
+        int reservation = 0;
+        for (Entry entry : entries) {
+            if (entry.priority > priority) {
+                reservation += entry.reservation;
+            }
+        }
+        return reservation;
+    }
+
+    @VisibleForTesting static double score(int priority, StoredPingStats stats, long now) {
+        if (stats.getCount() == 0) {
+            return 0;
+        }
+
+        final long age = stats.getOldestTimestamp() > 0 ? Math.max(0, now - stats.getOldestTimestamp()) : 0;
+        final double ageBoost = Math.min(MAXIMUM_AGE_BOOST, 1 + (double) age / DAY);
+        final double sizePenalty = 1 + stats.getAverageBytes() / REFERENCE_PING_SIZE;
+
+        return priority * ageBoost / sizePenalty;
+    }
+
+    @VisibleForTesting long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * A ping type in the upload order.
+     */
+    public static class Entry {
+        private final String pingType;
+        private final int priority;
+        private final double score;
+        private final StoredPingStats stats;
+        private int reservation;
+        private int quota;
+        private boolean heldBackByReservation;
+
+        private Entry(String pingType, int priority, double score, StoredPingStats stats) {
+            this.pingType = pingType;
+            this.priority = priority;
+            this.score = score;
+            this.stats = stats;
+        }
+
+        public String getPingType() {
+            return pingType;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        /**
+         * Returns the number of pings of this type that may be uploaded in this run.
+         */
+        public int getQuota() {
+            return quota;
+        }
+
+        public StoredPingStats getStats() {
+            return stats;
+        }
+
+        /**
+         * Returns true if pings of this type are left over only because the remaining budget is
+         * reserved for types with a higher priority. The reservation shrinks over the course of the
+         * day: These pings can be uploaded later today. Pings left over because a daily limit has been
+         * reached have to wait until tomorrow.
+         */
+        public boolean isHeldBackByReservation() {
+            return heldBackByReservation;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s{priority=%d, score=%.2f, quota=%d/%d%s}",
+                    pingType, priority, score, quota, stats.getCount(), heldBackByReservation ? ", held back" : "");
+        }
+    }
+}
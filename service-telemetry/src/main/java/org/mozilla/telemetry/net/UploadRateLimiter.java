@@ -0,0 +1,308 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.net;
+
+import androidx.annotation.VisibleForTesting;
+
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.storage.TelemetryKeyValueStore;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of uploaded pings per ping type.
+ *
+ * Every ping type has a daily budget of {@link TelemetryConfiguration#getMaximumNumberOfPingUploadsPerDay()}
+ * uploads (per calendar day) and optionally a burst budget: A token bucket holding up to
+ * {@link TelemetryConfiguration#getMaximumPingUploadBurst()} tokens that is refilled at the daily
+ * rate (spread evenly over the day). Optionally all types share a daily budget of
+ * {@link TelemetryConfiguration#getMaximumNumberOfTotalPingUploadsPerDay()} uploads.
+ *
+ * The upload counters are kept in memory. They are read from the key-value store the first time a
+ * ping type is used and only written back when {@link #persist()} is called (once per upload job).
+ * The boundaries of the current day are only calculated again once the day is over.
+ */
+public class UploadRateLimiter {
+    private static final String PREFERENCE_UPLOAD_COUNT_PREFIX = "upload_count_";
+    private static final String PREFERENCE_LAST_UPLOAD_PREFIX = "last_uploade_";
+    private static final String PREFERENCE_TOTAL_UPLOAD_COUNT = "total_upload_count";
+    private static final String PREFERENCE_TOTAL_LAST_UPLOAD = "total_last_upload";
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private final TelemetryConfiguration configuration;
+    private final Map<String, Budget> budgets;
+    private Budget totalBudget;
+
+    // The current day: [dayStart, dayEnd)
+    private long dayStart;
+    private long dayEnd;
+
+    public UploadRateLimiter(TelemetryConfiguration configuration) {
+        this.configuration = configuration;
+        this.budgets = new HashMap<>();
+    }
+
+    /**
+     * Take one upload from the budgets of the given ping type. Returns false if the ping should not
+     * be uploaded now.
+     */
+    public synchronized boolean tryAcquire(String pingType) {
+        final long now = now();
+        final Budget budget = getBudget(pingType, now);
+
+        if (budget.count >= configuration.getMaximumNumberOfPingUploadsPerDay()) {
+            return false;
+        }
+
+        // The shared budget is only tracked while it is enabled.
+        final Budget total = configuration.getMaximumNumberOfTotalPingUploadsPerDay() > 0
+                ? getTotalBudget(now)
+                : null;
+
+        if (total != null && total.count >= configuration.getMaximumNumberOfTotalPingUploadsPerDay()) {
+            return false;
+        }
+
+        final int burst = configuration.getMaximumPingUploadBurst();
+        if (burst > 0) {
+            refill(budget, burst, now);
+
+            if (budget.tokens < 1) {
+                return false;
+            }
+
+            budget.tokens--;
+        }
+
+        budget.count++;
+        budget.lastUpload = now;
+        budget.dirty = true;
+
+        if (total != null) {
+            total.count++;
+            total.lastUpload = now;
+            total.dirty = true;
+        }
+
+        return true;
+    }
+
+    /**
+     * Return an upload taken with {@link #tryAcquire(String)}: The ping could not be uploaded.
+     */
+    public synchronized void release(String pingType) {
+        final long now = now();
+        final Budget budget = getBudget(pingType, now);
+
+        if (budget.count > 0) {
+            budget.count--;
+            budget.dirty = true;
+        }
+
+        final Budget total = configuration.getMaximumNumberOfTotalPingUploadsPerDay() > 0
+                ? getTotalBudget(now)
+                : null;
+        if (total != null && total.count > 0) {
+            total.count--;
+            total.dirty = true;
+        }
+
+        final int burst = configuration.getMaximumPingUploadBurst();
+        if (burst > 0) {
+            budget.tokens = Math.min(burst, budget.tokens + 1);
+        }
+    }
+
+    /**
+     * Returns true if the daily budget of the given ping type (or the budget shared by all types)
+     * has been used up.
+     */
+    public synchronized boolean hasReachedDailyLimit(String pingType) {
+        return getRemainingUploads(pingType) == 0 || getRemainingTotalUploads() == 0;
+    }
+
+    /**
+     * Returns how many pings of the given type can still be uploaded today (ignoring the budget
+     * shared by all types).
+     */
+    public synchronized int getRemainingUploads(String pingType) {
+        final long count = getBudget(pingType, now()).count;
+        return (int) Math.max(0, configuration.getMaximumNumberOfPingUploadsPerDay() - count);
+    }
+
+    /**
+     * Returns how many pings of the given type have been uploaded today.
+     */
+    public synchronized int getUploadCount(String pingType) {
+        return (int) getBudget(pingType, now()).count;
+    }
+
+    /**
+     * Returns the part of the current day that is still left (between 1 at midnight and 0).
+     */
+    public synchronized double getRemainingFractionOfDay() {
+        final long now = now();
+        if (now < dayStart || now >= dayEnd) {
+            startDay(now);
+        }
+        return (double) (dayEnd - now) / (dayEnd - dayStart);
+    }
+
+    /**
+     * Returns how many pings (of all types together) can still be uploaded today or
+     * {@link Integer#MAX_VALUE} if the total number of uploads is not limited.
+     */
+    public synchronized int getRemainingTotalUploads() {
+        final int totalLimit = configuration.getMaximumNumberOfTotalPingUploadsPerDay();
+        if (totalLimit <= 0) {
+            return Integer.MAX_VALUE;
+        }
+
+        return (int) Math.max(0, totalLimit - getTotalBudget(now()).count);
+    }
+
+    /**
+     * Write the upload counters that have changed to the key-value store.
+     */
+    public void persist() {
+        final TelemetryKeyValueStore store = configuration.getKeyValueStore();
+
+        boolean changed = false;
+
+        synchronized (this) {
+            for (Map.Entry<String, Budget> entry : budgets.entrySet()) {
+                final Budget budget = entry.getValue();
+
+                if (budget.dirty) {
+                    store.putLong(PREFERENCE_LAST_UPLOAD_PREFIX + entry.getKey(), budget.lastUpload);
+                    store.putLong(PREFERENCE_UPLOAD_COUNT_PREFIX + entry.getKey(), budget.count);
+
+                    budget.dirty = false;
+                    changed = true;
+                }
+            }
+
+            if (totalBudget != null && totalBudget.dirty) {
+                store.putLong(PREFERENCE_TOTAL_LAST_UPLOAD, totalBudget.lastUpload);
+                store.putLong(PREFERENCE_TOTAL_UPLOAD_COUNT, totalBudget.count);
+
+                totalBudget.dirty = false;
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            store.flush();
+        }
+    }
+
+    private Budget getBudget(String pingType, long now) {
+        if (now < dayStart || now >= dayEnd) {
+            startDay(now);
+        }
+
+        Budget budget = budgets.get(pingType);
+
+        if (budget == null) {
+            final TelemetryKeyValueStore store = configuration.getKeyValueStore();
+
+            budget = new Budget();
+            budget.lastUpload = store.getLong(PREFERENCE_LAST_UPLOAD_PREFIX + pingType, 0);
+            budget.count = isToday(budget.lastUpload)
+                    ? store.getLong(PREFERENCE_UPLOAD_COUNT_PREFIX + pingType, 0)
+                    : 0;
+            budget.tokens = configuration.getMaximumPingUploadBurst();
+            budget.lastRefill = now;
+
+            budgets.put(pingType, budget);
+        }
+
+        return budget;
+    }
+
+    private Budget getTotalBudget(long now) {
+        if (now < dayStart || now >= dayEnd) {
+            startDay(now);
+        }
+
+        if (totalBudget == null) {
+            final TelemetryKeyValueStore store = configuration.getKeyValueStore();
+
+            totalBudget = new Budget();
+            totalBudget.lastUpload = store.getLong(PREFERENCE_TOTAL_LAST_UPLOAD, 0);
+            totalBudget.count = isToday(totalBudget.lastUpload)
+                    ? store.getLong(PREFERENCE_TOTAL_UPLOAD_COUNT, 0)
+                    : 0;
+        }
+
+        return totalBudget;
+    }
+
+    private void startDay(long now) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        dayStart = calendar.getTimeInMillis();
+
+        calendar.add(Calendar.DAY_OF_YEAR, 1);
+        dayEnd = calendar.getTimeInMillis();
+
+        // Counters of the previous day do not count anymore.
+        for (Budget budget : budgets.values()) {
+            resetIfOutdated(budget);
+        }
+
+        if (totalBudget != null) {
+            resetIfOutdated(totalBudget);
+        }
+    }
+
+    private void resetIfOutdated(Budget budget) {
+        if (!isToday(budget.lastUpload) && budget.count > 0) {
+            budget.count = 0;
+            budget.dirty = true;
+        }
+    }
+
+    private boolean isToday(long timestamp) {
+        return timestamp >= dayStart && timestamp < dayEnd;
+    }
+
+    private void refill(Budget budget, int burst, long now) {
+        final long interval = DAY / Math.max(1, configuration.getMaximumNumberOfPingUploadsPerDay());
+        final long elapsed = now - budget.lastRefill;
+
+        if (elapsed < 0) {
+            // The clock has been changed.
+            budget.lastRefill = now;
+            return;
+        }
+
+        final long tokens = elapsed / interval;
+        if (tokens > 0) {
+            budget.tokens = (int) Math.min(burst, budget.tokens + tokens);
+            budget.lastRefill += tokens * interval;
+        }
+    }
+
+    @VisibleForTesting long now() {
+        return System.currentTimeMillis();
+    }
+
+    private static class Budget {
+        private long count;
+        private long lastUpload;
+        private int tokens;
+        private long lastRefill;
+        private boolean dirty;
+    }
+}
@@ -0,0 +1,160 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.net;
+
+import androidx.annotation.RestrictTo;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of a single upload run: How many pings have been uploaded (or failed to upload), how
+ * many bytes have been sent and how long the requests took. The uploaded pings and bytes are also
+ * kept per ping type to show how the upload budget has been used. Upload requests run in parallel,
+ * so all values can be updated from multiple threads.
+ */
+public class UploadStats {
+    private final AtomicLong uploadedPings = new AtomicLong();
+    private final AtomicLong failedPings = new AtomicLong();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maximumLatency = new AtomicLong();
+    private final ConcurrentMap<String, TypeStats> typeStats = new ConcurrentHashMap<>();
+
+    private volatile long duration;
+
+    /**
+     * Record an upload request.
+     *
+     * @param pingType Type of the uploaded ping.
+     * @param bytes Size of the (possibly compressed) payload.
+     * @param latency Time (in milliseconds) it took to get a response (or an error).
+     * @param successful Whether the ping has been uploaded and can be removed from the storage.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void recordUpload(String pingType, long bytes, long latency, boolean successful) {
+        if (successful) {
+            uploadedPings.incrementAndGet();
+            uploadedBytes.addAndGet(bytes);
+
+            final TypeStats stats = getTypeStats(pingType);
+            stats.pings.incrementAndGet();
+            stats.bytes.addAndGet(bytes);
+        } else {
+            failedPings.incrementAndGet();
+        }
+
+        totalLatency.addAndGet(latency);
+
+        long maximum;
+        while (latency > (maximum = maximumLatency.get())) {
+            if (maximumLatency.compareAndSet(maximum, latency)) {
+                break;
+            }
+        }
+    }
+
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    public long getUploadedPings() {
+        return uploadedPings.get();
+    }
+
+    public long getFailedPings() {
+        return failedPings.get();
+    }
+
+    public long getUploadedBytes() {
+        return uploadedBytes.get();
+    }
+
+    /**
+     * Returns the types of the pings that have been uploaded.
+     */
+    public Set<String> getUploadedPingTypes() {
+        return typeStats.keySet();
+    }
+
+    /**
+     * Returns the number of uploaded pings of the given type.
+     */
+    public long getUploadedPings(String pingType) {
+        final TypeStats stats = typeStats.get(pingType);
+        return stats != null ? stats.pings.get() : 0;
+    }
+
+    /**
+     * Returns the number of bytes uploaded for pings of the given type.
+     */
+    public long getUploadedBytes(String pingType) {
+        final TypeStats stats = typeStats.get(pingType);
+        return stats != null ? stats.bytes.get() : 0;
+    }
+
+    /**
+     * Returns the average time (in milliseconds) of an upload request.
+     */
+    public long getAverageLatency() {
+        final long requests = uploadedPings.get() + failedPings.get();
+        return requests > 0 ? totalLatency.get() / requests : 0;
+    }
+
+    /**
+     * Returns the time (in milliseconds) of the slowest upload request.
+     */
+    public long getMaximumLatency() {
+        return maximumLatency.get();
+    }
+
+    /**
+     * Returns the time (in milliseconds) the whole upload run took.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadStats{uploaded=" + getUploadedPings()
+                + ", failed=" + getFailedPings()
+                + ", bytes=" + getUploadedBytes()
+                + ", averageLatency=" + getAverageLatency()
+                + ", maximumLatency=" + getMaximumLatency()
+                + ", duration=" + getDuration()
+                + ", types=" + describeTypes() + "}";
+    }
+
+    private String describeTypes() {
+        final Map<String, String> types = new TreeMap<>();
+        for (Map.Entry<String, TypeStats> entry : typeStats.entrySet()) {
+            types.put(entry.getKey(), entry.getValue().pings.get() + " pings/" + entry.getValue().bytes.get() + " bytes");
+        }
+        return types.toString();
+    }
+
+    private TypeStats getTypeStats(String pingType) {
+        TypeStats stats = typeStats.get(pingType);
+        if (stats == null) {
+            final TypeStats newStats = new TypeStats();
+            stats = typeStats.putIfAbsent(pingType, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    private static class TypeStats {
+        private final AtomicLong pings = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+    }
+}
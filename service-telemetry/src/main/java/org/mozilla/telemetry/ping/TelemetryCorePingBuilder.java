@@ -9,8 +9,10 @@ import org.mozilla.telemetry.measurement.ArchMeasurement;
 import org.mozilla.telemetry.measurement.CreatedDateMeasurement;
 import org.mozilla.telemetry.measurement.DefaultSearchMeasurement;
 import org.mozilla.telemetry.measurement.DeviceMeasurement;
+import org.mozilla.telemetry.measurement.ExecutorStatsMeasurement;
 import org.mozilla.telemetry.measurement.ExperimentsMeasurement;
 import org.mozilla.telemetry.measurement.FirstRunProfileDateMeasurement;
+import org.mozilla.telemetry.measurement.HistogramsMeasurement;
 import org.mozilla.telemetry.measurement.LocaleMeasurement;
 import org.mozilla.telemetry.measurement.OperatingSystemMeasurement;
 import org.mozilla.telemetry.measurement.OperatingSystemVersionMeasurement;
@@ -37,6 +39,8 @@ public class TelemetryCorePingBuilder extends TelemetryPingBuilder {
     private DefaultSearchMeasurement defaultSearchMeasurement;
     private SearchesMeasurement searchesMeasurement;
     private ExperimentsMeasurement experimentsMeasurement;
+    private ExecutorStatsMeasurement executorStatsMeasurement;
+    private HistogramsMeasurement histogramsMeasurement;
 
     public TelemetryCorePingBuilder(TelemetryConfiguration configuration) {
         super(configuration, TYPE, VERSION);
@@ -55,6 +59,8 @@ public class TelemetryCorePingBuilder extends TelemetryPingBuilder {
         addMeasurement(sessionDurationMeasurement = new SessionDurationMeasurement(configuration));
         addMeasurement(searchesMeasurement = new SearchesMeasurement(configuration));
         addMeasurement(experimentsMeasurement = new ExperimentsMeasurement());
+        addMeasurement(executorStatsMeasurement = new ExecutorStatsMeasurement(configuration));
+        addMeasurement(histogramsMeasurement = new HistogramsMeasurement());
     }
 
     public SessionCountMeasurement getSessionCountMeasurement() {
@@ -77,6 +83,14 @@ public class TelemetryCorePingBuilder extends TelemetryPingBuilder {
         return experimentsMeasurement;
     }
 
+    public ExecutorStatsMeasurement getExecutorStatsMeasurement() {
+        return executorStatsMeasurement;
+    }
+
+    public HistogramsMeasurement getHistogramsMeasurement() {
+        return histogramsMeasurement;
+    }
+
     @Override
     protected String getUploadPath(final String documentId) {
         return super.getUploadPath(documentId) + "?v=4";
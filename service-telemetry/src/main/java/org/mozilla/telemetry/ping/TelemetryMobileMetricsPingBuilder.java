@@ -11,6 +11,8 @@ import org.mozilla.telemetry.measurement.CreatedDateMeasurementNew;
 import org.mozilla.telemetry.measurement.CreatedTimestampMeasurementNew;
 import org.mozilla.telemetry.measurement.DeviceMeasurement;
 import org.mozilla.telemetry.measurement.FirstRunProfileDateMeasurement;
+import org.mozilla.telemetry.measurement.HistogramsMeasurement;
+import org.mozilla.telemetry.measurement.InternalMetricsMeasurement;
 import org.mozilla.telemetry.measurement.LocaleMeasurement;
 import org.mozilla.telemetry.measurement.MetricsMeasurement;
 import org.mozilla.telemetry.measurement.OperatingSystemMeasurement;
@@ -29,6 +31,8 @@ public class TelemetryMobileMetricsPingBuilder extends TelemetryPingBuilder {
     public static final String TYPE = "mobile-metrics";
     private static final int VERSION = 1;
 
+    private final HistogramsMeasurement histogramsMeasurement;
+
     public TelemetryMobileMetricsPingBuilder(JSONObject snapshots, TelemetryConfiguration configuration) {
         super(configuration, TYPE, VERSION);
 
@@ -44,6 +48,12 @@ public class TelemetryMobileMetricsPingBuilder extends TelemetryPingBuilder {
         addMeasurement(new CreatedTimestampMeasurementNew());
         addMeasurement(new TimezoneOffsetMeasurement());
         addMeasurement(new MetricsMeasurement(snapshots));
+        addMeasurement(new InternalMetricsMeasurement(configuration));
+        addMeasurement(histogramsMeasurement = new HistogramsMeasurement());
+    }
+
+    public HistogramsMeasurement getHistogramsMeasurement() {
+        return histogramsMeasurement;
     }
 
     @Override
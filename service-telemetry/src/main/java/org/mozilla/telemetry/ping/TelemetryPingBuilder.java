@@ -10,9 +10,13 @@ import androidx.annotation.VisibleForTesting;
 
 import org.mozilla.telemetry.config.TelemetryConfiguration;
 import org.mozilla.telemetry.measurement.ClientIdMeasurement;
+import org.mozilla.telemetry.measurement.EventsMeasurement;
+import org.mozilla.telemetry.measurement.SearchesMeasurement;
 import org.mozilla.telemetry.measurement.TelemetryMeasurement;
 import org.mozilla.telemetry.measurement.VersionMeasurement;
+import org.mozilla.telemetry.serialize.JSONFragment;
 
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -23,12 +27,18 @@ public abstract class TelemetryPingBuilder {
     private final String type;
     private final List<TelemetryMeasurement> measurements;
 
+    // Serialized results of measurements that provide a cache token (see
+    // TelemetryMeasurement.getCacheToken()).
+    private final Map<TelemetryMeasurement, CachedResult> cachedResults;
+
     private TelemetryConfiguration configuration;
+    private UploadPathSuffix uploadPathSuffix;
 
     public TelemetryPingBuilder(@NonNull TelemetryConfiguration configuration, @NonNull String type, int version) {
         this.configuration = configuration;
         this.type = type;
         this.measurements = new LinkedList<>();
+        this.cachedResults = new HashMap<>();
 
         // All pings contain a version and a client id (with exception below)
         addMeasurement(new VersionMeasurement(version));
@@ -60,40 +70,168 @@ public abstract class TelemetryPingBuilder {
     }
 
     public TelemetryPing build() {
-        final String documentId = generateDocumentId();
+        final Map<String, Object> measurementResults = flushMeasurements();
+        final String documentId = getDocumentId();
 
         return new TelemetryPing(
                 getType(),
                 documentId,
                 getUploadPath(documentId),
-                flushMeasurements());
+                measurementResults);
+    }
+
+    /**
+     * Returns the document id for the ping that has just been built: A ping containing events that
+     * have been added to a ping before (but have not been committed) gets the same id again.
+     */
+    private String getDocumentId() {
+        for (TelemetryMeasurement measurement : measurements) {
+            if (measurement instanceof EventsMeasurement) {
+                final String documentId = ((EventsMeasurement) measurement).getPendingDocumentId();
+                if (documentId != null) {
+                    return documentId;
+                }
+            }
+        }
+
+        return generateDocumentId();
     }
 
     protected String getUploadPath(final String documentId) {
+        return "/submit/telemetry/" + documentId + getUploadPathSuffix();
+    }
+
+    /**
+     * Returns the part of the upload path following the document id. It only needs to be created
+     * again if the configuration has been changed.
+     */
+    private synchronized String getUploadPathSuffix() {
         final TelemetryConfiguration configuration = getConfiguration();
 
-        return String.format("/submit/telemetry/%s/%s/%s/%s/%s/%s",
-                documentId,
-                getType(),
-                configuration.getAppName(),
-                configuration.getAppVersion(),
-                configuration.getUpdateChannel(),
-                configuration.getBuildId());
+        if (uploadPathSuffix == null || !uploadPathSuffix.matches(configuration)) {
+            uploadPathSuffix = new UploadPathSuffix(getType(), configuration);
+        }
+
+        return uploadPathSuffix.suffix;
+    }
+
+    /**
+     * Write events and search counts that measurements of this ping are still buffering in memory
+     * to disk.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void flushPendingEvents() {
+        for (TelemetryMeasurement measurement : measurements) {
+            if (measurement instanceof EventsMeasurement) {
+                ((EventsMeasurement) measurement).flushPendingEvents();
+            } else if (measurement instanceof SearchesMeasurement) {
+                ((SearchesMeasurement) measurement).flushPendingCounts();
+            }
+        }
+    }
+
+    /**
+     * The ping that has been built last has been stored: Remove the events it contains.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void onPingStored() {
+        for (TelemetryMeasurement measurement : measurements) {
+            if (measurement instanceof EventsMeasurement) {
+                ((EventsMeasurement) measurement).commitFlush();
+            }
+        }
+    }
+
+    /**
+     * Returns true if there are events left that did not fit into the ping that has been built
+     * last. Another ping should be built (after storing the last one) right away.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public boolean hasRemainingEvents() {
+        for (TelemetryMeasurement measurement : measurements) {
+            if (measurement instanceof EventsMeasurement
+                    && ((EventsMeasurement) measurement).hasPendingBacklog()) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     private Map<String, Object> flushMeasurements() {
         final Map<String, Object> measurementResults = new LinkedHashMap<>();
 
         for (TelemetryMeasurement measurement : measurements) {
-            measurementResults.put(measurement.getFieldName(), measurement.flush());
+            measurementResults.put(measurement.getFieldName(), flushMeasurement(measurement));
         }
 
         return measurementResults;
     }
 
+    /**
+     * Flush the measurement - or return its cached result if the measurement's cache token has
+     * not changed since the result has been cached.
+     */
+    private Object flushMeasurement(TelemetryMeasurement measurement) {
+        final Object token = measurement.getCacheToken();
+        if (token == null) {
+            return measurement.flush();
+        }
+
+        synchronized (cachedResults) {
+            final CachedResult cachedResult = cachedResults.get(measurement);
+            if (cachedResult != null && cachedResult.token.equals(token)) {
+                return cachedResult.fragment;
+            }
+
+            final Object value = measurement.flush();
+            if (value == null) {
+                return null;
+            }
+
+            final JSONFragment fragment = JSONFragment.of(value);
+            cachedResults.put(measurement, new CachedResult(token, fragment));
+            return fragment;
+        }
+    }
+
     @VisibleForTesting
     @RestrictTo(RestrictTo.Scope.LIBRARY)
     public String generateDocumentId() {
         return UUID.randomUUID().toString();
     }
+
+    private static class CachedResult {
+        private final Object token;
+        private final JSONFragment fragment;
+
+        private CachedResult(Object token, JSONFragment fragment) {
+            this.token = token;
+            this.fragment = fragment;
+        }
+    }
+
+    private static class UploadPathSuffix {
+        private final String appName;
+        private final String appVersion;
+        private final String updateChannel;
+        private final String buildId;
+        private final String suffix;
+
+        private UploadPathSuffix(String type, TelemetryConfiguration configuration) {
+            this.appName = configuration.getAppName();
+            this.appVersion = configuration.getAppVersion();
+            this.updateChannel = configuration.getUpdateChannel();
+            this.buildId = configuration.getBuildId();
+            this.suffix = "/" + type + "/" + appName + "/" + appVersion + "/" + updateChannel + "/" + buildId;
+        }
+
+        private boolean matches(TelemetryConfiguration configuration) {
+            // The configuration keeps the strings it has been given: Comparing references is enough.
+            return appName == configuration.getAppName()
+                    && appVersion == configuration.getAppVersion()
+                    && updateChannel == configuration.getUpdateChannel()
+                    && buildId == configuration.getBuildId();
+        }
+    }
 }
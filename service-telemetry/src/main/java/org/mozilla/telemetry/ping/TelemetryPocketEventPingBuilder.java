@@ -54,9 +54,6 @@ public class TelemetryPocketEventPingBuilder extends TelemetryPingBuilder {
 
     @Override
     protected String getUploadPath(final String documentId) {
-        return String.format("/submit/pocket/%s/%s/%s",
-                getType(),
-                VERSION,
-                documentId);
+        return "/submit/pocket/" + getType() + "/" + VERSION + "/" + documentId;
     }
 }
@@ -7,28 +7,61 @@ package org.mozilla.telemetry.schedule.jobscheduler;
 import android.annotation.SuppressLint;
 import android.app.job.JobParameters;
 import android.app.job.JobService;
-import android.content.SharedPreferences;
 import android.os.AsyncTask;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
-import android.util.Log;
 
 import org.mozilla.telemetry.Telemetry;
 import org.mozilla.telemetry.TelemetryHolder;
 import org.mozilla.telemetry.config.TelemetryConfiguration;
 import org.mozilla.telemetry.net.TelemetryClient;
+import org.mozilla.telemetry.net.UploadQueue;
+import org.mozilla.telemetry.net.UploadRateLimiter;
+import org.mozilla.telemetry.net.UploadStats;
 import org.mozilla.telemetry.ping.TelemetryPingBuilder;
+import org.mozilla.telemetry.storage.StoredPing;
 import org.mozilla.telemetry.storage.TelemetryStorage;
 
-import java.util.Calendar;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import mozilla.components.support.base.log.logger.Logger;
 
+/**
+ * JobService uploading stored pings.
+ *
+ * Every ping type is uploaded by its own task. Up to
+ * {@link TelemetryConfiguration#getMaximumParallelUploads()} tasks run at the same time, sharing the
+ * HTTP client (and its connection pool) of the TelemetryClient. Pings of the same type are uploaded
+ * one after another in the order they have been stored. A failing upload only stops the upload of
+ * its own type.
+ *
+ * The tasks are started in the order of the {@link UploadQueue} and every task uploads at most as
+ * many pings as the queue has assigned to its type: Types with a higher priority get their share of
+ * the upload budget first. If pings are left over only because the budget is reserved for higher
+ * priorities then the job is rescheduled (with backoff): The reservation shrinks over the day.
+ */
 public class TelemetryJobService extends JobService {
-    private static final String PREFERENCE_UPLOAD_COUNT_PREFIX = "upload_count_";
-    private static final String PREFERENCE_LAST_UPLOAD_PREFIX = "last_uploade_";
+    // How often (in milliseconds) a running upload checks whether the job has been stopped.
+    private static final long CANCELLATION_CHECK_INTERVAL = 100;
+
+    // How long (in milliseconds) a stopped upload waits for the requests that are still running.
+    private static final long WORKER_TERMINATION_TIMEOUT = 1000;
 
     private final Logger logger = new Logger("telemetry/service");
     private UploadPingsTask uploadTask;
+    private volatile UploadRun uploadRun;
+    private volatile UploadStats lastUploadStats;
 
     @Override
     public boolean onStartJob(JobParameters params) {
@@ -42,6 +75,12 @@ public class TelemetryJobService extends JobService {
         if (uploadTask != null) {
             uploadTask.cancel(true);
         }
+
+        final UploadRun run = uploadRun;
+        if (run != null) {
+            run.cancel();
+        }
+
         return true;
     }
 
@@ -57,101 +96,283 @@ public class TelemetryJobService extends JobService {
 
     @VisibleForTesting public void uploadPingsInBackground(AsyncTask task, JobParameters parameters) {
         final Telemetry telemetry = TelemetryHolder.get();
-        final TelemetryConfiguration configuration = telemetry.getConfiguration();
         final TelemetryStorage storage = telemetry.getStorage();
+        final UploadRateLimiter limiter = telemetry.getUploadRateLimiter();
 
+        final List<String> pingTypes = new ArrayList<>();
         for (TelemetryPingBuilder builder : telemetry.getBuilders()) {
-            final String pingType = builder.getType();
-            logger.debug("Performing upload of ping type: " + pingType, null);
+            pingTypes.add(builder.getType());
+        }
 
-            if (task.isCancelled()) {
-                logger.debug("Job stopped. Exiting.", null);
-                return; // Job will be rescheduled from onStopJob().
-            }
+        // All types take part in planning (even without stored pings): Their priority reserves a part
+        // of the shared upload budget for them.
+        final List<UploadQueue.Entry> plan = new ArrayList<>();
+        boolean heldBack = false;
 
-            if (storage.countStoredPings(pingType) == 0) {
-                logger.debug("No pings of type " + pingType + " to upload", null);
-                continue;
+        for (UploadQueue.Entry entry : new UploadQueue(telemetry.getConfiguration(), storage, limiter).plan(pingTypes)) {
+            final String pingType = entry.getPingType();
+
+            if (entry.isHeldBackByReservation()) {
+                logger.debug("Upload budget for type " + pingType + " reserved by higher priorities", null);
+                heldBack = true;
             }
 
-            if (hasReachedUploadLimit(configuration, pingType)) {
+            if (entry.getStats().getCount() == 0) {
+                logger.debug("No pings of type " + pingType + " to upload", null);
+            } else if (entry.getQuota() > 0) {
+                plan.add(entry);
+            } else if (!entry.isHeldBackByReservation()) {
                 logger.debug("Daily upload limit for type " + pingType + " reached", null);
-                continue;
             }
+        }
 
-            if (!performPingUpload(telemetry, pingType)) {
-                logger.info("Upload aborted. Rescheduling job if limit not reached.", null);
-                jobFinished(parameters, !hasReachedUploadLimit(configuration, pingType));
-                return;
-            }
+        if (task.isCancelled()) {
+            logger.debug("Job stopped. Exiting.", null);
+            return; // Job will be rescheduled from onStopJob().
         }
 
-        logger.debug("All uploads performed", null);
-        jobFinished(parameters, false);
-    }
+        logger.debug("Upload plan: " + plan, null);
 
-    /**
-     * Increment the upload counter for this ping type.
-     */
-    private boolean incrementUploadCount(TelemetryConfiguration configuration, String pingType) {
-        final SharedPreferences preferences = configuration.getSharedPreferences();
+        if (!plan.isEmpty() && !telemetry.getClient().isEndpointAvailable(telemetry.getConfiguration())) {
+            // The endpoint keeps failing or asked us to come back later: Do not touch the network.
+            logger.info("Endpoint is not available. Rescheduling job.", null);
+            jobFinished(parameters, true);
+            return;
+        }
 
-        final long lastUpload = preferences.getLong(PREFERENCE_LAST_UPLOAD_PREFIX + pingType, 0);
-        final long now = now();
+        final UploadRun run = new UploadRun(telemetry, plan);
+        uploadRun = run;
 
-        final long count = isSameDay(lastUpload, now)
-                ? preferences.getLong(PREFERENCE_UPLOAD_COUNT_PREFIX + pingType, 0) + 1
-                : 1;
+        final boolean needsReschedule;
 
-        preferences.edit()
-                .putLong(PREFERENCE_LAST_UPLOAD_PREFIX + pingType, now)
-                .putLong(PREFERENCE_UPLOAD_COUNT_PREFIX + pingType, count)
-                .apply();
+        try {
+            needsReschedule = run.execute(task);
+        } finally {
+            uploadRun = null;
+            lastUploadStats = run.stats;
 
-        return true;
+            // The upload counters are only written to disk once per job.
+            limiter.persist();
+        }
+
+        logger.info("Upload finished: " + run.stats, null);
+
+        if (task.isCancelled() || run.isCancelled()) {
+            logger.debug("Job stopped. Exiting.", null);
+            return; // Job will be rescheduled from onStopJob().
+        }
+
+        if (needsReschedule) {
+            logger.info("Upload aborted. Rescheduling job.", null);
+        } else if (heldBack) {
+            logger.info("Pings held back for higher priorities. Rescheduling job.", null);
+        } else {
+            logger.debug("All uploads performed", null);
+        }
+
+        jobFinished(parameters, needsReschedule || heldBack);
     }
 
     /**
-     * Return true if the upload limit for this ping type has been reached.
+     * Returns the statistics of the last upload run or null if no upload has been performed yet.
      */
-    private boolean hasReachedUploadLimit(TelemetryConfiguration configuration, String pingType) {
-        final SharedPreferences preferences = configuration.getSharedPreferences();
+    @Nullable
+    public UploadStats getLastUploadStats() {
+        return lastUploadStats;
+    }
 
-        final long lastUpload = preferences.getLong(PREFERENCE_LAST_UPLOAD_PREFIX + pingType, 0);
-        final long count = preferences.getLong(PREFERENCE_UPLOAD_COUNT_PREFIX + pingType, 0);
+    /**
+     * Uploads the pings of multiple types in parallel.
+     */
+    private class UploadRun {
+        private final Telemetry telemetry;
+        private final List<UploadQueue.Entry> plan;
+        private final UploadStats stats;
+        private final ExecutorService executor;
 
-        return isSameDay(lastUpload, now())
-                && count >= configuration.getMaximumNumberOfPingUploadsPerDay();
-    }
+        private volatile boolean cancelled;
 
-    @VisibleForTesting boolean isSameDay(long timestamp1, long timestamp2) {
-        final Calendar calendar1 = Calendar.getInstance();
-        calendar1.setTimeInMillis(timestamp1);
+        // Set once execute() has stopped waiting for the upload tasks: Tasks still running after
+        // that persist the upload counters themselves.
+        private volatile boolean abandoned;
 
-        final Calendar calendar2 = Calendar.getInstance();
-        calendar2.setTimeInMillis(timestamp2);
+        private UploadRun(Telemetry telemetry, List<UploadQueue.Entry> plan) {
+            this.telemetry = telemetry;
+            this.plan = plan;
+            this.stats = new UploadStats();
 
-        return (calendar1.get(Calendar.ERA) == calendar2.get(Calendar.ERA) &&
-                calendar1.get(Calendar.YEAR) == calendar2.get(Calendar.YEAR) &&
-                calendar1.get(Calendar.DAY_OF_YEAR) == calendar2.get(Calendar.DAY_OF_YEAR));
-    }
+            final int threads = Math.max(1, Math.min(plan.size(),
+                    telemetry.getConfiguration().getMaximumParallelUploads()));
 
-    @VisibleForTesting long now() {
-        return System.currentTimeMillis();
-    }
+            this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
 
-    private boolean performPingUpload(Telemetry telemetry, final String pingType) {
-        final TelemetryConfiguration configuration = telemetry.getConfiguration();
-        final TelemetryStorage storage = telemetry.getStorage();
-        final TelemetryClient client = telemetry.getClient();
-
-        return storage.process(pingType, new TelemetryStorage.TelemetryStorageCallback() {
-            @Override
-            public boolean onTelemetryPingLoaded(String path, String serializedPing) {
-                return !hasReachedUploadLimit(configuration, pingType)
-                        && client.uploadPing(configuration, path, serializedPing)
-                        && incrementUploadCount(configuration, pingType);
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "Telemetry-Upload-" + count.incrementAndGet());
+                }
+            });
+        }
+
+        /**
+         * Upload the pings of all types. Returns true if some pings could not be uploaded and the
+         * job should be rescheduled.
+         */
+        private boolean execute(AsyncTask task) {
+            final long start = System.nanoTime();
+
+            final List<Future<Boolean>> results = new ArrayList<>();
+
+            try {
+                // The executor starts the tasks in the order they are submitted: Types with a higher
+                // priority are uploaded first if there are more types than threads.
+                for (final UploadQueue.Entry entry : plan) {
+                    results.add(executor.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            try {
+                                return uploadPingType(entry.getPingType(), entry.getQuota());
+                            } finally {
+                                if (abandoned) {
+                                    telemetry.getUploadRateLimiter().persist();
+                                }
+                            }
+                        }
+                    }));
+                }
+
+                boolean needsReschedule = false;
+
+                for (Future<Boolean> result : results) {
+                    if (!awaitResult(task, result)) {
+                        needsReschedule = true;
+                    }
+
+                    if (cancelled) {
+                        return true;
+                    }
+                }
+
+                return needsReschedule;
+            } finally {
+                executor.shutdownNow();
+                awaitTermination();
+                stats.setDuration(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }
+
+        /**
+         * Wait a short time for upload tasks that are still running (only if the upload has been
+         * stopped): The upload counters are persisted after this run and should include their
+         * requests. Tasks that take longer persist the counters once they are done.
+         */
+        private void awaitTermination() {
+            try {
+                if (executor.awaitTermination(WORKER_TERMINATION_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+                logger.info("Upload tasks still running. Not waiting for them.", null);
+            } catch (InterruptedException e) {
+                // The job has been stopped while waiting.
+                Thread.currentThread().interrupt();
+            }
+
+            abandoned = true;
+        }
+
+        /**
+         * Wait for the upload task of one ping type. Returns false if the type needs to be uploaded
+         * again later.
+         */
+        private boolean awaitResult(AsyncTask task, Future<Boolean> result) {
+            while (true) {
+                if (task.isCancelled()) {
+                    cancel();
+                }
+
+                if (cancelled) {
+                    return false;
+                }
+
+                try {
+                    return result.get(CANCELLATION_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Still uploading. Let's check whether the job has been stopped and keep waiting.
+                } catch (InterruptedException e) {
+                    // The job has been stopped (AsyncTask.cancel() interrupts the waiting thread).
+                    cancel();
+                } catch (ExecutionException e) {
+                    logger.warn("Upload task failed", e.getCause());
+                    return false;
+                } catch (CancellationException e) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Stop the upload: Do not start new requests and interrupt the upload threads. Requests that
+         * are already running are not aborted (a blocking HttpURLConnection read does not react to
+         * interrupts): They end with a response or their read timeout. Pings that have not been
+         * uploaded completely stay in the storage.
+         */
+        private void cancel() {
+            cancelled = true;
+            executor.shutdownNow();
+        }
+
+        private boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Upload up to quota pings of the given type. Returns false if the upload needs to be retried
+         * later.
+         */
+        private boolean uploadPingType(final String pingType, final int quota) {
+            logger.debug("Performing upload of ping type: " + pingType, null);
+
+            final TelemetryConfiguration configuration = telemetry.getConfiguration();
+            final TelemetryStorage storage = telemetry.getStorage();
+            final TelemetryClient client = telemetry.getClient();
+            final UploadRateLimiter limiter = telemetry.getUploadRateLimiter();
+
+            final AtomicInteger uploadedPings = new AtomicInteger();
+
+            final boolean uploaded = storage.process(pingType, new TelemetryStorage.TelemetryStorageCallback() {
+                @Override
+                public boolean onTelemetryPingLoaded(StoredPing ping) {
+                    if (cancelled || uploadedPings.get() >= quota || !limiter.tryAcquire(pingType)) {
+                        return false;
+                    }
+
+                    final long start = System.nanoTime();
+                    final boolean successful = client.uploadPing(configuration, ping);
+                    final long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+                    stats.recordUpload(pingType, ping.getPayload().length, latency, successful);
+
+                    if (successful) {
+                        uploadedPings.incrementAndGet();
+                    } else {
+                        limiter.release(pingType);
+                    }
+
+                    return successful;
+                }
+            });
+
+            final boolean quotaReached = uploadedPings.get() >= quota;
+
+            if (!uploaded && !quotaReached) {
+                logger.info("Upload of ping type " + pingType + " aborted", null);
             }
-        });
+
+            logger.debug("Uploaded " + uploadedPings.get() + "/" + quota + " pings of type " + pingType, null);
+
+            // Pings left because of the daily limit will be uploaded by a job scheduled tomorrow. Pings
+            // stored after the plan has been made are picked up by the job scheduled for them.
+            return uploaded || quotaReached || limiter.hasReachedDailyLimit(pingType);
+        }
     }
 }
@@ -0,0 +1,28 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.serialize;
+
+import org.mozilla.telemetry.ping.TelemetryPing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serializer that writes a ping as bytes of a specific content type (e.g. JSON or CBOR). The
+ * content type is stored together with the ping and sent with it when it is uploaded.
+ *
+ * @see PingSerializerRegistry
+ */
+public interface BinaryPingSerializer {
+    /**
+     * The MIME type of the serialized ping, e.g. "application/cbor".
+     */
+    String getContentType();
+
+    /**
+     * Write the serialized ping to the stream. The stream is not closed.
+     */
+    void serialize(TelemetryPing ping, OutputStream output) throws IOException;
+}
@@ -0,0 +1,628 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.serialize;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.util.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Serializes pings as CBOR (RFC 7049) using the JSON data model: The output decodes to the same
+ * values as the JSON written by {@link JSONPingSerializer} (objects become maps with string keys,
+ * integral numbers become integers, other numbers become floats).
+ *
+ * Measurement results that are already serialized JSON ({@link RawJSONValue}, e.g. the recorded
+ * events) are transcoded token by token without building a JSONObject/JSONArray tree first. Their
+ * arrays and objects are written with indefinite length.
+ */
+public class CborPingSerializer implements BinaryPingSerializer {
+    public static final String CONTENT_TYPE = "application/cbor";
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public void serialize(TelemetryPing ping, OutputStream output) throws IOException {
+        final CborWriter writer = new CborWriter(output);
+
+        final Map<String, Object> results = ping.getMeasurementResults();
+
+        int count = 0;
+        for (Object value : results.values()) {
+            if (value != null) {
+                count++;
+            }
+        }
+
+        writer.writeHeader(CborWriter.MAJOR_TYPE_MAP, count);
+
+        for (Map.Entry<String, Object> result : results.entrySet()) {
+            if (result.getValue() == null) {
+                // Like JSONObject.put(): A null value removes the field.
+                continue;
+            }
+
+            writer.writeText(result.getKey());
+            writeValue(writer, result.getValue());
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Serialize the ping into a byte array.
+     */
+    public byte[] serialize(TelemetryPing ping) {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        try {
+            serialize(ping, output);
+        } catch (IOException e) {
+            throw new AssertionError("ByteArrayOutputStream should not throw IOException", e);
+        }
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Write a value. Supported are the same values as {@link JSONStreamWriter#value(Object)}: Other
+     * objects are written as string.
+     */
+    private static void writeValue(CborWriter writer, Object value) throws IOException {
+        if (value == null || value == JSONObject.NULL) {
+            writer.writeNull();
+        } else if (value instanceof JSONFragment) {
+            writeValue(writer, ((JSONFragment) value).getValue());
+        } else if (value instanceof RawJSONValue) {
+            final TextBuffer json = new TextBuffer();
+            ((RawJSONValue) value).writeTo(json);
+            new JSONTranscoder(json.chars, json.length, writer).transcode();
+        } else if (value instanceof JSONObject) {
+            final JSONObject object = (JSONObject) value;
+            writer.writeHeader(CborWriter.MAJOR_TYPE_MAP, object.length());
+
+            final Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                final String key = keys.next();
+                writer.writeText(key);
+                writeValue(writer, object.opt(key));
+            }
+        } else if (value instanceof JSONArray) {
+            final JSONArray array = (JSONArray) value;
+            writer.writeHeader(CborWriter.MAJOR_TYPE_ARRAY, array.length());
+
+            for (int i = 0; i < array.length(); i++) {
+                writeValue(writer, array.opt(i));
+            }
+        } else if (value instanceof Boolean) {
+            writer.writeBoolean((Boolean) value);
+        } else if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) {
+            writer.writeNumber(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            writer.writeNumber(((Number) value).longValue());
+        } else {
+            writer.writeText(value.toString());
+        }
+    }
+
+    /**
+     * Low-level CBOR encoder for the subset of CBOR needed for the JSON data model. The output is
+     * collected in a buffer and written to the stream in blocks.
+     */
+    private static class CborWriter {
+        private static final int MAJOR_TYPE_UNSIGNED = 0;
+        private static final int MAJOR_TYPE_NEGATIVE = 1;
+        private static final int MAJOR_TYPE_TEXT = 3;
+        private static final int MAJOR_TYPE_ARRAY = 4;
+        private static final int MAJOR_TYPE_MAP = 5;
+
+        private static final int INDEFINITE_LENGTH = 31;
+        private static final int FALSE = 0xF4;
+        private static final int TRUE = 0xF5;
+        private static final int NULL = 0xF6;
+        private static final int FLOAT_32 = 0xFA;
+        private static final int FLOAT_64 = 0xFB;
+        private static final int BREAK = 0xFF;
+
+        private static final int BUFFER_SIZE = 8192;
+
+        // Room for the longest header or number (9 bytes) or one encoded character (4 bytes).
+        private static final int MAX_ITEM_SIZE = 9;
+
+        private final OutputStream output;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int count;
+
+        // Characters of strings that are not available as char array.
+        private char[] chars = new char[64];
+
+        private CborWriter(OutputStream output) {
+            this.output = output;
+        }
+
+        private void writeHeader(int majorType, long length) throws IOException {
+            ensureCapacity();
+
+            final int type = majorType << 5;
+
+            if (length < 24) {
+                buffer[count++] = (byte) (type | (int) length);
+            } else if (length <= 0xFF) {
+                buffer[count++] = (byte) (type | 24);
+                buffer[count++] = (byte) length;
+            } else if (length <= 0xFFFF) {
+                buffer[count++] = (byte) (type | 25);
+                writeBytes(length, 2);
+            } else if (length <= 0xFFFFFFFFL) {
+                buffer[count++] = (byte) (type | 26);
+                writeBytes(length, 4);
+            } else {
+                buffer[count++] = (byte) (type | 27);
+                writeBytes(length, 8);
+            }
+        }
+
+        private void writeIndefiniteHeader(int majorType) throws IOException {
+            writeByte((majorType << 5) | INDEFINITE_LENGTH);
+        }
+
+        private void writeBreak() throws IOException {
+            writeByte(BREAK);
+        }
+
+        /**
+         * Write the characters as UTF-8 text.
+         */
+        private void writeText(CharSequence value) throws IOException {
+            final int length = value.length();
+            if (chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+
+            for (int i = 0; i < length; i++) {
+                chars[i] = value.charAt(i);
+            }
+
+            writeText(chars, 0, length);
+        }
+
+        /**
+         * Write a range of characters as UTF-8 text. The byte length (needed for the header) is
+         * counted first so that the characters can be encoded directly into the buffer.
+         */
+        private void writeText(char[] value, int offset, int length) throws IOException {
+            writeHeader(MAJOR_TYPE_TEXT, StringUtils.utf8Length(value, offset, length));
+
+            final int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                ensureCapacity();
+
+                final char c = value[i];
+                if (c < 0x80) {
+                    buffer[count++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[count++] = (byte) (0xC0 | (c >> 6));
+                    buffer[count++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(value[i + 1])) {
+                    final int codePoint = Character.toCodePoint(c, value[++i]);
+                    buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    // Like StringUtils.writeUtf8(): Unpaired surrogates are replaced.
+                    buffer[count++] = '?';
+                } else {
+                    buffer[count++] = (byte) (0xE0 | (c >> 12));
+                    buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[count++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private void writeNumber(long value) throws IOException {
+            if (value >= 0) {
+                writeHeader(MAJOR_TYPE_UNSIGNED, value);
+            } else {
+                writeHeader(MAJOR_TYPE_NEGATIVE, -1 - value);
+            }
+        }
+
+        private void writeNumber(double value) throws IOException {
+            final long longValue = (long) value;
+            if (longValue == value) {
+                // Like JSONObject.numberToString(): Integral numbers are written as integers.
+                writeNumber(longValue);
+                return;
+            }
+
+            ensureCapacity();
+
+            if ((float) value == value) {
+                buffer[count++] = (byte) FLOAT_32;
+                writeBytes(Float.floatToIntBits((float) value), 4);
+            } else {
+                buffer[count++] = (byte) FLOAT_64;
+                writeBytes(Double.doubleToLongBits(value), 8);
+            }
+        }
+
+        private void writeBoolean(boolean value) throws IOException {
+            writeByte(value ? TRUE : FALSE);
+        }
+
+        private void writeNull() throws IOException {
+            writeByte(NULL);
+        }
+
+        private void writeByte(int value) throws IOException {
+            ensureCapacity();
+            buffer[count++] = (byte) value;
+        }
+
+        private void writeBytes(long value, int length) {
+            for (int shift = (length - 1) * 8; shift >= 0; shift -= 8) {
+                buffer[count++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void ensureCapacity() throws IOException {
+            if (count > BUFFER_SIZE - MAX_ITEM_SIZE) {
+                output.write(buffer, 0, count);
+                count = 0;
+            }
+        }
+
+        private void flush() throws IOException {
+            output.write(buffer, 0, count);
+            count = 0;
+            output.flush();
+        }
+    }
+
+    /**
+     * Reads JSON text and writes the same values as CBOR while reading.
+     */
+    private static class JSONTranscoder {
+        private final char[] json;
+        private final int length;
+        private final CborWriter writer;
+        private final StringBuilder string;
+        private int position;
+
+        private JSONTranscoder(char[] json, int length, CborWriter writer) {
+            this.json = json;
+            this.length = length;
+            this.writer = writer;
+            this.string = new StringBuilder();
+        }
+
+        private void transcode() throws IOException {
+            transcodeValue();
+
+            skipWhitespace();
+            if (position < length) {
+                throw syntaxError("Unexpected characters after value");
+            }
+        }
+
+        private void transcodeValue() throws IOException {
+            skipWhitespace();
+
+            if (position >= length) {
+                throw syntaxError("Unexpected end of input");
+            }
+
+            final char c = json[position];
+            switch (c) {
+                case '{':
+                    transcodeObject();
+                    break;
+                case '[':
+                    transcodeArray();
+                    break;
+                case '"':
+                    transcodeString();
+                    break;
+                case 't':
+                    readLiteral("true");
+                    writer.writeBoolean(true);
+                    break;
+                case 'f':
+                    readLiteral("false");
+                    writer.writeBoolean(false);
+                    break;
+                case 'n':
+                    readLiteral("null");
+                    writer.writeNull();
+                    break;
+                default:
+                    transcodeNumber();
+                    break;
+            }
+        }
+
+        private void transcodeObject() throws IOException {
+            position++;
+            writer.writeIndefiniteHeader(CborWriter.MAJOR_TYPE_MAP);
+
+            skipWhitespace();
+            if (peek() == '}') {
+                position++;
+                writer.writeBreak();
+                return;
+            }
+
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw syntaxError("Expected name");
+                }
+                transcodeString();
+
+                skipWhitespace();
+                expect(':');
+
+                transcodeValue();
+
+                skipWhitespace();
+                if (peek() == ',') {
+                    position++;
+                } else {
+                    expect('}');
+                    writer.writeBreak();
+                    return;
+                }
+            }
+        }
+
+        private void transcodeArray() throws IOException {
+            position++;
+            writer.writeIndefiniteHeader(CborWriter.MAJOR_TYPE_ARRAY);
+
+            skipWhitespace();
+            if (peek() == ']') {
+                position++;
+                writer.writeBreak();
+                return;
+            }
+
+            while (true) {
+                transcodeValue();
+
+                skipWhitespace();
+                if (peek() == ',') {
+                    position++;
+                } else {
+                    expect(']');
+                    writer.writeBreak();
+                    return;
+                }
+            }
+        }
+
+        private void transcodeNumber() throws IOException {
+            final int start = position;
+            boolean integral = true;
+
+            while (position < length) {
+                final char c = json[position];
+                if (c == '.' || c == 'e' || c == 'E') {
+                    integral = false;
+                } else if (c != '-' && c != '+' && (c < '0' || c > '9')) {
+                    break;
+                }
+                position++;
+            }
+
+            // At most 18 digits: The value fits into a long.
+            if (integral && position - start <= 18) {
+                long value = 0;
+                final boolean negative = json[start] == '-';
+                for (int i = negative ? start + 1 : start; i < position; i++) {
+                    final char c = json[i];
+                    if (c < '0' || c > '9') {
+                        throw syntaxError("Invalid number");
+                    }
+                    value = value * 10 + (c - '0');
+                }
+
+                if (position == (negative ? start + 1 : start)) {
+                    throw syntaxError("Invalid number");
+                }
+
+                writer.writeNumber(negative ? -value : value);
+                return;
+            }
+
+            try {
+                writer.writeNumber(Double.parseDouble(new String(json, start, position - start)));
+            } catch (NumberFormatException e) {
+                throw syntaxError("Invalid number");
+            }
+        }
+
+        /**
+         * Write a quoted string. Strings without escape sequences are written directly from the
+         * JSON text; otherwise the string is collected (with escape sequences resolved) in
+         * {@link #string} first.
+         */
+        private void transcodeString() throws IOException {
+            final int start = ++position;
+
+            while (position < length) {
+                final char c = json[position];
+                if (c == '"') {
+                    writer.writeText(json, start, position - start);
+                    position++;
+                    return;
+                } else if (c == '\\') {
+                    break;
+                }
+                position++;
+            }
+
+            string.setLength(0);
+            string.append(json, start, position - start);
+            readEscapedString();
+            writer.writeText(string);
+        }
+
+        /**
+         * Read the rest of a quoted string (with escape sequences resolved) into {@link #string}.
+         */
+        private void readEscapedString() throws IOException {
+
+            while (true) {
+                if (position >= length) {
+                    throw syntaxError("Unterminated string");
+                }
+
+                final char c = json[position++];
+                if (c == '"') {
+                    return;
+                }
+
+                if (c != '\\') {
+                    string.append(c);
+                    continue;
+                }
+
+                if (position >= length) {
+                    throw syntaxError("Unterminated escape sequence");
+                }
+
+                final char escaped = json[position++];
+                switch (escaped) {
+                    case 'b':
+                        string.append('\b');
+                        break;
+                    case 'f':
+                        string.append('\f');
+                        break;
+                    case 'n':
+                        string.append('\n');
+                        break;
+                    case 'r':
+                        string.append('\r');
+                        break;
+                    case 't':
+                        string.append('\t');
+                        break;
+                    case 'u':
+                        if (position + 4 > length) {
+                            throw syntaxError("Unterminated escape sequence");
+                        }
+
+                        int codeUnit = 0;
+                        for (int i = 0; i < 4; i++) {
+                            final int digit = Character.digit(json[position++], 16);
+                            if (digit == -1) {
+                                throw syntaxError("Invalid escape sequence");
+                            }
+                            codeUnit = (codeUnit << 4) | digit;
+                        }
+                        string.append((char) codeUnit);
+                        break;
+                    default:
+                        // '"', '\\', '/' and (leniently, like org.json) any other character.
+                        string.append(escaped);
+                        break;
+                }
+            }
+        }
+
+        private void readLiteral(String literal) throws IOException {
+            for (int i = 0; i < literal.length(); i++) {
+                if (position >= length || json[position] != literal.charAt(i)) {
+                    throw syntaxError("Expected " + literal);
+                }
+                position++;
+            }
+        }
+
+        private void skipWhitespace() {
+            while (position < length) {
+                final char c = json[position];
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    return;
+                }
+                position++;
+            }
+        }
+
+        private char peek() throws IOException {
+            if (position >= length) {
+                throw syntaxError("Unexpected end of input");
+            }
+            return json[position];
+        }
+
+        private void expect(char c) throws IOException {
+            if (peek() != c) {
+                throw syntaxError("Expected '" + c + "'");
+            }
+            position++;
+        }
+
+        private IOException syntaxError(String message) {
+            return new IOException(message + " at position " + position + " of serialized JSON");
+        }
+    }
+
+    /**
+     * A Writer that collects the written characters in a char array that the transcoder can read
+     * directly (unlike StringWriter which uses a synchronized StringBuffer).
+     */
+    private static class TextBuffer extends Writer {
+        private char[] chars = new char[8192];
+        private int length;
+
+        @Override
+        public void write(char[] buffer, int offset, int count) {
+            ensureCapacity(count);
+            System.arraycopy(buffer, offset, chars, length, count);
+            length += count;
+        }
+
+        @Override
+        public void write(String string, int offset, int count) {
+            ensureCapacity(count);
+            string.getChars(offset, offset + count, chars, length);
+            length += count;
+        }
+
+        @Override
+        public void write(int c) {
+            ensureCapacity(1);
+            chars[length++] = (char) c;
+        }
+
+        private void ensureCapacity(int count) {
+            if (length + count > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(length + count, chars.length * 2));
+            }
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+}
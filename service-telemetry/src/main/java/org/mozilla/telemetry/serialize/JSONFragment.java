@@ -0,0 +1,53 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.serialize;
+
+import androidx.annotation.RestrictTo;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * A measurement result together with its serialized JSON. Serializers can copy the JSON to the
+ * ping instead of serializing the value again.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public final class JSONFragment implements RawJSONValue {
+    private final Object value;
+    private final String json;
+
+    private JSONFragment(Object value, String json) {
+        this.value = value;
+        this.json = json;
+    }
+
+    /**
+     * Serialize the given value (any value type supported by {@link JSONStreamWriter}).
+     */
+    public static JSONFragment of(Object value) {
+        final StringWriter writer = new StringWriter();
+
+        try {
+            new JSONStreamWriter(writer).value(value);
+        } catch (IOException e) {
+            throw new AssertionError("StringWriter should not throw IOException", e);
+        }
+
+        return new JSONFragment(value, writer.toString());
+    }
+
+    /**
+     * Returns the value that has been serialized.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public void writeTo(Writer writer) throws IOException {
+        writer.write(json);
+    }
+}
@@ -6,8 +6,11 @@ package org.mozilla.telemetry.serialize;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.mozilla.telemetry.ping.TelemetryPing;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.Map;
 
 /**
@@ -20,7 +23,15 @@ public class JSONPingSerializer implements TelemetryPingSerializer {
             final JSONObject object = new JSONObject();
 
             for (Map.Entry<String, Object> result : ping.getMeasurementResults().entrySet()) {
-                object.put(result.getKey(), result.getValue());
+                final Object value = result.getValue();
+
+                if (value instanceof JSONFragment) {
+                    object.put(result.getKey(), ((JSONFragment) value).getValue());
+                } else if (value instanceof RawJSONValue) {
+                    object.put(result.getKey(), parse((RawJSONValue) value));
+                } else {
+                    object.put(result.getKey(), value);
+                }
             }
 
             return object.toString();
@@ -28,4 +39,16 @@ public class JSONPingSerializer implements TelemetryPingSerializer {
             throw new AssertionError("Can't serialize ping", e);
         }
     }
+
+    private static Object parse(RawJSONValue value) throws JSONException {
+        final StringWriter writer = new StringWriter();
+
+        try {
+            value.writeTo(writer);
+        } catch (IOException e) {
+            throw new AssertionError("StringWriter should not throw IOException", e);
+        }
+
+        return new JSONTokener(writer.toString()).nextValue();
+    }
 }
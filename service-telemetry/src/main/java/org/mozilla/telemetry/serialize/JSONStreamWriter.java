@@ -0,0 +1,200 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.serialize;
+
+import androidx.annotation.RestrictTo;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Minimal writer for streaming JSON to a Writer. In addition to the usual values it can write
+ * {@link RawJSONValue}s: Those are copied to the output as they are.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class JSONStreamWriter {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Writer writer;
+
+    // For every open object or array: Has a value (or name) been written already?
+    private boolean[] hasValues = new boolean[8];
+    private int depth;
+    private boolean expectingValueForName;
+
+    public JSONStreamWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public JSONStreamWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JSONStreamWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JSONStreamWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JSONStreamWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JSONStreamWriter name(String name) throws IOException {
+        beforeValue();
+        quote(name, Integer.MAX_VALUE, writer);
+        writer.write(':');
+        expectingValueForName = true;
+        return this;
+    }
+
+    /**
+     * Write a value. Supported are the value types of the org.json library (including JSONObject
+     * and JSONArray) and {@link RawJSONValue}s. Like with org.json other objects are written as
+     * string.
+     */
+    public JSONStreamWriter value(Object value) throws IOException {
+        if (value instanceof RawJSONValue) {
+            beforeValue();
+            ((RawJSONValue) value).writeTo(writer);
+            return this;
+        }
+
+        beforeValue();
+
+        if (value == null || value == JSONObject.NULL) {
+            writer.write("null");
+        } else if (value instanceof Boolean || value instanceof JSONObject || value instanceof JSONArray) {
+            writer.write(value.toString());
+        } else if (value instanceof Number) {
+            try {
+                writer.write(JSONObject.numberToString((Number) value));
+            } catch (JSONException e) {
+                throw new IllegalArgumentException("Can't serialize number: " + value, e);
+            }
+        } else {
+            quote(value.toString(), Integer.MAX_VALUE, writer);
+        }
+
+        return this;
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * Write the first maxLength characters of the string as quoted JSON string. The string is
+     * escaped like {@link JSONObject#quote(String)} does but without creating a copy of it.
+     */
+    public static void quote(String value, int maxLength, Appendable output) throws IOException {
+        output.append('"');
+
+        final int length = Math.min(value.length(), maxLength);
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    output.append('\\').append(c);
+                    break;
+                case '\t':
+                    output.append("\\t");
+                    break;
+                case '\b':
+                    output.append("\\b");
+                    break;
+                case '\n':
+                    output.append("\\n");
+                    break;
+                case '\r':
+                    output.append("\\r");
+                    break;
+                case '\f':
+                    output.append("\\f");
+                    break;
+                default:
+                    if (c <= 0x1F) {
+                        output.append("\\u00")
+                                .append(HEX_DIGITS[c >> 4])
+                                .append(HEX_DIGITS[c & 0xF]);
+                    } else {
+                        output.append(c);
+                    }
+                    break;
+            }
+        }
+
+        output.append('"');
+    }
+
+    /**
+     * Write the number without creating a string for it.
+     */
+    public static void writeNumber(long value, Appendable output) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            output.append(Long.toString(value));
+            return;
+        }
+
+        if (value < 0) {
+            output.append('-');
+            value = -value;
+        }
+
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+
+        for (; divisor > 0; divisor /= 10) {
+            output.append((char) ('0' + (value / divisor) % 10));
+        }
+    }
+
+    private JSONStreamWriter open(char bracket) throws IOException {
+        beforeValue();
+        writer.write(bracket);
+
+        if (depth == hasValues.length) {
+            hasValues = Arrays.copyOf(hasValues, depth * 2);
+        }
+        hasValues[depth++] = false;
+
+        return this;
+    }
+
+    private JSONStreamWriter close(char bracket) throws IOException {
+        if (depth == 0 || expectingValueForName) {
+            throw new IllegalStateException("Nesting problem");
+        }
+
+        depth--;
+        writer.write(bracket);
+        return this;
+    }
+
+    private void beforeValue() throws IOException {
+        if (expectingValueForName) {
+            expectingValueForName = false;
+            return;
+        }
+
+        if (depth > 0) {
+            if (hasValues[depth - 1]) {
+                writer.write(',');
+            }
+            hasValues[depth - 1] = true;
+        }
+    }
+}
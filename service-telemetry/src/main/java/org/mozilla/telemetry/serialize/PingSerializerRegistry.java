@@ -0,0 +1,88 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.serialize;
+
+import org.mozilla.telemetry.ping.TelemetryPing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The serializers a storage can write pings with, by content type. JSON is always available; other
+ * formats (e.g. {@link CborPingSerializer}) can be registered. Which format is used for a ping type
+ * is configured with {@link org.mozilla.telemetry.config.TelemetryConfiguration#setPingContentType(String, String)}.
+ */
+public class PingSerializerRegistry {
+    public static final String CONTENT_TYPE_JSON = "application/json; charset=utf-8";
+
+    private final BinaryPingSerializer jsonSerializer;
+    private final Map<String, BinaryPingSerializer> serializers;
+
+    /**
+     * @param jsonSerializer The serializer to use for JSON (and for content types without a
+     *                       registered serializer).
+     */
+    public PingSerializerRegistry(TelemetryPingSerializer jsonSerializer) {
+        this.jsonSerializer = new JSONSerializer(jsonSerializer);
+        this.serializers = new HashMap<>();
+
+        register(this.jsonSerializer);
+    }
+
+    /**
+     * Register a serializer for its content type. A serializer registered before for the same
+     * content type is replaced.
+     */
+    public synchronized PingSerializerRegistry register(BinaryPingSerializer serializer) {
+        serializers.put(serializer.getContentType(), serializer);
+        return this;
+    }
+
+    /**
+     * Returns the serializer for the given content type or the JSON serializer if no serializer has
+     * been registered for it.
+     */
+    public synchronized BinaryPingSerializer get(String contentType) {
+        final BinaryPingSerializer serializer = serializers.get(contentType);
+        return serializer != null ? serializer : jsonSerializer;
+    }
+
+    /**
+     * Writes the output of a (String based) TelemetryPingSerializer as UTF-8. A streaming serializer
+     * writes to the stream directly without creating the serialized ping in memory first.
+     */
+    private static class JSONSerializer implements BinaryPingSerializer {
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+        private final TelemetryPingSerializer serializer;
+
+        private JSONSerializer(TelemetryPingSerializer serializer) {
+            this.serializer = serializer;
+        }
+
+        @Override
+        public String getContentType() {
+            return CONTENT_TYPE_JSON;
+        }
+
+        @Override
+        public void serialize(TelemetryPing ping, OutputStream output) throws IOException {
+            final Writer writer = new OutputStreamWriter(output, UTF_8);
+
+            if (serializer instanceof StreamingPingSerializer) {
+                ((StreamingPingSerializer) serializer).serialize(ping, writer);
+            } else {
+                writer.write(serializer.serialize(ping));
+            }
+
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.serialize;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A measurement result that is already serialized JSON. A streaming serializer writes it to the
+ * ping as-is without parsing it first.
+ */
+public interface RawJSONValue {
+    /**
+     * Write this value (valid JSON) to the given writer.
+     */
+    void writeTo(Writer writer) throws IOException;
+}
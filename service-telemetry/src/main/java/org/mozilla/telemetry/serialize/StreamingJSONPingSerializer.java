@@ -0,0 +1,52 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.serialize;
+
+import org.mozilla.telemetry.ping.TelemetryPing;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * TelemetryPingSerializer that writes the ping as JSON straight to a Writer. Measurement results
+ * that are already serialized ({@link RawJSONValue}, e.g. the recorded events) are copied to the
+ * output without parsing them. The output is the same as the output of {@link JSONPingSerializer}.
+ */
+public class StreamingJSONPingSerializer implements StreamingPingSerializer {
+    @Override
+    public void serialize(TelemetryPing ping, Writer writer) throws IOException {
+        final JSONStreamWriter json = new JSONStreamWriter(writer);
+
+        json.beginObject();
+
+        for (Map.Entry<String, Object> result : ping.getMeasurementResults().entrySet()) {
+            if (result.getValue() == null) {
+                // Like JSONObject.put(): A null value removes the field.
+                continue;
+            }
+
+            json.name(result.getKey())
+                    .value(result.getValue());
+        }
+
+        json.endObject();
+        json.flush();
+    }
+
+    @Override
+    public String serialize(TelemetryPing ping) {
+        final StringWriter writer = new StringWriter();
+
+        try {
+            serialize(ping, writer);
+        } catch (IOException e) {
+            throw new AssertionError("StringWriter should not throw IOException", e);
+        }
+
+        return writer.toString();
+    }
+}
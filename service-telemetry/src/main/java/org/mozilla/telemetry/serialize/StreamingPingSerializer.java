@@ -0,0 +1,18 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.serialize;
+
+import org.mozilla.telemetry.ping.TelemetryPing;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * TelemetryPingSerializer that can write a ping straight to a Writer without creating an in-memory
+ * representation of the whole ping first.
+ */
+public interface StreamingPingSerializer extends TelemetryPingSerializer {
+    void serialize(TelemetryPing ping, Writer writer) throws IOException;
+}
@@ -0,0 +1,307 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.storage;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.util.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import mozilla.components.support.base.log.logger.Logger;
+
+/**
+ * TelemetryKeyValueStore implementation that keeps all values in memory and writes a snapshot of
+ * them to a file.
+ *
+ * Changes only update the in-memory map. Writing the snapshot is debounced: The first change
+ * schedules a write after the write delay and all changes made until then are written together.
+ * The snapshot is written to a temporary file that is synced and then renamed to replace the
+ * previous snapshot. A crash while writing never leaves a partially written snapshot behind.
+ *
+ * If no snapshot exists yet then the values are imported from the legacy store (the
+ * SharedPreferences measurements used before) once.
+ */
+public class FileTelemetryKeyValueStore implements TelemetryKeyValueStore {
+    private static final String FILE_NAME = "telemetry.kv";
+    private static final long DEFAULT_WRITE_DELAY = 2000;
+
+    private static final int VERSION = 1;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_STRING = 2;
+
+    private final Logger logger;
+    private final File file;
+    private final File temporaryFile;
+    private final long writeDelay;
+    private final SharedPreferencesTelemetryKeyValueStore legacyStore;
+
+    private final Object writeLock = new Object();
+
+    private Map<String, Object> values;
+    private boolean dirty;
+    private boolean writeScheduled;
+    private ScheduledExecutorService executor;
+
+    public FileTelemetryKeyValueStore(TelemetryConfiguration configuration) {
+        this(new File(configuration.getDataDirectory(), FILE_NAME), DEFAULT_WRITE_DELAY,
+                new SharedPreferencesTelemetryKeyValueStore(configuration.getSharedPreferences()));
+    }
+
+    public FileTelemetryKeyValueStore(File file, long writeDelay,
+                                      @Nullable SharedPreferencesTelemetryKeyValueStore legacyStore) {
+        this.logger = new Logger("telemetry/store");
+        this.file = file;
+        this.temporaryFile = new File(file.getPath() + ".tmp");
+        this.writeDelay = writeDelay;
+        this.legacyStore = legacyStore;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return getValues().containsKey(key);
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defaultValue) {
+        final Object value = getValues().get(key);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+
+    @Override
+    public synchronized void putLong(String key, long value) {
+        getValues().put(key, value);
+        onChanged();
+    }
+
+    @Override
+    public synchronized long addToLong(String key, long delta) {
+        final long value = getLong(key, 0) + delta;
+        putLong(key, value);
+        return value;
+    }
+
+    @Override
+    public synchronized Map<String, Long> removeLongs(String keyPrefix) {
+        final Map<String, Long> removed = new HashMap<>();
+
+        final Iterator<Map.Entry<String, Object>> iterator = getValues().entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Object> entry = iterator.next();
+
+            if (entry.getKey().startsWith(keyPrefix) && entry.getValue() instanceof Long) {
+                removed.put(entry.getKey(), (Long) entry.getValue());
+                iterator.remove();
+            }
+        }
+
+        if (!removed.isEmpty()) {
+            onChanged();
+        }
+
+        return removed;
+    }
+
+    @Override
+    public synchronized String getString(String key, String defaultValue) {
+        final Object value = getValues().get(key);
+        return value instanceof String ? (String) value : defaultValue;
+    }
+
+    @Override
+    public synchronized void putString(String key, String value) {
+        getValues().put(key, value);
+        onChanged();
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        if (getValues().remove(key) != null) {
+            onChanged();
+        }
+    }
+
+    @Override
+    public boolean flush() {
+        synchronized (writeLock) {
+            final Map<String, Object> snapshot;
+
+            synchronized (this) {
+                if (!dirty) {
+                    return true;
+                }
+
+                snapshot = new HashMap<>(values);
+                dirty = false;
+            }
+
+            try {
+                writeSnapshot(snapshot);
+                return true;
+            } catch (IOException e) {
+                logger.warn("IOException while writing key-value snapshot", e);
+
+                synchronized (this) {
+                    // Let's try again with the next change or flush.
+                    dirty = true;
+                }
+                return false;
+            }
+        }
+    }
+
+    private void onChanged() {
+        dirty = true;
+
+        if (!writeScheduled) {
+            writeScheduled = true;
+            getExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (FileTelemetryKeyValueStore.this) {
+                        writeScheduled = false;
+                    }
+                    flush();
+                }
+            }, writeDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Telemetry-KeyValueStore");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the in-memory values. The values are read from the snapshot (or imported from the
+     * legacy store) the first time they are requested.
+     */
+    private Map<String, Object> getValues() {
+        if (values == null) {
+            values = new HashMap<>();
+
+            if (file.exists()) {
+                readSnapshot(values);
+            } else if (legacyStore != null) {
+                importLegacyValues();
+            }
+
+            // A left over from a write that has been interrupted.
+            if (temporaryFile.exists() && !temporaryFile.delete()) {
+                logger.warn("Could not delete temporary key-value snapshot", new IOException());
+            }
+        }
+        return values;
+    }
+
+    private void importLegacyValues() {
+        values.putAll(legacyStore.getAll());
+
+        if (values.isEmpty()) {
+            return;
+        }
+
+        try {
+            writeSnapshot(values);
+
+            legacyStore.clear();
+        } catch (IOException e) {
+            // The legacy values stay where they are. We will import them again next time.
+            logger.warn("IOException while writing imported key-value snapshot", e);
+        }
+    }
+
+    private void readSnapshot(Map<String, Object> values) {
+        DataInputStream stream = null;
+
+        try {
+            stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            final int version = stream.readInt();
+            if (version != VERSION) {
+                logger.warn("Unknown key-value snapshot version: " + version, null);
+                return;
+            }
+
+            final int count = stream.readInt();
+            for (int i = 0; i < count; i++) {
+                final String key = stream.readUTF();
+                final byte type = stream.readByte();
+
+                if (type == TYPE_LONG) {
+                    values.put(key, stream.readLong());
+                } else if (type == TYPE_STRING) {
+                    values.put(key, stream.readUTF());
+                } else {
+                    throw new IOException("Unknown value type: " + type);
+                }
+            }
+        } catch (IOException e) {
+            // Snapshots are replaced atomically. Something else must have modified this file.
+            logger.warn("IOException while reading key-value snapshot", e);
+            values.clear();
+        } finally {
+            IOUtils.safeClose(stream);
+        }
+    }
+
+    @VisibleForTesting void writeSnapshot(Map<String, Object> values) throws IOException {
+        FileOutputStream stream = null;
+
+        try {
+            stream = new FileOutputStream(temporaryFile);
+
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+            output.writeInt(VERSION);
+            output.writeInt(values.size());
+
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                output.writeUTF(entry.getKey());
+
+                if (entry.getValue() instanceof Long) {
+                    output.writeByte(TYPE_LONG);
+                    output.writeLong((Long) entry.getValue());
+                } else {
+                    output.writeByte(TYPE_STRING);
+                    output.writeUTF((String) entry.getValue());
+                }
+            }
+
+            output.flush();
+            stream.getFD().sync();
+        } finally {
+            IOUtils.safeClose(stream);
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            throw new IOException("Could not replace key-value snapshot: " + file.getAbsolutePath());
+        }
+    }
+}
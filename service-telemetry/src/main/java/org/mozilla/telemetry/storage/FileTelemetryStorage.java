@@ -4,153 +4,389 @@
 
 package org.mozilla.telemetry.storage;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
 import androidx.annotation.VisibleForTesting;
 import android.util.Log;
 
 import org.mozilla.telemetry.config.TelemetryConfiguration;
 import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.serialize.BinaryPingSerializer;
+import org.mozilla.telemetry.serialize.PingSerializerRegistry;
 import org.mozilla.telemetry.serialize.TelemetryPingSerializer;
 import org.mozilla.telemetry.util.FileUtils;
+import org.mozilla.telemetry.util.GzipUtils;
 import org.mozilla.telemetry.util.IOUtils;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 import mozilla.components.support.base.log.logger.Logger;
 
 /**
  * TelemetryStorage implementation that stores pings as files on disk.
+ *
+ * The ping files of every type are tracked in an in-memory index (oldest first) together with their
+ * size. The index is built from the directory listing the first time a ping type is accessed and is
+ * updated on every store, process and prune. Counting and pruning pings never needs to list the
+ * directory again.
+ *
+ * After storing a ping the storage enforces its limits: The number of pings and the size of the
+ * pings per type (oldest pings are evicted first) and the size of all stored pings together (pings of
+ * the type with the lowest upload priority are evicted first). See
+ * {@link TelemetryConfiguration#setMaximumTotalStorageBytes(long)}.
+ *
+ * Every ping is serialized with the serializer for the content type configured for its type (see
+ * {@link TelemetryConfiguration#setPingContentType(String, String)}). The content type is stored
+ * in the file next to the upload path.
  */
 public class FileTelemetryStorage implements TelemetryStorage {
     private static final String FILE_PATTERN = "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}";
+    private static final Pattern UUID_PATTERN = Pattern.compile(FILE_PATTERN);
     private static final String STORAGE_DIRECTORY = "storage";
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private final Logger logger;
     private final TelemetryConfiguration configuration;
-    private final TelemetryPingSerializer serializer;
+    private final PingSerializerRegistry serializers;
 
     private final File storageDirectory;
 
+    private final Map<String, TypeIndex> index;
+    private long totalBytes;
+    private boolean allTypesIndexed;
+
     public FileTelemetryStorage(TelemetryConfiguration configuration, TelemetryPingSerializer serializer) {
+        this(configuration, new PingSerializerRegistry(serializer));
+    }
+
+    public FileTelemetryStorage(TelemetryConfiguration configuration, PingSerializerRegistry serializers) {
         this.logger = new Logger("telemetry/storage");
         this.configuration = configuration;
-        this.serializer = serializer;
+        this.serializers = serializers;
 
         this.storageDirectory = new File(configuration.getDataDirectory(), STORAGE_DIRECTORY);
+        this.index = new HashMap<>();
 
         FileUtils.assertDirectory(storageDirectory);
     }
 
     @Override
-    public synchronized void store(TelemetryPing ping) {
-        storePing(ping);
+    public synchronized boolean store(TelemetryPing ping) {
+        final boolean stored = storePing(ping);
         maybePrunePings(ping.getType());
+        return stored;
+    }
+
+    /**
+     * Returns the number, size, age and evictions of the stored pings of every type.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public synchronized Map<String, StoredPingStats> getStorageStats() {
+        indexAllTypes();
+
+        final Map<String, StoredPingStats> stats = new HashMap<>();
+        for (Map.Entry<String, TypeIndex> entry : index.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the size (in bytes) of the stored pings of all types.
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public synchronized long getTotalStoredBytes() {
+        indexAllTypes();
+        return totalBytes;
     }
 
     @Override
     public boolean process(String pingType, TelemetryStorageCallback callback) {
-        for (File file : listPingFiles(pingType)) {
-            FileReader reader = null;
+        final List<PingFile> files;
+        synchronized (this) {
+            files = new ArrayList<>(getIndex(pingType).files);
+        }
 
+        for (PingFile pingFile : files) {
+            final File file = pingFile.file;
             try {
-                final BufferedReader bufferedReader = new BufferedReader(reader = new FileReader(file));
-                final String path = bufferedReader.readLine();
-                final String serializedPing = bufferedReader.readLine();
+                final StoredPing ping = readPingFile(file);
 
-                final boolean processed = serializedPing == null || callback.onTelemetryPingLoaded(path, serializedPing);
+                final boolean processed = ping == null || callback.onTelemetryPingLoaded(ping);
 
                 if (processed) {
                     if (!file.delete()) {
                         logger.warn("Could not delete local ping file after processing", new IOException());
                     }
+                    removeFromIndex(pingType, file);
                 } else {
                     // The callback couldn't process this file. Let's stop and rety later.
                     return false;
                 }
             } catch (FileNotFoundException e) {
-                // This shouldn't happen after we queried the directory. But whatever. Let's continue.
+                // This file has been pruned in the meantime. Let's continue.
+                removeFromIndex(pingType, file);
             } catch(IOException e) {
                 // Something is not right. Let's stop.
                 return false;
-            } finally {
-                IOUtils.safeClose(reader);
             }
         }
 
         return true;
     }
 
-    private void storePing(TelemetryPing ping) {
+    /**
+     * Read a ping file: The first line is the header (the upload path and the content type, see
+     * {@link StoredPing#createHeader(String, String)}), the rest of the file is the serialized ping -
+     * either uncompressed (JSON is followed by a newline) or gzip compressed. Returns null if the
+     * file does not contain a ping.
+     */
+    @VisibleForTesting @Nullable static StoredPing readPingFile(File file) throws IOException {
+        final byte[] data = new byte[(int) file.length()];
+
+        DataInputStream stream = null;
+
+        try {
+            stream = new DataInputStream(new FileInputStream(file));
+            stream.readFully(data);
+        } finally {
+            IOUtils.safeClose(stream);
+        }
+
+        int pathEnd = 0;
+        while (pathEnd < data.length && data[pathEnd] != '\n') {
+            pathEnd++;
+        }
+
+        final int payloadStart = pathEnd + 1;
+        int payloadEnd = data.length;
+
+        final String header = new String(data, 0, pathEnd, UTF_8);
+
+        if (GzipUtils.isGzip(data, payloadStart, payloadEnd - payloadStart)) {
+            return StoredPing.fromHeader(
+                    header,
+                    Arrays.copyOfRange(data, payloadStart, payloadEnd),
+                    StoredPing.CONTENT_ENCODING_GZIP);
+        }
+
+        if (header.indexOf('\t') == -1) {
+            // JSON: Strip the trailing newline. Binary payloads are stored as they are.
+            while (payloadEnd > payloadStart && (data[payloadEnd - 1] == '\n' || data[payloadEnd - 1] == '\r')) {
+                payloadEnd--;
+            }
+        }
+
+        if (payloadEnd <= payloadStart) {
+            return null;
+        }
+
+        return StoredPing.fromHeader(
+                header,
+                Arrays.copyOfRange(data, payloadStart, payloadEnd),
+                null);
+    }
+
+    private boolean storePing(TelemetryPing ping) {
+        final long start = System.nanoTime();
+
+        // Make sure the index has been built before the new file shows up in the directory listing.
+        final TypeIndex files = getIndex(ping.getType());
+
         final File pingStorageDirectory = new File(storageDirectory, ping.getType());
         FileUtils.assertDirectory(pingStorageDirectory);
 
-        final String serializedPing = serializer.serialize(ping);
-
         final File pingFile = new File(pingStorageDirectory, ping.getDocumentId());
 
         FileOutputStream stream = null;
 
         try {
-            stream = new FileOutputStream(pingFile, true);
-
-            final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(stream));
-            writer.write(ping.getUploadPath());
-            writer.newLine();
-            writer.write(serializedPing);
-            writer.newLine();
-            writer.flush();
-            writer.close();
+            // A ping with the same document id (the same events) replaces the previous file.
+            stream = new FileOutputStream(pingFile);
+
+            final BinaryPingSerializer serializer = serializers.get(configuration.getPingContentType(ping.getType()));
+            final boolean json = PingSerializerRegistry.CONTENT_TYPE_JSON.equals(serializer.getContentType());
+
+            final OutputStream bufferedStream = new BufferedOutputStream(stream);
+            bufferedStream.write(StoredPing.createHeader(ping.getUploadPath(), serializer.getContentType()).getBytes(UTF_8));
+            bufferedStream.write('\n');
+
+            if (configuration.isPingCompressionEnabled()) {
+                final OutputStream compressedStream = new GZIPOutputStream(bufferedStream);
+                serializer.serialize(ping, compressedStream);
+                compressedStream.close();
+            } else {
+                serializer.serialize(ping, bufferedStream);
+                if (json) {
+                    bufferedStream.write('\n');
+                }
+                bufferedStream.close();
+            }
+
+            final long bytes = pingFile.length();
+
+            files.remove(pingFile);
+            files.add(new PingFile(pingFile, bytes, System.currentTimeMillis()));
+
+            configuration.getInternalMetrics().recordStore(ping.getType(), 1, bytes,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            return true;
         } catch (IOException e) {
             logger.warn("IOException while writing event to disk", e);
+
+            IOUtils.safeClose(stream);
+            if (pingFile.exists() && !pingFile.delete()) {
+                logger.warn("Could not delete incomplete ping file", new IOException());
+            }
+            files.remove(pingFile);
+
+            return false;
         } finally {
             IOUtils.safeClose(stream);
         }
     }
 
     private void maybePrunePings(final String pingType) {
-        final File[] files = listPingFiles(pingType);
+        final TypeIndex files = getIndex(pingType);
 
-        final int pingsToRemove = files.length - configuration.getMaximumNumberOfPingsPerType();
+        // The index is ordered by creation time: The oldest pings are at the head.
+        while (files.size() > configuration.getMaximumNumberOfPingsPerType()) {
+            evict(pingType, files);
+        }
 
-        if (pingsToRemove <= 0) {
-            return;
+        // The newest ping is kept even if it exceeds the limit on its own.
+        final long maximumBytes = configuration.getMaximumStorageBytes(pingType);
+        while (maximumBytes > 0 && files.bytes > maximumBytes && files.size() > 1) {
+            evict(pingType, files);
+        }
+
+        final long maximumTotalBytes = configuration.getMaximumTotalStorageBytes();
+        if (maximumTotalBytes > 0) {
+            indexAllTypes();
+
+            while (totalBytes > maximumTotalBytes) {
+                final String evictedType = selectTypeToEvict(pingType);
+                if (evictedType == null) {
+                    break;
+                }
+                evict(evictedType, index.get(evictedType));
+            }
         }
+    }
+
+    /**
+     * Returns the type to evict a ping from to reduce the total size: The type with the lowest upload
+     * priority and - among types of the same priority - with the oldest ping. The newest ping of the
+     * type that has just been stored is never evicted.
+     */
+    @Nullable private String selectTypeToEvict(String storedPingType) {
+        String selectedType = null;
+        int selectedPriority = 0;
+        long selectedTimestamp = 0;
+
+        for (Map.Entry<String, TypeIndex> entry : index.entrySet()) {
+            final TypeIndex files = entry.getValue();
+            if (files.size() == 0 || (files.size() == 1 && entry.getKey().equals(storedPingType))) {
+                continue;
+            }
 
-        final List<File> sortedFiles = new ArrayList<>(Arrays.asList(files));
-        Collections.sort(sortedFiles, new FileUtils.FileLastModifiedComparator());
+            final int priority = configuration.getUploadPriority(entry.getKey());
+            final long timestamp = files.files.getFirst().timestamp;
 
-        for (File file : sortedFiles) {
-            System.out.println(file.lastModified() + " " + file.getAbsolutePath());
+            if (selectedType == null || priority < selectedPriority
+                    || (priority == selectedPriority && timestamp < selectedTimestamp)) {
+                selectedType = entry.getKey();
+                selectedPriority = priority;
+                selectedTimestamp = timestamp;
+            }
         }
 
-        for (int i = 0; i < pingsToRemove; i++) {
-            final File file = sortedFiles.get(i);
+        return selectedType;
+    }
+
+    /**
+     * Delete the oldest ping of the given type without uploading it.
+     */
+    private void evict(String pingType, TypeIndex files) {
+        final File file = files.removeFirst().file;
 
-            if (!file.delete()) {
-                logger.warn("Can't prune ping file: " + file.getAbsolutePath(), new IOException());
+        if (!file.delete()) {
+            logger.warn("Can't prune ping file: " + file.getAbsolutePath(), new IOException());
+        }
+
+        files.evictions++;
+        configuration.getInternalMetrics().recordPrune(pingType, 1);
+    }
+
+    private synchronized void removeFromIndex(String pingType, File file) {
+        getIndex(pingType).remove(file);
+    }
+
+    /**
+     * Returns the index of stored ping files of the given type, oldest first. The index is built from
+     * the directory listing the first time it is requested for a type.
+     */
+    private TypeIndex getIndex(String pingType) {
+        TypeIndex files = index.get(pingType);
+        if (files == null) {
+            final File[] listedFiles = listPingFiles(pingType);
+            Arrays.sort(listedFiles, new FileUtils.FileLastModifiedComparator());
+
+            files = new TypeIndex();
+            for (File file : listedFiles) {
+                files.add(new PingFile(file, file.length(), file.lastModified()));
             }
+            index.put(pingType, files);
         }
+        return files;
+    }
+
+    /**
+     * Build the index of every ping type that has a directory in the storage: The total size is only
+     * known once all types are indexed.
+     */
+    private void indexAllTypes() {
+        if (allTypesIndexed) {
+            return;
+        }
+
+        final File[] directories = storageDirectory.listFiles();
+        if (directories != null) {
+            for (File directory : directories) {
+                if (directory.isDirectory()) {
+                    getIndex(directory.getName());
+                }
+            }
+        }
+
+        allTypesIndexed = true;
     }
 
     @VisibleForTesting File[] listPingFiles(String pingType) {
         final File pingStorageDirectory = new File(storageDirectory, pingType);
 
-        final Pattern uuidPattern = Pattern.compile(FILE_PATTERN);
-
-        final FilenameFilter uuidFilenameFilter = new FileUtils.FilenameRegexFilter(uuidPattern);
+        final FilenameFilter uuidFilenameFilter = new FileUtils.FilenameRegexFilter(UUID_PATTERN);
         final File[] files = pingStorageDirectory.listFiles(uuidFilenameFilter);
         if (files == null) {
             return new File[0];
@@ -160,7 +396,73 @@ public class FileTelemetryStorage implements TelemetryStorage {
 
     @Override
     @RestrictTo(RestrictTo.Scope.LIBRARY)
-    public int countStoredPings(String pingType) {
-        return listPingFiles(pingType).length;
+    public synchronized int countStoredPings(String pingType) {
+        return getIndex(pingType).size();
+    }
+
+    @Override
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public synchronized StoredPingStats getStoredPingStats(String pingType) {
+        return getIndex(pingType).getStats();
+    }
+
+    /**
+     * A stored ping file with its size and the time it has been stored.
+     */
+    private static class PingFile {
+        private final File file;
+        private final long bytes;
+        private final long timestamp;
+
+        private PingFile(File file, long bytes, long timestamp) {
+            this.file = file;
+            this.bytes = bytes;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * The stored ping files of a type (oldest first) and their total size. Changes of the size are
+     * applied to the total size of the storage as well.
+     */
+    private class TypeIndex {
+        private final ArrayDeque<PingFile> files = new ArrayDeque<>();
+        private long bytes;
+        private int evictions;
+
+        private int size() {
+            return files.size();
+        }
+
+        private void add(PingFile file) {
+            files.addLast(file);
+            bytes += file.bytes;
+            totalBytes += file.bytes;
+        }
+
+        private PingFile removeFirst() {
+            final PingFile file = files.removeFirst();
+            bytes -= file.bytes;
+            totalBytes -= file.bytes;
+            return file;
+        }
+
+        private void remove(File file) {
+            final Iterator<PingFile> iterator = files.iterator();
+            while (iterator.hasNext()) {
+                final PingFile pingFile = iterator.next();
+                if (pingFile.file.equals(file)) {
+                    iterator.remove();
+                    bytes -= pingFile.bytes;
+                    totalBytes -= pingFile.bytes;
+                    return;
+                }
+            }
+        }
+
+        private StoredPingStats getStats() {
+            final long oldestTimestamp = files.isEmpty() ? 0 : files.getFirst().timestamp;
+            return new StoredPingStats(files.size(), bytes, oldestTimestamp, evictions);
+        }
     }
 }
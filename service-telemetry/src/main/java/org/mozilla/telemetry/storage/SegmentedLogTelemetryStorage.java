@@ -0,0 +1,796 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.storage;
+
+import androidx.annotation.RestrictTo;
+import androidx.annotation.VisibleForTesting;
+
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.serialize.BinaryPingSerializer;
+import org.mozilla.telemetry.serialize.PingSerializerRegistry;
+import org.mozilla.telemetry.serialize.TelemetryPingSerializer;
+import org.mozilla.telemetry.util.FileUtils;
+import org.mozilla.telemetry.util.GzipUtils;
+import org.mozilla.telemetry.util.IOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import mozilla.components.support.base.log.logger.Logger;
+
+/**
+ * TelemetryStorage implementation that appends pings to segmented log files (one log per ping type).
+ *
+ * Instead of creating, listing and deleting one file per ping this implementation appends every ping
+ * as a length-prefixed record to the active segment of its type. Segments are deleted as a whole once
+ * all of their records have been processed. A small cursor file remembers how far into the oldest
+ * segment we got if processing stopped in the middle of it. The offsets of all records are kept in
+ * memory, so counting stored pings does not touch the disk.
+ *
+ * Like {@link FileTelemetryStorage} every ping is serialized in the format configured for its type.
+ * The content type is stored with the upload path of the record (see
+ * {@link StoredPing#createHeader(String, String)}).
+ *
+ * Pings stored by {@link FileTelemetryStorage} (one file per ping) are imported into the log the first
+ * time a ping type is accessed.
+ */
+public class SegmentedLogTelemetryStorage implements TelemetryStorage {
+    private static final String STORAGE_DIRECTORY = "storage-log";
+    private static final String LEGACY_STORAGE_DIRECTORY = "storage";
+    private static final String LEGACY_FILE_PATTERN = "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}";
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CURSOR_FILE = "cursor";
+
+    private static final long DEFAULT_MAXIMUM_SEGMENT_SIZE = 256 * 1024;
+
+    // Record layout: magic (int), crc32 of path + payload (int), path length (int), payload length (int),
+    // path bytes, payload bytes. The "path" is the header of the ping: Upload path and content type.
+    private static final int RECORD_MAGIC = 0x504e4731;
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Logger logger;
+    private final TelemetryConfiguration configuration;
+    private final PingSerializerRegistry serializers;
+    private final long maximumSegmentSize;
+
+    private final File storageDirectory;
+    private final File legacyStorageDirectory;
+
+    private final Map<String, PingLog> logs;
+
+    public SegmentedLogTelemetryStorage(TelemetryConfiguration configuration, TelemetryPingSerializer serializer) {
+        this(configuration, serializer, DEFAULT_MAXIMUM_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param maximumSegmentSize Size (in bytes) after which a new segment is started. A segment can
+     *                           only be deleted once all pings in it have been uploaded, so smaller
+     *                           segments free disk space earlier.
+     */
+    public SegmentedLogTelemetryStorage(TelemetryConfiguration configuration, TelemetryPingSerializer serializer,
+                                        long maximumSegmentSize) {
+        this(configuration, new PingSerializerRegistry(serializer), maximumSegmentSize);
+    }
+
+    public SegmentedLogTelemetryStorage(TelemetryConfiguration configuration, PingSerializerRegistry serializers) {
+        this(configuration, serializers, DEFAULT_MAXIMUM_SEGMENT_SIZE);
+    }
+
+    public SegmentedLogTelemetryStorage(TelemetryConfiguration configuration, PingSerializerRegistry serializers,
+                                        long maximumSegmentSize) {
+        this.logger = new Logger("telemetry/storage");
+        this.configuration = configuration;
+        this.serializers = serializers;
+        this.maximumSegmentSize = maximumSegmentSize;
+
+        this.storageDirectory = new File(configuration.getDataDirectory(), STORAGE_DIRECTORY);
+        this.legacyStorageDirectory = new File(configuration.getDataDirectory(), LEGACY_STORAGE_DIRECTORY);
+        this.logs = new HashMap<>();
+
+        FileUtils.assertDirectory(storageDirectory);
+    }
+
+    @Override
+    public boolean store(TelemetryPing ping) {
+        return storeAll(Collections.singletonList(ping));
+    }
+
+    /**
+     * Store multiple pings. Pings of the same type are appended to their log with a single write.
+     * Returns false if not all pings could be stored.
+     *
+     * A ping stored again with the same document id is appended again: Duplicates are removed by
+     * the server based on the document id.
+     */
+    public synchronized boolean storeAll(Collection<TelemetryPing> pings) {
+        boolean stored = true;
+
+        final Map<String, List<TelemetryPing>> pingsByType = new LinkedHashMap<>();
+
+        for (TelemetryPing ping : pings) {
+            List<TelemetryPing> pingsOfType = pingsByType.get(ping.getType());
+            if (pingsOfType == null) {
+                pingsOfType = new ArrayList<>();
+                pingsByType.put(ping.getType(), pingsOfType);
+            }
+            pingsOfType.add(ping);
+        }
+
+        for (Map.Entry<String, List<TelemetryPing>> entry : pingsByType.entrySet()) {
+            final String pingType = entry.getKey();
+            final PingLog log = getLog(pingType);
+
+            // The latency of a type only covers serializing and appending its own pings.
+            final long start = System.nanoTime();
+
+            final BinaryPingSerializer serializer = serializers.get(configuration.getPingContentType(pingType));
+            final List<byte[]> records = new ArrayList<>(entry.getValue().size());
+
+            for (TelemetryPing ping : entry.getValue()) {
+                try {
+                    records.add(encodeRecord(StoredPing.createHeader(ping.getUploadPath(), serializer.getContentType()),
+                            serialize(serializer, ping)));
+                } catch (IOException e) {
+                    logger.warn("IOException while serializing ping", e);
+                    stored = false;
+                }
+            }
+
+            try {
+                log.append(records);
+
+                long bytes = 0;
+                for (byte[] record : records) {
+                    bytes += record.length;
+                }
+
+                configuration.getInternalMetrics().recordStore(pingType, records.size(), bytes,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (IOException e) {
+                logger.warn("IOException while appending pings to log", e);
+                stored = false;
+            }
+
+            prune(pingType, log);
+        }
+
+        return stored;
+    }
+
+    /**
+     * Serialize the ping into the payload of a record (compressed if enabled). The record needs to
+     * know the payload size upfront: The serializer writes into a byte buffer directly instead of
+     * creating a String first.
+     */
+    private byte[] serialize(BinaryPingSerializer serializer, TelemetryPing ping) throws IOException {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+
+        final OutputStream output = configuration.isPingCompressionEnabled()
+                ? new GZIPOutputStream(payload)
+                : payload;
+
+        serializer.serialize(ping, output);
+        output.close();
+
+        return payload.toByteArray();
+    }
+
+    @Override
+    public boolean process(String pingType, TelemetryStorageCallback callback) {
+        final PingLog log;
+        synchronized (this) {
+            log = getLog(pingType);
+        }
+
+        try {
+            while (true) {
+                final Record record;
+                synchronized (this) {
+                    record = log.readHead();
+                }
+
+                if (record == null) {
+                    return true;
+                }
+
+                // The lock is not held while the callback runs: Uploading a ping can take a while and
+                // we do not want to block storing new pings in the meantime.
+                if (!callback.onTelemetryPingLoaded(record.ping)) {
+                    // The callback couldn't process this ping. Let's stop and retry later.
+                    return false;
+                }
+
+                synchronized (this) {
+                    log.commit(record);
+                }
+            }
+        } catch (IOException e) {
+            // Something is not right. Let's stop.
+            logger.warn("IOException while reading ping from log", e);
+            return false;
+        } finally {
+            synchronized (this) {
+                log.writeCursor();
+            }
+        }
+    }
+
+    @Override
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public synchronized int countStoredPings(String pingType) {
+        return getLog(pingType).count;
+    }
+
+    @Override
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public synchronized StoredPingStats getStoredPingStats(String pingType) {
+        return getLog(pingType).getStats();
+    }
+
+    private PingLog getLog(String pingType) {
+        PingLog log = logs.get(pingType);
+        if (log == null) {
+            log = new PingLog(new File(storageDirectory, pingType));
+            log.load();
+            log.importLegacyPings(new File(legacyStorageDirectory, pingType));
+            prune(pingType, log);
+
+            logs.put(pingType, log);
+        }
+        return log;
+    }
+
+    private void prune(String pingType, PingLog log) {
+        final int pruned = log.prune(configuration.getMaximumNumberOfPingsPerType());
+        if (pruned > 0) {
+            configuration.getInternalMetrics().recordPrune(pingType, pruned);
+        }
+    }
+
+    @VisibleForTesting static byte[] encodeRecord(String path, byte[] payloadBytes) {
+        final byte[] pathBytes = path.getBytes(UTF_8);
+
+        final CRC32 crc = new CRC32();
+        crc.update(pathBytes);
+        crc.update(payloadBytes);
+
+        return ByteBuffer.allocate(RECORD_HEADER_SIZE + pathBytes.length + payloadBytes.length)
+                .putInt(RECORD_MAGIC)
+                .putInt((int) crc.getValue())
+                .putInt(pathBytes.length)
+                .putInt(payloadBytes.length)
+                .put(pathBytes)
+                .put(payloadBytes)
+                .array();
+    }
+
+    /**
+     * A record read from the head of a log.
+     */
+    private static class Record {
+        private final long segmentId;
+        private final int index;
+        private final StoredPing ping;
+
+        private Record(long segmentId, int index, StoredPing ping) {
+            this.segmentId = segmentId;
+            this.index = index;
+            this.ping = ping;
+        }
+    }
+
+    /**
+     * A single segment file and the offsets of the records in it.
+     */
+    private static class Segment {
+        private final long id;
+        private final File file;
+
+        private long[] offsets = new long[16];
+        private int records;
+        private long size;
+
+        // When the first record has been written to this segment. For segments found on disk this is
+        // only known approximately (the last modification of the file).
+        private long created;
+
+        private Segment(long id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+
+        private long getRecordLength(int index) {
+            return (index + 1 < records ? offsets[index + 1] : size) - offsets[index];
+        }
+
+        private void addRecord(long offset, long length) {
+            if (records == offsets.length) {
+                offsets = Arrays.copyOf(offsets, records * 2);
+            }
+            offsets[records++] = offset;
+            size = offset + length;
+        }
+    }
+
+    /**
+     * The log of a single ping type: A list of segments (oldest first) and the position of the oldest
+     * record that has not been processed yet.
+     */
+    private class PingLog {
+        private final File directory;
+        private final ArrayList<Segment> segments = new ArrayList<>();
+
+        private int headRecord;
+        private int count;
+        private boolean cursorDirty;
+
+        // Segment ids are never reused: A cursor left behind by a crash must not match a new segment.
+        private long nextSegmentId = 1;
+
+        private FileChannel writeChannel;
+        private RandomAccessFile readFile;
+
+        private PingLog(File directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * Rebuild the in-memory offset index by scanning the record headers of all segments. A torn
+         * record at the end of a segment (e.g. the app was killed while writing) is truncated.
+         * New segments continue after the highest segment id found on disk or in the cursor.
+         */
+        private void load() {
+            FileUtils.assertDirectory(directory);
+
+            final File[] files = directory.listFiles();
+            if (files == null) {
+                return;
+            }
+
+            final List<Long> ids = new ArrayList<>();
+            for (File file : files) {
+                final String name = file.getName();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        ids.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        logger.warn("Ignoring unknown file in ping log: " + name, e);
+                    }
+                }
+            }
+            Collections.sort(ids);
+
+            for (long id : ids) {
+                final Segment segment = new Segment(id, segmentFile(id));
+                segment.created = segment.file.lastModified();
+                scanSegment(segment);
+
+                if (segment.records == 0) {
+                    deleteFile(segment.file);
+                } else {
+                    segments.add(segment);
+                    count += segment.records;
+                }
+            }
+
+            final long cursorSegmentId = readCursor();
+
+            nextSegmentId = Math.max(ids.isEmpty() ? 0 : ids.get(ids.size() - 1), cursorSegmentId) + 1;
+        }
+
+        private void scanSegment(Segment segment) {
+            RandomAccessFile file = null;
+
+            try {
+                file = new RandomAccessFile(segment.file, "rw");
+
+                final long length = file.length();
+                long offset = 0;
+
+                while (offset + RECORD_HEADER_SIZE <= length) {
+                    file.seek(offset);
+
+                    final int magic = file.readInt();
+                    final int crc = file.readInt();
+                    final int pathLength = file.readInt();
+                    final int payloadLength = file.readInt();
+
+                    final long recordLength = RECORD_HEADER_SIZE + (long) pathLength + payloadLength;
+
+                    if (magic != RECORD_MAGIC || pathLength < 0 || payloadLength < 0
+                            || offset + recordLength > length) {
+                        break;
+                    }
+
+                    if (offset + recordLength == length && !hasValidChecksum(file, crc, pathLength, payloadLength)) {
+                        // Only the last record of a segment can be torn: Segments are append-only.
+                        break;
+                    }
+
+                    segment.addRecord(offset, recordLength);
+                    offset += recordLength;
+                }
+
+                if (offset != length) {
+                    logger.warn("Truncating torn record in ping log: " + segment.file.getAbsolutePath(), null);
+                    file.setLength(offset);
+                }
+
+                segment.size = offset;
+            } catch (IOException e) {
+                logger.warn("IOException while scanning ping log segment", e);
+            } finally {
+                IOUtils.safeClose(file);
+            }
+        }
+
+        private boolean hasValidChecksum(RandomAccessFile file, int crc, int pathLength, int payloadLength)
+                throws IOException {
+            final byte[] data = new byte[pathLength + payloadLength];
+            file.readFully(data);
+
+            final CRC32 actual = new CRC32();
+            actual.update(data);
+
+            return (int) actual.getValue() == crc;
+        }
+
+        /**
+         * Import pings that were stored by FileTelemetryStorage (one file per ping) into this log.
+         */
+        private void importLegacyPings(File legacyDirectory) {
+            final Pattern uuidPattern = Pattern.compile(LEGACY_FILE_PATTERN);
+            final File[] files = legacyDirectory.listFiles(new FileUtils.FilenameRegexFilter(uuidPattern));
+            if (files == null || files.length == 0) {
+                return;
+            }
+
+            Arrays.sort(files, new FileUtils.FileLastModifiedComparator());
+
+            final List<byte[]> records = new ArrayList<>(files.length);
+
+            for (File file : files) {
+                try {
+                    final StoredPing ping = FileTelemetryStorage.readPingFile(file);
+
+                    if (ping != null) {
+                        records.add(encodeRecord(StoredPing.createHeader(ping.getUploadPath(), ping.getContentType()),
+                                ping.getPayload()));
+                    }
+                } catch (IOException e) {
+                    logger.warn("IOException while importing ping file", e);
+                }
+            }
+
+            try {
+                append(records);
+            } catch (IOException e) {
+                // Keep the legacy files around and try again the next time.
+                logger.warn("IOException while importing pings into log", e);
+                return;
+            }
+
+            for (File file : files) {
+                deleteFile(file);
+            }
+
+            if (!legacyDirectory.delete()) {
+                logger.debug("Could not delete legacy ping directory: " + legacyDirectory.getAbsolutePath(), null);
+            }
+        }
+
+        /**
+         * Append the given records to the active segment with a single write. A new segment is started
+         * if the active segment exceeds the maximum segment size.
+         */
+        private void append(List<byte[]> records) throws IOException {
+            if (records.isEmpty()) {
+                return;
+            }
+
+            Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || segment.size >= maximumSegmentSize) {
+                segment = startSegment(nextSegmentId++);
+            }
+
+            final ByteBuffer[] buffers = new ByteBuffer[records.size()];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = ByteBuffer.wrap(records.get(i));
+            }
+
+            long length = 0;
+            for (ByteBuffer buffer : buffers) {
+                length += buffer.remaining();
+            }
+
+            final FileChannel channel = getWriteChannel(segment);
+            final long startOffset = channel.position();
+
+            try {
+                long written = 0;
+                while (written < length) {
+                    written += channel.write(buffers);
+                }
+            } catch (IOException e) {
+                // Drop whatever part of the batch made it to disk so that the segment stays readable.
+                channel.truncate(startOffset);
+                channel.position(startOffset);
+                throw e;
+            }
+
+            long offset = startOffset;
+            for (byte[] record : records) {
+                segment.addRecord(offset, record.length);
+                offset += record.length;
+            }
+
+            count += records.size();
+        }
+
+        private Segment startSegment(long id) throws IOException {
+            closeWriteChannel();
+
+            final Segment segment = new Segment(id, segmentFile(id));
+            segment.created = System.currentTimeMillis();
+            if (!segment.file.createNewFile() && segment.file.length() > 0) {
+                throw new IOException("Segment already exists: " + segment.file.getAbsolutePath());
+            }
+
+            segments.add(segment);
+            return segment;
+        }
+
+        private FileChannel getWriteChannel(Segment segment) throws IOException {
+            if (writeChannel == null) {
+                final FileOutputStream stream = new FileOutputStream(segment.file, true);
+                writeChannel = stream.getChannel();
+                writeChannel.position(segment.size);
+            }
+            return writeChannel;
+        }
+
+        private void closeWriteChannel() {
+            IOUtils.safeClose(writeChannel);
+            writeChannel = null;
+        }
+
+        /**
+         * Read the oldest record that has not been processed yet or return null if there is none.
+         */
+        private Record readHead() throws IOException {
+            while (count > 0) {
+                final Segment segment = segments.get(0);
+
+                if (readFile == null) {
+                    readFile = new RandomAccessFile(segment.file, "r");
+                }
+
+                readFile.seek(segment.offsets[headRecord]);
+
+                final int magic = readFile.readInt();
+                readFile.readInt(); // crc
+                final int pathLength = readFile.readInt();
+                final int payloadLength = readFile.readInt();
+
+                if (magic != RECORD_MAGIC) {
+                    // Let's log a warning and move on. This ping is lost.
+                    logger.warn("Skipping corrupt record in ping log: " + segment.file.getAbsolutePath(), null);
+                    advanceHead();
+                    continue;
+                }
+
+                final byte[] pathBytes = new byte[pathLength];
+                final byte[] payloadBytes = new byte[payloadLength];
+                readFile.readFully(pathBytes);
+                readFile.readFully(payloadBytes);
+
+                final boolean compressed = GzipUtils.isGzip(payloadBytes, 0, payloadBytes.length);
+
+                return new Record(segment.id, headRecord, StoredPing.fromHeader(
+                        new String(pathBytes, UTF_8),
+                        payloadBytes,
+                        compressed ? StoredPing.CONTENT_ENCODING_GZIP : null));
+            }
+
+            return null;
+        }
+
+        /**
+         * Mark the given record as processed. This is a no-op if the record has been pruned in the
+         * meantime.
+         */
+        private void commit(Record record) {
+            if (count > 0 && segments.get(0).id == record.segmentId && headRecord == record.index) {
+                advanceHead();
+            }
+        }
+
+        /**
+         * Drop the oldest records until at most maximumNumberOfPings records are left. Returns the
+         * number of dropped records.
+         */
+        private int prune(int maximumNumberOfPings) {
+            if (count <= maximumNumberOfPings) {
+                return 0;
+            }
+
+            int pruned = 0;
+            while (count > maximumNumberOfPings) {
+                advanceHead();
+                pruned++;
+            }
+
+            writeCursor();
+            return pruned;
+        }
+
+        private void advanceHead() {
+            headRecord++;
+            count--;
+            cursorDirty = true;
+
+            final Segment head = segments.get(0);
+            if (headRecord < head.records) {
+                return;
+            }
+
+            // All records of the oldest segment have been processed: Delete the whole segment.
+            IOUtils.safeClose(readFile);
+            readFile = null;
+
+            if (segments.size() == 1) {
+                closeWriteChannel();
+            }
+
+            segments.remove(0);
+            deleteFile(head.file);
+            headRecord = 0;
+        }
+
+        private StoredPingStats getStats() {
+            if (count == 0) {
+                return new StoredPingStats(0, 0, 0);
+            }
+
+            long bytes = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                final Segment segment = segments.get(i);
+                for (int record = i == 0 ? headRecord : 0; record < segment.records; record++) {
+                    bytes += segment.getRecordLength(record);
+                }
+            }
+
+            return new StoredPingStats(count, bytes, segments.get(0).created);
+        }
+
+        private File segmentFile(long id) {
+            return new File(directory, String.format(Locale.US, "%019d%s", id, SEGMENT_SUFFIX));
+        }
+
+        /**
+         * Move the head to the position stored in the cursor and return the segment id of the cursor
+         * (or 0 if there is none). A cursor that does not point into the oldest segment is stale (e.g.
+         * the app was killed after deleting the segment but before updating the cursor) and is deleted.
+         */
+        private long readCursor() {
+            final File file = new File(directory, CURSOR_FILE);
+            if (!file.exists()) {
+                return 0;
+            }
+
+            DataInputStream stream = null;
+            long segmentId = 0;
+            boolean stale = true;
+
+            try {
+                stream = new DataInputStream(new FileInputStream(file));
+
+                segmentId = stream.readLong();
+                final int record = stream.readInt();
+
+                if (!segments.isEmpty() && segments.get(0).id == segmentId) {
+                    final int skip = Math.min(record, segments.get(0).records);
+                    for (int i = 0; i < skip; i++) {
+                        advanceHead();
+                    }
+                    stale = false;
+                }
+            } catch (IOException e) {
+                // Worst case we process some pings a second time. The server de-duplicates them using
+                // their document id.
+                logger.warn("IOException while reading ping log cursor", e);
+            } finally {
+                IOUtils.safeClose(stream);
+            }
+
+            if (stale) {
+                deleteFile(file);
+            }
+
+            cursorDirty = false;
+            return segmentId;
+        }
+
+        /**
+         * Persist the position of the head if it changed. The cursor is written to a temporary file
+         * first and then renamed so that it is never torn.
+         */
+        private void writeCursor() {
+            if (!cursorDirty) {
+                return;
+            }
+
+            final File file = new File(directory, CURSOR_FILE);
+
+            if (headRecord == 0) {
+                // The head is at the start of a segment: No need for a cursor.
+                if (!file.exists() || file.delete()) {
+                    cursorDirty = false;
+                }
+                return;
+            }
+
+            final File temporaryFile = new File(directory, CURSOR_FILE + ".tmp");
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(12);
+            final DataOutputStream data = new DataOutputStream(bytes);
+
+            FileOutputStream stream = null;
+
+            try {
+                data.writeLong(segments.get(0).id);
+                data.writeInt(headRecord);
+
+                stream = new FileOutputStream(temporaryFile);
+                stream.write(bytes.toByteArray());
+                stream.getFD().sync();
+                stream.close();
+
+                if (!temporaryFile.renameTo(file)) {
+                    throw new IOException("Could not rename cursor file");
+                }
+
+                cursorDirty = false;
+            } catch (IOException e) {
+                logger.warn("IOException while writing ping log cursor", e);
+            } finally {
+                IOUtils.safeClose(stream);
+            }
+        }
+
+        private void deleteFile(File file) {
+            if (!file.delete()) {
+                logger.warn("Could not delete file: " + file.getAbsolutePath(), new IOException());
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.storage;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * TelemetryKeyValueStore implementation that keeps the values in SharedPreferences (this is where
+ * measurements used to store their values). Every change rewrites the preferences file: Use this
+ * only if the values need to stay in SharedPreferences.
+ *
+ * Older versions stored some counters as int values. Those are returned as long values.
+ */
+public class SharedPreferencesTelemetryKeyValueStore implements TelemetryKeyValueStore {
+    private final SharedPreferences preferences;
+
+    public SharedPreferencesTelemetryKeyValueStore(SharedPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return preferences.contains(key);
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defaultValue) {
+        try {
+            return preferences.getLong(key, defaultValue);
+        } catch (ClassCastException e) {
+            return preferences.getInt(key, (int) defaultValue);
+        }
+    }
+
+    @Override
+    public synchronized void putLong(String key, long value) {
+        preferences.edit()
+                .putLong(key, value)
+                .apply();
+    }
+
+    @Override
+    public synchronized long addToLong(String key, long delta) {
+        final long value = getLong(key, 0) + delta;
+        putLong(key, value);
+        return value;
+    }
+
+    @Override
+    public synchronized Map<String, Long> removeLongs(String keyPrefix) {
+        final Map<String, Long> values = new HashMap<>();
+        final SharedPreferences.Editor editor = preferences.edit();
+
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (entry.getKey().startsWith(keyPrefix) && entry.getValue() instanceof Number) {
+                values.put(entry.getKey(), ((Number) entry.getValue()).longValue());
+                editor.remove(entry.getKey());
+            }
+        }
+
+        editor.apply();
+
+        return values;
+    }
+
+    @Override
+    public String getString(String key, String defaultValue) {
+        return preferences.getString(key, defaultValue);
+    }
+
+    @Override
+    public synchronized void putString(String key, String value) {
+        preferences.edit()
+                .putString(key, value)
+                .apply();
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        preferences.edit()
+                .remove(key)
+                .apply();
+    }
+
+    /**
+     * Changes are written by SharedPreferences in the background. SharedPreferences writes the
+     * changes of an editor in order: Committing an empty editor waits until all earlier changes
+     * have been written.
+     */
+    @Override
+    public boolean flush() {
+        return preferences.edit().commit();
+    }
+
+    /**
+     * Returns all long (and int) and string values.
+     */
+    synchronized Map<String, Object> getAll() {
+        final Map<String, Object> values = new HashMap<>();
+
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            final Object value = entry.getValue();
+
+            if (value instanceof Long || value instanceof Integer) {
+                values.put(entry.getKey(), ((Number) value).longValue());
+            } else if (value instanceof String) {
+                values.put(entry.getKey(), value);
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Remove all values (including values of other types).
+     */
+    synchronized void clear() {
+        preferences.edit()
+                .clear()
+                .apply();
+    }
+}
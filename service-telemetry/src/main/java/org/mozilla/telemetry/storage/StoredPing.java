@@ -0,0 +1,113 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.storage;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.mozilla.telemetry.serialize.PingSerializerRegistry;
+
+import java.nio.charset.Charset;
+
+/**
+ * A ping loaded from a TelemetryStorage: The path to upload it to, the content type it has been
+ * serialized with and the serialized ping exactly as it was stored on disk. If the payload is
+ * compressed then it is handed over (and uploaded) without decompressing it first.
+ */
+public class StoredPing {
+    public static final String CONTENT_ENCODING_GZIP = "gzip";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String uploadPath;
+    private final byte[] payload;
+    private final @Nullable String contentEncoding;
+    private final String contentType;
+
+    public StoredPing(@NonNull String uploadPath, @NonNull byte[] payload, @Nullable String contentEncoding) {
+        this(uploadPath, payload, contentEncoding, PingSerializerRegistry.CONTENT_TYPE_JSON);
+    }
+
+    public StoredPing(@NonNull String uploadPath, @NonNull byte[] payload, @Nullable String contentEncoding,
+                      @NonNull String contentType) {
+        this.uploadPath = uploadPath;
+        this.payload = payload;
+        this.contentEncoding = contentEncoding;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Create a ping from the header stored with it (see {@link #createHeader(String, String)}).
+     */
+    static StoredPing fromHeader(@NonNull String header, @NonNull byte[] payload, @Nullable String contentEncoding) {
+        final int separator = header.indexOf('\t');
+        if (separator == -1) {
+            return new StoredPing(header, payload, contentEncoding);
+        }
+
+        return new StoredPing(header.substring(0, separator), payload, contentEncoding,
+                header.substring(separator + 1));
+    }
+
+    /**
+     * The header storages write in front of the payload: The upload path, followed by a tab and
+     * the content type if the ping is not JSON. Pings stored before the content type was known
+     * only have the upload path.
+     */
+    static String createHeader(@NonNull String uploadPath, @NonNull String contentType) {
+        return isJSON(contentType) ? uploadPath : uploadPath + '\t' + contentType;
+    }
+
+    private static boolean isJSON(String contentType) {
+        return PingSerializerRegistry.CONTENT_TYPE_JSON.equals(contentType);
+    }
+
+    @NonNull
+    public String getUploadPath() {
+        return uploadPath;
+    }
+
+    /**
+     * The serialized ping. This is compressed if {@link #getContentEncoding()} is not null.
+     */
+    @NonNull
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * The encoding of the payload (e.g. "gzip") or null if the payload is not compressed.
+     */
+    @Nullable
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * The MIME type of the (uncompressed) payload, e.g. "application/json; charset=utf-8".
+     */
+    @NonNull
+    public String getContentType() {
+        return contentType;
+    }
+
+    public boolean isCompressed() {
+        return contentEncoding != null;
+    }
+
+    /**
+     * Returns the payload as String. Only valid for uncompressed JSON payloads.
+     */
+    @NonNull
+    public String getPayloadAsString() {
+        if (isCompressed()) {
+            throw new IllegalStateException("Payload is " + contentEncoding + " encoded");
+        }
+        if (!isJSON(contentType)) {
+            throw new IllegalStateException("Payload is " + contentType);
+        }
+        return new String(payload, UTF_8);
+    }
+}
@@ -0,0 +1,62 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.storage;
+
+/**
+ * What a TelemetryStorage holds for a single ping type: The number of pings waiting for upload,
+ * their size on disk, when the oldest of them has been stored and how many pings have been evicted
+ * to stay within the storage limits.
+ */
+public class StoredPingStats {
+    private final int count;
+    private final long bytes;
+    private final long oldestTimestamp;
+    private final int evictions;
+
+    public StoredPingStats(int count, long bytes, long oldestTimestamp) {
+        this(count, bytes, oldestTimestamp, 0);
+    }
+
+    public StoredPingStats(int count, long bytes, long oldestTimestamp, int evictions) {
+        this.count = count;
+        this.bytes = bytes;
+        this.oldestTimestamp = oldestTimestamp;
+        this.evictions = evictions;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the size (in bytes) of all stored pings of this type.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the average size (in bytes) of a stored ping of this type.
+     */
+    public long getAverageBytes() {
+        return count > 0 ? bytes / count : 0;
+    }
+
+    /**
+     * Returns the time (in milliseconds since the epoch) the oldest ping of this type has been
+     * stored or 0 if no pings are stored.
+     */
+    public long getOldestTimestamp() {
+        return oldestTimestamp;
+    }
+
+    /**
+     * Returns the number of pings of this type that have been deleted without uploading them
+     * (because a storage limit was exceeded) since the storage has been created.
+     */
+    public int getEvictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,62 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.storage;
+
+import java.util.Map;
+
+/**
+ * Storage for the small values measurements keep between pings (counters, sequence numbers, ids).
+ *
+ * Implementations need to be thread-safe. Changes are visible to readers immediately but may be
+ * persisted later: Call {@link #flush()} to make sure all changes have been written.
+ */
+public interface TelemetryKeyValueStore {
+    /**
+     * Returns true if a value for this key exists.
+     */
+    boolean contains(String key);
+
+    /**
+     * Get the long value for this key or the default value if no value exists.
+     */
+    long getLong(String key, long defaultValue);
+
+    /**
+     * Set the long value for this key.
+     */
+    void putLong(String key, long value);
+
+    /**
+     * Add the delta to the long value for this key (a missing value counts as 0) and return the
+     * new value.
+     */
+    long addToLong(String key, long delta);
+
+    /**
+     * Remove all long values whose key starts with the given prefix and return them (mapped by
+     * their full key).
+     */
+    Map<String, Long> removeLongs(String keyPrefix);
+
+    /**
+     * Get the string value for this key or the default value if no value exists.
+     */
+    String getString(String key, String defaultValue);
+
+    /**
+     * Set the string value for this key.
+     */
+    void putString(String key, String value);
+
+    /**
+     * Remove the value for this key.
+     */
+    void remove(String key);
+
+    /**
+     * Write all changes to disk now. Returns false if the changes could not be written.
+     */
+    boolean flush();
+}
@@ -8,12 +8,21 @@ import org.mozilla.telemetry.ping.TelemetryPing;
 
 public interface TelemetryStorage {
     interface TelemetryStorageCallback {
-        boolean onTelemetryPingLoaded(String path, String serializedPing);
+        boolean onTelemetryPingLoaded(StoredPing ping);
     }
 
-    void store(TelemetryPing ping);
+    /**
+     * Store the ping for upload. Returns false if the ping could not be stored. Storing a ping
+     * with the document id of a ping that has been stored before may replace that ping.
+     */
+    boolean store(TelemetryPing ping);
 
     boolean process(String pingType, TelemetryStorageCallback callback);
 
     int countStoredPings(String pingType);
+
+    /**
+     * Returns the number, size and age of the stored pings of the given type.
+     */
+    StoredPingStats getStoredPingStats(String pingType);
 }
@@ -0,0 +1,137 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.util;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram with a fixed set of buckets. Recording a value is a binary search and an atomic
+ * increment: It never takes a lock and does not allocate.
+ *
+ * Bucket i counts the values v with bounds[i - 1] <= v < bounds[i]. The last bucket counts all
+ * values greater or equal to the last bound.
+ */
+public class BucketHistogram {
+    private final long[] bounds;
+    private final AtomicLongArray counts;
+
+    /**
+     * @param bounds The (ascending) lower bounds of the buckets following the first bucket.
+     */
+    public BucketHistogram(long... bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("Bucket bounds must be ascending: " + Arrays.toString(bounds));
+            }
+        }
+
+        this.bounds = bounds.clone();
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public void record(long value) {
+        int index = Arrays.binarySearch(bounds, value);
+        // An exact match belongs to the bucket starting at that bound.
+        index = index >= 0 ? index + 1 : -index - 1;
+
+        counts.incrementAndGet(index);
+    }
+
+    /**
+     * Returns the lower bound of the given bucket (Long.MIN_VALUE for the first bucket).
+     */
+    public long getBucketStart(int bucket) {
+        return bucket == 0 ? Long.MIN_VALUE : bounds[bucket - 1];
+    }
+
+    public int getBucketCount() {
+        return counts.length();
+    }
+
+    public long getCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * Returns the number of all recorded values.
+     */
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Returns a copy of this histogram with the counts recorded so far.
+     */
+    public BucketHistogram copy() {
+        final BucketHistogram copy = new BucketHistogram(bounds);
+        for (int i = 0; i < counts.length(); i++) {
+            copy.counts.set(i, counts.get(i));
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a copy of this histogram with the counts recorded so far and resets the buckets one by
+     * one: Values that are recorded at the same time are either part of the copy or of this histogram.
+     */
+    public BucketHistogram copyAndReset() {
+        final BucketHistogram copy = new BucketHistogram(bounds);
+        for (int i = 0; i < counts.length(); i++) {
+            copy.counts.set(i, counts.getAndSet(i, 0));
+        }
+        return copy;
+    }
+
+    /**
+     * Adds the counts of the given histogram to this histogram.
+     *
+     * @throws IllegalArgumentException if the histograms do not have the same buckets.
+     */
+    public void add(BucketHistogram other) {
+        if (!hasSameBuckets(other)) {
+            throw new IllegalArgumentException("Histograms with different buckets can't be added");
+        }
+
+        for (int i = 0; i < counts.length(); i++) {
+            final long count = other.counts.get(i);
+            if (count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+    }
+
+    public boolean hasSameBuckets(BucketHistogram other) {
+        return Arrays.equals(bounds, other.bounds);
+    }
+
+    /**
+     * Returns the non-empty buckets as JSON object mapping the lower bound of a bucket to its count.
+     * The first bucket (values below the first bound) uses the key "0".
+     */
+    public JSONObject toJSON() {
+        final JSONObject object = new JSONObject();
+
+        try {
+            for (int i = 0; i < counts.length(); i++) {
+                final long count = counts.get(i);
+                if (count > 0) {
+                    object.put(i == 0 ? "0" : String.valueOf(bounds[i - 1]), count);
+                }
+            }
+        } catch (JSONException e) {
+            throw new AssertionError("Can't create histogram JSON", e);
+        }
+
+        return object;
+    }
+}
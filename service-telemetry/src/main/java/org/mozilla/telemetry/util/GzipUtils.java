@@ -0,0 +1,39 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.util;
+
+import androidx.annotation.RestrictTo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public class GzipUtils {
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+
+    /**
+     * Returns true if the bytes at the given offset start with the gzip magic number. A serialized
+     * (JSON) ping can never start with these bytes.
+     */
+    public static boolean isGzip(byte[] data, int offset, int length) {
+        return length >= 2
+                && (data[offset] & 0xff) == GZIP_MAGIC_1
+                && (data[offset + 1] & 0xff) == GZIP_MAGIC_2;
+    }
+
+    public static byte[] gzip(byte[] data) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 32);
+            final GZIPOutputStream stream = new GZIPOutputStream(bytes);
+            stream.write(data);
+            stream.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new AssertionError("Can't gzip in memory", e);
+        }
+    }
+}
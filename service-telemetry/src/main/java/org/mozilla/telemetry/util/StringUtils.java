@@ -7,6 +7,8 @@ package org.mozilla.telemetry.util;
 import androidx.annotation.NonNull;
 import androidx.annotation.RestrictTo;
 
+import java.io.ByteArrayOutputStream;
+
 @RestrictTo(RestrictTo.Scope.LIBRARY)
 public class StringUtils {
     public static String safeSubstring(@NonNull final String str, final int start, final int end) {
@@ -14,4 +16,83 @@ public class StringUtils {
                 Math.max(0, start),
                 Math.min(end, str.length()));
     }
+
+    /**
+     * Returns the number of bytes of the given characters in UTF-8 (unpaired surrogates are
+     * replaced with '?' like String.getBytes() does).
+     */
+    public static int utf8Length(@NonNull final CharSequence chars) {
+        int length = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            final char c = chars.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars.length()
+                    && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Returns the number of bytes of the given range of characters in UTF-8, see
+     * {@link #utf8Length(CharSequence)}.
+     */
+    public static int utf8Length(@NonNull final char[] chars, final int offset, final int count) {
+        final int end = offset + count;
+        int length = 0;
+        for (int i = offset; i < end; i++) {
+            final char c = chars[i];
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(chars[i + 1])) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Write the given characters as UTF-8 to the output without creating an intermediate byte array.
+     */
+    public static void writeUtf8(@NonNull final ByteArrayOutputStream output, @NonNull final CharSequence chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            final char c = chars.charAt(i);
+            if (c < 0x80) {
+                output.write(c);
+            } else if (c < 0x800) {
+                output.write(0xC0 | (c >> 6));
+                output.write(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars.length()
+                    && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                output.write(0xF0 | (codePoint >> 18));
+                output.write(0x80 | ((codePoint >> 12) & 0x3F));
+                output.write(0x80 | ((codePoint >> 6) & 0x3F));
+                output.write(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                output.write('?');
+            } else {
+                output.write(0xE0 | (c >> 12));
+                output.write(0x80 | ((c >> 6) & 0x3F));
+                output.write(0x80 | (c & 0x3F));
+            }
+        }
+    }
 }
@@ -0,0 +1,125 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.ping.TelemetryMobileMetricsPingBuilder;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.ping.TelemetryPingBuilder;
+import org.mozilla.telemetry.serialize.JSONPingSerializer;
+import org.mozilla.telemetry.storage.FileTelemetryStorage;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class TelemetryInternalMetricsTest {
+    @Test
+    public void testSnapshotContainsRecordedValues() throws Exception {
+        final TelemetryInternalMetrics metrics = new TelemetryInternalMetrics();
+
+        metrics.recordStore("core", 1, 1000, 3);
+        metrics.recordStore("core", 2, 500, 70);
+        metrics.recordPrune("event", 4);
+        metrics.recordEventsPerPing(25);
+        metrics.recordUpload(120, 200, 1000);
+        metrics.recordUpload(80, 500, 300);
+        metrics.recordUpload(30000, -1, 700);
+
+        final TelemetryInternalMetrics.Snapshot snapshot = metrics.getSnapshot();
+
+        // Later values are not part of the snapshot.
+        metrics.recordStore("core", 1, 1000, 3);
+
+        assertEquals(3, snapshot.getStoredPings("core"));
+        assertEquals(1500, snapshot.getStoredBytes("core"));
+        assertEquals(4, snapshot.getPrunedPings("event"));
+        assertEquals(0, snapshot.getStoredPings("event"));
+        assertEquals(2, snapshot.getStoreLatency().getTotalCount());
+        assertEquals(1, snapshot.getEventsPerPing().getTotalCount());
+        assertEquals(1, snapshot.getUploads(2));
+        assertEquals(1, snapshot.getUploads(5));
+        assertEquals(1, snapshot.getFailedUploads());
+        assertEquals(1300, snapshot.getUploadedBytes());
+
+        final JSONObject json = snapshot.toJSON();
+        assertEquals(1, json.getJSONObject("storeLatency").getLong("2"));
+        assertEquals(1, json.getJSONObject("storeLatency").getLong("50"));
+        assertEquals(3, json.getJSONObject("storedPings").getLong("core"));
+        assertEquals(4, json.getJSONObject("prunedPings").getLong("event"));
+        assertEquals(1, json.getJSONObject("eventsPerPing").getLong("20"));
+        assertEquals(1, json.getJSONObject("uploadStatus").getLong("2xx"));
+        assertEquals(1, json.getJSONObject("uploadStatus").getLong("error"));
+        assertEquals(1, json.getJSONObject("uploadLatency").getLong("30000"));
+    }
+
+    @Test
+    public void testRecordingDoesNotAllocate() {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        final TelemetryInternalMetrics metrics = new TelemetryInternalMetrics();
+        record(metrics, 1000);
+
+        final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        record(metrics, 100000);
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+        assertEquals(101000, metrics.getSnapshot().getStoredPings("core"));
+    }
+
+    @Test
+    public void testStorageRecordsStoredAndPrunedPings() {
+        final TelemetryConfiguration configuration = new TelemetryConfiguration(RuntimeEnvironment.application)
+                .setMaximumNumberOfPingsPerType(1);
+        final FileTelemetryStorage storage = new FileTelemetryStorage(configuration, new JSONPingSerializer());
+        final TelemetryPingBuilder builder = new TelemetryPingBuilder(configuration, "test", 1) {};
+
+        storage.store(builder.build());
+        storage.store(builder.build());
+
+        final TelemetryInternalMetrics.Snapshot snapshot = configuration.getInternalMetrics().getSnapshot();
+        assertEquals(2, snapshot.getStoredPings("test"));
+        assertTrue(snapshot.getStoredBytes("test") > 0);
+        assertEquals(1, snapshot.getPrunedPings("test"));
+        assertEquals(2, snapshot.getStoreLatency().getTotalCount());
+    }
+
+    @Test
+    public void testMetricsAreAddedToMetricsPingIfEnabled() throws Exception {
+        final TelemetryConfiguration configuration = new TelemetryConfiguration(RuntimeEnvironment.application);
+        final TelemetryMobileMetricsPingBuilder builder = new TelemetryMobileMetricsPingBuilder(new JSONObject(), configuration);
+
+        configuration.getInternalMetrics().recordStore("core", 1, 1000, 3);
+
+        // Not enabled: The field has no value and is not serialized.
+        assertNull(builder.build().getMeasurementResults().get("internal"));
+
+        configuration.setInternalMetricsInMetricsPingEnabled(true);
+
+        final TelemetryPing ping = builder.build();
+        final JSONObject internal = (JSONObject) ping.getMeasurementResults().get("internal");
+        assertEquals(1000, internal.getJSONObject("storedBytes").optLong("core"));
+    }
+
+    private static void record(TelemetryInternalMetrics metrics, int times) {
+        for (int i = 0; i < times; i++) {
+            metrics.recordStore("core", 1, 1000, i % 100);
+            metrics.recordPrune("core", 1);
+            metrics.recordEventsPerPing(i % 500);
+            metrics.recordUpload(i % 2000, 200, 1000);
+        }
+    }
+}
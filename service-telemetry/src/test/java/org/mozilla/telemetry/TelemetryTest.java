@@ -0,0 +1,344 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.event.EventOverflowPolicy;
+import org.mozilla.telemetry.event.TelemetryEvent;
+import org.mozilla.telemetry.executor.TaskRejectionPolicy;
+import org.mozilla.telemetry.net.TelemetryClient;
+import org.mozilla.telemetry.ping.TelemetryCorePingBuilder;
+import org.mozilla.telemetry.ping.TelemetryMobileEventPingBuilder;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.schedule.TelemetryScheduler;
+import org.mozilla.telemetry.serialize.JSONPingSerializer;
+import org.mozilla.telemetry.storage.StoredPingStats;
+import org.mozilla.telemetry.storage.TelemetryStorage;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import mozilla.components.concept.fetch.Client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricTestRunner.class)
+public class TelemetryTest {
+    private TelemetryConfiguration configuration;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void testQueuedEventsAreRecorded() throws Exception {
+        final TelemetryMobileEventPingBuilder builder = new TelemetryMobileEventPingBuilder(configuration);
+        final Telemetry telemetry = createTelemetry().addPingBuilder(builder);
+
+        for (int i = 0; i < 10; i++) {
+            telemetry.queueEvent(TelemetryEvent.create("action", "click", "button"));
+        }
+
+        waitForExecutor(telemetry);
+
+        assertEquals(10, builder.getEventsMeasurement().getEventCount());
+        assertEquals(0, telemetry.getDroppedEventCount());
+    }
+
+    @Test
+    public void testIdenticalEventsAreAggregated() throws Exception {
+        configuration.setEventAggregationWindow("action", 60000);
+
+        final TelemetryMobileEventPingBuilder builder = new TelemetryMobileEventPingBuilder(configuration);
+        final RecordingStorage storage = new RecordingStorage(true);
+        final Telemetry telemetry = createTelemetry(storage).addPingBuilder(builder);
+
+        for (int i = 0; i < 10; i++) {
+            telemetry.queueEvent(TelemetryEvent.create("action", "click", "menu"));
+            telemetry.queueEvent(TelemetryEvent.create("other", "click", "menu"));
+        }
+
+        waitForExecutor(telemetry);
+
+        // The aggregated events are held back until the ping is built.
+        assertEquals(10, builder.getEventsMeasurement().getEventCount());
+
+        telemetry.queuePing(TelemetryMobileEventPingBuilder.TYPE);
+        waitForExecutor(telemetry);
+
+        assertEquals(1, storage.pings.size());
+        final JSONArray events = storage.pings.get(0).getJSONArray("events");
+        assertEquals(11, events.length());
+
+        final JSONArray aggregated = events.getJSONArray(10);
+        assertEquals("action", aggregated.getString(1));
+        assertEquals("10", aggregated.getJSONObject(5).getString("count"));
+    }
+
+    @Test
+    public void testEventsAreDroppedIfQueueIsFull() throws Exception {
+        configuration
+                .setEventQueueCapacity(4)
+                .setEventOverflowPolicy(EventOverflowPolicy.DROP_NEWEST);
+
+        final TelemetryMobileEventPingBuilder builder = new TelemetryMobileEventPingBuilder(configuration);
+        final Telemetry telemetry = createTelemetry().addPingBuilder(builder);
+
+        // Keep the executor busy so that queued events pile up.
+        final CountDownLatch latch = new CountDownLatch(1);
+        telemetry.getExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            telemetry.queueEvent(TelemetryEvent.create("action", "click", "button"));
+        }
+
+        latch.countDown();
+        waitForExecutor(telemetry);
+
+        assertEquals(4, builder.getEventsMeasurement().getEventCount());
+        assertEquals(6, telemetry.getDroppedEventCount());
+    }
+
+    @Test
+    public void testLargeBacklogIsSplitIntoMultiplePings() throws Exception {
+        configuration.setMaximumNumberOfEventsPerPing(10);
+
+        final TelemetryMobileEventPingBuilder builder = new TelemetryMobileEventPingBuilder(configuration);
+        final RecordingStorage storage = new RecordingStorage(true);
+
+        final Telemetry telemetry = createTelemetry(storage).addPingBuilder(builder);
+
+        for (int i = 0; i < 25; i++) {
+            builder.getEventsMeasurement().add(TelemetryEvent.create("action", "click", "button"));
+        }
+
+        telemetry.queuePing(TelemetryMobileEventPingBuilder.TYPE);
+        waitForExecutor(telemetry);
+
+        assertEquals(3, storage.pings.size());
+        assertEquals(10, storage.pings.get(0).getJSONArray("events").length());
+        assertEquals(10, storage.pings.get(1).getJSONArray("events").length());
+        assertEquals(5, storage.pings.get(2).getJSONArray("events").length());
+        assertNotEquals(storage.documentIds.get(0), storage.documentIds.get(1));
+        assertEquals(0, builder.getEventsMeasurement().getEventCount());
+    }
+
+    @Test
+    public void testEventsAreKeptIfPingCannotBeStored() throws Exception {
+        final TelemetryMobileEventPingBuilder builder = new TelemetryMobileEventPingBuilder(configuration);
+        final RecordingStorage storage = new RecordingStorage(false, true);
+
+        final Telemetry telemetry = createTelemetry(storage).addPingBuilder(builder);
+
+        for (int i = 0; i < 5; i++) {
+            builder.getEventsMeasurement().add(TelemetryEvent.create("action", "click", "button"));
+        }
+
+        telemetry.queuePing(TelemetryMobileEventPingBuilder.TYPE);
+        waitForExecutor(telemetry);
+
+        assertEquals(5, builder.getEventsMeasurement().getEventCount());
+
+        telemetry.queuePing(TelemetryMobileEventPingBuilder.TYPE);
+        waitForExecutor(telemetry);
+
+        // The same events are stored again with the same document id.
+        assertEquals(2, storage.pings.size());
+        assertEquals(storage.documentIds.get(0), storage.documentIds.get(1));
+        assertEquals(5, storage.pings.get(1).getJSONArray("events").length());
+        assertEquals(0, builder.getEventsMeasurement().getEventCount());
+    }
+
+    @Test
+    public void testEventsAreDrainedAfterDrainTaskHasBeenDropped() throws Exception {
+        configuration
+                .setExecutorQueueCapacity(2)
+                .setExecutorRejectionPolicy(TaskRejectionPolicy.DROP_NEWEST);
+
+        final TelemetryMobileEventPingBuilder builder = new TelemetryMobileEventPingBuilder(configuration);
+        final Telemetry telemetry = createTelemetry().addPingBuilder(builder);
+
+        // Keep the executor busy and fill its queue: The task draining the events is dropped.
+        final CountDownLatch latch = new CountDownLatch(1);
+        telemetry.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        for (int i = 0; i < 2; i++) {
+            telemetry.getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {}
+            });
+        }
+
+        telemetry.queueEvent(TelemetryEvent.create("action", "click", "button"));
+        assertEquals(1, telemetry.getStats().getDroppedTasks());
+
+        latch.countDown();
+        while (telemetry.getStats().getQueueDepth() > 0) {
+            Thread.sleep(10);
+        }
+        waitForExecutor(telemetry);
+
+        telemetry.queueEvent(TelemetryEvent.create("action", "click", "button"));
+        waitForExecutor(telemetry);
+
+        assertEquals(2, builder.getEventsMeasurement().getEventCount());
+    }
+
+    @Test
+    public void testFullPingIsStoredFromDrainTaskWhileQueueIsFull() throws Exception {
+        configuration
+                .setExecutorQueueCapacity(2)
+                .setExecutorRejectionPolicy(TaskRejectionPolicy.BLOCK)
+                .setMaximumNumberOfEventsPerPing(5);
+
+        final TelemetryMobileEventPingBuilder builder = new TelemetryMobileEventPingBuilder(configuration);
+        final RecordingStorage storage = new RecordingStorage(true);
+        final Telemetry telemetry = createTelemetry(storage).addPingBuilder(builder);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        telemetry.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+
+        // The queue holds the drain task and one more task: Once the drain task runs, the first
+        // task it queued would fill the queue and the second one would block the executor thread.
+        for (int i = 0; i < 12; i++) {
+            telemetry.queueEvent(TelemetryEvent.create("action", "click", "button"));
+        }
+        telemetry.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {}
+        });
+        assertEquals(2, telemetry.getStats().getQueueDepth());
+
+        latch.countDown();
+        waitForExecutor(telemetry);
+
+        assertEquals(2, storage.pings.size());
+        assertEquals(5, storage.pings.get(0).getJSONArray("events").length());
+        assertEquals(5, storage.pings.get(1).getJSONArray("events").length());
+        assertEquals(2, builder.getEventsMeasurement().getEventCount());
+        assertEquals(0, telemetry.getStats().getDroppedTasks());
+    }
+
+    @Test
+    public void testExecutorStatsAreAddedToCorePing() throws Exception {
+        final TelemetryCorePingBuilder builder = new TelemetryCorePingBuilder(configuration);
+        final RecordingStorage storage = new RecordingStorage(true);
+        final Telemetry telemetry = createTelemetry(storage).addPingBuilder(builder);
+
+        telemetry.queuePing(TelemetryCorePingBuilder.TYPE);
+        waitForExecutor(telemetry);
+
+        assertFalse(storage.pings.get(0).has("executorStats"));
+
+        configuration.setExecutorStatsInCorePingEnabled(true);
+
+        telemetry.queuePing(TelemetryCorePingBuilder.TYPE);
+        waitForExecutor(telemetry);
+
+        final JSONObject stats = storage.pings.get(1).getJSONObject("executorStats");
+        assertEquals(1024, stats.getInt("queueCapacity"));
+        assertTrue(stats.getLong("executed") >= 2);
+        assertEquals(0, stats.getLong("rejected"));
+        assertTrue(stats.getJSONObject("waitTime").length() > 0);
+    }
+
+    private Telemetry createTelemetry() {
+        return createTelemetry(mock(TelemetryStorage.class));
+    }
+
+    private Telemetry createTelemetry(TelemetryStorage storage) {
+        return new Telemetry(configuration, storage, new TelemetryClient(mock(Client.class)),
+                mock(TelemetryScheduler.class));
+    }
+
+    /**
+     * Storage serializing pings when they are stored (like the real implementations do) and
+     * returning the given results.
+     */
+    private static class RecordingStorage implements TelemetryStorage {
+        private final boolean[] results;
+        private final List<JSONObject> pings = new ArrayList<>();
+        private final List<String> documentIds = new ArrayList<>();
+
+        private RecordingStorage(boolean... results) {
+            this.results = results;
+        }
+
+        @Override
+        public boolean store(TelemetryPing ping) {
+            try {
+                pings.add(new JSONObject(new JSONPingSerializer().serialize(ping)));
+            } catch (JSONException e) {
+                throw new AssertionError(e);
+            }
+            documentIds.add(ping.getDocumentId());
+
+            return results[Math.min(pings.size(), results.length) - 1];
+        }
+
+        @Override
+        public boolean process(String pingType, TelemetryStorageCallback callback) {
+            return true;
+        }
+
+        @Override
+        public int countStoredPings(String pingType) {
+            return pings.size();
+        }
+
+        @Override
+        public StoredPingStats getStoredPingStats(String pingType) {
+            return new StoredPingStats(pings.size(), 0, 0);
+        }
+    }
+
+    private static void waitForExecutor(Telemetry telemetry) throws Exception {
+        telemetry.getExecutor().submit(new Runnable() {
+            @Override
+            public void run() {}
+        }).get(5, TimeUnit.SECONDS);
+    }
+}
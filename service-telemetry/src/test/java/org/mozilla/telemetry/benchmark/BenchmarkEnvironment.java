@@ -0,0 +1,154 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.benchmark;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.event.TelemetryEvent;
+import org.mozilla.telemetry.measurement.EventsMeasurement;
+import org.mozilla.telemetry.measurement.StaticMeasurement;
+import org.mozilla.telemetry.ping.TelemetryMobileEventPingBuilder;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.ping.TelemetryPingBuilder;
+import org.mozilla.telemetry.measurement.SettingsMeasurement;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Creates a TelemetryConfiguration that works on the plain JVM: The Android types the library
+ * touches are mocked and the shared preferences are kept in memory. Everything else comes from the
+ * mockable android.jar (returning default values).
+ */
+final class BenchmarkEnvironment {
+    private BenchmarkEnvironment() {}
+
+    static TelemetryConfiguration createConfiguration() {
+        try {
+            final File dataDirectory = File.createTempFile("telemetry-benchmark", "");
+            if (!dataDirectory.delete() || !dataDirectory.mkdirs()) {
+                throw new IOException("Could not create data directory: " + dataDirectory);
+            }
+
+            final ApplicationInfo applicationInfo = mock(ApplicationInfo.class);
+            applicationInfo.dataDir = dataDirectory.getAbsolutePath();
+            doReturn("Benchmark").when(applicationInfo).loadLabel(org.mockito.ArgumentMatchers.<PackageManager>any());
+
+            final PackageInfo packageInfo = new PackageInfo();
+            packageInfo.versionName = "1.0";
+            packageInfo.versionCode = 1;
+
+            final PackageManager packageManager = mock(PackageManager.class);
+            doReturn(packageInfo).when(packageManager).getPackageInfo(anyString(), anyInt());
+            doReturn(applicationInfo).when(packageManager).getApplicationInfo(anyString(), anyInt());
+
+            final SharedPreferences preferences = new InMemorySharedPreferences();
+
+            final Context context = mock(Context.class);
+            doReturn(context).when(context).getApplicationContext();
+            doReturn("org.mozilla.telemetry.benchmark").when(context).getPackageName();
+            doReturn(packageManager).when(context).getPackageManager();
+            doReturn(applicationInfo).when(context).getApplicationInfo();
+            doReturn(preferences).when(context).getSharedPreferences(anyString(), anyInt());
+
+            return new TelemetryConfiguration(context)
+                    .setSettingsProvider(new PreferencesSettingsProvider(preferences));
+        } catch (IOException | PackageManager.NameNotFoundException e) {
+            throw new AssertionError("Could not set up benchmark environment", e);
+        }
+    }
+
+    /**
+     * Record the given number of events (similar to the events recorded by the app).
+     */
+    static void recordEvents(EventsMeasurement measurement, int count) {
+        for (int i = 0; i < count; i++) {
+            measurement.add(createEvent(i));
+        }
+    }
+
+    static TelemetryEvent createEvent(int index) {
+        return TelemetryEvent.create("action", "click", "erase_button", "menu")
+                .extra("source", "benchmark")
+                .extra("index", String.valueOf(index));
+    }
+
+    /**
+     * Returns a builder that builds event pings with the given number of events. Every ping has a
+     * new document id but the same measurement results: Building a ping is cheap and does not
+     * consume the recorded events.
+     */
+    static TelemetryPingBuilder createEventPingReplayBuilder(TelemetryConfiguration configuration, int events) {
+        final TelemetryMobileEventPingBuilder builder = new TelemetryMobileEventPingBuilder(configuration);
+        recordEvents(builder.getEventsMeasurement(), events);
+
+        final TelemetryPing ping = builder.build();
+
+        return new TelemetryPingBuilder(configuration, ping.getType(), 1) {
+            {
+                for (Map.Entry<String, Object> result : ping.getMeasurementResults().entrySet()) {
+                    addMeasurement(new StaticMeasurement(result.getKey(), result.getValue()));
+                }
+            }
+        };
+    }
+
+    /**
+     * Delete the data directory of the given configuration.
+     */
+    static void cleanUp(TelemetryConfiguration configuration) {
+        delete(configuration.getDataDirectory().getParentFile());
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    /**
+     * SettingsProvider reading from the in-memory preferences (The default provider uses
+     * PreferenceManager which is not available on the JVM).
+     */
+    private static class PreferencesSettingsProvider implements SettingsMeasurement.SettingsProvider {
+        private final SharedPreferences preferences;
+
+        private PreferencesSettingsProvider(SharedPreferences preferences) {
+            this.preferences = preferences;
+        }
+
+        @Override
+        public void update(TelemetryConfiguration configuration) {}
+
+        @Override
+        public boolean containsKey(String key) {
+            return preferences.contains(key);
+        }
+
+        @Override
+        public Object getValue(String key) {
+            return preferences.getAll().get(key);
+        }
+
+        @Override
+        public void release() {}
+    }
+}
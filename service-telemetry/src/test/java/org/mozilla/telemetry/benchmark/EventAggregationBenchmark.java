@@ -0,0 +1,151 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.benchmark;
+
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.event.EventAggregator;
+import org.mozilla.telemetry.event.TelemetryEvent;
+import org.mozilla.telemetry.measurement.EventsMeasurement;
+import org.mozilla.telemetry.ping.TelemetryMobileEventPingBuilder;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.serialize.JSONPingSerializer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a browsing session (similar to the events recorded by the app) with and without event
+ * aggregation: Every session is recorded, written to disk and added to an event ping.
+ *
+ * Next to the time per session the benchmark reports (as totals of all replayed sessions) the
+ * number of event records written to the journal, the bytes written to the journal and the bytes
+ * of the serialized pings. Divide them by "sessions" to compare the two modes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventAggregationBenchmark {
+    private static final String CATEGORY = "action";
+
+    @Param({"off", "on"})
+    public String aggregation;
+
+    private TelemetryConfiguration configuration;
+    private TelemetryMobileEventPingBuilder builder;
+    private EventAggregator aggregator;
+    private final List<TelemetryEvent> output = new ArrayList<>();
+    private final JSONPingSerializer serializer = new JSONPingSerializer();
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long sessions;
+        public long journalRecords;
+        public long journalBytes;
+        public long pingBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            sessions = 0;
+            journalRecords = 0;
+            journalBytes = 0;
+            pingBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        configuration = BenchmarkEnvironment.createConfiguration();
+        if ("on".equals(aggregation)) {
+            configuration.setEventAggregationWindow(CATEGORY, TimeUnit.MINUTES.toMillis(1));
+        }
+
+        builder = new TelemetryMobileEventPingBuilder(configuration);
+        aggregator = new EventAggregator(configuration);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkEnvironment.cleanUp(configuration);
+    }
+
+    @Benchmark
+    public void replaySession(Counters counters) {
+        final EventsMeasurement measurement = builder.getEventsMeasurement();
+        final File journal = new File(configuration.getDataDirectory(), "events1");
+        final long journalLength = journal.length();
+
+        for (TelemetryEvent event : createSession()) {
+            aggregator.add(event, output);
+        }
+        aggregator.takeAll(output);
+
+        for (int i = 0; i < output.size(); i++) {
+            measurement.add(output.get(i));
+        }
+        output.clear();
+
+        measurement.flushPendingEvents();
+
+        counters.sessions++;
+        counters.journalRecords += measurement.getEventCount();
+        counters.journalBytes += Math.max(0, journal.length() - journalLength);
+
+        do {
+            final TelemetryPing ping = builder.build();
+            counters.pingBytes += serializer.serialize(ping).length();
+            builder.onPingStored();
+        } while (builder.hasRemainingEvents());
+    }
+
+    /**
+     * The events of a session: Repeated taps on the same UI elements, tips and toggled settings
+     * next to a few unique events.
+     */
+    private static List<TelemetryEvent> createSession() {
+        final List<TelemetryEvent> events = new ArrayList<>();
+
+        for (int page = 0; page < 5; page++) {
+            events.add(TelemetryEvent.create(CATEGORY, "type_url", "search_bar")
+                    .extra("autocomplete", String.valueOf(page % 2 == 0)));
+
+            for (int i = 0; i < 4; i++) {
+                events.add(TelemetryEvent.create(CATEGORY, "click", "menu"));
+                events.add(TelemetryEvent.create(CATEGORY, "show", "tip", "tip_" + (i % 2)));
+            }
+
+            for (int i = 0; i < 3; i++) {
+                events.add(TelemetryEvent.create(CATEGORY, "click", "back_button"));
+            }
+
+            events.add(TelemetryEvent.create(CATEGORY, "change", "setting", "pref_block_ads")
+                    .extra("to", String.valueOf(page % 2 == 0)));
+        }
+
+        events.add(TelemetryEvent.create(CATEGORY, "click", "erase_button")
+                .extra("tabs", "5"));
+
+        return events;
+    }
+}
@@ -0,0 +1,90 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.benchmark;
+
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.event.TelemetryEvent;
+import org.mozilla.telemetry.measurement.EventsMeasurement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for creating and recording a single event. Writing an event to a re-used builder
+ * should not allocate at all (see the allocation rate reported by the jmh task).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBenchmark {
+    private TelemetryConfiguration configuration;
+    private EventsMeasurement measurement;
+    private TelemetryEvent event;
+    private final StringBuilder builder = new StringBuilder();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        configuration = BenchmarkEnvironment.createConfiguration();
+        measurement = new EventsMeasurement(configuration);
+        event = BenchmarkEnvironment.createEvent(0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearEvents() {
+        // Do not let the journal grow across iterations.
+        while (measurement.getEventCount() > 0) {
+            measurement.flush();
+            measurement.commitFlush();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkEnvironment.cleanUp(configuration);
+    }
+
+    @Benchmark
+    public String createEventAndSerialize() {
+        return TelemetryEvent.create("action", "click", "erase_button")
+                .extra("source", "menu")
+                .toJSON();
+    }
+
+    @Benchmark
+    public StringBuilder createEventAndWrite() throws IOException {
+        builder.setLength(0);
+        TelemetryEvent.create("action", "click", "erase_button")
+                .extra("source", "menu")
+                .writeTo(builder);
+        return builder;
+    }
+
+    @Benchmark
+    public StringBuilder writeEvent() throws IOException {
+        builder.setLength(0);
+        event.writeTo(builder);
+        return builder;
+    }
+
+    @Benchmark
+    public EventsMeasurement addEvent() {
+        return measurement.add(event);
+    }
+}
@@ -0,0 +1,108 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.benchmark;
+
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.ping.TelemetryMobileEventPingBuilder;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.serialize.JSONPingSerializer;
+import org.mozilla.telemetry.serialize.StreamingJSONPingSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for building and serializing an event ping with a varying number of events.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PingBenchmark {
+    @State(Scope.Thread)
+    public static class BuildState {
+        @Param({"1", "100", "500"})
+        public int events;
+
+        private TelemetryConfiguration configuration;
+        private TelemetryMobileEventPingBuilder builder;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            configuration = BenchmarkEnvironment.createConfiguration();
+            builder = new TelemetryMobileEventPingBuilder(configuration);
+        }
+
+        @Setup(Level.Invocation)
+        public void recordEvents() {
+            BenchmarkEnvironment.recordEvents(builder.getEventsMeasurement(), events);
+        }
+
+        @TearDown(Level.Invocation)
+        public void consumeEvents() {
+            // The ping would have been stored now: Remove its events before the next invocation.
+            builder.onPingStored();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            BenchmarkEnvironment.cleanUp(configuration);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SerializeState {
+        @Param({"1", "100", "500"})
+        public int events;
+
+        private TelemetryConfiguration configuration;
+        private TelemetryPing ping;
+
+        private final JSONPingSerializer jsonSerializer = new JSONPingSerializer();
+        private final StreamingJSONPingSerializer streamingSerializer = new StreamingJSONPingSerializer();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            configuration = BenchmarkEnvironment.createConfiguration();
+
+            final TelemetryMobileEventPingBuilder builder = new TelemetryMobileEventPingBuilder(configuration);
+            BenchmarkEnvironment.recordEvents(builder.getEventsMeasurement(), events);
+            ping = builder.build();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            BenchmarkEnvironment.cleanUp(configuration);
+        }
+    }
+
+    @Benchmark
+    public TelemetryPing build(BuildState state) {
+        return state.builder.build();
+    }
+
+    @Benchmark
+    public String serializeJSON(SerializeState state) {
+        return state.jsonSerializer.serialize(state.ping);
+    }
+
+    @Benchmark
+    public String serializeStreaming(SerializeState state) {
+        return state.streamingSerializer.serialize(state.ping);
+    }
+}
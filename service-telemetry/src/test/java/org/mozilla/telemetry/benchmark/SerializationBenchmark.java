@@ -0,0 +1,104 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.benchmark;
+
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.ping.TelemetryCorePingBuilder;
+import org.mozilla.telemetry.ping.TelemetryMobileEventPingBuilder;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.serialize.BinaryPingSerializer;
+import org.mozilla.telemetry.serialize.CborPingSerializer;
+import org.mozilla.telemetry.serialize.PingSerializerRegistry;
+import org.mozilla.telemetry.serialize.StreamingJSONPingSerializer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the JSON and CBOR serializers for a core ping and an event ping with 500 events. Next
+ * to the time per ping the benchmark reports the size of the serialized ping.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+    @Param({"core", "event"})
+    public String ping;
+
+    @Param({"json", "cbor"})
+    public String format;
+
+    private TelemetryConfiguration configuration;
+    private TelemetryPing telemetryPing;
+    private BinaryPingSerializer serializer;
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream(64 * 1024);
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long pings;
+        public long pingBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            pings = 0;
+            pingBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        configuration = BenchmarkEnvironment.createConfiguration();
+
+        if ("core".equals(ping)) {
+            telemetryPing = new TelemetryCorePingBuilder(configuration).build();
+        } else {
+            final TelemetryMobileEventPingBuilder builder = new TelemetryMobileEventPingBuilder(configuration);
+            BenchmarkEnvironment.recordEvents(builder.getEventsMeasurement(), 500);
+            telemetryPing = builder.build();
+        }
+
+        final PingSerializerRegistry serializers = new PingSerializerRegistry(new StreamingJSONPingSerializer())
+                .register(new CborPingSerializer());
+        serializer = serializers.get("cbor".equals(format)
+                ? CborPingSerializer.CONTENT_TYPE
+                : PingSerializerRegistry.CONTENT_TYPE_JSON);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkEnvironment.cleanUp(configuration);
+    }
+
+    @Benchmark
+    public int serialize(Counters counters) throws IOException {
+        output.reset();
+        serializer.serialize(telemetryPing, output);
+
+        counters.pings++;
+        counters.pingBytes += output.size();
+
+        return output.size();
+    }
+}
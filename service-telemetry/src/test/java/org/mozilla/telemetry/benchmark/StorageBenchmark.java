@@ -0,0 +1,156 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.benchmark;
+
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.ping.TelemetryPingBuilder;
+import org.mozilla.telemetry.serialize.JSONPingSerializer;
+import org.mozilla.telemetry.serialize.StreamingJSONPingSerializer;
+import org.mozilla.telemetry.serialize.TelemetryPingSerializer;
+import org.mozilla.telemetry.storage.FileTelemetryStorage;
+import org.mozilla.telemetry.storage.StoredPing;
+import org.mozilla.telemetry.storage.TelemetryStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for storing and processing (loading) an event ping with FileTelemetryStorage. The
+ * storeWithStoredPings benchmark shows whether the cost of storing a ping grows with the number of
+ * pings that are already stored.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+    @Param({"1", "100", "500"})
+    public int events;
+
+    @Param({"json", "streaming"})
+    public String serializer;
+
+    private TelemetryConfiguration configuration;
+    private FileTelemetryStorage storage;
+    private TelemetryPingBuilder builder;
+
+    private final TelemetryStorage.TelemetryStorageCallback callback = new TelemetryStorage.TelemetryStorageCallback() {
+        @Override
+        public boolean onTelemetryPingLoaded(StoredPing ping) {
+            return true;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        configuration = BenchmarkEnvironment.createConfiguration();
+
+        final TelemetryPingSerializer pingSerializer = "streaming".equals(serializer)
+                ? new StreamingJSONPingSerializer()
+                : new JSONPingSerializer();
+        storage = new FileTelemetryStorage(configuration, pingSerializer);
+
+        builder = BenchmarkEnvironment.createEventPingReplayBuilder(configuration, events);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkEnvironment.cleanUp(configuration);
+    }
+
+    @State(Scope.Thread)
+    public static class NewPingState {
+        private TelemetryPing ping;
+
+        @Setup(Level.Invocation)
+        public void buildPing(StorageBenchmark benchmark) {
+            ping = benchmark.builder.build();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FillLevelState {
+        // The number of pings of the type that are stored when the next ping is stored.
+        @Param({"0", "20", "39"})
+        public int storedPings;
+
+        private TelemetryPing ping;
+
+        @Setup(Level.Invocation)
+        public void fill(StorageBenchmark benchmark) {
+            final String pingType = benchmark.builder.getType();
+
+            while (benchmark.storage.countStoredPings(pingType) > storedPings) {
+                benchmark.storage.process(pingType, new TelemetryStorage.TelemetryStorageCallback() {
+                    private boolean processed;
+
+                    @Override
+                    public boolean onTelemetryPingLoaded(StoredPing ping) {
+                        // Remove a single ping.
+                        if (processed) {
+                            return false;
+                        }
+                        processed = true;
+                        return true;
+                    }
+                });
+            }
+
+            while (benchmark.storage.countStoredPings(pingType) < storedPings) {
+                benchmark.storage.store(benchmark.builder.build());
+            }
+
+            ping = benchmark.builder.build();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class StoredPingState {
+        @Setup(Level.Invocation)
+        public void storePing(StorageBenchmark benchmark) {
+            benchmark.storage.store(benchmark.builder.build());
+        }
+    }
+
+    /**
+     * Store a ping. Once the maximum number of pings is reached every store also prunes the oldest
+     * ping.
+     */
+    @Benchmark
+    public void store(NewPingState state) {
+        storage.store(state.ping);
+    }
+
+    /**
+     * Store a ping while a fixed number of pings (below the maximum) is stored already.
+     */
+    @Benchmark
+    public void storeWithStoredPings(FillLevelState state) {
+        storage.store(state.ping);
+    }
+
+    /**
+     * Load and remove one stored ping.
+     */
+    @Benchmark
+    public boolean process(StoredPingState state) {
+        return storage.process(builder.getType(), callback);
+    }
+}
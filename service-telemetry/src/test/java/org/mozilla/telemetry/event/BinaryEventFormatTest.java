@@ -0,0 +1,214 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.event;
+
+import org.json.JSONArray;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class BinaryEventFormatTest {
+    @Test
+    public void testEventsAreDecodedToSameJSON() throws Exception {
+        final TelemetryEvent[] events = new TelemetryEvent[] {
+                TelemetryEvent.create("action", "click", "menu"),
+                TelemetryEvent.create("action", "click", null),
+                TelemetryEvent.create("action", "change", "setting", "pref_search_engine"),
+                TelemetryEvent.create("action", "change", "setting").extra("to", "true"),
+                TelemetryEvent.create("action", "click", "menu", "a\"b\\c/d\n\u0001é€😀")
+                        .extra("source", "tab").extra("count", "3"),
+        };
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final BinaryEventFormat.Encoder encoder = new BinaryEventFormat.Encoder();
+
+        for (TelemetryEvent event : events) {
+            ShadowSystemClock.advanceBy(Duration.ofMillis(1234));
+            encoder.encode(event, output);
+        }
+
+        final BinaryEventFormat.Reader reader = new BinaryEventFormat.Reader(new ByteArrayInputStream(output.toByteArray()));
+
+        for (TelemetryEvent event : events) {
+            do {
+                assertTrue(reader.next());
+            } while (!reader.isEvent());
+
+            final StringBuilder json = new StringBuilder();
+            reader.writeJSON(json);
+
+            assertEquals(event.toJSON(), json.toString());
+            assertEquals(new JSONArray(event.toJSON()).toString(), new JSONArray(json.toString()).toString());
+        }
+
+        assertFalse(reader.next());
+        assertEquals(output.size(), reader.getPosition());
+    }
+
+    @Test
+    public void testIdentifiersAreOnlyWrittenOnce() {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final BinaryEventFormat.Encoder encoder = new BinaryEventFormat.Encoder();
+
+        encoder.encode(TelemetryEvent.create("action", "click", "erase_button"), output);
+        final int firstSize = output.size();
+
+        output.reset();
+        encoder.encode(TelemetryEvent.create("action", "click", "erase_button"), output);
+
+        assertTrue(firstSize > "actionclickerase_button".length());
+        assertTrue("Event frame has " + output.size() + " bytes", output.size() <= 6);
+    }
+
+    @Test
+    public void testIncompleteFrameIsNotRead() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final BinaryEventFormat.Encoder encoder = new BinaryEventFormat.Encoder();
+        encoder.encode(TelemetryEvent.create("action", "click", "menu", "value"), output);
+
+        final byte[] data = output.toByteArray();
+        final byte[] truncated = new byte[data.length - 2];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+
+        final BinaryEventFormat.Reader reader = new BinaryEventFormat.Reader(new ByteArrayInputStream(truncated));
+
+        int events = 0;
+        while (reader.next()) {
+            if (reader.isEvent()) {
+                events++;
+            }
+        }
+
+        assertEquals(0, events);
+        assertTrue(reader.getPosition() < truncated.length);
+    }
+
+    @Test
+    public void testTornFrameHeaderWithHugeLengthIsNotRead() throws Exception {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new BinaryEventFormat.Encoder().encode(TelemetryEvent.create("action", "click", "menu"), output);
+        final int validLength = output.size();
+
+        // A frame header claiming a length of almost 2 GB followed by a few bytes of garbage.
+        long header = ((long) (Integer.MAX_VALUE - 1) << 2) | BinaryEventFormat.FRAME_EVENT;
+        while (header >= 0x80) {
+            output.write((int) (header & 0x7F) | 0x80);
+            header >>>= 7;
+        }
+        output.write((int) header);
+        output.write(new byte[] { 1, 2, 3 });
+        final byte[] data = output.toByteArray();
+
+        final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+
+        assertEquals(1, countEvents(new BinaryEventFormat.Reader(new ByteArrayInputStream(data), data.length), validLength));
+        assertEquals(1, countEvents(new BinaryEventFormat.Reader(new ByteArrayInputStream(data)), validLength));
+
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        assertTrue("Reading allocated " + allocated + " bytes", allocated < 1024 * 1024);
+    }
+
+    @Test
+    public void testReadingContinuesAtCheckpoint() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final BinaryEventFormat.Encoder encoder = new BinaryEventFormat.Encoder();
+        encoder.encode(TelemetryEvent.create("action", "click", "menu"), output);
+        encoder.encode(TelemetryEvent.create("action", "change", "setting").extra("to", "true"), output);
+        encoder.encode(TelemetryEvent.create("action", "click", "menu", "value"), output);
+        final byte[] data = output.toByteArray();
+
+        final BinaryEventFormat.Reader reader = new BinaryEventFormat.Reader(new ByteArrayInputStream(data), data.length);
+        do {
+            assertTrue(reader.next());
+        } while (!reader.isEvent());
+
+        final BinaryEventFormat.Checkpoint checkpoint = reader.checkpoint();
+
+        // The first reader keeps reading (and extends its dictionary) ...
+        final StringBuilder expected = new StringBuilder();
+        while (reader.next()) {
+            if (reader.isEvent()) {
+                reader.writeJSON(expected);
+            }
+        }
+
+        // ... which does not change the dictionary of the checkpoint.
+        final ByteArrayInputStream input = new ByteArrayInputStream(data);
+        assertEquals(checkpoint.getPosition(), input.skip(checkpoint.getPosition()));
+
+        final BinaryEventFormat.Reader resumed = new BinaryEventFormat.Reader(input, data.length, checkpoint);
+        final StringBuilder actual = new StringBuilder();
+        while (resumed.next()) {
+            if (resumed.isEvent()) {
+                resumed.writeJSON(actual);
+            }
+        }
+
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(data.length, resumed.getPosition());
+    }
+
+    @Test
+    public void testEncodingDoesNotCreateJSON() {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        final TelemetryEvent event = TelemetryEvent.create("action", "click", "menu", "value")
+                .extra("source", "tab");
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final BinaryEventFormat.Encoder encoder = new BinaryEventFormat.Encoder();
+
+        encode(encoder, event, output, 10000);
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        encode(encoder, event, output, 10000);
+        final long encodeAllocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 10000; i++) {
+            event.toJSON();
+        }
+        final long jsonAllocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        // Less than a byte per event: Nothing is allocated per event once the dictionary is complete.
+        assertTrue("Encoding allocated " + encodeAllocated + " bytes", encodeAllocated < 10000);
+        assertTrue("Encoding allocated " + encodeAllocated + " bytes, JSON " + jsonAllocated,
+                encodeAllocated < jsonAllocated);
+    }
+
+    private static int countEvents(BinaryEventFormat.Reader reader, long expectedPosition) throws Exception {
+        int events = 0;
+        while (reader.next()) {
+            if (reader.isEvent()) {
+                events++;
+            }
+        }
+        assertEquals(expectedPosition, reader.getPosition());
+        return events;
+    }
+
+    private static void encode(BinaryEventFormat.Encoder encoder, TelemetryEvent event,
+                               ByteArrayOutputStream output, int count) {
+        for (int i = 0; i < count; i++) {
+            output.reset();
+            encoder.encode(event, output);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.event;
+
+import org.json.JSONArray;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class EventAggregatorTest {
+    private TelemetryConfiguration configuration;
+    private EventAggregator aggregator;
+    private List<TelemetryEvent> output;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application)
+                .setEventAggregationWindow("action", 10000);
+        aggregator = new EventAggregator(configuration);
+        output = new ArrayList<>();
+    }
+
+    @Test
+    public void testEventsOfOtherCategoriesAreNotAggregated() {
+        final TelemetryEvent event = TelemetryEvent.create("other", "click", "button");
+
+        aggregator.add(event, output);
+        aggregator.add(TelemetryEvent.create("other", "click", "button"), output);
+
+        assertEquals(2, output.size());
+        assertSame(event, output.get(0));
+        assertTrue(aggregator.isEmpty());
+    }
+
+    @Test
+    public void testIdenticalEventsAreCombined() throws Exception {
+        final TelemetryEvent first = TelemetryEvent.create("action", "click", "menu").extra("source", "tab");
+        aggregator.add(first, output);
+
+        ShadowSystemClock.advanceBy(Duration.ofMillis(1500));
+        aggregator.add(TelemetryEvent.create("action", "click", "menu").extra("source", "tab"), output);
+        aggregator.add(TelemetryEvent.create("action", "click", "menu").extra("source", "tab"), output);
+
+        assertTrue(output.isEmpty());
+
+        aggregator.takeAll(output);
+        assertEquals(1, output.size());
+        assertTrue(aggregator.isEmpty());
+
+        final JSONArray json = new JSONArray(output.get(0).toJSON());
+        assertEquals("3", json.getJSONObject(5).getString("count"));
+        assertEquals(json.getLong(0) + 1500, json.getJSONObject(5).getLong("last_timestamp"));
+        assertEquals("tab", json.getJSONObject(5).getString("source"));
+    }
+
+    @Test
+    public void testAddedEventsAreNotModified() throws Exception {
+        final TelemetryEvent event = TelemetryEvent.create("action", "click", "menu").extra("source", "tab");
+        final String json = event.toJSON();
+
+        // The app re-uses the same event instance.
+        aggregator.add(event, output);
+        aggregator.add(event, output);
+        aggregator.takeAll(output);
+
+        assertEquals(1, output.size());
+        assertNotSame(event, output.get(0));
+        assertEquals("2", new JSONArray(output.get(0).toJSON()).getJSONObject(5).getString("count"));
+        assertEquals(json, event.toJSON());
+
+        aggregator.add(event, output);
+        aggregator.takeAll(output);
+
+        assertEquals(2, output.size());
+        assertSame(event, output.get(1));
+        assertEquals(json, output.get(1).toJSON());
+    }
+
+    @Test
+    public void testEventsWithReservedExtrasAreNotAggregated() throws Exception {
+        final TelemetryEvent event = TelemetryEvent.create("action", "click", "menu").extra("count", "7");
+        aggregator.add(event, output);
+        aggregator.add(TelemetryEvent.create("action", "click", "menu").extra("count", "7"), output);
+        aggregator.add(TelemetryEvent.create("action", "click", "menu").extra("last_timestamp", "1"), output);
+        aggregator.add(TelemetryEvent.create("action", "click", "menu").extra("last_timestamp", "1"), output);
+
+        assertEquals(4, output.size());
+        assertTrue(aggregator.isEmpty());
+        assertSame(event, output.get(0));
+        assertEquals("7", new JSONArray(output.get(0).toJSON()).getJSONObject(5).getString("count"));
+        assertEquals("1", new JSONArray(output.get(2).toJSON()).getJSONObject(5).getString("last_timestamp"));
+    }
+
+    @Test
+    public void testSingleEventIsUnchanged() throws Exception {
+        final TelemetryEvent event = TelemetryEvent.create("action", "click", "menu");
+        final String json = event.toJSON();
+
+        aggregator.add(event, output);
+        aggregator.takeAll(output);
+
+        assertEquals(1, output.size());
+        assertEquals(json, output.get(0).toJSON());
+    }
+
+    @Test
+    public void testDifferentValuesOrExtrasAreNotCombined() {
+        aggregator.add(TelemetryEvent.create("action", "click", "menu"), output);
+        aggregator.add(TelemetryEvent.create("action", "click", "menu", "a"), output);
+        aggregator.add(TelemetryEvent.create("action", "click", "menu", "b"), output);
+        aggregator.add(TelemetryEvent.create("action", "click", "menu", "b").extra("x", "1"), output);
+        aggregator.add(TelemetryEvent.create("action", "click", "other"), output);
+        aggregator.add(TelemetryEvent.create("action", "change", "menu"), output);
+
+        aggregator.takeAll(output);
+
+        assertEquals(6, output.size());
+    }
+
+    @Test
+    public void testAggregateIsCompleteAfterWindow() throws Exception {
+        aggregator.add(TelemetryEvent.create("action", "click", "menu"), output);
+        aggregator.add(TelemetryEvent.create("action", "click", "menu"), output);
+
+        ShadowSystemClock.advanceBy(Duration.ofMillis(10000));
+
+        // The next event (of any category) completes the aggregate and starts a new one.
+        aggregator.add(TelemetryEvent.create("action", "click", "menu"), output);
+
+        assertEquals(1, output.size());
+        assertEquals("2", new JSONArray(output.get(0).toJSON()).getJSONObject(5).getString("count"));
+        assertFalse(aggregator.isEmpty());
+    }
+}
@@ -0,0 +1,157 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.event;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class EventRingBufferTest {
+    @Test
+    public void testCapacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(2, new EventRingBuffer(1, EventOverflowPolicy.DROP_NEWEST).getCapacity());
+        assertEquals(8, new EventRingBuffer(5, EventOverflowPolicy.DROP_NEWEST).getCapacity());
+        assertEquals(1024, new EventRingBuffer(1024, EventOverflowPolicy.DROP_NEWEST).getCapacity());
+    }
+
+    @Test
+    public void testEventsArePolledInOrder() {
+        final EventRingBuffer buffer = new EventRingBuffer(4, EventOverflowPolicy.DROP_NEWEST);
+
+        // Go around the ring a few times.
+        for (int lap = 0; lap < 3; lap++) {
+            final TelemetryEvent[] events = createEvents(4);
+            for (TelemetryEvent event : events) {
+                assertTrue(buffer.offer(event));
+            }
+
+            assertEquals(4, buffer.size());
+
+            for (TelemetryEvent event : events) {
+                assertSame(event, buffer.poll());
+            }
+            assertNull(buffer.poll());
+        }
+
+        assertEquals(0, buffer.getDroppedEventCount());
+    }
+
+    @Test
+    public void testDropNewestPolicy() {
+        final EventRingBuffer buffer = new EventRingBuffer(2, EventOverflowPolicy.DROP_NEWEST);
+        final TelemetryEvent[] events = createEvents(3);
+
+        assertTrue(buffer.offer(events[0]));
+        assertTrue(buffer.offer(events[1]));
+        assertFalse(buffer.offer(events[2]));
+
+        assertEquals(1, buffer.getDroppedEventCount());
+        assertSame(events[0], buffer.poll());
+        assertSame(events[1], buffer.poll());
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void testDropOldestPolicy() {
+        final EventRingBuffer buffer = new EventRingBuffer(2, EventOverflowPolicy.DROP_OLDEST);
+        final TelemetryEvent[] events = createEvents(4);
+
+        for (TelemetryEvent event : events) {
+            buffer.offer(event);
+        }
+
+        assertEquals(2, buffer.getDroppedEventCount());
+        assertSame(events[2], buffer.poll());
+        assertSame(events[3], buffer.poll());
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void testBlockPolicyWaitsForConsumer() throws InterruptedException {
+        final EventRingBuffer buffer = new EventRingBuffer(2, EventOverflowPolicy.BLOCK);
+        final TelemetryEvent[] events = createEvents(3);
+
+        assertTrue(buffer.offer(events[0]));
+        assertTrue(buffer.offer(events[1]));
+
+        final CountDownLatch offered = new CountDownLatch(1);
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                buffer.offer(events[2]);
+                offered.countDown();
+            }
+        });
+        producer.start();
+
+        assertFalse(offered.await(50, TimeUnit.MILLISECONDS));
+
+        assertSame(events[0], buffer.poll());
+        assertTrue(offered.await(5, TimeUnit.SECONDS));
+        assertSame(events[1], buffer.poll());
+        assertSame(events[2], buffer.poll());
+        assertEquals(0, buffer.getDroppedEventCount());
+    }
+
+    @Test
+    public void testConcurrentProducersWithSingleConsumer() throws InterruptedException {
+        final int producers = 4;
+        final int eventsPerProducer = 20000;
+
+        final EventRingBuffer buffer = new EventRingBuffer(64, EventOverflowPolicy.BLOCK);
+        final TelemetryEvent[] events = createEvents(producers * eventsPerProducer);
+
+        final Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            final int offset = i * eventsPerProducer;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < eventsPerProducer; j++) {
+                        buffer.offer(events[offset + j]);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        final Set<TelemetryEvent> received = new HashSet<>();
+        final long deadline = System.currentTimeMillis() + 30000;
+        while (received.size() < events.length && System.currentTimeMillis() < deadline) {
+            final TelemetryEvent event = buffer.poll();
+            if (event != null) {
+                assertTrue("Event received twice", received.add(event));
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(events.length, received.size());
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.getDroppedEventCount());
+    }
+
+    private static TelemetryEvent[] createEvents(int count) {
+        final TelemetryEvent[] events = new TelemetryEvent[count];
+        for (int i = 0; i < count; i++) {
+            events[i] = TelemetryEvent.create("action", "click", "button", String.valueOf(i));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,132 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.event;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class TelemetryEventTest {
+    @Test
+    public void testJSONIsSameAsFromOrgJSON() throws Exception {
+        final StringBuilder characters = new StringBuilder();
+        for (char c = 0; c < 0x80; c++) {
+            characters.append(c);
+        }
+        characters.append("é€ 😀");
+
+        for (int start = 0; start < characters.length(); start += 10) {
+            final String string = characters.substring(start, Math.min(characters.length(), start + 10));
+
+            final TelemetryEvent event = TelemetryEvent.create(string, string, string, string)
+                    .extra(string, string);
+
+            final JSONArray expected = new JSONArray()
+                    .put(event.getTimestamp())
+                    .put(string)
+                    .put(string)
+                    .put(string)
+                    .put(string)
+                    .put(new JSONObject().put(string, string));
+
+            assertEquals(expected.toString(), event.toJSON());
+        }
+
+        final TelemetryEvent event = TelemetryEvent.create("action", "click", null)
+                .extra("source", "menu");
+        assertEquals(new JSONArray()
+                .put(event.getTimestamp())
+                .put("action")
+                .put("click")
+                .put(null)
+                .put(null)
+                .put(new JSONObject().put("source", "menu"))
+                .toString(), event.toJSON());
+    }
+
+    @Test
+    public void testStringsAreTruncatedWhenWritten() throws Exception {
+        final String string = "0123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890123456789";
+
+        final TelemetryEvent event = TelemetryEvent.create(string, string, string, string)
+                .extra(string, string);
+
+        final JSONArray json = new JSONArray(event.toJSON());
+        assertEquals(string.substring(0, 30), json.getString(1));
+        assertEquals(string.substring(0, 20), json.getString(2));
+        assertEquals(string.substring(0, 20), json.getString(3));
+        assertEquals(string.substring(0, 80), json.getString(4));
+        assertEquals(string.substring(0, 80), json.getJSONObject(5).getString(string.substring(0, 15)));
+
+        assertEquals(string.substring(0, 30), event.getCategory());
+        assertEquals(string.substring(0, 15), event.getExtraKey(0));
+    }
+
+    @Test
+    public void testExtraReplacesValueOfSameKey() throws Exception {
+        final TelemetryEvent event = TelemetryEvent.create("action", "click", "menu")
+                .extra("source", "tab")
+                .extra("count", "1")
+                .extra("source", "menu")
+                .extra("count", "2");
+
+        assertEquals(2, event.getExtraCount());
+
+        final JSONObject extras = new JSONArray(event.toJSON()).getJSONObject(5);
+        assertEquals(2, extras.length());
+        assertEquals("menu", extras.getString("source"));
+        assertEquals("2", extras.getString("count"));
+
+        // Keys that are the same after truncation are the same key.
+        final String longKey = "a_very_long_extra_key";
+        event.extra(longKey, "1").extra(longKey + "_2", "2");
+        assertEquals(3, event.getExtraCount());
+        assertEquals("2", event.getExtraValue(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyExtrasAreRejected() {
+        final TelemetryEvent event = TelemetryEvent.create("action", "click", "menu");
+        for (int i = 0; i <= TelemetryEvent.MAX_EXTRA_KEYS + 1; i++) {
+            event.extra("key" + i, "value");
+        }
+    }
+
+    @Test
+    public void testWritingEventDoesNotAllocate() throws Exception {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        final TelemetryEvent event = TelemetryEvent.create("action", "change", "setting", "pref_search_engine")
+                .extra("source", "settings")
+                .extra("to", "a \"quoted\" value\n");
+        final StringBuilder builder = new StringBuilder(256);
+
+        write(event, builder, 10000);
+        final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        write(event, builder, 10000);
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        // Less than a byte per event: Nothing is allocated per event.
+        assertTrue("Writing events allocated " + allocated + " bytes", allocated < 10000);
+        assertEquals(event.toJSON(), builder.toString());
+    }
+
+    private static void write(TelemetryEvent event, StringBuilder builder, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            builder.setLength(0);
+            event.writeTo(builder);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.executor;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class TelemetryExecutorTest {
+    private final List<Runnable> droppedTasks = Collections.synchronizedList(new ArrayList<Runnable>());
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private TelemetryExecutor executor;
+
+    @After
+    public void tearDown() {
+        latch.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testNewestTaskIsDroppedIfQueueIsFull() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        executor = createExecutor(2, TaskRejectionPolicy.DROP_NEWEST);
+        blockExecutor();
+
+        final Runnable task = new CountingTask(runs);
+        final Runnable droppedTask = new CountingTask(runs);
+
+        executor.execute(task);
+        executor.execute(task);
+        executor.execute(droppedTask);
+
+        assertEquals(2, executor.getStats().getQueueDepth());
+        assertEquals(1, executor.getStats().getRejectedTasks());
+        assertEquals(1, executor.getStats().getDroppedTasks());
+        assertEquals(1, droppedTasks.size());
+        assertSame(droppedTask, droppedTasks.get(0));
+
+        latch.countDown();
+        awaitExecutor();
+
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testOldestTaskIsDroppedIfQueueIsFull() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        executor = createExecutor(2, TaskRejectionPolicy.DROP_OLDEST);
+        blockExecutor();
+
+        final Runnable oldestTask = new CountingTask(runs);
+        executor.execute(oldestTask);
+        executor.execute(new CountingTask(runs));
+        executor.execute(new CountingTask(runs));
+
+        assertEquals(1, droppedTasks.size());
+        assertSame(oldestTask, droppedTasks.get(0));
+        assertEquals(2, executor.getStats().getQueueDepth());
+
+        latch.countDown();
+        awaitExecutor();
+
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testCallerIsBlockedIfQueueIsFull() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        executor = createExecutor(1, TaskRejectionPolicy.BLOCK);
+        blockExecutor();
+
+        executor.execute(new CountingTask(runs));
+
+        final CountDownLatch queued = new CountDownLatch(1);
+        final Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(new CountingTask(runs));
+                queued.countDown();
+            }
+        });
+        caller.start();
+
+        assertFalse(queued.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, executor.getStats().getRejectedTasks());
+
+        latch.countDown();
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        awaitExecutor();
+
+        assertEquals(2, runs.get());
+        assertEquals(0, executor.getStats().getDroppedTasks());
+    }
+
+    @Test
+    public void testTaskQueuedFromExecutorThreadDoesNotBlock() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final AtomicInteger runsWhileQueueing = new AtomicInteger();
+        final CountDownLatch queued = new CountDownLatch(1);
+        executor = createExecutor(1, TaskRejectionPolicy.BLOCK);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The first task fills the queue, the second one can't wait for room in the queue.
+                executor.execute(new CountingTask(runs));
+                executor.execute(new CountingTask(runs));
+                runsWhileQueueing.set(runs.get());
+                queued.countDown();
+            }
+        });
+
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        awaitExecutor();
+
+        assertEquals(1, runsWhileQueueing.get());
+
+        assertEquals(2, runs.get());
+        assertEquals(0, executor.getStats().getDroppedTasks());
+    }
+
+    @Test
+    public void testTasksAreTimed() throws Exception {
+        executor = createExecutor(16, TaskRejectionPolicy.BLOCK);
+        blockExecutor();
+
+        for (int i = 0; i < 3; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {}
+            });
+        }
+
+        Thread.sleep(60);
+        latch.countDown();
+        awaitExecutor();
+
+        final ExecutorStats stats = executor.getStats();
+        assertEquals(4, stats.getExecutedTasks());
+        assertEquals(3, stats.getMaximumQueueDepth());
+        assertTrue(stats.getMaximumRunTime() >= 50);
+        assertEquals(4, stats.getWaitTimeHistogram().getTotalCount());
+
+        // The three tasks have been waiting for the blocking task (at least 50ms).
+        long waitedLong = 0;
+        for (int i = 0; i < stats.getWaitTimeHistogram().getBucketCount(); i++) {
+            if (stats.getWaitTimeHistogram().getBucketStart(i) >= 50) {
+                waitedLong += stats.getWaitTimeHistogram().getCount(i);
+            }
+        }
+        assertEquals(3, waitedLong);
+    }
+
+    @Test
+    public void testRunTimesBelowOneMillisecondAreCounted() {
+        executor = createExecutor(4, TaskRejectionPolicy.BLOCK);
+
+        final ExecutorStats stats = executor.getStats();
+        stats.onTaskFinished(TimeUnit.MICROSECONDS.toNanos(200));
+        stats.onTaskFinished(TimeUnit.MICROSECONDS.toNanos(400));
+
+        assertEquals(0.3, stats.getAverageRunTime(), 0.0001);
+        assertEquals(0.4, stats.getMaximumRunTime(), 0.0001);
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopExecutor() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        executor = createExecutor(4, TaskRejectionPolicy.BLOCK);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Test");
+            }
+        });
+        executor.execute(new CountingTask(runs));
+        awaitExecutor();
+
+        assertEquals(1, runs.get());
+        assertEquals(2, executor.getStats().getExecutedTasks());
+    }
+
+    private TelemetryExecutor createExecutor(int capacity, TaskRejectionPolicy policy) {
+        return new TelemetryExecutor(capacity, policy) {
+            @Override
+            protected void onTaskDropped(Runnable task) {
+                droppedTasks.add(task);
+            }
+        };
+    }
+
+    /**
+     * Keep the executor thread busy (for at least 50ms) until the latch is released.
+     */
+    private void blockExecutor() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    Thread.sleep(50);
+                    latch.await();
+                } catch (InterruptedException e) {
+                    // Test is over.
+                }
+            }
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Wait until all queued tasks have run. (Queueing another task to wait for could drop a task.)
+     */
+    private void awaitExecutor() throws Exception {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    private static class CountingTask implements Runnable {
+        private final AtomicInteger runs;
+
+        private CountingTask(AtomicInteger runs) {
+            this.runs = runs;
+        }
+
+        @Override
+        public void run() {
+            runs.incrementAndGet();
+        }
+    }
+}
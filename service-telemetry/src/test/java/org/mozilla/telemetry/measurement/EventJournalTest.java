@@ -0,0 +1,522 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.measurement;
+
+import org.json.JSONArray;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.event.TelemetryEvent;
+import org.mozilla.telemetry.serialize.RawJSONValue;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class EventJournalTest {
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(RuntimeEnvironment.application.getCacheDir(), "journal");
+    }
+
+    @Test
+    public void testRecordsAreBufferedUntilThresholdIsReached() {
+        final EventJournal journal = new EventJournal(file, 10, Long.MAX_VALUE);
+
+        journal.append("1");
+        journal.append("2");
+        journal.append("3");
+
+        assertEquals(3, journal.getCount());
+        assertEquals(0, file.length());
+
+        journal.append("4567");
+
+        assertEquals(4, journal.getCount());
+        assertEquals(11, file.length());
+    }
+
+    @Test
+    public void testExplicitFlushWritesBufferedRecords() {
+        final EventJournal journal = new EventJournal(file, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+        journal.append("a");
+        journal.append("b");
+        assertEquals(0, file.length());
+
+        journal.flush();
+        assertEquals(4, file.length());
+
+        // A new instance (e.g. after the app has been restarted) counts the records on disk.
+        assertEquals(2, new EventJournal(file, Integer.MAX_VALUE, Long.MAX_VALUE).getCount());
+    }
+
+    @Test
+    public void testRecordsAreWrittenAfterFlushInterval() {
+        final long[] now = new long[] { 1000 };
+
+        final EventJournal journal = new EventJournal(file, Integer.MAX_VALUE, 5000) {
+            @Override
+            long now() {
+                return now[0];
+            }
+        };
+
+        journal.append("a");
+        now[0] += 4999;
+        journal.append("b");
+        assertEquals(0, file.length());
+
+        now[0] += 1;
+        journal.append("c");
+        assertEquals(6, file.length());
+    }
+
+    @Test
+    public void testRecordsAreWrittenAfterFlushIntervalWithoutFurtherAppend() throws InterruptedException {
+        final long[] now = new long[] { 1000 };
+
+        final EventJournal journal = new EventJournal(file, Integer.MAX_VALUE, 200) {
+            @Override
+            long now() {
+                return now[0];
+            }
+        };
+
+        journal.append("a");
+        journal.append("b");
+        assertEquals(0, file.length());
+
+        // Time passes, but no further record is appended.
+        now[0] += 200;
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (file.length() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(4, file.length());
+        assertEquals(2, journal.getCount());
+    }
+
+    @Test
+    public void testIncompleteRecordIsTruncated() throws IOException {
+        final FileOutputStream stream = new FileOutputStream(file);
+        stream.write("a\nb\n[\"incomp".getBytes("UTF-8"));
+        stream.close();
+
+        final EventJournal journal = new EventJournal(file, Integer.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals(2, journal.getCount());
+        assertEquals(4, file.length());
+
+        journal.append("c");
+
+        assertEquals("[a,b,c]", takeAll(journal));
+        assertEquals(0, journal.getCount());
+    }
+
+    @Test
+    public void testRecordsAreCountedAcrossBufferBoundaries() throws IOException {
+        final StringBuilder records = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            records.append("\"record").append(i).append("\"\n");
+        }
+
+        final FileOutputStream stream = new FileOutputStream(file);
+        stream.write(records.toString().getBytes("UTF-8"));
+        stream.write("[\"incomp".getBytes("UTF-8"));
+        stream.close();
+
+        final EventJournal journal = new EventJournal(file, Integer.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals(1000, journal.getCount());
+        assertEquals(records.length(), file.length());
+    }
+
+    @Test
+    public void testJournalCanBeReusedAfterBacklogHasBeenCommitted() throws IOException {
+        final EventJournal journal = new EventJournal(file, 0, Long.MAX_VALUE);
+
+        journal.append("a");
+        assertEquals("[a]", takeAll(journal));
+        assertEquals(0, file.length());
+
+        journal.append("b");
+        journal.append("c");
+        assertEquals(2, journal.getCount());
+        assertEquals("[b,c]", takeAll(journal));
+        assertEquals("[]", takeAll(journal));
+    }
+
+    @Test
+    public void testChunkIsStreamedThroughSmallBuffer() throws IOException {
+        final EventJournal journal = new EventJournal(file, 0, Long.MAX_VALUE);
+
+        final StringBuilder expected = new StringBuilder("[");
+        for (int i = 0; i < 2000; i++) {
+            final String record = "[" + i + ",\"category\",\"method\",\"object\"]";
+            journal.append(record);
+
+            expected.append(i == 0 ? "" : ",").append(record);
+        }
+        expected.append("]");
+
+        assertEquals(expected.toString(), takeAll(journal));
+        assertEquals(0, journal.getCount());
+    }
+
+    @Test
+    public void testEventsMeasurementDoesNotCountEventsInSharedPreferences() throws Exception {
+        final TelemetryConfiguration configuration = new TelemetryConfiguration(RuntimeEnvironment.application);
+        final EventsMeasurement measurement = new EventsMeasurement(configuration);
+
+        measurement.add(TelemetryEvent.create("action", "type_url", "search_bar"));
+        measurement.add(TelemetryEvent.create("action", "click", "erase_button"));
+
+        assertEquals(2, measurement.getEventCount());
+        assertFalse(configuration.getSharedPreferences().contains("event_count"));
+
+        final StringWriter writer = new StringWriter();
+        ((RawJSONValue) measurement.flush()).writeTo(writer);
+
+        final JSONArray events = new JSONArray(writer.toString());
+        assertEquals(2, events.length());
+
+        // The events are only removed once the ping has been stored.
+        assertEquals(2, measurement.getEventCount());
+        measurement.commitFlush();
+        assertEquals(0, measurement.getEventCount());
+    }
+
+    @Test
+    public void testBacklogIsSplitByNumberOfRecords() throws IOException {
+        final EventJournal journal = new EventJournal(file, 0, Long.MAX_VALUE);
+        for (int i = 0; i < 7; i++) {
+            journal.append(String.valueOf(i));
+        }
+
+        assertEquals("[0,1,2]", takeChunk(journal, 3, Long.MAX_VALUE));
+        assertEquals("[3,4,5]", takeChunk(journal, 3, Long.MAX_VALUE));
+
+        // Recorded while the backlog is consumed: Not part of the current backlog.
+        journal.append("7");
+        assertEquals(2, journal.getCount());
+        assertEquals("[6]", takeChunk(journal, 3, Long.MAX_VALUE));
+        assertFalse(journal.hasBacklog());
+
+        assertEquals("[7]", takeChunk(journal, 3, Long.MAX_VALUE));
+        assertEquals("[]", takeChunk(journal, 3, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testBacklogIsSplitBySize() throws IOException {
+        final EventJournal journal = new EventJournal(file, 0, Long.MAX_VALUE);
+        journal.append("aaaa");
+        journal.append("bbbb");
+        journal.append("cccccccccccc");
+        journal.append("d");
+
+        // The separating comma counts: "aaaa,bbbb" is 9 bytes.
+        assertEquals("[aaaa,bbbb]", takeChunk(journal, 100, 9));
+        // A record larger than the limit is added on its own.
+        assertEquals("[cccccccccccc]", takeChunk(journal, 100, 9));
+        assertEquals("[d]", takeChunk(journal, 100, 9));
+        assertEquals(0, journal.getCount());
+    }
+
+    @Test
+    public void testUncommittedChunkIsTakenAgain() throws IOException {
+        final EventJournal journal = new EventJournal(file, 0, Long.MAX_VALUE);
+        for (int i = 0; i < 5; i++) {
+            journal.append(String.valueOf(i));
+        }
+
+        final EventJournal.Chunk chunk = journal.takeChunk(2, Long.MAX_VALUE);
+        final EventJournal.Chunk retriedChunk = journal.takeChunk(2, Long.MAX_VALUE);
+
+        assertEquals(write(chunk), write(retriedChunk));
+        assertEquals(chunk.getDocumentId(), retriedChunk.getDocumentId());
+        assertEquals(5, journal.getCount());
+
+        journal.commit(retriedChunk);
+        // Committing a chunk twice must not skip records.
+        journal.commit(chunk);
+        assertEquals(3, journal.getCount());
+
+        final EventJournal.Chunk nextChunk = journal.takeChunk(2, Long.MAX_VALUE);
+        assertEquals("[2,3]", write(nextChunk));
+        assertNotEquals(chunk.getDocumentId(), nextChunk.getDocumentId());
+    }
+
+    @Test
+    public void testBacklogAndCursorAreRestoredInNewInstance() throws IOException {
+        final EventJournal journal = new EventJournal(file, 0, Long.MAX_VALUE);
+        for (int i = 0; i < 5; i++) {
+            journal.append(String.valueOf(i));
+        }
+
+        journal.commit(journal.takeChunk(2, Long.MAX_VALUE));
+        final EventJournal.Chunk chunk = journal.takeChunk(2, Long.MAX_VALUE);
+        journal.append("5");
+        journal.close();
+
+        // The app has been killed before the ping containing the chunk has been stored.
+        final EventJournal restoredJournal = new EventJournal(file, 0, Long.MAX_VALUE);
+        assertEquals(4, restoredJournal.getCount());
+        assertTrue(restoredJournal.hasBacklog());
+
+        final EventJournal.Chunk restoredChunk = restoredJournal.takeChunk(2, Long.MAX_VALUE);
+        assertEquals("[2,3]", write(restoredChunk));
+        assertEquals(chunk.getDocumentId(), restoredChunk.getDocumentId());
+
+        restoredJournal.commit(restoredChunk);
+        assertEquals("[4]", takeChunk(restoredJournal, 2, Long.MAX_VALUE));
+        assertEquals("[5]", takeChunk(restoredJournal, 2, Long.MAX_VALUE));
+        assertEquals(0, new EventJournal(file, 0, Long.MAX_VALUE).getCount());
+    }
+
+    /**
+     * Records random events in a JSON journal and a binary journal (with restarts and chunks of
+     * random sizes) and compares the pings.
+     */
+    @Test
+    public void testBinaryJournalRoundTripsRandomEventsLikeJSONJournal() throws Exception {
+        final Random random = new Random(42);
+        final File binaryFile = new File(RuntimeEnvironment.application.getCacheDir(), "journal.bin");
+
+        EventJournal jsonJournal = new EventJournal(file, EventJournalFormat.JSON, 256, Long.MAX_VALUE);
+        EventJournal binaryJournal = new EventJournal(binaryFile, EventJournalFormat.BINARY, 256, Long.MAX_VALUE);
+
+        final JSONArray expected = new JSONArray();
+        final JSONArray actual = new JSONArray();
+
+        for (int round = 0; round < 20; round++) {
+            for (int i = random.nextInt(200); i > 0; i--) {
+                ShadowSystemClock.advanceBy(Duration.ofMillis(random.nextInt(100000)));
+
+                final TelemetryEvent event = createRandomEvent(random);
+                jsonJournal.append(event);
+                binaryJournal.append(event);
+            }
+
+            if (random.nextBoolean()) {
+                // Restart: Buffered records are written and a new instance continues the files.
+                jsonJournal.flush();
+                binaryJournal.flush();
+                jsonJournal.close();
+                binaryJournal.close();
+
+                jsonJournal = new EventJournal(file, EventJournalFormat.JSON, 256, Long.MAX_VALUE);
+                binaryJournal = new EventJournal(binaryFile, EventJournalFormat.BINARY, 256, Long.MAX_VALUE);
+            }
+
+            assertEquals(jsonJournal.getCount(), binaryJournal.getCount());
+
+            if (random.nextBoolean()) {
+                final int maxRecords = 1 + random.nextInt(100);
+                addAll(expected, takeChunk(jsonJournal, maxRecords, Long.MAX_VALUE));
+                addAll(actual, takeChunk(binaryJournal, maxRecords, Long.MAX_VALUE));
+            }
+        }
+
+        // A chunk contains records of the backlog only: Take chunks until both journals are empty.
+        while (jsonJournal.getCount() > 0) {
+            addAll(expected, takeAll(jsonJournal));
+            addAll(actual, takeAll(binaryJournal));
+        }
+
+        assertTrue(expected.length() > 1000);
+        assertEquals(expected.length(), actual.length());
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+        }
+        assertEquals(0, binaryJournal.getCount());
+    }
+
+    @Test
+    public void testBinaryChunksAreLimitedBySizeOfJSON() throws Exception {
+        final EventJournal journal = new EventJournal(file, EventJournalFormat.BINARY, 0, Long.MAX_VALUE);
+
+        final TelemetryEvent event = TelemetryEvent.create("action", "click", "menu");
+        final int size = event.toJSON().length();
+        for (int i = 0; i < 5; i++) {
+            journal.append(event);
+        }
+
+        assertEquals(2, new JSONArray(takeChunk(journal, 10, 2 * size + 1)).length());
+        assertEquals(3, new JSONArray(takeChunk(journal, 10, Long.MAX_VALUE)).length());
+        assertEquals(0, journal.getCount());
+    }
+
+    @Test
+    public void testBinaryBacklogIsNotReadFromStartForEveryChunk() throws Exception {
+        final EventJournal journal = new EventJournal(file, EventJournalFormat.BINARY, 0, Long.MAX_VALUE);
+        for (int i = 0; i < 4; i++) {
+            journal.append(TelemetryEvent.create("action", "click", "menu"));
+        }
+
+        assertEquals(2, new JSONArray(takeChunk(journal, 2, Long.MAX_VALUE)).length());
+
+        // Change the dictionary at the start of the backlog: The next chunk continues with the
+        // dictionary that has been read for the previous chunk.
+        final RandomAccessFile backlog = new RandomAccessFile(new File(file.getPath() + ".backlog"), "rw");
+        final byte[] start = new byte[16];
+        backlog.readFully(start);
+        final int offset = new String(start, "UTF-8").indexOf("action");
+        assertTrue(offset > 0);
+        backlog.seek(offset);
+        backlog.write("xxxxxx".getBytes("UTF-8"));
+        backlog.close();
+
+        final JSONArray chunk = new JSONArray(takeChunk(journal, 2, Long.MAX_VALUE));
+        assertEquals(2, chunk.length());
+        assertEquals("action", chunk.getJSONArray(0).getString(1));
+        assertEquals("action", chunk.getJSONArray(1).getString(1));
+        assertEquals(0, journal.getCount());
+    }
+
+    @Test
+    public void testIncompleteBinaryRecordIsTruncated() throws Exception {
+        final EventJournal journal = new EventJournal(file, EventJournalFormat.BINARY, 0, Long.MAX_VALUE);
+        journal.append(TelemetryEvent.create("action", "click", "menu"));
+        journal.append(TelemetryEvent.create("action", "click", "erase_button", "value"));
+        journal.close();
+
+        final long length = file.length();
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(length - 2);
+        randomAccessFile.close();
+
+        final EventJournal restoredJournal = new EventJournal(file, EventJournalFormat.BINARY, 0, Long.MAX_VALUE);
+        assertEquals(1, restoredJournal.getCount());
+
+        // The dictionary of the file is continued.
+        restoredJournal.append(TelemetryEvent.create("action", "click", "erase_button"));
+
+        final JSONArray events = new JSONArray(takeAll(restoredJournal));
+        assertEquals(2, events.length());
+        assertEquals("menu", events.getJSONArray(0).getString(3));
+        assertEquals("erase_button", events.getJSONArray(1).getString(3));
+    }
+
+    @Test
+    public void testBinaryJournalIsMuchSmallerThanJSONJournal() {
+        final File binaryFile = new File(RuntimeEnvironment.application.getCacheDir(), "journal.bin");
+        final EventJournal jsonJournal = new EventJournal(file, EventJournalFormat.JSON, 0, Long.MAX_VALUE);
+        final EventJournal binaryJournal = new EventJournal(binaryFile, EventJournalFormat.BINARY, 0, Long.MAX_VALUE);
+
+        // A day of events like the ones recorded by the app: A small set of identifiers.
+        final String[] methods = { "click", "change", "show", "type_url", "open" };
+        final String[] objects = { "menu", "erase_button", "back_button", "search_bar", "setting", "tip", "custom_tab" };
+
+        for (int i = 0; i < 2000; i++) {
+            ShadowSystemClock.advanceBy(Duration.ofSeconds(10));
+
+            final TelemetryEvent event = TelemetryEvent.create("action", methods[i % methods.length],
+                    objects[i % objects.length]);
+            jsonJournal.append(event);
+            binaryJournal.append(event);
+        }
+
+        assertTrue("JSON: " + file.length() + " bytes, binary: " + binaryFile.length() + " bytes",
+                file.length() >= 5 * binaryFile.length());
+    }
+
+    @Test
+    public void testEventsOfPreviousFormatAreAddedToPingsFirst() throws Exception {
+        final TelemetryConfiguration configuration = new TelemetryConfiguration(RuntimeEnvironment.application);
+
+        final EventsMeasurement jsonMeasurement = new EventsMeasurement(configuration);
+        jsonMeasurement.add(TelemetryEvent.create("action", "click", "json"));
+        jsonMeasurement.flushPendingEvents();
+
+        // The app switches to the binary format (after a restart).
+        configuration.setEventJournalFormat(EventJournalFormat.BINARY);
+        final EventsMeasurement measurement = new EventsMeasurement(configuration);
+        measurement.add(TelemetryEvent.create("action", "click", "binary"));
+
+        assertEquals(2, measurement.getEventCount());
+
+        final StringWriter writer = new StringWriter();
+        ((RawJSONValue) measurement.flush()).writeTo(writer);
+        assertEquals("json", new JSONArray(writer.toString()).getJSONArray(0).getString(3));
+        measurement.commitFlush();
+
+        writer.getBuffer().setLength(0);
+        ((RawJSONValue) measurement.flush()).writeTo(writer);
+        assertEquals("binary", new JSONArray(writer.toString()).getJSONArray(0).getString(3));
+        measurement.commitFlush();
+
+        assertEquals(0, measurement.getEventCount());
+        assertFalse(new File(configuration.getDataDirectory(), "events1").exists());
+    }
+
+    private static TelemetryEvent createRandomEvent(Random random) {
+        final String[] categories = { "action", "other" };
+        final String[] methods = { "click", "change", "show" };
+
+        final TelemetryEvent event = TelemetryEvent.create(
+                categories[random.nextInt(categories.length)],
+                methods[random.nextInt(methods.length)],
+                random.nextInt(5) == 0 ? null : createRandomString(random),
+                random.nextBoolean() ? null : createRandomString(random));
+
+        for (int i = random.nextInt(4); i > 0; i--) {
+            event.extra(createRandomString(random), createRandomString(random));
+        }
+
+        return event;
+    }
+
+    private static String createRandomString(Random random) {
+        final String[] pieces = { "a", "Z", "0", "_", " ", "\"", "\\", "/", "\n", "\t", "\u0001", "\u007f",
+                "é", "€", "\ud83d\ude00", "{", "]", "," };
+
+        final StringBuilder builder = new StringBuilder();
+        for (int i = random.nextInt(8); i > 0; i--) {
+            builder.append(pieces[random.nextInt(pieces.length)]);
+        }
+        return builder.toString();
+    }
+
+    private static void addAll(JSONArray target, String json) throws Exception {
+        final JSONArray array = new JSONArray(json);
+        for (int i = 0; i < array.length(); i++) {
+            target.put(array.get(i));
+        }
+    }
+
+    private static String takeAll(EventJournal journal) throws IOException {
+        return takeChunk(journal, Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    private static String takeChunk(EventJournal journal, int maxRecords, long maxBytes) throws IOException {
+        final EventJournal.Chunk chunk = journal.takeChunk(maxRecords, maxBytes);
+        final String json = write(chunk);
+        journal.commit(chunk);
+        return json;
+    }
+
+    private static String write(RawJSONValue value) throws IOException {
+        final StringWriter writer = new StringWriter();
+        value.writeTo(writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,191 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.measurement;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.ping.TelemetryCorePingBuilder;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class HistogramMeasurementTest {
+    @Test
+    public void testLinearBuckets() {
+        final HistogramMeasurement histogram = HistogramMeasurement.linear("test", 10, 50, 6);
+        final HistogramMeasurement.Snapshot snapshot = histogram.getSnapshot();
+
+        assertEquals(6, snapshot.getBucketCount());
+        assertEquals(0, snapshot.getBucketStart(0));
+        assertEquals(10, snapshot.getBucketStart(1));
+        assertEquals(20, snapshot.getBucketStart(2));
+        assertEquals(30, snapshot.getBucketStart(3));
+        assertEquals(40, snapshot.getBucketStart(4));
+        assertEquals(50, snapshot.getBucketStart(5));
+    }
+
+    @Test
+    public void testExponentialBuckets() {
+        final HistogramMeasurement histogram = HistogramMeasurement.exponential("test", 1, 10000, 20);
+        final HistogramMeasurement.Snapshot snapshot = histogram.getSnapshot();
+
+        assertEquals(20, snapshot.getBucketCount());
+        assertEquals(1, snapshot.getBucketStart(1));
+        assertEquals(10000, snapshot.getBucketStart(19));
+
+        for (int i = 2; i < snapshot.getBucketCount(); i++) {
+            final long size = snapshot.getBucketStart(i) - snapshot.getBucketStart(i - 1);
+            assertTrue(size >= 1);
+            if (i > 2) {
+                assertTrue(size >= snapshot.getBucketStart(i - 1) - snapshot.getBucketStart(i - 2));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyBucketsForRange() {
+        HistogramMeasurement.linear("test", 1, 5, 10);
+    }
+
+    @Test
+    public void testValuesAreRecordedInBuckets() {
+        final HistogramMeasurement histogram = HistogramMeasurement.linear("test", 10, 50, 6);
+
+        histogram.record(-5);
+        histogram.record(9);
+        histogram.record(10);
+        histogram.record(29);
+        histogram.record(50);
+        histogram.record(1000);
+
+        final HistogramMeasurement.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(2, snapshot.getCount(0));
+        assertEquals(1, snapshot.getCount(1));
+        assertEquals(1, snapshot.getCount(2));
+        assertEquals(0, snapshot.getCount(3));
+        assertEquals(2, snapshot.getCount(5));
+        assertEquals(6, snapshot.getTotalCount());
+        assertEquals(-5 + 9 + 10 + 29 + 50 + 1000, snapshot.getSum());
+    }
+
+    @Test
+    public void testFlushReturnsSparseJSONAndResets() throws Exception {
+        final HistogramMeasurement histogram = HistogramMeasurement.linear("test", 10, 50, 6);
+        histogram.record(5);
+        histogram.record(42);
+        histogram.record(42);
+
+        final JSONObject json = (JSONObject) histogram.flush();
+        assertEquals(10, json.getJSONArray("range").getLong(0));
+        assertEquals(50, json.getJSONArray("range").getLong(1));
+        assertEquals(6, json.getInt("bucket_count"));
+        assertEquals(HistogramMeasurement.TYPE_LINEAR, json.getInt("histogram_type"));
+        assertEquals(89, json.getLong("sum"));
+
+        final JSONObject values = json.getJSONObject("values");
+        assertEquals(2, values.length());
+        assertEquals(1, values.getLong("0"));
+        assertEquals(2, values.getLong("40"));
+
+        // Nothing recorded since the last flush: No field in the ping.
+        assertNull(histogram.flush());
+        assertEquals(0, histogram.getSnapshot().getTotalCount());
+        assertEquals(0, histogram.getSnapshot().getSum());
+    }
+
+    @Test
+    public void testSnapshotsCanBeMerged() {
+        final HistogramMeasurement first = HistogramMeasurement.exponential("test", 1, 1000, 10);
+        final HistogramMeasurement second = HistogramMeasurement.exponential("test", 1, 1000, 10);
+
+        first.record(3);
+        second.record(3);
+        second.record(500);
+
+        final HistogramMeasurement.Snapshot merged = first.getSnapshot().merge(second.getSnapshot());
+        assertEquals(3, merged.getTotalCount());
+        assertEquals(506, merged.getSum());
+
+        // Adding a snapshot to a live histogram.
+        first.add(second.getSnapshotAndReset());
+        assertEquals(3, first.getSnapshot().getTotalCount());
+        assertEquals(0, second.getSnapshot().getTotalCount());
+
+        for (int i = 0; i < merged.getBucketCount(); i++) {
+            assertEquals(merged.getCount(i), first.getSnapshot().getCount(i));
+        }
+    }
+
+    @Test
+    public void testSnapshotsWithDifferentBucketsCanNotBeMerged() {
+        final HistogramMeasurement linear = HistogramMeasurement.linear("test", 1, 1000, 10);
+        final HistogramMeasurement exponential = HistogramMeasurement.exponential("test", 1, 1000, 10);
+
+        try {
+            linear.getSnapshot().merge(exponential.getSnapshot());
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testConcurrentRecordingDoesNotLoseValues() throws Exception {
+        final HistogramMeasurement histogram = HistogramMeasurement.exponential("test", 1, 10000, 30);
+        final int threads = 4;
+        final int iterations = 10000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < iterations; i++) {
+                        histogram.record(i);
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(threads * iterations, histogram.getSnapshot().getTotalCount());
+    }
+
+    @Test
+    public void testHistogramsAreAddedToCorePing() throws Exception {
+        final TelemetryConfiguration configuration = new TelemetryConfiguration(RuntimeEnvironment.application);
+        final TelemetryCorePingBuilder builder = new TelemetryCorePingBuilder(configuration);
+
+        final HistogramMeasurement histogram = HistogramMeasurement.exponential("load_time", 1, 30000, 20);
+        assertSame(histogram, builder.getHistogramsMeasurement().register(histogram));
+        assertSame(histogram, builder.getHistogramsMeasurement().register(
+                HistogramMeasurement.exponential("load_time", 1, 30000, 20)));
+
+        // No values yet: The field is omitted.
+        assertNull(builder.build().getMeasurementResults().get("histograms"));
+
+        histogram.record(250);
+
+        final TelemetryPing ping = builder.build();
+        final JSONObject histograms = (JSONObject) ping.getMeasurementResults().get("histograms");
+        assertNotNull(histograms);
+        assertEquals(1, histograms.getJSONObject("load_time").getJSONObject("values").length());
+        assertEquals(250, histograms.getJSONObject("load_time").getLong("sum"));
+    }
+}
@@ -0,0 +1,204 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.measurement;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.storage.FileTelemetryKeyValueStore;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SearchesMeasurementTest {
+    private static final String[] ENGINES = { "google", "duckduckgo", "wikipedia", "amazon.com" };
+
+    private TelemetryConfiguration configuration;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void testSearchesAreCountedAndReset() throws Exception {
+        final SearchesMeasurement measurement = new SearchesMeasurement(configuration);
+        measurement.recordSearch(SearchesMeasurement.LOCATION_ACTIONBAR, "google");
+        measurement.recordSearch(SearchesMeasurement.LOCATION_ACTIONBAR, "google");
+        measurement.recordSearch(SearchesMeasurement.LOCATION_SUGGESTION, "amazon.com");
+
+        final JSONObject searches = (JSONObject) measurement.flush();
+        assertEquals(2, searches.length());
+        assertEquals(2, searches.getLong("actionbar.google"));
+        assertEquals(1, searches.getLong("suggestion.amazon.com"));
+
+        assertEquals(0, ((JSONObject) measurement.flush()).length());
+    }
+
+    @Test
+    public void testCountsAreRestoredInNewInstance() throws Exception {
+        final SearchesMeasurement measurement = new SearchesMeasurement(configuration);
+        measurement.recordSearch(SearchesMeasurement.LOCATION_ACTIONBAR, "google");
+        measurement.recordSearch(SearchesMeasurement.LOCATION_LISTITEM, "amazon.com");
+        measurement.flushPendingCounts();
+
+        final SearchesMeasurement restoredMeasurement = new SearchesMeasurement(configuration);
+        restoredMeasurement.recordSearch(SearchesMeasurement.LOCATION_ACTIONBAR, "google");
+
+        final JSONObject searches = (JSONObject) restoredMeasurement.flush();
+        assertEquals(2, searches.getLong("actionbar.google"));
+        assertEquals(1, searches.getLong("listitem.amazon.com"));
+
+        // The counts have been reported: Another process must not report them again.
+        assertEquals(0, ((JSONObject) new SearchesMeasurement(configuration).flush()).length());
+    }
+
+    @Test
+    public void testSnapshotIsWrittenPeriodicallyInBackground() throws Exception {
+        final Set<Thread> storeThreads = Collections.synchronizedSet(new HashSet<Thread>());
+        final CountDownLatch snapshotWritten = new CountDownLatch(1);
+
+        configuration.setKeyValueStore(new FileTelemetryKeyValueStore(configuration) {
+            @Override
+            public synchronized Map<String, Long> removeLongs(String keyPrefix) {
+                storeThreads.add(Thread.currentThread());
+                return super.removeLongs(keyPrefix);
+            }
+
+            @Override
+            public synchronized void putLong(String key, long value) {
+                storeThreads.add(Thread.currentThread());
+                super.putLong(key, value);
+
+                if (value == 2) {
+                    snapshotWritten.countDown();
+                }
+            }
+        });
+
+        final long[] now = { 0 };
+        final SearchesMeasurement measurement = new SearchesMeasurement(configuration) {
+            @Override
+            long now() {
+                return now[0];
+            }
+        };
+
+        measurement.recordSearch(SearchesMeasurement.LOCATION_ACTIONBAR, "google");
+
+        now[0] = 5000;
+        measurement.recordSearch(SearchesMeasurement.LOCATION_ACTIONBAR, "google");
+
+        assertTrue(snapshotWritten.await(5, TimeUnit.SECONDS));
+        assertFalse(storeThreads.isEmpty());
+        assertFalse(storeThreads.contains(Thread.currentThread()));
+
+        assertEquals(2, configuration.getKeyValueStore().getLong("measurements-search-count-engine-actionbar.google", 0));
+    }
+
+    /**
+     * Eight threads record searches while another thread keeps flushing the measurement (and
+     * writing snapshots). Every recorded search must show up in exactly one flush result.
+     */
+    @Test
+    public void testNoCountsAreLostWithConcurrentFlushes() throws Exception {
+        final int threadCount = 8;
+        final int searchesPerThread = 20000;
+
+        final SearchesMeasurement measurement = new SearchesMeasurement(configuration);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch flushed = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        for (int i = 0; i < threadCount; i++) {
+            final int thread = i;
+
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+
+                        for (int j = 0; j < searchesPerThread; j++) {
+                            if (j == searchesPerThread / 2) {
+                                // Make sure that half of the searches are recorded after a flush.
+                                flushed.await();
+                            }
+
+                            final String location = j % 2 == 0
+                                    ? SearchesMeasurement.LOCATION_ACTIONBAR
+                                    : SearchesMeasurement.LOCATION_SUGGESTION;
+                            measurement.recordSearch(location, ENGINES[(thread + j) % ENGINES.length]);
+                        }
+                    } catch (Throwable e) {
+                        failed.set(true);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        final Map<String, Long> totals = new HashMap<>();
+        int flushes = 0;
+
+        start.countDown();
+
+        while (done.getCount() > 0) {
+            addCounts(totals, (JSONObject) measurement.flush());
+            measurement.flushPendingCounts();
+            flushes++;
+            flushed.countDown();
+        }
+
+        addCounts(totals, (JSONObject) measurement.flush());
+
+        assertFalse(failed.get());
+        assertTrue(flushes > 0);
+
+        long total = 0;
+        for (long count : totals.values()) {
+            total += count;
+        }
+        assertEquals(threadCount * searchesPerThread, total);
+
+        // Every thread records the same number of searches per location and engine.
+        final long expectedPerKey = (long) threadCount * searchesPerThread / (2 * ENGINES.length);
+        assertEquals(2 * ENGINES.length, totals.size());
+        for (Map.Entry<String, Long> entry : totals.entrySet()) {
+            assertEquals(entry.getKey(), expectedPerKey, (long) entry.getValue());
+        }
+
+        // Nothing is left in the store that would be reported again after a restart.
+        assertEquals(0, ((JSONObject) new SearchesMeasurement(configuration).flush()).length());
+    }
+
+    private static void addCounts(Map<String, Long> totals, JSONObject searches) throws Exception {
+        final Iterator<String> keys = searches.keys();
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            final Long total = totals.get(key);
+            totals.put(key, (total != null ? total : 0) + searches.getLong(key));
+        }
+    }
+}
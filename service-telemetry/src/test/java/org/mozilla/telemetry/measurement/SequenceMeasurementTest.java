@@ -0,0 +1,131 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.measurement;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.ping.TelemetryPingBuilder;
+import org.mozilla.telemetry.storage.FileTelemetryKeyValueStore;
+import org.mozilla.telemetry.storage.TelemetryKeyValueStore;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class SequenceMeasurementTest {
+    private TelemetryConfiguration configuration;
+    private TelemetryPingBuilder builder;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application);
+        builder = new TelemetryPingBuilder(configuration, "test", 1) {};
+    }
+
+    @Test
+    public void testStoreIsWrittenOncePerBlock() {
+        final TelemetryKeyValueStore store = spy(configuration.getKeyValueStore());
+        configuration.setKeyValueStore(store);
+
+        final SequenceMeasurement measurement = new SequenceMeasurement(configuration, builder);
+        for (long i = 1; i <= 130; i++) {
+            assertEquals(i, measurement.flush());
+        }
+
+        verify(store, times(3)).putLong(anyString(), anyLong());
+        verify(store, times(3)).flush();
+        assertEquals(192, store.getLong("sequence_test", 0));
+    }
+
+    @Test
+    public void testRestartSkipsToNextBlock() {
+        final SequenceMeasurement measurement = new SequenceMeasurement(configuration, builder);
+        for (long i = 1; i <= 10; i++) {
+            assertEquals(i, measurement.flush());
+        }
+
+        final SequenceMeasurement restartedMeasurement = new SequenceMeasurement(configuration, builder);
+        assertEquals(65L, restartedMeasurement.flush());
+        assertEquals(66L, restartedMeasurement.flush());
+    }
+
+    @Test
+    public void testNumbersOfUnwrittenBlockAreNotHandedOut() {
+        // The directory does not exist: Writing the snapshot fails.
+        final File directory = new File(configuration.getDataDirectory(), "missing");
+        final TelemetryKeyValueStore store = new FileTelemetryKeyValueStore(
+                new File(directory, "telemetry.kv"), 60000, null);
+        configuration.setKeyValueStore(store);
+
+        final SequenceMeasurement measurement = new SequenceMeasurement(configuration, builder);
+        assertEquals(1L, measurement.flush());
+        assertEquals(2L, measurement.flush());
+
+        // Only the numbers handed out have been reserved.
+        assertEquals(2, store.getLong("sequence_test", 0));
+
+        // Once the store can be written again whole blocks are reserved.
+        assertTrue(directory.mkdirs());
+
+        assertEquals(3L, measurement.flush());
+        assertEquals(66, store.getLong("sequence_test", 0));
+        assertEquals(66, new FileTelemetryKeyValueStore(new File(directory, "telemetry.kv"), 60000, null)
+                .getLong("sequence_test", 0));
+    }
+
+    @Test
+    public void testLegacySequenceIsContinued() {
+        configuration.getKeyValueStore().putLong("sequence_test", 23);
+
+        final SequenceMeasurement measurement = new SequenceMeasurement(configuration, builder);
+        assertEquals(24L, measurement.flush());
+        assertEquals(87, configuration.getKeyValueStore().getLong("sequence_test", 0));
+    }
+
+    @Test
+    public void testConcurrentPingsGetUniqueSequenceNumbers() throws InterruptedException {
+        final SequenceMeasurement measurement = new SequenceMeasurement(configuration, builder);
+
+        final int threadCount = 8;
+        final int pingsPerThread = 1000;
+
+        final Set<Long> sequences = Collections.synchronizedSet(new HashSet<Long>());
+        final CountDownLatch done = new CountDownLatch(threadCount);
+
+        for (int i = 0; i < threadCount; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < pingsPerThread; j++) {
+                        sequences.add((Long) measurement.flush());
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(threadCount * pingsPerThread, sequences.size());
+        assertTrue(sequences.contains(1L));
+        assertTrue(sequences.contains((long) threadCount * pingsPerThread));
+    }
+}
@@ -0,0 +1,154 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.measurement;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.ping.TelemetryPingBuilder;
+import org.mozilla.telemetry.serialize.JSONPingSerializer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SettingsMeasurementTest {
+    private TelemetryConfiguration configuration;
+    private SharedPreferences preferences;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application)
+                .setPreferencesImportantForTelemetry("block_ads", "theme", "default_browser");
+        preferences = PreferenceManager.getDefaultSharedPreferences(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void testChangesOfImportantPreferencesAreReported() throws Exception {
+        preferences.edit().putBoolean("block_ads", true).putString("other", "a").commit();
+
+        final SettingsMeasurement measurement = new SettingsMeasurement(configuration);
+
+        JSONObject settings = (JSONObject) measurement.flush();
+        assertEquals("true", settings.getString("block_ads"));
+        assertTrue(settings.isNull("theme"));
+        assertFalse(settings.has("other"));
+
+        final Object token = measurement.getCacheToken();
+
+        // Other preferences do not change the settings.
+        preferences.edit().putString("other", "b").commit();
+        assertEquals(token, measurement.getCacheToken());
+
+        preferences.edit().putBoolean("block_ads", false).putString("theme", "dark").commit();
+        assertNotEquals(token, measurement.getCacheToken());
+
+        settings = (JSONObject) measurement.flush();
+        assertEquals("false", settings.getString("block_ads"));
+        assertEquals("dark", settings.getString("theme"));
+
+        preferences.edit().remove("theme").commit();
+        settings = (JSONObject) measurement.flush();
+        assertTrue(settings.isNull("theme"));
+    }
+
+    @Test
+    public void testChangingImportantPreferencesChangesToken() throws Exception {
+        preferences.edit().putString("theme", "dark").commit();
+
+        final SettingsMeasurement measurement = new SettingsMeasurement(configuration);
+        final Object token = measurement.getCacheToken();
+
+        configuration.setPreferencesImportantForTelemetry("theme");
+        assertNotEquals(token, measurement.getCacheToken());
+
+        final JSONObject settings = (JSONObject) measurement.flush();
+        assertEquals(1, settings.length());
+        assertEquals("dark", settings.getString("theme"));
+    }
+
+    @Test
+    public void testComputedValuesAreRefreshedAtMostOncePerInterval() throws Exception {
+        configuration.setComputedSettingsRefreshInterval(Duration.ofMinutes(10).toMillis());
+
+        final CountingSettingsProvider provider = new CountingSettingsProvider();
+        configuration.setSettingsProvider(provider);
+
+        final SettingsMeasurement measurement = new SettingsMeasurement(configuration);
+        assertEquals("false", ((JSONObject) measurement.flush()).getString("default_browser"));
+        final Object token = measurement.getCacheToken();
+
+        provider.isDefaultBrowser = true;
+        assertEquals(token, measurement.getCacheToken());
+        assertEquals("false", ((JSONObject) measurement.flush()).getString("default_browser"));
+        assertEquals(1, provider.computations);
+
+        ShadowSystemClock.advanceBy(Duration.ofMinutes(10));
+
+        assertNotEquals(token, measurement.getCacheToken());
+        assertEquals("true", ((JSONObject) measurement.flush()).getString("default_browser"));
+        assertEquals(2, provider.computations);
+    }
+
+    @Test
+    public void testSerializedSettingsAreReusedByPingBuilder() {
+        preferences.edit().putString("theme", "dark").commit();
+
+        final CountingSettingsProvider provider = new CountingSettingsProvider();
+        configuration.setSettingsProvider(provider);
+
+        final TelemetryPingBuilder builder = new TelemetryPingBuilder(configuration, "test", 1) {
+            {
+                addMeasurement(new SettingsMeasurement(configuration));
+            }
+        };
+        final JSONPingSerializer serializer = new JSONPingSerializer();
+
+        final String json = serializer.serialize(builder.build());
+        final int reads = provider.reads;
+
+        assertEquals(json, serializer.serialize(builder.build()));
+        assertEquals(reads, provider.reads);
+
+        preferences.edit().putString("theme", "light").commit();
+
+        assertTrue(serializer.serialize(builder.build()).contains("\"theme\":\"light\""));
+        assertTrue(provider.reads > reads);
+    }
+
+    private static class CountingSettingsProvider extends SettingsMeasurement.SharedPreferenceSettingsProvider {
+        private boolean isDefaultBrowser;
+        private int computations;
+        private int reads;
+
+        @Override
+        protected Object computeValue(String key) {
+            if (!"default_browser".equals(key)) {
+                return null;
+            }
+
+            computations++;
+            return String.valueOf(isDefaultBrowser);
+        }
+
+        @Override
+        public synchronized Object getValue(String key) {
+            reads++;
+            return super.getValue(key);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.measurement;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class TimezoneOffsetMeasurementTest {
+    @Test
+    public void testTokenChangesWithDaylightSavingTimeOfOverriddenNow() {
+        final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("Europe/Berlin"));
+        calendar.set(2020, Calendar.JANUARY, 15, 12, 0, 0);
+
+        final TimezoneOffsetMeasurement measurement = new TimezoneOffsetMeasurement() {
+            @Override
+            Calendar now() {
+                return (Calendar) calendar.clone();
+            }
+        };
+
+        final Object winterToken = measurement.getCacheToken();
+        assertEquals(60, measurement.flush());
+
+        calendar.set(Calendar.MONTH, Calendar.JULY);
+
+        assertNotEquals(winterToken, measurement.getCacheToken());
+        assertEquals(120, measurement.flush());
+    }
+}
@@ -0,0 +1,101 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.net;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CircuitBreakerTest {
+    private long[] now;
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        now = new long[] { 1000 };
+        breaker = new CircuitBreaker(3, 30000, 120000) {
+            @Override
+            long now() {
+                return now[0];
+            }
+        };
+    }
+
+    @Test
+    public void testBreakerOpensAfterConsecutiveFailures() {
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertFalse(breaker.isAvailable());
+    }
+
+    @Test
+    public void testHalfOpenBreakerAllowsSingleTrialRequest() {
+        openBreaker();
+
+        now[0] += 30000;
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.isAvailable());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testFailedTrialDoublesOpenDuration() {
+        openBreaker();
+
+        now[0] += 30000;
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+
+        now[0] += 59999;
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        now[0] += 1;
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+
+        // 120 seconds is the maximum.
+        now[0] += 120000;
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        now[0] += 120000;
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testRetryAfterOpensBreakerImmediately() {
+        breaker.openFor(5000);
+        assertFalse(breaker.allowRequest());
+
+        now[0] += 5000;
+        assertTrue(breaker.allowRequest());
+    }
+
+    private void openBreaker() {
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
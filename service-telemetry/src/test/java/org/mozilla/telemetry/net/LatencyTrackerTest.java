@@ -0,0 +1,58 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.net;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class LatencyTrackerTest {
+    @Test
+    public void testConfiguredTimeoutsAreUsedUntilEnoughSamplesAreRecorded() {
+        final LatencyTracker tracker = new LatencyTracker(10);
+
+        for (int i = 0; i < 4; i++) {
+            tracker.record(100);
+            assertEquals(10000, tracker.getConnectTimeout(10000));
+            assertEquals(30000, tracker.getReadTimeout(30000));
+        }
+    }
+
+    @Test
+    public void testTimeoutsFollowObservedLatency() {
+        final LatencyTracker tracker = new LatencyTracker(20);
+
+        for (int i = 1; i <= 20; i++) {
+            tracker.record(i * 100);
+        }
+
+        assertEquals(1000, tracker.getPercentile(50));
+        assertEquals(1900, tracker.getPercentile(95));
+        assertEquals(3800, tracker.getConnectTimeout(10000));
+        assertEquals(7600, tracker.getReadTimeout(30000));
+
+        // Never longer than configured.
+        assertEquals(5000, tracker.getReadTimeout(5000));
+    }
+
+    @Test
+    public void testOnlyRecentSamplesAreUsed() {
+        final LatencyTracker tracker = new LatencyTracker(5);
+
+        for (int i = 0; i < 5; i++) {
+            tracker.record(5000);
+        }
+        for (int i = 0; i < 5; i++) {
+            tracker.record(10);
+        }
+
+        // Fast responses: The minimum timeouts apply.
+        assertEquals(1000, tracker.getConnectTimeout(10000));
+        assertEquals(2000, tracker.getReadTimeout(30000));
+    }
+}
@@ -0,0 +1,262 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.TelemetryInternalMetrics;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.ping.TelemetryPingBuilder;
+import org.mozilla.telemetry.serialize.CborPingSerializer;
+import org.mozilla.telemetry.serialize.JSONPingSerializer;
+import org.mozilla.telemetry.serialize.PingSerializerRegistry;
+import org.mozilla.telemetry.storage.FileTelemetryStorage;
+import org.mozilla.telemetry.storage.StoredPing;
+import org.mozilla.telemetry.storage.TelemetryStorage;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import mozilla.components.concept.fetch.Client;
+import mozilla.components.concept.fetch.Request;
+import mozilla.components.concept.fetch.Response;
+import mozilla.components.lib.fetch.httpurlconnection.HttpURLConnectionClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSource;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class TelemetryClientTest {
+    private static final String TEST_PING_TYPE = "test";
+
+    private MockWebServer server;
+    private TelemetryConfiguration configuration;
+    private TelemetryPingBuilder builder;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application)
+                .setServerEndpoint("http://" + server.getHostName() + ":" + server.getPort());
+        builder = new TelemetryPingBuilder(configuration, TEST_PING_TYPE, 1) {};
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void testCompressedPingIsUploadedWithContentEncoding() throws Exception {
+        configuration.setPingCompressionEnabled(true);
+
+        final TelemetryPing ping = builder.build();
+        final String serializedPing = new JSONPingSerializer().serialize(ping);
+
+        final RecordedRequest request = storeAndUpload(ping);
+
+        assertEquals("POST", request.getMethod());
+        assertEquals(ping.getUploadPath(), request.getPath());
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        assertEquals("application/json; charset=utf-8", request.getHeader("Content-Type"));
+
+        assertEquals(serializedPing, gunzip(request.getBody()));
+    }
+
+    @Test
+    public void testUncompressedPingIsUploadedAsIs() throws Exception {
+        final TelemetryPing ping = builder.build();
+        final String serializedPing = new JSONPingSerializer().serialize(ping);
+
+        final RecordedRequest request = storeAndUpload(ping);
+
+        assertNull(request.getHeader("Content-Encoding"));
+        assertEquals(serializedPing, request.getBody().readUtf8());
+    }
+
+    @Test
+    public void testPingIsUploadedWithItsContentType() throws Exception {
+        configuration.setPingContentType(TEST_PING_TYPE, CborPingSerializer.CONTENT_TYPE);
+
+        final TelemetryPing ping = builder.build();
+
+        final RecordedRequest request = storeAndUpload(ping);
+
+        assertEquals(CborPingSerializer.CONTENT_TYPE, request.getHeader("Content-Type"));
+        assertTrue(Arrays.equals(new CborPingSerializer().serialize(ping), request.getBody().readByteArray()));
+    }
+
+    @Test
+    public void testEndpointIsSkippedAfterRepeatedFailures() {
+        final TelemetryClient client = new TelemetryClient(new HttpURLConnectionClient());
+        final StoredPing ping = new StoredPing("/submit/telemetry/test", "{}".getBytes(), null);
+
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(500));
+            assertFalse(client.uploadPing(configuration, ping));
+        }
+
+        assertFalse(client.isEndpointAvailable(configuration));
+        assertFalse(client.uploadPing(configuration, ping));
+        assertEquals(3, server.getRequestCount());
+
+        // Other endpoints are not affected.
+        final TelemetryConfiguration otherConfiguration = new TelemetryConfiguration(RuntimeEnvironment.application)
+                .setServerEndpoint("http://localhost:1");
+        assertTrue(client.isEndpointAvailable(otherConfiguration));
+    }
+
+    @Test
+    public void testRetryAfterIsHonoured() {
+        final TelemetryClient client = new TelemetryClient(new HttpURLConnectionClient());
+        final StoredPing ping = new StoredPing("/submit/telemetry/test", "{}".getBytes(), null);
+
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "120"));
+        assertFalse(client.uploadPing(configuration, ping));
+
+        assertFalse(client.isEndpointAvailable(configuration));
+        assertFalse(client.uploadPing(configuration, ping));
+        assertEquals(1, server.getRequestCount());
+
+        ShadowSystemClock.advanceBy(Duration.ofSeconds(120));
+
+        server.enqueue(new MockResponse().setResponseCode(200));
+        assertTrue(client.isEndpointAvailable(configuration));
+        assertTrue(client.uploadPing(configuration, ping));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testTrialRequestIsReleasedIfClientThrows() {
+        final boolean[] throwing = new boolean[1];
+        final Client httpClient = new HttpURLConnectionClient();
+
+        final TelemetryClient client = new TelemetryClient(new Client() {
+            @Override
+            public Response fetch(Request request) {
+                if (throwing[0]) {
+                    throw new IllegalArgumentException("Malformed URL");
+                }
+                return httpClient.fetch(request);
+            }
+        });
+        final StoredPing ping = new StoredPing("/submit/telemetry/test", "{}".getBytes(), null);
+
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "120"));
+        assertFalse(client.uploadPing(configuration, ping));
+
+        ShadowSystemClock.advanceBy(Duration.ofSeconds(120));
+        assertTrue(client.isEndpointAvailable(configuration));
+
+        // The trial request of the half-open breaker fails with an unexpected exception.
+        throwing[0] = true;
+        try {
+            client.uploadPing(configuration, ping);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        // The trial counts as failed: The breaker opens again (for longer) instead of waiting for it forever.
+        assertFalse(client.isEndpointAvailable(configuration));
+        ShadowSystemClock.advanceBy(Duration.ofSeconds(240));
+
+        throwing[0] = false;
+        server.enqueue(new MockResponse().setResponseCode(200));
+        assertTrue(client.isEndpointAvailable(configuration));
+        assertTrue(client.uploadPing(configuration, ping));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testTooManyRequestsIsRetried() {
+        final TelemetryClient client = new TelemetryClient(new HttpURLConnectionClient());
+        final StoredPing ping = new StoredPing("/submit/telemetry/test", "{}".getBytes(), null);
+
+        server.enqueue(new MockResponse().setResponseCode(429));
+        assertFalse(client.uploadPing(configuration, ping));
+    }
+
+    @Test
+    public void testRetryAfterDateIsHonoured() {
+        final TelemetryClient client = new TelemetryClient(new HttpURLConnectionClient());
+        final StoredPing ping = new StoredPing("/submit/telemetry/test", "{}".getBytes(), null);
+
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        final String retryAfter = dateFormat.format(new Date(System.currentTimeMillis() + 60000));
+
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", retryAfter));
+        assertFalse(client.uploadPing(configuration, ping));
+        assertFalse(client.isEndpointAvailable(configuration));
+
+        ShadowSystemClock.advanceBy(Duration.ofSeconds(61));
+        assertTrue(client.isEndpointAvailable(configuration));
+    }
+
+    @Test
+    public void testUploadsAreRecordedInInternalMetrics() {
+        final TelemetryClient client = new TelemetryClient(new HttpURLConnectionClient());
+        final StoredPing ping = new StoredPing("/submit/telemetry/test", "{}".getBytes(), null);
+
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        client.uploadPing(configuration, ping);
+        client.uploadPing(configuration, ping);
+
+        final TelemetryInternalMetrics.Snapshot snapshot = configuration.getInternalMetrics().getSnapshot();
+        assertEquals(1, snapshot.getUploads(2));
+        assertEquals(1, snapshot.getUploads(5));
+        assertEquals(4, snapshot.getUploadedBytes());
+        assertEquals(2, snapshot.getUploadLatency().getTotalCount());
+    }
+
+    private RecordedRequest storeAndUpload(TelemetryPing ping) throws InterruptedException {
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        final FileTelemetryStorage storage = new FileTelemetryStorage(configuration,
+                new PingSerializerRegistry(new JSONPingSerializer()).register(new CborPingSerializer()));
+        storage.store(ping);
+
+        final TelemetryClient client = new TelemetryClient(new HttpURLConnectionClient());
+
+        assertTrue(storage.process(TEST_PING_TYPE, new TelemetryStorage.TelemetryStorageCallback() {
+            @Override
+            public boolean onTelemetryPingLoaded(StoredPing storedPing) {
+                return client.uploadPing(configuration, storedPing);
+            }
+        }));
+
+        assertEquals(0, storage.countStoredPings(TEST_PING_TYPE));
+
+        return server.takeRequest();
+    }
+
+    private static String gunzip(Buffer buffer) throws IOException {
+        return Okio.buffer(new GzipSource(buffer)).readUtf8();
+    }
+}
@@ -0,0 +1,289 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.net;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.storage.StoredPing;
+import org.mozilla.telemetry.storage.StoredPingStats;
+import org.mozilla.telemetry.storage.TelemetryStorage;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class UploadQueueTest {
+    private static final String CORE = "core";
+    private static final String METRICS = "mobile-metrics";
+    private static final String EVENTS = "focus-event";
+    private static final List<String> PING_TYPES = Arrays.asList(EVENTS, METRICS, CORE);
+
+    private static final int TOTAL_UPLOADS_PER_DAY = 20;
+
+    private TelemetryConfiguration configuration;
+    private SimulatedStorage storage;
+    private long[] now;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application)
+                .setMaximumNumberOfPingUploadsPerDay(100)
+                .setMaximumNumberOfTotalPingUploadsPerDay(TOTAL_UPLOADS_PER_DAY);
+
+        storage = new SimulatedStorage();
+
+        final Calendar calendar = Calendar.getInstance();
+        calendar.set(2020, Calendar.MARCH, 9, 0, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        now = new long[] { calendar.getTimeInMillis() };
+    }
+
+    @Test
+    public void testTypesAreOrderedByPriority() {
+        storage.add(EVENTS, 10, 4 * 1024);
+        storage.add(METRICS, 1, 4 * 1024);
+        storage.add(CORE, 1, 2 * 1024);
+
+        final List<UploadQueue.Entry> plan = createQueue(createLimiter()).plan(PING_TYPES);
+
+        assertEquals(CORE, plan.get(0).getPingType());
+        assertEquals(METRICS, plan.get(1).getPingType());
+        assertEquals(EVENTS, plan.get(2).getPingType());
+    }
+
+    @Test
+    public void testLargePingsAndWaitingTimeChangeOrderWithinSimilarPriorities() {
+        configuration.setUploadPriority(METRICS, 1);
+
+        storage.add(EVENTS, 1, 4 * 1024);
+        storage.add(METRICS, 1, 64 * 1024);
+
+        // The large ping costs more bandwidth for the same value.
+        assertEquals(EVENTS, createQueue(createLimiter()).plan(PING_TYPES).get(0).getPingType());
+
+        // Two days later the waiting metrics ping is more important than a new event ping.
+        storage.pings.get(EVENTS).removeFirst();
+        now[0] += TimeUnit.DAYS.toMillis(2);
+        storage.add(EVENTS, 1, 4 * 1024);
+
+        assertEquals(METRICS, createQueue(createLimiter()).plan(PING_TYPES).get(0).getPingType());
+
+        // But aging never lifts a type above a type with a much higher priority.
+        storage.add(CORE, 1, 2 * 1024);
+        assertEquals(CORE, createQueue(createLimiter()).plan(PING_TYPES).get(0).getPingType());
+    }
+
+    @Test
+    public void testQuotasDoNotExceedBudget() {
+        configuration.setMaximumNumberOfPingUploadsPerDay(5);
+
+        storage.add(EVENTS, 30, 100 * 1024);
+        storage.add(CORE, 2, 2 * 1024);
+
+        final List<UploadQueue.Entry> plan = createQueue(createLimiter()).plan(PING_TYPES);
+
+        int total = 0;
+        for (UploadQueue.Entry entry : plan) {
+            assertTrue(entry.getQuota() <= 5);
+            assertTrue(entry.getQuota() <= entry.getStats().getCount());
+            total += entry.getQuota();
+        }
+        assertTrue(total <= TOTAL_UPLOADS_PER_DAY);
+        assertEquals(2, getEntry(plan, CORE).getQuota());
+    }
+
+    @Test
+    public void testTypesHeldBackByReservationAreMarked() {
+        storage.add(EVENTS, 10, 4 * 1024);
+
+        // Early in the day almost the whole budget is reserved for core and metrics pings.
+        final UploadQueue.Entry events = getEntry(createQueue(createLimiter()).plan(PING_TYPES), EVENTS);
+        assertTrue(events.getQuota() < 10);
+        assertTrue(events.isHeldBackByReservation());
+
+        // At the end of the day the reservation is gone.
+        now[0] += TimeUnit.DAYS.toMillis(1) - 1;
+        final UploadQueue.Entry lateEvents = getEntry(createQueue(createLimiter()).plan(PING_TYPES), EVENTS);
+        assertEquals(10, lateEvents.getQuota());
+        assertFalse(lateEvents.isHeldBackByReservation());
+    }
+
+    /**
+     * Replays a week with a constrained daily budget: Every day creates two core pings (in the
+     * morning and in the evening), one metrics ping and 30 large event pings (more than the whole
+     * daily budget). An upload job runs every 4 hours.
+     */
+    @Test
+    public void testCorePingsAreNotStarvedDuringAWeekOfConstrainedBudget() {
+        final UploadRateLimiter limiter = createLimiter();
+        final UploadQueue queue = createQueue(limiter);
+        final UploadStats weekStats = new UploadStats();
+
+        for (int day = 0; day < 7; day++) {
+            final UploadStats dayStats = new UploadStats();
+
+            for (int hour = 0; hour < 24; hour++) {
+                if (hour == 8 || hour == 20) {
+                    storage.add(CORE, 1, 2 * 1024);
+                }
+                if (hour == 12) {
+                    storage.add(METRICS, 1, 8 * 1024);
+                }
+                if (hour % 4 == 1) {
+                    storage.add(EVENTS, 5, 100 * 1024);
+                }
+
+                if (hour % 4 == 2) {
+                    runUploadJob(queue, limiter, dayStats, weekStats);
+                }
+
+                now[0] += TimeUnit.HOURS.toMillis(1);
+            }
+
+            // Nothing of a higher priority is left at the end of the day ...
+            assertEquals(0, storage.countStoredPings(CORE));
+            assertEquals(0, storage.countStoredPings(METRICS));
+            assertEquals(2, dayStats.getUploadedPings(CORE));
+            assertEquals(1, dayStats.getUploadedPings(METRICS));
+
+            // ... the budget has never been exceeded and event pings got (almost) all of the rest.
+            assertTrue(dayStats.getUploadedPings() <= TOTAL_UPLOADS_PER_DAY);
+            assertTrue(dayStats.getUploadedPings(EVENTS) >= TOTAL_UPLOADS_PER_DAY - 3 - 3);
+        }
+
+        // The budget report of the week.
+        assertEquals(14, weekStats.getUploadedPings(CORE));
+        assertEquals(14 * 2 * 1024, weekStats.getUploadedBytes(CORE));
+        assertEquals(7, weekStats.getUploadedPings(METRICS));
+        assertEquals(7 * 8 * 1024, weekStats.getUploadedBytes(METRICS));
+        assertTrue(weekStats.getUploadedPings() <= 7 * TOTAL_UPLOADS_PER_DAY);
+        assertEquals(weekStats.getUploadedPings() - 21, weekStats.getUploadedPings(EVENTS));
+        assertEquals(7 * 30 - weekStats.getUploadedPings(EVENTS), storage.countStoredPings(EVENTS));
+    }
+
+    /**
+     * Upload the planned pings one type after another (like TelemetryJobService does).
+     */
+    private void runUploadJob(UploadQueue queue, final UploadRateLimiter limiter, final UploadStats... stats) {
+        for (final UploadQueue.Entry entry : queue.plan(PING_TYPES)) {
+            final int[] uploaded = new int[1];
+
+            storage.process(entry.getPingType(), new TelemetryStorage.TelemetryStorageCallback() {
+                @Override
+                public boolean onTelemetryPingLoaded(StoredPing ping) {
+                    if (uploaded[0] >= entry.getQuota() || !limiter.tryAcquire(entry.getPingType())) {
+                        return false;
+                    }
+
+                    uploaded[0]++;
+                    for (UploadStats s : stats) {
+                        s.recordUpload(entry.getPingType(), ping.getPayload().length, 0, true);
+                    }
+                    return true;
+                }
+            });
+        }
+    }
+
+    private static UploadQueue.Entry getEntry(List<UploadQueue.Entry> plan, String pingType) {
+        for (UploadQueue.Entry entry : plan) {
+            if (entry.getPingType().equals(pingType)) {
+                return entry;
+            }
+        }
+        throw new AssertionError("No entry for type " + pingType);
+    }
+
+    private UploadRateLimiter createLimiter() {
+        return new UploadRateLimiter(configuration) {
+            @Override
+            long now() {
+                return now[0];
+            }
+        };
+    }
+
+    private UploadQueue createQueue(UploadRateLimiter limiter) {
+        return new UploadQueue(configuration, storage, limiter) {
+            @Override
+            long now() {
+                return now[0];
+            }
+        };
+    }
+
+    /**
+     * In-memory storage keeping the size and creation time of every ping.
+     */
+    private class SimulatedStorage implements TelemetryStorage {
+        private final Map<String, ArrayDeque<long[]>> pings = new HashMap<>();
+
+        private void add(String pingType, int count, int bytes) {
+            for (int i = 0; i < count; i++) {
+                getPings(pingType).addLast(new long[] { now[0], bytes });
+            }
+        }
+
+        private ArrayDeque<long[]> getPings(String pingType) {
+            ArrayDeque<long[]> queue = pings.get(pingType);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                pings.put(pingType, queue);
+            }
+            return queue;
+        }
+
+        @Override
+        public boolean store(TelemetryPing ping) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean process(String pingType, TelemetryStorageCallback callback) {
+            final ArrayDeque<long[]> queue = getPings(pingType);
+
+            while (!queue.isEmpty()) {
+                final StoredPing ping = new StoredPing("/submit/" + pingType, new byte[(int) queue.getFirst()[1]], null);
+                if (!callback.onTelemetryPingLoaded(ping)) {
+                    return false;
+                }
+                queue.removeFirst();
+            }
+
+            return true;
+        }
+
+        @Override
+        public int countStoredPings(String pingType) {
+            return getPings(pingType).size();
+        }
+
+        @Override
+        public StoredPingStats getStoredPingStats(String pingType) {
+            final ArrayDeque<long[]> queue = getPings(pingType);
+
+            long bytes = 0;
+            for (long[] ping : queue) {
+                bytes += ping[1];
+            }
+
+            return new StoredPingStats(queue.size(), bytes, queue.isEmpty() ? 0 : queue.getFirst()[0]);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.net;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.storage.TelemetryKeyValueStore;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class UploadRateLimiterTest {
+    private TelemetryConfiguration configuration;
+    private long[] now;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application)
+                .setMaximumNumberOfPingUploadsPerDay(3);
+
+        final Calendar calendar = Calendar.getInstance();
+        calendar.set(2020, Calendar.MARCH, 10, 12, 0, 0);
+        now = new long[] { calendar.getTimeInMillis() };
+    }
+
+    @Test
+    public void testDailyLimitIsEnforced() {
+        final UploadRateLimiter limiter = createLimiter();
+
+        assertTrue(limiter.tryAcquire("core"));
+        assertTrue(limiter.tryAcquire("core"));
+        assertTrue(limiter.tryAcquire("core"));
+        assertFalse(limiter.tryAcquire("core"));
+        assertTrue(limiter.hasReachedDailyLimit("core"));
+
+        // The limit applies per ping type.
+        assertTrue(limiter.tryAcquire("event"));
+        assertFalse(limiter.hasReachedDailyLimit("event"));
+
+        // A failed upload does not count.
+        limiter.release("core");
+        assertTrue(limiter.tryAcquire("core"));
+    }
+
+    @Test
+    public void testBudgetIsResetAtMidnight() {
+        final UploadRateLimiter limiter = createLimiter();
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire("core"));
+        }
+        assertFalse(limiter.tryAcquire("core"));
+
+        now[0] += TimeUnit.HOURS.toMillis(11) + TimeUnit.MINUTES.toMillis(59);
+        assertFalse(limiter.tryAcquire("core"));
+
+        now[0] += TimeUnit.MINUTES.toMillis(1);
+        assertTrue(limiter.tryAcquire("core"));
+    }
+
+    @Test
+    public void testCountersAreOnlyWrittenOnPersist() {
+        final TelemetryKeyValueStore store = spy(configuration.getKeyValueStore());
+        configuration.setKeyValueStore(store);
+
+        final UploadRateLimiter limiter = createLimiter();
+        limiter.tryAcquire("core");
+        limiter.tryAcquire("core");
+
+        verify(store, never()).putLong(anyString(), anyLong());
+
+        limiter.persist();
+        limiter.persist();
+
+        verify(store, times(2)).putLong(anyString(), anyLong());
+        verify(store, times(1)).flush();
+
+        // A new process continues with the persisted counters.
+        final UploadRateLimiter restoredLimiter = createLimiter();
+        assertTrue(restoredLimiter.tryAcquire("core"));
+        assertFalse(restoredLimiter.tryAcquire("core"));
+    }
+
+    @Test
+    public void testCountersOfLegacyVersionsAreUsed() {
+        configuration.getKeyValueStore().putLong("last_uploade_core", now[0] - 1000);
+        configuration.getKeyValueStore().putLong("upload_count_core", 3);
+        configuration.getKeyValueStore().putLong("last_uploade_event", now[0] - TimeUnit.DAYS.toMillis(1));
+        configuration.getKeyValueStore().putLong("upload_count_event", 3);
+
+        final UploadRateLimiter limiter = createLimiter();
+        assertTrue(limiter.hasReachedDailyLimit("core"));
+        assertFalse(limiter.hasReachedDailyLimit("event"));
+    }
+
+    @Test
+    public void testBurstIsRefilledAtDailyRate() {
+        configuration
+                .setMaximumNumberOfPingUploadsPerDay(24)
+                .setMaximumPingUploadBurst(2);
+
+        final UploadRateLimiter limiter = createLimiter();
+
+        assertTrue(limiter.tryAcquire("core"));
+        assertTrue(limiter.tryAcquire("core"));
+        assertFalse(limiter.tryAcquire("core"));
+        assertFalse(limiter.hasReachedDailyLimit("core"));
+
+        // 24 uploads per day: One token per hour.
+        now[0] += TimeUnit.MINUTES.toMillis(59);
+        assertFalse(limiter.tryAcquire("core"));
+
+        now[0] += TimeUnit.MINUTES.toMillis(1);
+        assertTrue(limiter.tryAcquire("core"));
+        assertFalse(limiter.tryAcquire("core"));
+
+        // The bucket never holds more than the burst size.
+        now[0] += TimeUnit.HOURS.toMillis(5);
+        assertTrue(limiter.tryAcquire("core"));
+        assertTrue(limiter.tryAcquire("core"));
+        assertFalse(limiter.tryAcquire("core"));
+    }
+
+    @Test
+    public void testSharedDailyLimitIsEnforced() {
+        configuration.setMaximumNumberOfTotalPingUploadsPerDay(4);
+
+        final UploadRateLimiter limiter = createLimiter();
+        assertEquals(4, limiter.getRemainingTotalUploads());
+
+        assertTrue(limiter.tryAcquire("core"));
+        assertTrue(limiter.tryAcquire("core"));
+        assertTrue(limiter.tryAcquire("event"));
+        assertEquals(1, limiter.getRemainingUploads("core"));
+        assertEquals(1, limiter.getRemainingTotalUploads());
+
+        assertTrue(limiter.tryAcquire("event"));
+        assertFalse(limiter.tryAcquire("metrics"));
+        assertTrue(limiter.hasReachedDailyLimit("metrics"));
+
+        limiter.release("event");
+        assertTrue(limiter.tryAcquire("metrics"));
+
+        // The shared budget is persisted too.
+        limiter.persist();
+        assertTrue(createLimiter().hasReachedDailyLimit("metrics"));
+
+        now[0] += TimeUnit.DAYS.toMillis(1);
+        assertEquals(4, limiter.getRemainingTotalUploads());
+    }
+
+    private UploadRateLimiter createLimiter() {
+        return new UploadRateLimiter(configuration) {
+            @Override
+            long now() {
+                return now[0];
+            }
+        };
+    }
+}
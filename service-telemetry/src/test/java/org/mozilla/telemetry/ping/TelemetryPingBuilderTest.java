@@ -0,0 +1,113 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.ping;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.measurement.DeviceMeasurement;
+import org.mozilla.telemetry.measurement.TelemetryMeasurement;
+import org.mozilla.telemetry.serialize.JSONPingSerializer;
+import org.mozilla.telemetry.serialize.StreamingJSONPingSerializer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class TelemetryPingBuilderTest {
+    private TelemetryConfiguration configuration;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application)
+                .setAppName("Focus")
+                .setAppVersion("8.0")
+                .setUpdateChannel("release")
+                .setBuildId("42");
+    }
+
+    @Test
+    public void testProcessStaticMeasurementIsOnlyFlushedOnce() throws Exception {
+        final DeviceMeasurement measurement = spy(new DeviceMeasurement());
+        final TelemetryPingBuilder builder = createBuilder(measurement);
+
+        for (int i = 0; i < 5; i++) {
+            final TelemetryPing ping = builder.build();
+
+            final JSONObject json = new JSONObject(new JSONPingSerializer().serialize(ping));
+            assertEquals(measurement.flush(), json.getString("device"));
+            assertEquals(json.toString(), new JSONObject(new StreamingJSONPingSerializer().serialize(ping)).toString());
+        }
+
+        // Once for the first ping and once for every assertion above.
+        verify(measurement, times(6)).flush();
+    }
+
+    @Test
+    public void testMeasurementIsFlushedAgainIfTokenChanges() throws Exception {
+        final ChangingMeasurement measurement = new ChangingMeasurement();
+        final TelemetryPingBuilder builder = createBuilder(measurement);
+
+        assertEquals("value-0", serialize(builder.build()).getString("changing"));
+        assertEquals("value-0", serialize(builder.build()).getString("changing"));
+        assertEquals(1, measurement.flushes);
+
+        measurement.version++;
+
+        assertEquals("value-1", serialize(builder.build()).getString("changing"));
+        assertEquals(2, measurement.flushes);
+    }
+
+    @Test
+    public void testUploadPath() {
+        final TelemetryPingBuilder builder = createBuilder(new DeviceMeasurement());
+
+        final TelemetryPing ping = builder.build();
+        assertEquals("/submit/telemetry/" + ping.getDocumentId() + "/test/Focus/8.0/release/42", ping.getUploadPath());
+
+        configuration.setUpdateChannel("beta");
+
+        final TelemetryPing betaPing = builder.build();
+        assertEquals("/submit/telemetry/" + betaPing.getDocumentId() + "/test/Focus/8.0/beta/42", betaPing.getUploadPath());
+    }
+
+    private TelemetryPingBuilder createBuilder(final TelemetryMeasurement measurement) {
+        return new TelemetryPingBuilder(configuration, "test", 1) {
+            {
+                addMeasurement(measurement);
+            }
+        };
+    }
+
+    private static JSONObject serialize(TelemetryPing ping) throws Exception {
+        return new JSONObject(new StreamingJSONPingSerializer().serialize(ping));
+    }
+
+    private static class ChangingMeasurement extends TelemetryMeasurement {
+        private int version;
+        private int flushes;
+
+        private ChangingMeasurement() {
+            super("changing");
+        }
+
+        @Override
+        public Object flush() {
+            flushes++;
+            return "value-" + version;
+        }
+
+        @Override
+        public Object getCacheToken() {
+            return version;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.schedule.jobscheduler;
+
+import android.app.job.JobParameters;
+import android.os.AsyncTask;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.Telemetry;
+import org.mozilla.telemetry.TelemetryHolder;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.net.TelemetryClient;
+import org.mozilla.telemetry.net.UploadRateLimiter;
+import org.mozilla.telemetry.net.UploadStats;
+import org.mozilla.telemetry.ping.TelemetryPingBuilder;
+import org.mozilla.telemetry.schedule.TelemetryScheduler;
+import org.mozilla.telemetry.serialize.JSONPingSerializer;
+import org.mozilla.telemetry.storage.FileTelemetryStorage;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mozilla.components.lib.fetch.httpurlconnection.HttpURLConnectionClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class TelemetryJobServiceTest {
+    private static final int PING_TYPES = 4;
+    private static final int PINGS_PER_TYPE = 3;
+
+    private MockWebServer server;
+    private TelemetryConfiguration configuration;
+    private Telemetry telemetry;
+    private UploadRateLimiter limiter;
+    private TelemetryJobService service;
+    private AsyncTask task;
+    private JobParameters parameters;
+    private CountDownLatch releaseRequests;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application)
+                .setServerEndpoint("http://" + server.getHostName() + ":" + server.getPort())
+                .setMaximumParallelUploads(PING_TYPES);
+
+        final FileTelemetryStorage storage = new FileTelemetryStorage(configuration, new JSONPingSerializer());
+
+        // The reservation for higher priorities depends on the time of day: Tests can stub it.
+        limiter = spy(new UploadRateLimiter(configuration));
+
+        telemetry = new Telemetry(configuration, storage, new TelemetryClient(new HttpURLConnectionClient()),
+                mock(TelemetryScheduler.class)) {
+            @Override
+            public synchronized UploadRateLimiter getUploadRateLimiter() {
+                return limiter;
+            }
+        };
+
+        for (int i = 0; i < PING_TYPES; i++) {
+            final TelemetryPingBuilder builder = new TelemetryPingBuilder(configuration, "type" + i, 1) {};
+            telemetry.addPingBuilder(builder);
+
+            for (int j = 0; j < PINGS_PER_TYPE; j++) {
+                storage.store(builder.build());
+            }
+        }
+
+        TelemetryHolder.set(telemetry);
+
+        service = spy(new TelemetryJobService());
+        doNothing().when(service).jobFinished(any(JobParameters.class), anyBoolean());
+
+        // A real task: Cancelling it from another thread does not touch a mock that is in use.
+        task = new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                return null;
+            }
+        };
+
+        parameters = mock(JobParameters.class);
+
+        releaseRequests = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        releaseRequests.countDown();
+        server.shutdown();
+    }
+
+    @Test
+    public void testPingTypesAreUploadedInParallel() {
+        final CountDownLatch allTypesInFlight = new CountDownLatch(PING_TYPES);
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maximumInFlight = new AtomicInteger();
+
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                final int count = inFlight.incrementAndGet();
+                synchronized (maximumInFlight) {
+                    maximumInFlight.set(Math.max(maximumInFlight.get(), count));
+                }
+
+                // Every request waits until one request of each type is in flight. Uploading one
+                // request after another would never get there (the timeout only avoids hanging the test).
+                allTypesInFlight.countDown();
+                if (!allTypesInFlight.await(10, TimeUnit.SECONDS)) {
+                    timedOut.set(true);
+                }
+
+                inFlight.decrementAndGet();
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+
+        service.uploadPingsInBackground(task, parameters);
+
+        assertFalse("Ping types have not been uploaded in parallel", timedOut.get());
+        assertEquals(PING_TYPES, maximumInFlight.get());
+
+        assertEquals(PING_TYPES * PINGS_PER_TYPE, server.getRequestCount());
+        for (int i = 0; i < PING_TYPES; i++) {
+            assertEquals(0, telemetry.getStorage().countStoredPings("type" + i));
+        }
+
+        final UploadStats stats = service.getLastUploadStats();
+        assertEquals(PING_TYPES * PINGS_PER_TYPE, stats.getUploadedPings());
+        assertEquals(0, stats.getFailedPings());
+        assertTrue(stats.getUploadedBytes() > 0);
+
+        verify(service).jobFinished(parameters, false);
+    }
+
+    @Test
+    public void testFailingPingTypeDoesNotStopOtherTypes() {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(request.getPath().contains("/type1/") ? 500 : 200);
+            }
+        });
+
+        service.uploadPingsInBackground(task, parameters);
+
+        assertEquals(PINGS_PER_TYPE, telemetry.getStorage().countStoredPings("type1"));
+        assertEquals(0, telemetry.getStorage().countStoredPings("type0"));
+        assertEquals(0, telemetry.getStorage().countStoredPings("type2"));
+        assertEquals(0, telemetry.getStorage().countStoredPings("type3"));
+
+        final UploadStats stats = service.getLastUploadStats();
+        assertEquals((PING_TYPES - 1) * PINGS_PER_TYPE, stats.getUploadedPings());
+        assertEquals(1, stats.getFailedPings());
+
+        verify(service).jobFinished(parameters, true);
+    }
+
+    /**
+     * Replays a day with a constrained budget: The budget of the lower priority types is reserved for
+     * core pings that have not been created yet. The job needs to be rescheduled until the
+     * reservation has shrunk far enough.
+     */
+    @Test
+    public void testPingsHeldBackForHigherPrioritiesAreUploadedByRescheduledJob() {
+        configuration.setMaximumNumberOfTotalPingUploadsPerDay(20)
+                .setUploadPriority("core", 100);
+
+        final TelemetryPingBuilder coreBuilder = new TelemetryPingBuilder(configuration, "core", 1) {};
+        telemetry.addPingBuilder(coreBuilder);
+
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+
+        // Morning: The whole budget is reserved for core pings. Nothing is uploaded, but the job is
+        // rescheduled instead of leaving the pings behind until the next ping is stored.
+        doReturn(1.0).when(limiter).getRemainingFractionOfDay();
+        service.uploadPingsInBackground(task, parameters);
+
+        assertEquals(0, server.getRequestCount());
+        assertEquals(PING_TYPES * PINGS_PER_TYPE, countStoredPings());
+        verify(service).jobFinished(parameters, true);
+
+        // Noon: Half of the reservation is released.
+        doReturn(0.5).when(limiter).getRemainingFractionOfDay();
+        service.uploadPingsInBackground(task, parameters);
+
+        assertEquals(10, server.getRequestCount());
+        assertEquals(PING_TYPES * PINGS_PER_TYPE - 10, countStoredPings());
+        verify(service, times(2)).jobFinished(parameters, true);
+
+        // Evening: A core ping has been created. It is uploaded together with the rest.
+        telemetry.getStorage().store(coreBuilder.build());
+
+        doReturn(0.25).when(limiter).getRemainingFractionOfDay();
+        service.uploadPingsInBackground(task, parameters);
+
+        assertEquals(PING_TYPES * PINGS_PER_TYPE + 1, server.getRequestCount());
+        assertEquals(0, countStoredPings());
+        assertEquals(0, telemetry.getStorage().countStoredPings("core"));
+        verify(service).jobFinished(parameters, false);
+    }
+
+    @Test
+    public void testStoppedJobReturnsWithoutWaitingForRequests() throws Exception {
+        final CountDownLatch requestStarted = new CountDownLatch(1);
+
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                requestStarted.countDown();
+
+                // Blocks until the end of the test. If the job waited for the requests they would
+                // succeed after the timeout and the assertions below would fail.
+                releaseRequests.await(10, TimeUnit.SECONDS);
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+
+        final Thread stopper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    requestStarted.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+
+                task.cancel(false);
+                service.onStopJob(parameters);
+            }
+        });
+        stopper.start();
+
+        service.uploadPingsInBackground(task, parameters);
+        stopper.join();
+
+        // Nothing has been uploaded: All pings are still stored and the job is rescheduled by the
+        // system (onStopJob() returned true).
+        for (int i = 0; i < PING_TYPES; i++) {
+            assertEquals(PINGS_PER_TYPE, telemetry.getStorage().countStoredPings("type" + i));
+        }
+        verify(service, never()).jobFinished(eq(parameters), anyBoolean());
+        verify(limiter).persist();
+
+        // The requests that were still running persist the upload counters once they are done.
+        releaseRequests.countDown();
+        verify(limiter, timeout(5000).atLeast(2)).persist();
+    }
+
+    private int countStoredPings() {
+        int count = 0;
+        for (int i = 0; i < PING_TYPES; i++) {
+            count += telemetry.getStorage().countStoredPings("type" + i);
+        }
+        return count;
+    }
+}
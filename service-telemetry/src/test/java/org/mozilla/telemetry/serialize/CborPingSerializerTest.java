@@ -0,0 +1,215 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.serialize;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.event.TelemetryEvent;
+import org.mozilla.telemetry.measurement.StaticMeasurement;
+import org.mozilla.telemetry.ping.TelemetryCorePingBuilder;
+import org.mozilla.telemetry.ping.TelemetryMobileEventPingBuilder;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.ping.TelemetryPingBuilder;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class CborPingSerializerTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private TelemetryConfiguration configuration;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void testOutputDecodesToSameValuesAsJSON() throws Exception {
+        final JSONObject object = new JSONObject();
+        object.put("key", "value");
+        object.put("number", 42);
+        object.put("nested", new JSONObject().put("list", new JSONArray().put(-1).put(JSONObject.NULL)));
+
+        final TelemetryPingBuilder builder = new TelemetryPingBuilder(configuration, "test", 1) {
+            {
+                addMeasurement(new StaticMeasurement("string", "hello \"world\"\n é€😀"));
+                addMeasurement(new StaticMeasurement("long", 1234567890123L));
+                addMeasurement(new StaticMeasurement("negative", -25));
+                addMeasurement(new StaticMeasurement("double", 0.5));
+                addMeasurement(new StaticMeasurement("precise", 0.1));
+                addMeasurement(new StaticMeasurement("boolean", true));
+                addMeasurement(new StaticMeasurement("null", JSONObject.NULL));
+                addMeasurement(new StaticMeasurement("missing", null));
+                addMeasurement(new StaticMeasurement("object", object));
+                addMeasurement(new StaticMeasurement("array", new JSONArray(Arrays.asList(1, "two", 3.0))));
+                addMeasurement(new StaticMeasurement("raw", new RawJSONValue() {
+                    @Override
+                    public void writeTo(Writer writer) throws IOException {
+                        writer.write("[[1,\"raw \\\"\\u00e9\\ud83d\\ude00\\/\"],{\"x\":null,\"y\":[true,false,-1.5e3,123456789012345678901]},[]]");
+                    }
+                }));
+            }
+        };
+
+        assertSameValues(builder.build());
+    }
+
+    @Test
+    public void testCorePingDecodesToSameValuesAsJSON() throws Exception {
+        assertSameValues(new TelemetryCorePingBuilder(configuration).build());
+    }
+
+    @Test
+    public void testEventsAreTranscoded() throws Exception {
+        configuration.setEventJournalFlushThreshold(0);
+
+        final TelemetryMobileEventPingBuilder builder = new TelemetryMobileEventPingBuilder(configuration);
+        for (int i = 0; i < 500; i++) {
+            builder.getEventsMeasurement().add(TelemetryEvent.create("action", "click", "button", "\"" + i + "\"")
+                    .extra("index", String.valueOf(i)));
+        }
+
+        final TelemetryPing ping = builder.build();
+        final int cborSize = assertSameValues(ping);
+
+        final int jsonSize = new StreamingJSONPingSerializer().serialize(ping).getBytes(UTF_8).length;
+        assertTrue("CBOR: " + cborSize + " bytes, JSON: " + jsonSize + " bytes", cborSize < jsonSize);
+    }
+
+    @Test
+    public void testMalformedRawJSONIsReported() {
+        final TelemetryPingBuilder builder = new TelemetryPingBuilder(configuration, "test", 1) {
+            {
+                addMeasurement(new StaticMeasurement("raw", new RawJSONValue() {
+                    @Override
+                    public void writeTo(Writer writer) throws IOException {
+                        writer.write("[1,{\"x\":}]");
+                    }
+                }));
+            }
+        };
+
+        try {
+            new CborPingSerializer().serialize(builder.build(), new ByteArrayOutputStream());
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Asserts that the CBOR output of the ping decodes to the same values as its JSON and returns the
+     * size of the CBOR output.
+     */
+    private static int assertSameValues(TelemetryPing ping) throws Exception {
+        final byte[] cbor = new CborPingSerializer().serialize(ping);
+        final Object decoded = decode(new DataInputStream(new ByteArrayInputStream(cbor)));
+
+        assertEquals(new JSONObject(new JSONPingSerializer().serialize(ping)).toString(), decoded.toString());
+
+        return cbor.length;
+    }
+
+    /**
+     * Decodes a CBOR value into org.json values.
+     */
+    private static Object decode(DataInputStream input) throws IOException {
+        final int initialByte = input.readUnsignedByte();
+        final int majorType = initialByte >> 5;
+        final int info = initialByte & 0x1F;
+
+        if (majorType == 7) {
+            switch (initialByte) {
+                case 0xF4: return false;
+                case 0xF5: return true;
+                case 0xF6: return JSONObject.NULL;
+                case 0xFA: return (double) input.readFloat();
+                case 0xFB: return input.readDouble();
+                default: throw new IOException("Unexpected simple value: " + initialByte);
+            }
+        }
+
+        final boolean indefinite = info == 31;
+        final long argument = indefinite ? -1 : readArgument(input, info);
+
+        switch (majorType) {
+            case 0:
+                return argument;
+            case 1:
+                return -1 - argument;
+            case 3: {
+                final byte[] bytes = new byte[(int) argument];
+                input.readFully(bytes);
+                return new String(bytes, UTF_8);
+            }
+            case 4: {
+                final JSONArray array = new JSONArray();
+                for (long i = 0; indefinite || i < argument; i++) {
+                    if (indefinite && peekBreak(input)) {
+                        break;
+                    }
+                    array.put(decode(input));
+                }
+                return array;
+            }
+            case 5: {
+                final JSONObject object = new JSONObject();
+                for (long i = 0; indefinite || i < argument; i++) {
+                    if (indefinite && peekBreak(input)) {
+                        break;
+                    }
+                    try {
+                        object.put((String) decode(input), decode(input));
+                    } catch (org.json.JSONException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return object;
+            }
+            default:
+                throw new IOException("Unexpected major type: " + majorType);
+        }
+    }
+
+    private static long readArgument(DataInputStream input, int info) throws IOException {
+        if (info < 24) {
+            return info;
+        }
+
+        switch (info) {
+            case 24: return input.readUnsignedByte();
+            case 25: return input.readUnsignedShort();
+            case 26: return input.readInt() & 0xFFFFFFFFL;
+            case 27: return input.readLong();
+            default: throw new IOException("Unexpected additional info: " + info);
+        }
+    }
+
+    private static boolean peekBreak(DataInputStream input) throws IOException {
+        input.mark(1);
+        if (input.readUnsignedByte() == 0xFF) {
+            return true;
+        }
+        input.reset();
+        return false;
+    }
+}
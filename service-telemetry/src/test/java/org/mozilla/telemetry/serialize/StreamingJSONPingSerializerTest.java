@@ -0,0 +1,91 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.serialize;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.event.TelemetryEvent;
+import org.mozilla.telemetry.measurement.StaticMeasurement;
+import org.mozilla.telemetry.ping.TelemetryMobileEventPingBuilder;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.ping.TelemetryPingBuilder;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class StreamingJSONPingSerializerTest {
+    private TelemetryConfiguration configuration;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void testOutputMatchesJSONPingSerializer() throws Exception {
+        final JSONObject object = new JSONObject();
+        object.put("key", "value");
+        object.put("number", 42);
+
+        final TelemetryPingBuilder builder = new TelemetryPingBuilder(configuration, "test", 1) {
+            {
+                addMeasurement(new StaticMeasurement("string", "hello \"world\"\n"));
+                addMeasurement(new StaticMeasurement("long", 1234567890123L));
+                addMeasurement(new StaticMeasurement("double", 0.5));
+                addMeasurement(new StaticMeasurement("boolean", true));
+                addMeasurement(new StaticMeasurement("null", JSONObject.NULL));
+                addMeasurement(new StaticMeasurement("missing", null));
+                addMeasurement(new StaticMeasurement("object", object));
+                addMeasurement(new StaticMeasurement("array", new JSONArray(Arrays.asList(1, "two", 3.0))));
+                addMeasurement(new StaticMeasurement("raw", new RawJSONValue() {
+                    @Override
+                    public void writeTo(Writer writer) throws IOException {
+                        writer.write("[[1,\"raw\"],{\"x\":null}]");
+                    }
+                }));
+            }
+        };
+
+        final TelemetryPing ping = builder.build();
+
+        assertEquals(
+                new JSONPingSerializer().serialize(ping),
+                new StreamingJSONPingSerializer().serialize(ping));
+    }
+
+    @Test
+    public void testEventsAreStreamedIntoPing() throws Exception {
+        configuration.setEventJournalFlushThreshold(0);
+
+        final TelemetryMobileEventPingBuilder builder = new TelemetryMobileEventPingBuilder(configuration);
+
+        final TelemetryEvent[] events = new TelemetryEvent[500];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = TelemetryEvent.create("action", "click", "button", String.valueOf(i));
+            builder.getEventsMeasurement().add(events[i]);
+        }
+
+        final StringWriter writer = new StringWriter();
+        new StreamingJSONPingSerializer().serialize(builder.build(), writer);
+
+        final JSONArray serializedEvents = new JSONObject(writer.toString()).getJSONArray("events");
+
+        assertEquals(events.length, serializedEvents.length());
+        for (int i = 0; i < events.length; i++) {
+            assertEquals(events[i].toJSON(), serializedEvents.getJSONArray(i).toString());
+        }
+    }
+}
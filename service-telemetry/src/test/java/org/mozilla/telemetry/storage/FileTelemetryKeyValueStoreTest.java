@@ -0,0 +1,180 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.storage;
+
+import android.content.SharedPreferences;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.measurement.SearchesMeasurement;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class FileTelemetryKeyValueStoreTest {
+    private TelemetryConfiguration configuration;
+    private File file;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application);
+        file = new File(configuration.getDataDirectory(), "test.kv");
+    }
+
+    @Test
+    public void testValuesAreRestoredAfterFlush() {
+        final FileTelemetryKeyValueStore store = createStore(60000);
+        store.putLong("long", 42);
+        store.addToLong("counter", 2);
+        store.addToLong("counter", 3);
+        store.putString("string", "value");
+        store.putString("removed", "value");
+        store.remove("removed");
+        store.flush();
+
+        final FileTelemetryKeyValueStore restoredStore = createStore(60000);
+        assertEquals(42, restoredStore.getLong("long", 0));
+        assertEquals(5, restoredStore.getLong("counter", 0));
+        assertEquals("value", restoredStore.getString("string", null));
+        assertFalse(restoredStore.contains("removed"));
+        assertEquals(-1, restoredStore.getLong("unknown", -1));
+    }
+
+    @Test
+    public void testChangesAreWrittenTogetherAfterWriteDelay() throws IOException {
+        final FileTelemetryKeyValueStore store = spy(createStore(1000));
+
+        for (int i = 0; i < 100; i++) {
+            store.addToLong("counter", 1);
+        }
+
+        verify(store, after(100).never()).writeSnapshot(anyMap());
+        verify(store, timeout(5000).times(1)).writeSnapshot(anyMap());
+
+        assertEquals(100, createStore(60000).getLong("counter", 0));
+    }
+
+    @Test
+    public void testFlushWithoutChangesDoesNotWrite() throws IOException {
+        final FileTelemetryKeyValueStore store = spy(createStore(60000));
+        store.getLong("counter", 0);
+        store.flush();
+
+        verify(store, never()).writeSnapshot(anyMap());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testRemoveLongsWithPrefix() {
+        final FileTelemetryKeyValueStore store = createStore(60000);
+        store.addToLong("search-a", 1);
+        store.addToLong("search-b", 2);
+        store.putString("search-c", "not a counter");
+        store.addToLong("other", 3);
+
+        final Map<String, Long> removed = store.removeLongs("search-");
+        assertEquals(2, removed.size());
+        assertEquals(1L, (long) removed.get("search-a"));
+        assertEquals(2L, (long) removed.get("search-b"));
+
+        assertFalse(store.contains("search-a"));
+        assertTrue(store.contains("search-c"));
+        assertEquals(3, store.getLong("other", 0));
+    }
+
+    @Test
+    public void testLegacyPreferencesAreImportedOnce() {
+        final SharedPreferences preferences = configuration.getSharedPreferences();
+        preferences.edit()
+                .putLong("sequence_core", 12)
+                .putString("client_id", "7d2f4a47-6fd5-4a7d-9a1b-0c3b8b3e9e31")
+                .putInt("measurements-search-count-engine-actionbar.google", 4)
+                .putStringSet("measurements-search-count-keyset", new HashSet<String>())
+                .commit();
+
+        final FileTelemetryKeyValueStore store = createStore(60000);
+        assertEquals(12, store.getLong("sequence_core", 0));
+        assertEquals("7d2f4a47-6fd5-4a7d-9a1b-0c3b8b3e9e31", store.getString("client_id", null));
+        assertEquals(4, store.getLong("measurements-search-count-engine-actionbar.google", 0));
+
+        assertTrue(file.exists());
+        assertTrue(preferences.getAll().isEmpty());
+
+        // The imported values are read from the snapshot from now on.
+        preferences.edit().putLong("sequence_core", 99).commit();
+        assertEquals(12, createStore(60000).getLong("sequence_core", 0));
+    }
+
+    @Test
+    public void testSearchCountsOfLegacyPreferencesAreReported() throws Exception {
+        configuration.getSharedPreferences().edit()
+                .putInt("measurements-search-count-engine-actionbar.google", 4)
+                .commit();
+
+        final SearchesMeasurement measurement = new SearchesMeasurement(configuration);
+        measurement.recordSearch(SearchesMeasurement.LOCATION_ACTIONBAR, "google");
+        measurement.recordSearch(SearchesMeasurement.LOCATION_SUGGESTION, "duckduckgo");
+
+        final JSONObject searches = (JSONObject) measurement.flush();
+        assertEquals(2, searches.length());
+        assertEquals(5, searches.getLong("actionbar.google"));
+        assertEquals(1, searches.getLong("suggestion.duckduckgo"));
+
+        assertEquals("{}", measurement.flush().toString());
+    }
+
+    @Test
+    public void testLeftoverTemporaryFileIsIgnored() throws IOException {
+        final FileTelemetryKeyValueStore store = createStore(60000);
+        store.putLong("counter", 7);
+        store.flush();
+
+        // A write that has been interrupted before the rename.
+        final File temporaryFile = new File(file.getPath() + ".tmp");
+        final FileOutputStream stream = new FileOutputStream(temporaryFile);
+        stream.write(new byte[] { 0, 0, 0 });
+        stream.close();
+
+        final FileTelemetryKeyValueStore restoredStore = createStore(60000);
+        assertEquals(7, restoredStore.getLong("counter", 0));
+        assertFalse(temporaryFile.exists());
+    }
+
+    @Test
+    public void testCorruptSnapshotIsDiscarded() throws IOException {
+        final FileOutputStream stream = new FileOutputStream(file);
+        stream.write(new byte[] { 0, 0, 0, 1, 0, 0, 0, 5, 1 });
+        stream.close();
+
+        final FileTelemetryKeyValueStore store = createStore(60000);
+        assertNull(store.getString("client_id", null));
+        assertEquals(0, store.getLong("counter", 0));
+    }
+
+    private FileTelemetryKeyValueStore createStore(long writeDelay) {
+        return new FileTelemetryKeyValueStore(file, writeDelay,
+                new SharedPreferencesTelemetryKeyValueStore(configuration.getSharedPreferences()));
+    }
+}
@@ -0,0 +1,296 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.storage;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.ping.TelemetryPingBuilder;
+import org.mozilla.telemetry.serialize.CborPingSerializer;
+import org.mozilla.telemetry.serialize.JSONPingSerializer;
+import org.mozilla.telemetry.serialize.PingSerializerRegistry;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class FileTelemetryStorageTest {
+    private static final String TEST_PING_TYPE = "test";
+
+    private TelemetryConfiguration configuration;
+    private TelemetryPingBuilder builder;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application);
+        builder = new TelemetryPingBuilder(configuration, TEST_PING_TYPE, 1) {};
+    }
+
+    @Test
+    public void testDirectoryIsOnlyListedOncePerType() {
+        configuration.setMaximumNumberOfPingsPerType(5);
+
+        final FileTelemetryStorage storage = spy(new FileTelemetryStorage(configuration, new JSONPingSerializer()));
+
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final TelemetryPing ping = builder.build();
+            paths.add(ping.getUploadPath());
+            storage.store(ping);
+
+            assertEquals(Math.min(i + 1, 5), storage.countStoredPings(TEST_PING_TYPE));
+        }
+
+        final List<String> processedPaths = new ArrayList<>();
+        assertTrue(storage.process(TEST_PING_TYPE, new TelemetryStorage.TelemetryStorageCallback() {
+            @Override
+            public boolean onTelemetryPingLoaded(StoredPing ping) {
+                processedPaths.add(ping.getUploadPath());
+                return true;
+            }
+        }));
+
+        // The oldest pings have been pruned and the remaining ones are processed oldest first.
+        assertEquals(paths.subList(3, 8), processedPaths);
+        assertEquals(0, storage.countStoredPings(TEST_PING_TYPE));
+        assertEquals(0, storage.listPingFiles(TEST_PING_TYPE).length);
+
+        verify(storage, times(2)).listPingFiles(anyString());
+    }
+
+    @Test
+    public void testIndexIsRebuiltFromDisk() {
+        final FileTelemetryStorage storage = new FileTelemetryStorage(configuration, new JSONPingSerializer());
+        storage.store(builder.build());
+        storage.store(builder.build());
+
+        final FileTelemetryStorage restoredStorage = new FileTelemetryStorage(configuration, new JSONPingSerializer());
+        assertEquals(2, restoredStorage.countStoredPings(TEST_PING_TYPE));
+    }
+
+    @Test
+    public void testPingsAreStoredWithConfiguredContentType() throws Exception {
+        configuration.setPingContentType(TEST_PING_TYPE, CborPingSerializer.CONTENT_TYPE);
+
+        final FileTelemetryStorage storage = new FileTelemetryStorage(configuration,
+                new PingSerializerRegistry(new JSONPingSerializer()).register(new CborPingSerializer()));
+
+        final TelemetryPing ping = builder.build();
+        storage.store(ping);
+
+        final List<StoredPing> storedPings = new ArrayList<>();
+        assertTrue(storage.process(TEST_PING_TYPE, new TelemetryStorage.TelemetryStorageCallback() {
+            @Override
+            public boolean onTelemetryPingLoaded(StoredPing ping) {
+                storedPings.add(ping);
+                return true;
+            }
+        }));
+
+        assertEquals(1, storedPings.size());
+        assertEquals(ping.getUploadPath(), storedPings.get(0).getUploadPath());
+        assertEquals(CborPingSerializer.CONTENT_TYPE, storedPings.get(0).getContentType());
+        assertTrue(Arrays.equals(new CborPingSerializer().serialize(ping), storedPings.get(0).getPayload()));
+    }
+
+    @Test
+    public void testCompressedPingsAreStoredWithConfiguredContentType() throws Exception {
+        configuration.setPingContentType(TEST_PING_TYPE, CborPingSerializer.CONTENT_TYPE);
+        configuration.setPingCompressionEnabled(true);
+
+        final FileTelemetryStorage storage = new FileTelemetryStorage(configuration,
+                new PingSerializerRegistry(new JSONPingSerializer()).register(new CborPingSerializer()));
+        storage.store(builder.build());
+
+        assertTrue(storage.process(TEST_PING_TYPE, new TelemetryStorage.TelemetryStorageCallback() {
+            @Override
+            public boolean onTelemetryPingLoaded(StoredPing ping) {
+                assertTrue(ping.isCompressed());
+                assertEquals(CborPingSerializer.CONTENT_TYPE, ping.getContentType());
+                return true;
+            }
+        }));
+    }
+
+    @Test
+    public void testPingsWithoutConfiguredContentTypeAreStoredAsJSON() {
+        configuration.setPingContentType("other", CborPingSerializer.CONTENT_TYPE);
+
+        final FileTelemetryStorage storage = new FileTelemetryStorage(configuration,
+                new PingSerializerRegistry(new JSONPingSerializer()).register(new CborPingSerializer()));
+
+        final TelemetryPing ping = builder.build();
+        storage.store(ping);
+
+        assertTrue(storage.process(TEST_PING_TYPE, new TelemetryStorage.TelemetryStorageCallback() {
+            @Override
+            public boolean onTelemetryPingLoaded(StoredPing storedPing) {
+                assertEquals(PingSerializerRegistry.CONTENT_TYPE_JSON, storedPing.getContentType());
+                assertEquals(new JSONPingSerializer().serialize(ping), storedPing.getPayloadAsString());
+                return true;
+            }
+        }));
+    }
+
+    @Test
+    public void testOldestPingsAreEvictedWhenTypeExceedsByteLimit() {
+        final FileTelemetryStorage storage = new FileTelemetryStorage(configuration, new JSONPingSerializer());
+        storage.store(builder.build());
+        final long pingBytes = storage.getStoredPingStats(TEST_PING_TYPE).getBytes();
+
+        configuration.setMaximumStorageBytes(TEST_PING_TYPE, pingBytes * 3 + pingBytes / 2);
+
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final TelemetryPing ping = builder.build();
+            paths.add(ping.getUploadPath());
+            storage.store(ping);
+        }
+
+        final StoredPingStats stats = storage.getStoredPingStats(TEST_PING_TYPE);
+        assertEquals(3, stats.getCount());
+        assertEquals(3, stats.getEvictions());
+        assertTrue(stats.getBytes() <= configuration.getMaximumStorageBytes(TEST_PING_TYPE));
+
+        assertEquals(paths.subList(2, 5), processAll(storage, TEST_PING_TYPE));
+
+        // The newest ping is kept even if it is larger than the limit.
+        configuration.setMaximumStorageBytes(TEST_PING_TYPE, 1);
+        storage.store(builder.build());
+        assertEquals(1, storage.countStoredPings(TEST_PING_TYPE));
+    }
+
+    @Test
+    public void testPingsOfLowestPriorityAreEvictedWhenTotalLimitIsExceeded() {
+        configuration.setUploadPriority("important", 3);
+
+        final TelemetryPingBuilder importantBuilder = new TelemetryPingBuilder(configuration, "important", 1) {};
+
+        final FileTelemetryStorage storage = new FileTelemetryStorage(configuration, new JSONPingSerializer());
+        for (int i = 0; i < 3; i++) {
+            storage.store(importantBuilder.build());
+        }
+
+        final long pingBytes = storage.getStoredPingStats("important").getBytes() / 3;
+        configuration.setMaximumTotalStorageBytes(pingBytes * 5 + pingBytes / 2);
+
+        final List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final TelemetryPing ping = builder.build();
+            paths.add(ping.getUploadPath());
+            storage.store(ping);
+        }
+
+        // The important pings are older but the test pings have the lower priority.
+        final Map<String, StoredPingStats> stats = storage.getStorageStats();
+        assertEquals(3, stats.get("important").getCount());
+        assertEquals(0, stats.get("important").getEvictions());
+        assertEquals(2, stats.get(TEST_PING_TYPE).getCount());
+        assertEquals(2, stats.get(TEST_PING_TYPE).getEvictions());
+        assertTrue(storage.getTotalStoredBytes() <= configuration.getMaximumTotalStorageBytes());
+
+        assertEquals(paths.subList(2, 4), processAll(storage, TEST_PING_TYPE));
+
+        // Among types of the same priority the oldest ping is evicted.
+        configuration.setUploadPriority("important", 1);
+        storage.store(builder.build());
+        storage.store(builder.build());
+        storage.store(builder.build());
+
+        assertEquals(2, storage.countStoredPings("important"));
+        assertEquals(3, storage.countStoredPings(TEST_PING_TYPE));
+    }
+
+    @Test
+    public void testStorageStatsAreRebuiltFromDisk() {
+        final TelemetryPingBuilder otherBuilder = new TelemetryPingBuilder(configuration, "other", 1) {};
+
+        final FileTelemetryStorage storage = new FileTelemetryStorage(configuration, new JSONPingSerializer());
+        storage.store(builder.build());
+        storage.store(builder.build());
+        storage.store(otherBuilder.build());
+
+        final long totalBytes = storage.getTotalStoredBytes();
+
+        final FileTelemetryStorage restoredStorage = new FileTelemetryStorage(configuration, new JSONPingSerializer());
+        final Map<String, StoredPingStats> stats = restoredStorage.getStorageStats();
+
+        assertEquals(2, stats.size());
+        assertEquals(2, stats.get(TEST_PING_TYPE).getCount());
+        assertEquals(1, stats.get("other").getCount());
+        assertEquals(totalBytes, stats.get(TEST_PING_TYPE).getBytes() + stats.get("other").getBytes());
+        assertEquals(totalBytes, restoredStorage.getTotalStoredBytes());
+
+        processAll(restoredStorage, TEST_PING_TYPE);
+        assertEquals(stats.get("other").getBytes(), restoredStorage.getTotalStoredBytes());
+    }
+
+    /**
+     * Storing a ping never lists the directory, no matter how many pings are already stored: Not
+     * while the number of stored pings grows towards the maximum and not when every store prunes
+     * the oldest ping. The cost of store() for different numbers of stored pings is measured by
+     * StorageBenchmark.
+     */
+    @Test
+    public void testStoringPingsListsDirectoryOnlyOnce() {
+        final int maximumNumberOfPings = configuration.getMaximumNumberOfPingsPerType();
+
+        final FileTelemetryStorage storage = spy(new FileTelemetryStorage(configuration, new JSONPingSerializer()));
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < maximumNumberOfPings + 5; i++) {
+                storage.store(builder.build());
+            }
+
+            assertEquals(maximumNumberOfPings, storage.countStoredPings(TEST_PING_TYPE));
+            assertEquals(maximumNumberOfPings, processAll(storage, TEST_PING_TYPE).size());
+        }
+
+        verify(storage, times(1)).listPingFiles(anyString());
+    }
+
+    @Test
+    public void testCountingPingsDoesNotListDirectory() {
+        final FileTelemetryStorage storage = spy(new FileTelemetryStorage(configuration, new JSONPingSerializer()));
+
+        storage.store(builder.build());
+        verify(storage, times(1)).listPingFiles(anyString());
+
+        for (int i = 0; i < 10; i++) {
+            storage.countStoredPings(TEST_PING_TYPE);
+        }
+        verify(storage, times(1)).listPingFiles(anyString());
+
+        storage.countStoredPings("other");
+        verify(storage, times(2)).listPingFiles(anyString());
+        verify(storage, never()).listPingFiles("unknown");
+    }
+
+    private static List<String> processAll(FileTelemetryStorage storage, String pingType) {
+        final List<String> paths = new ArrayList<>();
+        assertTrue(storage.process(pingType, new TelemetryStorage.TelemetryStorageCallback() {
+            @Override
+            public boolean onTelemetryPingLoaded(StoredPing ping) {
+                paths.add(ping.getUploadPath());
+                return true;
+            }
+        }));
+        return paths;
+    }
+}
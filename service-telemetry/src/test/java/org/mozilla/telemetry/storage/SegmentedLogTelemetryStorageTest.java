@@ -0,0 +1,263 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.telemetry.storage;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.telemetry.config.TelemetryConfiguration;
+import org.mozilla.telemetry.ping.TelemetryPing;
+import org.mozilla.telemetry.ping.TelemetryPingBuilder;
+import org.mozilla.telemetry.serialize.CborPingSerializer;
+import org.mozilla.telemetry.serialize.JSONPingSerializer;
+import org.mozilla.telemetry.serialize.PingSerializerRegistry;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SegmentedLogTelemetryStorageTest {
+    private static final String TEST_PING_TYPE = "test";
+
+    private TelemetryConfiguration configuration;
+    private TelemetryPingBuilder builder;
+
+    @Before
+    public void setUp() {
+        configuration = new TelemetryConfiguration(RuntimeEnvironment.application);
+        builder = new TelemetryPingBuilder(configuration, TEST_PING_TYPE, 1) {};
+    }
+
+    @Test
+    public void testStoredPingsAreProcessedInOrder() {
+        final SegmentedLogTelemetryStorage storage = createStorage(512);
+
+        final List<String> expectedPaths = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final TelemetryPing ping = builder.build();
+            expectedPaths.add(ping.getUploadPath());
+            storage.store(ping);
+        }
+
+        assertEquals(10, storage.countStoredPings(TEST_PING_TYPE));
+
+        final RecordingCallback callback = new RecordingCallback(Integer.MAX_VALUE);
+        assertTrue(storage.process(TEST_PING_TYPE, callback));
+
+        assertEquals(expectedPaths, callback.paths);
+        assertEquals(0, storage.countStoredPings(TEST_PING_TYPE));
+        assertEquals(0, listSegments().length);
+    }
+
+    @Test
+    public void testProcessingResumesAfterFailureInNewInstance() {
+        final SegmentedLogTelemetryStorage storage = createStorage(512);
+
+        final List<String> expectedPaths = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final TelemetryPing ping = builder.build();
+            expectedPaths.add(ping.getUploadPath());
+            storage.store(ping);
+        }
+
+        final RecordingCallback failingCallback = new RecordingCallback(3);
+        assertFalse(storage.process(TEST_PING_TYPE, failingCallback));
+        assertEquals(7, storage.countStoredPings(TEST_PING_TYPE));
+
+        // A new instance needs to pick up the cursor and continue with the fourth ping.
+        final SegmentedLogTelemetryStorage restoredStorage = createStorage(512);
+        assertEquals(7, restoredStorage.countStoredPings(TEST_PING_TYPE));
+
+        final RecordingCallback callback = new RecordingCallback(Integer.MAX_VALUE);
+        assertTrue(restoredStorage.process(TEST_PING_TYPE, callback));
+        assertEquals(expectedPaths.subList(3, 10), callback.paths);
+    }
+
+    @Test
+    public void testStaleCursorDoesNotSkipPingsOfNewSegment() throws IOException {
+        final SegmentedLogTelemetryStorage storage = createStorage(1024 * 1024);
+        for (int i = 0; i < 3; i++) {
+            storage.store(builder.build());
+        }
+
+        assertFalse(storage.process(TEST_PING_TYPE, new RecordingCallback(2)));
+
+        final File cursor = new File(listSegments()[0].getParentFile(), "cursor");
+        final byte[] cursorBytes = readFile(cursor);
+
+        assertTrue(storage.process(TEST_PING_TYPE, new RecordingCallback(Integer.MAX_VALUE)));
+        assertEquals(0, listSegments().length);
+
+        // Simulate a crash after the last segment was deleted but before the cursor was removed.
+        final FileOutputStream stream = new FileOutputStream(cursor);
+        stream.write(cursorBytes);
+        stream.close();
+
+        final SegmentedLogTelemetryStorage restartedStorage = createStorage(1024 * 1024);
+        assertEquals(0, restartedStorage.countStoredPings(TEST_PING_TYPE));
+
+        final List<String> expectedPaths = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final TelemetryPing ping = builder.build();
+            expectedPaths.add(ping.getUploadPath());
+            restartedStorage.store(ping);
+        }
+
+        // The app gets killed again before uploading. None of the new pings may be skipped.
+        final SegmentedLogTelemetryStorage restoredStorage = createStorage(1024 * 1024);
+        assertEquals(3, restoredStorage.countStoredPings(TEST_PING_TYPE));
+
+        final RecordingCallback callback = new RecordingCallback(Integer.MAX_VALUE);
+        assertTrue(restoredStorage.process(TEST_PING_TYPE, callback));
+        assertEquals(expectedPaths, callback.paths);
+    }
+
+    @Test
+    public void testOldestPingsArePruned() {
+        configuration.setMaximumNumberOfPingsPerType(5);
+
+        final SegmentedLogTelemetryStorage storage = createStorage(512);
+
+        final List<String> expectedPaths = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            final TelemetryPing ping = builder.build();
+            expectedPaths.add(ping.getUploadPath());
+            storage.store(ping);
+        }
+
+        assertEquals(5, storage.countStoredPings(TEST_PING_TYPE));
+
+        final RecordingCallback callback = new RecordingCallback(Integer.MAX_VALUE);
+        assertTrue(storage.process(TEST_PING_TYPE, callback));
+        assertEquals(expectedPaths.subList(7, 12), callback.paths);
+    }
+
+    @Test
+    public void testTornRecordIsTruncated() throws IOException {
+        final SegmentedLogTelemetryStorage storage = createStorage(1024 * 1024);
+        storage.store(builder.build());
+        storage.store(builder.build());
+
+        final File segment = listSegments()[0];
+        final RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        final SegmentedLogTelemetryStorage restoredStorage = createStorage(1024 * 1024);
+        assertEquals(1, restoredStorage.countStoredPings(TEST_PING_TYPE));
+
+        restoredStorage.store(builder.build());
+        assertEquals(2, restoredStorage.countStoredPings(TEST_PING_TYPE));
+
+        final RecordingCallback callback = new RecordingCallback(Integer.MAX_VALUE);
+        assertTrue(restoredStorage.process(TEST_PING_TYPE, callback));
+        assertEquals(2, callback.paths.size());
+    }
+
+    @Test
+    public void testLegacyPingFilesAreImported() throws IOException {
+        final File legacyDirectory = new File(new File(configuration.getDataDirectory(), "storage"), TEST_PING_TYPE);
+        assertTrue(legacyDirectory.mkdirs());
+
+        final TelemetryPing ping = builder.build();
+        final FileOutputStream stream = new FileOutputStream(new File(legacyDirectory, ping.getDocumentId()));
+        stream.write((ping.getUploadPath() + "\n" + new JSONPingSerializer().serialize(ping) + "\n").getBytes("UTF-8"));
+        stream.close();
+
+        final SegmentedLogTelemetryStorage storage = createStorage(512);
+        assertEquals(1, storage.countStoredPings(TEST_PING_TYPE));
+        assertFalse(legacyDirectory.exists());
+
+        final RecordingCallback callback = new RecordingCallback(Integer.MAX_VALUE);
+        assertTrue(storage.process(TEST_PING_TYPE, callback));
+        assertEquals(ping.getUploadPath(), callback.paths.get(0));
+    }
+
+    @Test
+    public void testContentTypeIsStoredWithPing() throws IOException {
+        configuration.setPingContentType(TEST_PING_TYPE, CborPingSerializer.CONTENT_TYPE);
+
+        final PingSerializerRegistry serializers = new PingSerializerRegistry(new JSONPingSerializer())
+                .register(new CborPingSerializer());
+        final SegmentedLogTelemetryStorage storage = new SegmentedLogTelemetryStorage(configuration, serializers, 1024 * 1024);
+
+        final TelemetryPing ping = builder.build();
+        storage.store(ping);
+
+        // A new instance reads the content type back from the log.
+        final List<StoredPing> storedPings = new ArrayList<>();
+        assertTrue(new SegmentedLogTelemetryStorage(configuration, serializers, 1024 * 1024).process(TEST_PING_TYPE,
+                new TelemetryStorage.TelemetryStorageCallback() {
+                    @Override
+                    public boolean onTelemetryPingLoaded(StoredPing storedPing) {
+                        storedPings.add(storedPing);
+                        return true;
+                    }
+                }));
+
+        assertEquals(1, storedPings.size());
+        assertEquals(ping.getUploadPath(), storedPings.get(0).getUploadPath());
+        assertEquals(CborPingSerializer.CONTENT_TYPE, storedPings.get(0).getContentType());
+        assertTrue(Arrays.equals(new CborPingSerializer().serialize(ping), storedPings.get(0).getPayload()));
+    }
+
+    private SegmentedLogTelemetryStorage createStorage(long maximumSegmentSize) {
+        return new SegmentedLogTelemetryStorage(configuration, new JSONPingSerializer(), maximumSegmentSize);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        final byte[] bytes = new byte[(int) file.length()];
+        final RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            input.readFully(bytes);
+        } finally {
+            input.close();
+        }
+        return bytes;
+    }
+
+    private File[] listSegments() {
+        final File directory = new File(new File(configuration.getDataDirectory(), "storage-log"), TEST_PING_TYPE);
+        final File[] files = directory.listFiles();
+        final List<File> segments = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".seg")) {
+                    segments.add(file);
+                }
+            }
+        }
+        return segments.toArray(new File[0]);
+    }
+
+    private static class RecordingCallback implements TelemetryStorage.TelemetryStorageCallback {
+        private final int successfulUploads;
+        private final List<String> paths = new ArrayList<>();
+
+        private RecordingCallback(int successfulUploads) {
+            this.successfulUploads = successfulUploads;
+        }
+
+        @Override
+        public boolean onTelemetryPingLoaded(StoredPing ping) {
+            if (paths.size() >= successfulUploads) {
+                return false;
+            }
+            paths.add(ping.getUploadPath());
+            return true;
+        }
+    }
+}